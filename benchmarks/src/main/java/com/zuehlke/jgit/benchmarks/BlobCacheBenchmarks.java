@@ -0,0 +1,130 @@
+package com.zuehlke.jgit.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zuehlke.jgit.BlobCache;
+
+/**
+ * Serving the content of every file at {@code master} to a channel, once inflated from the pack for every
+ * read and once from a warm {@link BlobCache}. Run with {@code -prof gc} to compare the allocation rate
+ * ({@code gc.alloc.rate.norm}) of both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlobCacheBenchmarks {
+
+    /** Discards everything written to it, like a client that reads fast enough. */
+    private static final WritableByteChannel DISCARD = new WritableByteChannel() {
+        @Override
+        public int write(final ByteBuffer source) {
+            final int written = source.remaining();
+            source.position(source.limit());
+            return written;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Param("1000")
+    public int files;
+
+    @Param("100")
+    public int commits;
+
+    @Param("3")
+    public int depth;
+
+    private File root;
+    private Repository repository;
+    private ObjectReader reader;
+    private final List<ObjectId> blobs = new ArrayList<ObjectId>();
+    private BlobCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GitAPIException {
+        root = Files.createTempDirectory("blob-cache-benchmark").toFile();
+        repository = SyntheticRepository.create(new File(root, "source.git"), files, commits, depth);
+        reader = repository.newObjectReader();
+        final RevWalk walk = new RevWalk(reader);
+        final TreeWalk treeWalk = new TreeWalk(reader);
+        try {
+            treeWalk.addTree(walk.parseCommit(repository.resolve(Constants.MASTER)).getTree());
+            treeWalk.setRecursive(true);
+            while (treeWalk.next()) {
+                blobs.add(treeWalk.getObjectId(0));
+            }
+        } finally {
+            treeWalk.release();
+            walk.release();
+        }
+        cache = new BlobCache(64L << 20, 1 << 20).setAdmissionThreshold(1);
+        for (final ObjectId blob : blobs) {
+            cache.transferTo(reader, blob, DISCARD);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        reader.release();
+        repository.close();
+        FileUtils.delete(root, FileUtils.RECURSIVE);
+    }
+
+    @Benchmark
+    public long uncached() throws IOException {
+        long bytes = 0;
+        for (final ObjectId blob : blobs) {
+            bytes += DISCARD.write(ByteBuffer.wrap(reader.open(blob).getCachedBytes()));
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public long cached() throws IOException {
+        long bytes = 0;
+        for (final ObjectId blob : blobs) {
+            bytes += cache.transferTo(reader, blob, DISCARD);
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,121 @@
+package com.zuehlke.jgit.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.util.FileUtils;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zuehlke.jgit.BulkAdd;
+import com.zuehlke.jgit.BulkAddResult;
+
+/**
+ * Staging {@code files} files of {@code megabytes} MB each, once with {@code AddCommand} and once with
+ * {@link BulkAdd}. Before every invocation the first bytes of every file are changed, so each add hashes
+ * and writes new blobs; the time this takes is not measured. The {@code megabytesPerSecond} counter reports
+ * the throughput of both.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class BulkAddBenchmarks {
+
+    /** Megabytes added, reported by JMH as a rate per second. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+
+        public double megabytesPerSecond;
+    }
+
+    @Param("64")
+    public int files;
+
+    @Param("4")
+    public int megabytes;
+
+    @Param("4")
+    public int threads;
+
+    private File root;
+    private Git git;
+    private final List<String> paths = new ArrayList<String>();
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GitAPIException {
+        root = Files.createTempDirectory("bulk-add-benchmark").toFile();
+        git = Git.init().setDirectory(root).call();
+        final byte[] content = new byte[megabytes * 1000 * 1000];
+        final Random random = new Random(42);
+        for (int i = 0; i < files; i++) {
+            final String path = "data/dir" + i % 8 + "/file" + i + ".bin";
+            random.nextBytes(content);
+            final File file = new File(root, path);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), content);
+            paths.add(path);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void touchFiles() throws IOException {
+        counter++;
+        for (final String path : paths) {
+            final RandomAccessFile file = new RandomAccessFile(new File(root, path), "rw");
+            try {
+                file.writeLong(counter);
+            } finally {
+                file.close();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        git.getRepository().close();
+        FileUtils.delete(root, FileUtils.RECURSIVE);
+    }
+
+    @Benchmark
+    public DirCache addCommand(final Throughput throughput) throws GitAPIException {
+        final DirCache index = git.add()
+                                  .addFilepattern("data")
+                                  .call();
+        throughput.megabytesPerSecond += (double) files * megabytes;
+        return index;
+    }
+
+    @Benchmark
+    public BulkAddResult bulkAdd(final Throughput throughput) throws IOException {
+        final BulkAddResult result = new BulkAdd(git.getRepository()).setThreads(threads)
+                                                                     .add(paths);
+        throughput.megabytesPerSecond += (double) files * megabytes;
+        return result;
+    }
+}
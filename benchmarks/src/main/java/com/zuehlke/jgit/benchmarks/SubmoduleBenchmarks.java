@@ -0,0 +1,150 @@
+package com.zuehlke.jgit.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.submodule.SubmoduleStatus;
+import org.eclipse.jgit.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zuehlke.jgit.SubmoduleEngine;
+import com.zuehlke.jgit.SubmoduleResult;
+
+/**
+ * Compares the serial {@code submoduleStatus}, {@code submoduleInit} and {@code submoduleUpdate}
+ * commands with the {@link SubmoduleEngine} on a generated superproject.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SubmoduleBenchmarks {
+
+    @Param("20")
+    public int submodules;
+
+    @Param("10")
+    public int files;
+
+    @Param("5")
+    public int commits;
+
+    @Param("1")
+    public int depth;
+
+    @Param("4")
+    public int threads;
+
+    private File root;
+    private File superproject;
+    private Repository initialized;
+    private int counter;
+
+    /**
+     * A fresh clone of the superproject with uninitialized submodules for every invocation.
+     */
+    @State(Scope.Thread)
+    public static class FreshClone {
+
+        Repository repository;
+
+        @Setup(Level.Invocation)
+        public void setUp(final SubmoduleBenchmarks benchmark) throws GitAPIException {
+            repository = benchmark.cloneSuperproject("clones/clone" + benchmark.counter++);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            repository.close();
+            FileUtils.delete(repository.getWorkTree(), FileUtils.RECURSIVE);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GitAPIException {
+        root = Files.createTempDirectory("submodule-benchmark").toFile();
+        superproject = generateSuperproject();
+        initialized = cloneSuperproject("initialized");
+        new SubmoduleEngine().setThreads(threads)
+                             .update(initialized);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        initialized.close();
+        FileUtils.delete(root, FileUtils.RECURSIVE);
+    }
+
+    private File generateSuperproject() throws IOException, GitAPIException {
+        final Git git = Git.init()
+                           .setDirectory(new File(root, "superproject"))
+                           .call();
+        git.commit().setMessage("initial commit").call();
+        for (int i = 0; i < submodules; i++) {
+            final Repository module = SyntheticRepository.create(new File(root, "module" + i + ".git"), files,
+                    commits, depth);
+            module.close();
+            git.submoduleAdd()
+               .setURI(module.getDirectory().getAbsolutePath())
+               .setPath("modules/module" + i)
+               .call()
+               .close();
+        }
+        git.commit().setMessage("added submodules").call();
+        git.getRepository().close();
+        return git.getRepository().getDirectory();
+    }
+
+    Repository cloneSuperproject(final String directory) throws GitAPIException {
+        return Git.cloneRepository()
+                  .setURI(superproject.getAbsolutePath())
+                  .setDirectory(new File(root, directory))
+                  .call()
+                  .getRepository();
+    }
+
+    @Benchmark
+    public Map<String, SubmoduleStatus> statusSerial() throws GitAPIException {
+        return Git.wrap(initialized).submoduleStatus().call();
+    }
+
+    @Benchmark
+    public Map<String, SubmoduleResult> statusEngine() throws IOException {
+        return new SubmoduleEngine().setThreads(threads)
+                                    .status(initialized);
+    }
+
+    @Benchmark
+    public Collection<String> updateSerial(final FreshClone clone) throws GitAPIException {
+        final Git git = Git.wrap(clone.repository);
+        git.submoduleInit().call();
+        return git.submoduleUpdate().call();
+    }
+
+    @Benchmark
+    public Map<String, SubmoduleResult> updateEngine(final FreshClone clone) throws IOException {
+        return new SubmoduleEngine().setThreads(threads)
+                                    .update(clone.repository);
+    }
+}
@@ -0,0 +1,119 @@
+package com.zuehlke.jgit.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEditor.PathEdit;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+/**
+ * Generates bare repositories of a given size for the benchmarks.
+ * <p>
+ * The files are spread over a directory tree with {@code depth} levels of {@link #FANOUT} directories
+ * each. The first commit adds all files, every further commit changes the next share of them, so
+ * {@code refs/heads/master} ends up with {@code commits} commits. Objects are written with an
+ * {@link ObjectInserter} instead of a working tree and packed afterwards, which keeps generating large
+ * repositories fast and makes clones read from a pack like they would on a server.
+ */
+public final class SyntheticRepository {
+
+    public static final int FANOUT = 4;
+
+    private static final long EPOCH = 1400000000000L;
+
+    private SyntheticRepository() {
+    }
+
+    /**
+     * @return path of file number {@code file} in a repository generated with {@code depth}
+     */
+    public static String pathOf(final int file, final int depth) {
+        final StringBuilder path = new StringBuilder();
+        int rest = file;
+        for (int level = 0; level < depth; level++) {
+            path.append("dir").append(rest % FANOUT).append('/');
+            rest /= FANOUT;
+        }
+        return path.append("file").append(file).append(".txt").toString();
+    }
+
+    /**
+     * Creates a bare repository in {@code directory}.
+     *
+     * @return the opened repository; the caller closes it
+     */
+    public static Repository create(final File directory, final int files, final int commits, final int depth)
+            throws IOException, GitAPIException {
+        if (files < 1 || commits < 1 || depth < 0) {
+            throw new IllegalArgumentException("need at least one file and one commit");
+        }
+        final Repository repository = new FileRepositoryBuilder().setGitDir(directory)
+                                                                 .setBare()
+                                                                 .build();
+        repository.create(true);
+
+        final DirCache tree = DirCache.newInCore();
+        final ObjectInserter inserter = repository.newObjectInserter();
+        ObjectId head = null;
+        try {
+            final int perCommit = commits == 1 ? files : Math.max(1, files / (commits - 1));
+            for (int commit = 0; commit < commits; commit++) {
+                final DirCacheEditor editor = tree.editor();
+                final int first = commit == 0 ? 0 : (commit - 1) * perCommit;
+                final int count = commit == 0 ? files : perCommit;
+                for (int i = 0; i < count; i++) {
+                    final int file = (first + i) % files;
+                    final ObjectId blob = inserter.insert(Constants.OBJ_BLOB,
+                            ("file " + file + " revision " + commit + "\n").getBytes(StandardCharsets.UTF_8));
+                    editor.add(new PathEdit(pathOf(file, depth)) {
+                        @Override
+                        public void apply(final DirCacheEntry ent) {
+                            ent.setFileMode(FileMode.REGULAR_FILE);
+                            ent.setObjectId(blob);
+                        }
+                    });
+                }
+                editor.finish();
+
+                final PersonIdent ident = new PersonIdent("Benchmark", "benchmark@example.com",
+                        new Date(EPOCH + commit * 1000L), TimeZone.getTimeZone("UTC"));
+                final CommitBuilder builder = new CommitBuilder();
+                builder.setAuthor(ident);
+                builder.setCommitter(ident);
+                builder.setTreeId(tree.writeTree(inserter));
+                if (head != null) {
+                    builder.setParentId(head);
+                }
+                builder.setMessage("commit " + commit + "\n");
+                head = inserter.insert(builder);
+            }
+            inserter.flush();
+        } finally {
+            inserter.release();
+        }
+
+        final RefUpdate update = repository.updateRef(Constants.R_HEADS + Constants.MASTER);
+        update.setNewObjectId(head);
+        if (update.update() != RefUpdate.Result.NEW) {
+            throw new IOException("could not create master: " + update.getResult());
+        }
+        Git.wrap(repository).gc().call();
+        return repository;
+    }
+}
@@ -0,0 +1,121 @@
+package com.zuehlke.jgit.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.zuehlke.jgit.TreeEntryVisitor;
+import com.zuehlke.jgit.TreeLister;
+
+/**
+ * History and tree listing on a bare repository: a full {@link RevWalk} of {@code master}, a recursive
+ * {@link TreeWalk} of its tree and the same listing with the {@link TreeLister}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WalkBenchmarks {
+
+    @Param("1000")
+    public int files;
+
+    @Param("100")
+    public int commits;
+
+    @Param("3")
+    public int depth;
+
+    private File root;
+    private Repository repository;
+    private ObjectId head;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GitAPIException {
+        root = Files.createTempDirectory("walk-benchmark").toFile();
+        repository = SyntheticRepository.create(new File(root, "source.git"), files, commits, depth);
+        head = repository.resolve(Constants.MASTER);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        repository.close();
+        FileUtils.delete(root, FileUtils.RECURSIVE);
+    }
+
+    @Benchmark
+    public int revWalk() throws IOException {
+        final RevWalk walk = new RevWalk(repository);
+        try {
+            walk.markStart(walk.parseCommit(head));
+            int count = 0;
+            for (final RevCommit commit : walk) {
+                count += commit.getParentCount();
+            }
+            return count;
+        } finally {
+            walk.release();
+        }
+    }
+
+    @Benchmark
+    public int treeWalk() throws IOException {
+        final RevWalk walk = new RevWalk(repository);
+        final TreeWalk treeWalk = new TreeWalk(repository);
+        try {
+            treeWalk.addTree(walk.parseCommit(head).getTree());
+            treeWalk.setRecursive(true);
+            int length = 0;
+            while (treeWalk.next()) {
+                length += treeWalk.getPathString().length();
+            }
+            return length;
+        } finally {
+            treeWalk.release();
+            walk.release();
+        }
+    }
+
+    @Benchmark
+    public int treeLister() throws IOException {
+        final int[] length = new int[1];
+        final TreeLister lister = new TreeLister(repository);
+        try {
+            lister.list(head, "", new TreeEntryVisitor() {
+                @Override
+                public void visit(final byte[] path, final int pathLength, final int mode, final AnyObjectId id) {
+                    length[0] += pathLength;
+                }
+            });
+        } finally {
+            lister.close();
+        }
+        return length[0];
+    }
+}
@@ -0,0 +1,127 @@
+package com.zuehlke.jgit.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The porcelain commands used by {@code JgitTest}: clone from a local bare repository, add, commit,
+ * status and branch create.
+ * <p>
+ * Every benchmark runs in its own fork on a fresh clone, so the changes made by {@link #add()} or
+ * {@link #commit()} never show up in the numbers of another benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WorkflowBenchmarks {
+
+    @Param("1000")
+    public int files;
+
+    @Param("10")
+    public int commits;
+
+    @Param("3")
+    public int depth;
+
+    private File root;
+    private Repository source;
+    private Git git;
+    private int counter;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, GitAPIException {
+        root = Files.createTempDirectory("workflow-benchmark").toFile();
+        source = SyntheticRepository.create(new File(root, "source.git"), files, commits, depth);
+        git = Git.cloneRepository()
+                 .setURI(source.getDirectory().getAbsolutePath())
+                 .setDirectory(new File(root, "work"))
+                 .call();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteClones() throws IOException {
+        FileUtils.delete(new File(root, "clones"), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        git.getRepository().close();
+        source.close();
+        FileUtils.delete(root, FileUtils.RECURSIVE);
+    }
+
+    private String modifyFile() throws IOException {
+        final String path = SyntheticRepository.pathOf(counter % files, depth);
+        Files.write(new File(git.getRepository().getWorkTree(), path).toPath(),
+                ("modified " + counter++ + "\n").getBytes(StandardCharsets.UTF_8));
+        return path;
+    }
+
+    @Benchmark
+    public Repository cloneFromBareRepository() throws GitAPIException {
+        final Git clone = Git.cloneRepository()
+                             .setURI(source.getDirectory().getAbsolutePath())
+                             .setDirectory(new File(root, "clones/clone" + counter++))
+                             .call();
+        clone.getRepository().close();
+        return clone.getRepository();
+    }
+
+    @Benchmark
+    public Status status() throws GitAPIException {
+        return git.status().call();
+    }
+
+    @Benchmark
+    public DirCache add() throws IOException, GitAPIException {
+        return git.add()
+                  .addFilepattern(modifyFile())
+                  .call();
+    }
+
+    @Benchmark
+    public RevCommit commit() throws IOException, GitAPIException {
+        git.add()
+           .addFilepattern(modifyFile())
+           .call();
+        return git.commit()
+                  .setMessage("benchmark commit")
+                  .call();
+    }
+
+    @Benchmark
+    public Ref createBranch() throws GitAPIException {
+        return git.branchCreate()
+                  .setName("benchmark" + counter++)
+                  .call();
+    }
+}
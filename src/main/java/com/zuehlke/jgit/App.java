@@ -1,13 +1,44 @@
 package com.zuehlke.jgit;
 
+import java.io.File;
+import java.util.List;
+
 /**
- * Hello world!
- *
+ * Mirrors all repositories listed in a manifest file.
+ * <p>
+ * Usage: {@code App <manifest> [threads] [maxPerHost]}, see {@link MirrorManifest} for the file format.
  */
-public class App 
+public class App
 {
-    public static void main( String[] args )
+    public static void main( String[] args ) throws Exception
     {
-        System.out.println( "Hello World!" );
+        if ( args.length < 1 || args.length > 3 )
+        {
+            System.err.println( "usage: App <manifest> [threads] [maxPerHost]" );
+            System.exit( 2 );
+        }
+
+        final MirrorEngine engine = new MirrorEngine();
+        if ( args.length > 1 )
+        {
+            engine.setThreads( Integer.parseInt( args[1] ) );
+        }
+        if ( args.length > 2 )
+        {
+            engine.setMaxPerHost( Integer.parseInt( args[2] ) );
+        }
+
+        final List<MirrorResult> results = engine.call( MirrorManifest.load( new File( args[0] ) ) );
+        int failed = 0;
+        for ( final MirrorResult result : results )
+        {
+            System.out.println( result );
+            if ( !result.isSuccessful() )
+            {
+                failed++;
+            }
+        }
+        System.out.println( results.size() + " repositories, " + failed + " failed" );
+        System.exit( failed == 0 ? 0 : 1 );
     }
 }
@@ -0,0 +1,371 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.BiConsumer;
+
+import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.GitCommand;
+import org.eclipse.jgit.api.PullCommand;
+import org.eclipse.jgit.api.PullResult;
+import org.eclipse.jgit.api.PushCommand;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.StatusCommand;
+import org.eclipse.jgit.api.SubmoduleUpdateCommand;
+import org.eclipse.jgit.api.TransportCommand;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.transport.PushResult;
+
+/**
+ * Runs blocking Git commands in the background and returns {@link CompletableFuture}s of their results.
+ * <p>
+ * Commands run on virtual threads if the JDK has them (Java 21 and later), and otherwise on a pool of at
+ * most {@code maxThreads} daemon threads. Commands of the same repository, keyed by its git directory, run
+ * one after the other in the order they were submitted; commands of different repositories run in
+ * parallel.
+ * <p>
+ * A future can be cancelled, or fail with a {@link TimeoutException} after the {@link #setTimeoutMillis(long)
+ * timeout}, counted from submission. A command that has not started yet is then skipped. A running command is
+ * interrupted and its progress monitor reports cancellation, which stops fetches and pushes between
+ * progress updates. The next command of the repository only starts once the cancelled one has returned,
+ * so it never runs into the index or ref locks JGit still holds until then. A clone that completes anyway
+ * is closed again.
+ */
+public class AsyncGit implements AutoCloseable {
+
+    /**
+     * A submitted command, and the thread running it while it runs.
+     */
+    private static class Task<T> implements Runnable {
+
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        final GitCommand<T> command;
+        /** Guarded by this. */
+        private Thread thread;
+
+        Task(final GitCommand<T> command) {
+            this.command = command;
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                if (future.isDone()) {
+                    return;
+                }
+                thread = Thread.currentThread();
+            }
+            try {
+                final T result = command.call();
+                if (!future.complete(result)) {
+                    discard(result);
+                }
+            } catch (final Exception e) {
+                future.completeExceptionally(e);
+            } finally {
+                synchronized (this) {
+                    thread = null;
+                    // an interrupt that arrived after the command returned must not hit the next task
+                    Thread.interrupted();
+                }
+            }
+        }
+
+        /**
+         * Releases the result of a command that returned after its future was cancelled or timed out.
+         */
+        void discard(final T result) {
+        }
+
+        synchronized void interrupt() {
+            if (thread != null) {
+                thread.interrupt();
+            }
+        }
+    }
+
+    /**
+     * Reports cancellation to transport commands once the future of their task is done.
+     */
+    private static class CancellingMonitor implements ProgressMonitor {
+
+        private final CompletableFuture<?> future;
+
+        CancellingMonitor(final CompletableFuture<?> future) {
+            this.future = future;
+        }
+
+        @Override
+        public void start(final int totalTasks) {
+        }
+
+        @Override
+        public void beginTask(final String title, final int totalWork) {
+        }
+
+        @Override
+        public void update(final int completed) {
+        }
+
+        @Override
+        public void endTask() {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return future.isDone();
+        }
+    }
+
+    /**
+     * Queue of the tasks of one repository; all fields are guarded by {@link AsyncGit#queues}.
+     */
+    private class Queue {
+
+        final File gitDir;
+        final ArrayDeque<Task<?>> tasks = new ArrayDeque<Task<?>>();
+        boolean running;
+
+        Queue(final File gitDir) {
+            this.gitDir = gitDir;
+        }
+
+        /** Starts the next task, or forgets the queue if it is empty. */
+        void runNext() {
+            final Task<?> task = tasks.poll();
+            if (task == null) {
+                running = false;
+                queues.remove(gitDir);
+                if (closed && queues.isEmpty()) {
+                    shutdown();
+                }
+                return;
+            }
+            running = true;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        synchronized (queues) {
+                            runNext();
+                        }
+                    }
+                }
+            });
+        }
+    }
+
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final ScheduledExecutorService timer;
+    private final Map<File, Queue> queues = new HashMap<File, Queue>();
+    private volatile long timeoutMillis;
+    /** Guarded by {@link #queues}. */
+    private boolean closed;
+
+    /**
+     * @param maxThreads number of platform threads commands run on if the JDK has no virtual threads
+     */
+    public AsyncGit(final int maxThreads) {
+        if (maxThreads < 1) {
+            throw new IllegalArgumentException("maxThreads must be positive");
+        }
+        final ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        if (virtual != null) {
+            executor = virtual;
+            virtualThreads = true;
+        } else {
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(maxThreads, maxThreads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), daemonThreads("async-git"));
+            pool.allowCoreThreadTimeOut(true);
+            executor = pool;
+            virtualThreads = false;
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(daemonThreads("async-git-timeout"));
+    }
+
+    /**
+     * @param timeoutMillis time after which a command's future fails with a {@link TimeoutException}, 0 for
+     *        none; defaults to 0. Clone, pull, push and submodule update also get it, rounded up to seconds,
+     *        as {@link TransportCommand#setTimeout(int) transport timeout}, so a stalled connection fails
+     *        instead of blocking the repository's queue.
+     */
+    public AsyncGit setTimeoutMillis(final long timeoutMillis) {
+        this.timeoutMillis = timeoutMillis;
+        return this;
+    }
+
+    /**
+     * @return whether commands run on virtual threads
+     */
+    public boolean isVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Clones into {@code directory} with a working tree; later commands of the clone queue behind it.
+     */
+    public CompletableFuture<Git> cloneRepository(final CloneCommand command, final File directory) {
+        return cloneRepository(command, directory, false);
+    }
+
+    /**
+     * Clones into {@code directory}, bare or with a working tree; later commands of the clone queue behind
+     * it. The command is {@link CloneCommand#setBare(boolean) set} to {@code bare}, as JGit 3.3.1 cannot
+     * tell whether a command is bare and so where its git directory will be.
+     */
+    public CompletableFuture<Git> cloneRepository(final CloneCommand command, final File directory,
+            final boolean bare) {
+        command.setDirectory(directory);
+        command.setBare(bare);
+        final Task<Git> task = new Task<Git>(command) {
+            @Override
+            void discard(final Git git) {
+                // nobody gets the clone any more
+                git.close();
+            }
+        };
+        command.setProgressMonitor(new CancellingMonitor(task.future));
+        setTimeout(command);
+        // the git directory CloneCommand creates
+        return submit(bare ? directory : new File(directory, Constants.DOT_GIT), task);
+    }
+
+    public CompletableFuture<PullResult> pull(final PullCommand command) {
+        final Task<PullResult> task = new Task<PullResult>(command);
+        command.setProgressMonitor(new CancellingMonitor(task.future));
+        setTimeout(command);
+        return submit(command.getRepository().getDirectory(), task);
+    }
+
+    public CompletableFuture<Iterable<PushResult>> push(final PushCommand command) {
+        final Task<Iterable<PushResult>> task = new Task<Iterable<PushResult>>(command);
+        command.setProgressMonitor(new CancellingMonitor(task.future));
+        setTimeout(command);
+        return submit(command.getRepository().getDirectory(), task);
+    }
+
+    public CompletableFuture<Status> status(final StatusCommand command) {
+        return call(command);
+    }
+
+    public CompletableFuture<Collection<String>> submoduleUpdate(final SubmoduleUpdateCommand command) {
+        final Task<Collection<String>> task = new Task<Collection<String>>(command);
+        command.setProgressMonitor(new CancellingMonitor(task.future));
+        setTimeout(command);
+        return submit(command.getRepository().getDirectory(), task);
+    }
+
+    /**
+     * Runs any other command of a repository; it is only interrupted on cancellation, so it should not be
+     * a fetch or push with a progress monitor of its own.
+     */
+    public <T> CompletableFuture<T> call(final GitCommand<T> command) {
+        return submit(command.getRepository().getDirectory(), new Task<T>(command));
+    }
+
+    /**
+     * Stops accepting commands; commands already submitted still run, and the threads end after the last.
+     */
+    @Override
+    public void close() {
+        synchronized (queues) {
+            closed = true;
+            if (queues.isEmpty()) {
+                shutdown();
+            }
+        }
+    }
+
+    private void shutdown() {
+        executor.shutdown();
+        timer.shutdownNow();
+    }
+
+    private void setTimeout(final TransportCommand<?, ?> command) {
+        final long timeout = timeoutMillis;
+        if (timeout > 0) {
+            command.setTimeout((int) Math.min(Integer.MAX_VALUE, (timeout + 999) / 1000));
+        }
+    }
+
+    private <T> CompletableFuture<T> submit(final File gitDir, final Task<T> task) {
+        final File key = gitDir.getAbsoluteFile();
+        synchronized (queues) {
+            if (closed) {
+                throw new IllegalStateException("async git is closed");
+            }
+            final long timeout = timeoutMillis;
+            final ScheduledFuture<?> expiry = timeout <= 0 ? null : timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    task.future.completeExceptionally(new TimeoutException(task.command.getClass().getSimpleName()
+                            + " of " + key + " timed out after " + timeout + " ms"));
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+            task.future.whenComplete(new BiConsumer<T, Throwable>() {
+                @Override
+                public void accept(final T result, final Throwable failure) {
+                    if (expiry != null) {
+                        // otherwise every finished command stays in the timer's queue until its timeout
+                        expiry.cancel(false);
+                    }
+                    if (failure instanceof CancellationException || failure instanceof TimeoutException) {
+                        task.interrupt();
+                    }
+                }
+            });
+            Queue queue = queues.get(key);
+            if (queue == null) {
+                queue = new Queue(key);
+                queues.put(key, queue);
+            }
+            queue.tasks.add(task);
+            if (!queue.running) {
+                queue.runNext();
+            }
+        }
+        return task.future;
+    }
+
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * @return {@code Executors.newVirtualThreadPerTaskExecutor()}, or {@code null} before Java 21
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (final ReflectiveOperationException | UnsupportedOperationException e) {
+            // no virtual threads, or only as a preview feature
+            return null;
+        }
+    }
+}
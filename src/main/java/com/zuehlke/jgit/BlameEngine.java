@@ -0,0 +1,364 @@
+package com.zuehlke.jgit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.diff.DiffAlgorithm;
+import org.eclipse.jgit.diff.Edit;
+import org.eclipse.jgit.diff.EditList;
+import org.eclipse.jgit.diff.HistogramDiff;
+import org.eclipse.jgit.diff.RawText;
+import org.eclipse.jgit.diff.RawTextComparator;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Blames many files of a repository in a single pass over their history.
+ * <p>
+ * {@link #blame(AnyObjectId, Collection)} walks the first-parent history once, oldest commit first, and diffs
+ * each commit's tree against its parent with one tree walk filtered to all requested paths. Every file that
+ * changed carries its line owners forward through a line diff; diffs are cached by the pair of blob ids, so
+ * files with the same content changes share them. Like {@code git blame --first-parent}, lines that come in
+ * with a merge are attributed to the merge commit, and renames are not followed.
+ * <p>
+ * Results are cached by path and blob id, so files that did not change since an earlier call cost nothing.
+ * The engine also keeps the line owners of every file as of the last commit it blamed: if the next commit
+ * descends from it, only the new commits are walked for those files.
+ */
+public class BlameEngine {
+
+    private static final DiffAlgorithm DIFF = new HistogramDiff();
+
+    /** A line diff between two blobs, together with the line count of the new blob. */
+    private static class Diff {
+
+        final EditList edits;
+        final int lines;
+
+        Diff(final EditList edits, final int lines) {
+            this.edits = edits;
+            this.lines = lines;
+        }
+    }
+
+    /** Line owners and history of a file as of some commit. */
+    private static class Tracked {
+
+        ObjectId blob = ObjectId.zeroId();
+        ObjectId[] commits = new ObjectId[0];
+        PersonIdent[] authors = new PersonIdent[0];
+        /** Oldest first. */
+        final List<ObjectId> history;
+
+        Tracked() {
+            history = new ArrayList<ObjectId>();
+        }
+
+        Tracked(final Tracked other) {
+            blob = other.blob;
+            commits = other.commits;
+            authors = other.authors;
+            history = new ArrayList<ObjectId>(other.history);
+        }
+
+        FileBlame toBlame(final String path) {
+            final List<ObjectId> newestFirst = new ArrayList<ObjectId>(history);
+            Collections.reverse(newestFirst);
+            return new FileBlame(path, blob, commits, authors, newestFirst);
+        }
+    }
+
+    private final Repository repository;
+    private int cacheSize = 10000;
+
+    private final Map<String, FileBlame> blames = new LinkedHashMap<String, FileBlame>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, FileBlame> eldest) {
+            return size() > cacheSize;
+        }
+    };
+    private final Map<String, Diff> diffs = new LinkedHashMap<String, Diff>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, Diff> eldest) {
+            return size() > cacheSize;
+        }
+    };
+
+    /** Commit the tracked files were last brought up to, {@code null} before the first walk. */
+    private ObjectId tip;
+    private final Map<String, Tracked> tracked = new HashMap<String, Tracked>();
+
+    private final AtomicLong commitsWalked = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong diffsComputed = new AtomicLong();
+    private final AtomicLong diffsShared = new AtomicLong();
+
+    public BlameEngine(final Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * @param cacheSize maximum number of blame results and of line diffs kept; defaults to 10000 each
+     */
+    public BlameEngine setCacheSize(final int cacheSize) {
+        if (cacheSize < 1) {
+            throw new IllegalArgumentException("cacheSize must be positive");
+        }
+        this.cacheSize = cacheSize;
+        return this;
+    }
+
+    /**
+     * Blames {@code paths} as of {@code commit}.
+     *
+     * @return blame of every path that is a file in {@code commit}, by path; other paths are left out
+     */
+    public synchronized Map<String, FileBlame> blame(final AnyObjectId commit, final Collection<String> paths)
+            throws IOException {
+        final Map<String, FileBlame> result = new TreeMap<String, FileBlame>();
+        if (paths.isEmpty()) {
+            return result;
+        }
+        final ObjectReader reader = repository.newObjectReader();
+        final RevWalk walk = new RevWalk(reader);
+        try {
+            final RevCommit head = walk.parseCommit(commit);
+            final Set<String> pending = new TreeSet<String>();
+            for (final Map.Entry<String, ObjectId> blob : blobs(reader, head.getTree(), paths).entrySet()) {
+                final FileBlame cached = blames.get(key(blob.getKey(), blob.getValue()));
+                if (cached != null) {
+                    cacheHits.incrementAndGet();
+                    result.put(blob.getKey(), cached);
+                } else {
+                    pending.add(blob.getKey());
+                }
+            }
+            if (!pending.isEmpty()) {
+                for (final Map.Entry<String, Tracked> state : walk(reader, walk, head, pending).entrySet()) {
+                    final FileBlame blame = state.getValue().toBlame(state.getKey());
+                    if (!blame.getBlobId().equals(ObjectId.zeroId())) {
+                        blames.put(key(state.getKey(), blame.getBlobId()), blame);
+                    }
+                    if (pending.contains(state.getKey())) {
+                        result.put(state.getKey(), blame);
+                    }
+                }
+            }
+            return result;
+        } finally {
+            walk.release();
+            reader.release();
+        }
+    }
+
+    /**
+     * @return number of commits whose trees were diffed
+     */
+    public long getCommitsWalked() {
+        return commitsWalked.get();
+    }
+
+    /**
+     * @return number of files answered from the (path, blob id) cache
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * @return number of line diffs computed
+     */
+    public long getDiffsComputed() {
+        return diffsComputed.get();
+    }
+
+    /**
+     * @return number of line diffs taken from the cache instead of being computed again
+     */
+    public long getDiffsShared() {
+        return diffsShared.get();
+    }
+
+    private static String key(final String path, final AnyObjectId blob) {
+        return blob.name() + path;
+    }
+
+    private static Map<String, ObjectId> blobs(final ObjectReader reader, final RevTree tree,
+            final Collection<String> paths) throws IOException {
+        final Map<String, ObjectId> blobs = new HashMap<String, ObjectId>();
+        final TreeWalk treeWalk = new TreeWalk(reader);
+        treeWalk.setRecursive(true);
+        treeWalk.setFilter(PathFilterGroup.createFromStrings(paths));
+        treeWalk.addTree(tree);
+        final Set<String> wanted = new TreeSet<String>(paths);
+        while (treeWalk.next()) {
+            if (treeWalk.getFileMode(0).getObjectType() == Constants.OBJ_BLOB
+                    && wanted.contains(treeWalk.getPathString())) {
+                blobs.put(treeWalk.getPathString(), treeWalk.getObjectId(0));
+            }
+        }
+        return blobs;
+    }
+
+    /**
+     * Brings {@code pending} and, if {@code head} descends from the previous tip, all tracked files up to
+     * {@code head}. Tracked files start at the previous tip, the others at the root commit.
+     */
+    private Map<String, Tracked> walk(final ObjectReader reader, final RevWalk walk, final RevCommit head,
+            final Set<String> pending) throws IOException {
+        final boolean allTracked = tracked.keySet().containsAll(pending);
+        final List<RevCommit> chain = new ArrayList<RevCommit>();
+        int tipIndex = -1;
+        for (RevCommit commit = head; commit != null;) {
+            if (commit.equals(tip)) {
+                tipIndex = chain.size();
+                if (allTracked) {
+                    break;
+                }
+            }
+            chain.add(commit);
+            commit = commit.getParentCount() > 0 ? walk.parseCommit(commit.getParent(0)) : null;
+        }
+        Collections.reverse(chain);
+        // first index of the chain that the tracked files have not seen yet
+        final int resumeAt = tipIndex < 0 ? chain.size() : chain.size() - tipIndex;
+
+        final Map<String, Tracked> states = new TreeMap<String, Tracked>();
+        final List<String> fresh = new ArrayList<String>();
+        if (tipIndex >= 0) {
+            for (final Map.Entry<String, Tracked> state : tracked.entrySet()) {
+                states.put(state.getKey(), new Tracked(state.getValue()));
+            }
+        }
+        for (final String path : pending) {
+            if (!states.containsKey(path)) {
+                states.put(path, new Tracked());
+                fresh.add(path);
+            }
+        }
+
+        final TreeFilter freshFilter = fresh.isEmpty() ? null : AndTreeFilter.create(
+                PathFilterGroup.createFromStrings(fresh), TreeFilter.ANY_DIFF);
+        final TreeFilter allFilter = AndTreeFilter.create(PathFilterGroup.createFromStrings(states.keySet()),
+                TreeFilter.ANY_DIFF);
+        final TreeWalk treeWalk = new TreeWalk(reader);
+        treeWalk.setRecursive(true);
+        for (int i = 0; i < chain.size(); i++) {
+            final TreeFilter filter = i >= resumeAt ? allFilter : freshFilter;
+            if (filter == null) {
+                continue;
+            }
+            final RevCommit commit = chain.get(i);
+            commitsWalked.incrementAndGet();
+            treeWalk.reset();
+            if (commit.getParentCount() > 0) {
+                treeWalk.addTree(walk.parseCommit(commit.getParent(0)).getTree());
+            } else {
+                treeWalk.addTree(new EmptyTreeIterator());
+            }
+            treeWalk.addTree(commit.getTree());
+            treeWalk.setFilter(filter);
+            ObjectId id = null;
+            PersonIdent author = null;
+            while (treeWalk.next()) {
+                final Tracked state = states.get(treeWalk.getPathString());
+                if (state == null) {
+                    continue;
+                }
+                final ObjectId blob = treeWalk.getFileMode(1).getObjectType() == Constants.OBJ_BLOB
+                        ? treeWalk.getObjectId(1) : ObjectId.zeroId();
+                if (blob.equals(state.blob)) {
+                    continue;
+                }
+                if (id == null) {
+                    id = commit.copy();
+                    author = commit.getAuthorIdent();
+                }
+                apply(reader, state, blob, id, author);
+            }
+        }
+
+        if (tipIndex < 0) {
+            tracked.clear();
+        }
+        tracked.putAll(states);
+        tip = head.copy();
+        return states;
+    }
+
+    /**
+     * Moves {@code state} to {@code blob}, attributing the lines {@code commit} added or changed to it.
+     */
+    private void apply(final ObjectReader reader, final Tracked state, final ObjectId blob, final ObjectId commit,
+            final PersonIdent author) throws IOException {
+        final Diff diff = diff(reader, state.blob, blob);
+        final ObjectId[] commits = new ObjectId[diff.lines];
+        final PersonIdent[] authors = new PersonIdent[diff.lines];
+        int oldLine = 0;
+        int newLine = 0;
+        for (final Edit edit : diff.edits) {
+            final int unchanged = edit.getBeginB() - newLine;
+            System.arraycopy(state.commits, oldLine, commits, newLine, unchanged);
+            System.arraycopy(state.authors, oldLine, authors, newLine, unchanged);
+            Arrays.fill(commits, edit.getBeginB(), edit.getEndB(), commit);
+            Arrays.fill(authors, edit.getBeginB(), edit.getEndB(), author);
+            oldLine = edit.getEndA();
+            newLine = edit.getEndB();
+        }
+        System.arraycopy(state.commits, oldLine, commits, newLine, diff.lines - newLine);
+        System.arraycopy(state.authors, oldLine, authors, newLine, diff.lines - newLine);
+        state.blob = blob;
+        state.commits = commits;
+        state.authors = authors;
+        state.history.add(commit);
+    }
+
+    private Diff diff(final ObjectReader reader, final ObjectId oldBlob, final ObjectId newBlob) throws IOException {
+        final String key = oldBlob.name() + newBlob.name();
+        Diff diff = diffs.get(key);
+        if (diff != null) {
+            diffsShared.incrementAndGet();
+            return diff;
+        }
+        final RawText oldText = text(reader, oldBlob);
+        final RawText newText = text(reader, newBlob);
+        diff = new Diff(DIFF.diff(RawTextComparator.DEFAULT, oldText, newText), newText.size());
+        diffs.put(key, diff);
+        diffsComputed.incrementAndGet();
+        return diff;
+    }
+
+    private static RawText text(final ObjectReader reader, final ObjectId blob) throws IOException {
+        if (blob.equals(ObjectId.zeroId())) {
+            return new RawText(new byte[0]);
+        }
+        return new RawText(reader.open(blob, Constants.OBJ_BLOB).getBytes());
+    }
+}
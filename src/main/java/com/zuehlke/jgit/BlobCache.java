@@ -0,0 +1,454 @@
+package com.zuehlke.jgit;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+
+/**
+ * Size-bounded cache of object contents, stored off-heap in direct {@link ByteBuffer} slabs.
+ * <p>
+ * Objects are appended to the current slab; when the cache is full, the oldest slab is recycled and all
+ * objects in it are dropped. A slab that is being read is never recycled: readers pin it, and the next
+ * slab is taken instead.
+ * <p>
+ * Not every miss is admitted. Every access is counted in a small frequency sketch that halves its
+ * counters periodically, and a missed object is only stored once it was asked for
+ * {@link #setAdmissionThreshold(int) admissionThreshold} times. A scan that reads many objects once
+ * therefore cannot push the frequently read objects out.
+ * <p>
+ * {@link #transferTo(ObjectReader, AnyObjectId, WritableByteChannel)} writes a cached object to a channel
+ * straight from its slab, without copying it to the heap.
+ */
+public class BlobCache implements BlobCacheMXBean {
+
+    public static final int DEFAULT_SLAB_SIZE = 4 << 20;
+
+    private static class Slab {
+
+        final ByteBuffer buffer;
+        /** Number of readers, -1 while the slab is recycled. */
+        final AtomicInteger pins = new AtomicInteger();
+        volatile int generation;
+        /** Guarded by the cache. */
+        int position;
+        /** Objects in this slab, guarded by the cache. */
+        final List<ObjectId> ids = new ArrayList<ObjectId>();
+        /** Set by {@link BlobCache#clear()}; a slab that is being read then is recycled by its last reader. */
+        volatile boolean clearPending;
+
+        Slab(final int size) {
+            buffer = ByteBuffer.allocateDirect(size);
+        }
+    }
+
+    private static class Entry {
+
+        final Slab slab;
+        final int generation;
+        final int offset;
+        final int length;
+        final int type;
+
+        Entry(final Slab slab, final int offset, final int length, final int type) {
+            this.slab = slab;
+            this.generation = slab.generation;
+            this.offset = offset;
+            this.length = length;
+            this.type = type;
+        }
+
+        ByteBuffer content() {
+            final ByteBuffer content = slab.buffer.duplicate();
+            content.limit(offset + length).position(offset);
+            return content;
+        }
+    }
+
+    /**
+     * Count-min sketch of access frequencies, with four rows of 4 bit counters, sixteen to a {@code long}.
+     * Every word is updated by compare-and-set of a value computed from a single read, so a counter never
+     * exceeds 15 and never carries into its neighbour, also while the sketch is aged. The number of
+     * additions is only approximate: an increment racing with {@link #age()} may not be counted.
+     */
+    private static class FrequencySketch {
+
+        private static final int MAX = 15;
+        private static final int[] SEEDS = { 0x9e3779b9, 0x85ebca6b, 0xc2b2ae35, 0x27d4eb2f };
+        /** Halves all sixteen counters of a word at once, the mask drops the bit shifted in from the next. */
+        private static final long HALF = 0x7777777777777777L;
+
+        private final AtomicLongArray table;
+        private final int width;
+        private final int mask;
+        private final int sampleSize;
+        private final AtomicInteger additions = new AtomicInteger();
+
+        FrequencySketch(final int width) {
+            this.width = Integer.highestOneBit(Math.max(1024, width - 1) << 1);
+            table = new AtomicLongArray(SEEDS.length * this.width / 16);
+            mask = this.width - 1;
+            sampleSize = this.width * 10;
+        }
+
+        /**
+         * @return the estimated frequency of {@code id} including this access
+         */
+        int increment(final AnyObjectId id) {
+            int frequency = Integer.MAX_VALUE;
+            for (int row = 0; row < SEEDS.length; row++) {
+                final int counter = row * width + index(id, row);
+                final int word = counter >>> 4;
+                final int shift = (counter & 15) << 2;
+                frequency = Math.min(frequency, increment(word, shift));
+            }
+            if (additions.incrementAndGet() == sampleSize) {
+                age();
+            }
+            return frequency;
+        }
+
+        /**
+         * @return the counter at {@code shift} in {@code word} after incrementing it, unless saturated
+         */
+        private int increment(final int word, final int shift) {
+            while (true) {
+                final long value = table.get(word);
+                final int count = (int) (value >>> shift) & MAX;
+                if (count == MAX) {
+                    return MAX;
+                }
+                if (table.compareAndSet(word, value, value + (1L << shift))) {
+                    return count + 1;
+                }
+            }
+        }
+
+        private int index(final AnyObjectId id, final int row) {
+            int hash = id.hashCode() * SEEDS[row];
+            hash ^= hash >>> 16;
+            return hash & mask;
+        }
+
+        private void age() {
+            additions.set(0);
+            for (int i = 0; i < table.length(); i++) {
+                long value;
+                do {
+                    value = table.get(i);
+                } while (!table.compareAndSet(i, value, (value >>> 1) & HALF));
+            }
+        }
+    }
+
+    private final int slabSize;
+    private final Slab[] slabs;
+    private int current;
+    private final ConcurrentMap<ObjectId, Entry> entries = new ConcurrentHashMap<ObjectId, Entry>();
+    private final FrequencySketch sketch;
+    private volatile int admissionThreshold = 2;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong admissions = new AtomicLong();
+    private final AtomicLong rejections = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    /**
+     * @param capacity maximum number of bytes held off-heap, rounded down to whole slabs of
+     *        {@link #DEFAULT_SLAB_SIZE}
+     */
+    public BlobCache(final long capacity) {
+        this(capacity, DEFAULT_SLAB_SIZE);
+    }
+
+    /**
+     * @param capacity maximum number of bytes held off-heap, rounded down to whole slabs
+     * @param slabSize size of a slab, also the largest object that is cached
+     */
+    public BlobCache(final long capacity, final int slabSize) {
+        if (slabSize < 1 || capacity < slabSize) {
+            throw new IllegalArgumentException("capacity must hold at least one slab of " + slabSize + " bytes");
+        }
+        this.slabSize = slabSize;
+        this.slabs = new Slab[(int) Math.min(Integer.MAX_VALUE, capacity / slabSize)];
+        // assuming objects of about 1 KiB, there are enough counters for every object that fits
+        this.sketch = new FrequencySketch((int) Math.min(1 << 24, capacity >>> 10));
+    }
+
+    /**
+     * @param admissionThreshold number of accesses after which a missed object is stored; 1 stores every
+     *        object on its first miss; defaults to 2
+     */
+    public BlobCache setAdmissionThreshold(final int admissionThreshold) {
+        if (admissionThreshold < 1) {
+            throw new IllegalArgumentException("admissionThreshold must be positive");
+        }
+        this.admissionThreshold = admissionThreshold;
+        return this;
+    }
+
+    /**
+     * Opens {@code id} from the cache, or through {@code reader} on a miss.
+     *
+     * @return a loader of the object; on a hit its content is a heap copy of the cached bytes
+     */
+    public ObjectLoader open(final ObjectReader reader, final AnyObjectId id) throws IOException {
+        final int frequency = sketch.increment(id);
+        final Entry entry = pin(id);
+        if (entry != null) {
+            try {
+                hits.incrementAndGet();
+                final byte[] content = new byte[entry.length];
+                entry.content().get(content);
+                return new ObjectLoader.SmallObject(entry.type, content);
+            } finally {
+                unpin(entry);
+            }
+        }
+        misses.incrementAndGet();
+        final ObjectLoader loader = reader.open(id);
+        if (loader.isLarge() || loader.getSize() > slabSize) {
+            rejections.incrementAndGet();
+            return loader;
+        }
+        final byte[] content = loader.getCachedBytes();
+        admit(id, loader.getType(), content, frequency);
+        return new ObjectLoader.SmallObject(loader.getType(), content);
+    }
+
+    /**
+     * Writes the content of {@code id} to {@code channel}, from the off-heap slab without a heap copy on a
+     * hit, or through {@code reader} on a miss.
+     *
+     * @return number of bytes written
+     */
+    public long transferTo(final ObjectReader reader, final AnyObjectId id, final WritableByteChannel channel)
+            throws IOException {
+        final int frequency = sketch.increment(id);
+        final Entry entry = pin(id);
+        if (entry != null) {
+            try {
+                hits.incrementAndGet();
+                final ByteBuffer content = entry.content();
+                while (content.hasRemaining()) {
+                    channel.write(content);
+                }
+                return entry.length;
+            } finally {
+                unpin(entry);
+            }
+        }
+        misses.incrementAndGet();
+        final ObjectLoader loader = reader.open(id);
+        if (loader.isLarge() || loader.getSize() > slabSize) {
+            rejections.incrementAndGet();
+            loader.copyTo(Channels.newOutputStream(channel));
+            return loader.getSize();
+        }
+        final byte[] content = loader.getCachedBytes();
+        final ByteBuffer buffer = ByteBuffer.wrap(content);
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        admit(id, loader.getType(), content, frequency);
+        return content.length;
+    }
+
+    public boolean contains(final AnyObjectId id) {
+        final Entry entry = entries.get(id);
+        return entry != null && entry.generation == entry.slab.generation;
+    }
+
+    /**
+     * Drops all objects; slabs that are being read are dropped once their readers are done, and until then
+     * count as used and take no new objects.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        for (final Slab slab : slabs) {
+            if (slab != null) {
+                // set before trying, so either this or the last reader to unpin recycles the slab
+                slab.clearPending = true;
+                recyclePending(slab);
+            }
+        }
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return hits divided by all lookups, 0 before the first lookup
+     */
+    @Override
+    public double getHitRate() {
+        final long hit = hits.get();
+        final long total = hit + misses.get();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    /**
+     * @return number of missed objects that were stored
+     */
+    @Override
+    public long getAdmissions() {
+        return admissions.get();
+    }
+
+    /**
+     * @return number of missed objects that were not stored, because they were not asked for often enough,
+     *         were larger than a slab or no slab was free
+     */
+    @Override
+    public long getRejections() {
+        return rejections.get();
+    }
+
+    /**
+     * @return number of objects dropped with their slab
+     */
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return bytes of cached content, excluding the unused ends of slabs
+     */
+    @Override
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    @Override
+    public long getCapacity() {
+        return (long) slabs.length * slabSize;
+    }
+
+    /**
+     * @return the entry of {@code id} with its slab pinned, {@code null} if it is not cached
+     */
+    private Entry pin(final AnyObjectId id) {
+        final Entry entry = entries.get(id);
+        if (entry == null) {
+            return null;
+        }
+        final AtomicInteger pins = entry.slab.pins;
+        for (;;) {
+            final int readers = pins.get();
+            if (readers < 0) {
+                return null;
+            }
+            if (pins.compareAndSet(readers, readers + 1)) {
+                break;
+            }
+        }
+        // the slab may have been recycled between the lookup and pinning it
+        if (entry.generation != entry.slab.generation) {
+            unpin(entry);
+            return null;
+        }
+        return entry;
+    }
+
+    private void unpin(final Entry entry) {
+        final Slab slab = entry.slab;
+        if (slab.pins.decrementAndGet() == 0 && slab.clearPending) {
+            recyclePending(slab);
+        }
+    }
+
+    private synchronized void recyclePending(final Slab slab) {
+        if (slab.clearPending && slab.pins.compareAndSet(0, -1)) {
+            recycle(slab);
+            slab.pins.set(0);
+        }
+    }
+
+    private synchronized void admit(final AnyObjectId id, final int type, final byte[] content,
+            final int frequency) {
+        if (frequency < admissionThreshold) {
+            rejections.incrementAndGet();
+            return;
+        }
+        if (contains(id)) {
+            return;
+        }
+        Slab slab = slabs[current];
+        if (slab == null) {
+            slab = slabs[current] = new Slab(slabSize);
+        } else if (slab.clearPending || slab.position + content.length > slabSize) {
+            slab = nextSlab();
+            if (slab == null) {
+                rejections.incrementAndGet();
+                return;
+            }
+        }
+        final ByteBuffer target = slab.buffer.duplicate();
+        target.position(slab.position);
+        target.put(content);
+        final ObjectId key = id.copy();
+        entries.put(key, new Entry(slab, slab.position, content.length, type));
+        slab.ids.add(key);
+        slab.position += content.length;
+        usedBytes.addAndGet(content.length);
+        admissions.incrementAndGet();
+    }
+
+    /**
+     * Moves on to the oldest slab that nobody reads, allocating slabs until the capacity is reached.
+     *
+     * @return the empty slab, {@code null} if all slabs are being read
+     */
+    private Slab nextSlab() {
+        for (int tried = 0; tried < slabs.length; tried++) {
+            current = (current + 1) % slabs.length;
+            final Slab slab = slabs[current];
+            if (slab == null) {
+                return slabs[current] = new Slab(slabSize);
+            }
+            if (slab.pins.compareAndSet(0, -1)) {
+                recycle(slab);
+                slab.pins.set(0);
+                return slab;
+            }
+        }
+        return null;
+    }
+
+    private void recycle(final Slab slab) {
+        slab.generation++;
+        for (final ObjectId id : slab.ids) {
+            final Entry entry = entries.get(id);
+            if (entry != null && entry.slab == slab) {
+                entries.remove(id, entry);
+            }
+        }
+        evictions.addAndGet(slab.ids.size());
+        usedBytes.addAndGet(-slab.position);
+        slab.ids.clear();
+        slab.position = 0;
+        slab.clearPending = false;
+    }
+}
@@ -0,0 +1,23 @@
+package com.zuehlke.jgit;
+
+/**
+ * JMX view of a {@link BlobCache}, registered by {@link GitMetrics#register(BlobCache, String)}.
+ */
+public interface BlobCacheMXBean {
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRate();
+
+    long getAdmissions();
+
+    long getRejections();
+
+    long getEvictions();
+
+    long getUsedBytes();
+
+    long getCapacity();
+}
@@ -0,0 +1,226 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEditor.PathEdit;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Adds many, possibly large, files of the working tree to the index at once.
+ * <p>
+ * {@code AddCommand} hashes and deflates one file after the other on the calling thread. Here every file
+ * is inserted by its own fork/join task, with its own {@link ObjectInserter}, on a pool of
+ * {@link #setThreads(int) threads}. Files are streamed from a {@link FileChannel} with their size known up
+ * front, so the inserter hashes and deflates large files into a temporary object in small chunks instead
+ * of holding them on the heap. The index is only locked once all blobs are written, and is then updated
+ * and written once for all paths.
+ * <p>
+ * Paths name regular files or symbolic links relative to the working tree; a link is staged as such with
+ * its target as content, not followed. Unlike {@code AddCommand}, no patterns or directories are expanded,
+ * ignore rules do not apply and {@code core.autocrlf} is ignored: files are staged byte for byte.
+ */
+public class BulkAdd {
+
+    private final Repository repository;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public BulkAdd(final Repository repository) {
+        this.repository = repository;
+    }
+
+    public BulkAdd setThreads(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Writes the blobs of {@code paths} and stages them. If a file cannot be read, the index is left
+     * unchanged; blobs written before are left to be pruned.
+     *
+     * @throws IllegalArgumentException if a path is not valid in the index, such as {@code ../x}
+     * @throws IOException if a path is neither a regular file nor a symbolic link, or the index is locked
+     */
+    public BulkAddResult add(final Collection<String> paths) throws IOException {
+        final long start = System.nanoTime();
+        final File workTree = repository.getWorkTree();
+        final Entry[] entries = new Entry[paths.size()];
+        int i = 0;
+        long bytes = 0;
+        for (final String path : paths) {
+            checkPath(path);
+            final File file = new File(workTree, path);
+            if (Files.isSymbolicLink(file.toPath())) {
+                entries[i] = new Entry(path, file, Files.readSymbolicLink(file.toPath()).toString());
+            } else if (Files.isRegularFile(file.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+                entries[i] = new Entry(path, file, null);
+            } else {
+                throw new IOException(file + " is neither a regular file nor a symbolic link");
+            }
+            bytes += entries[i++].length;
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new InsertTask(entries, 0, entries.length));
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+
+        final DirCache index = repository.lockDirCache();
+        try {
+            final DirCacheEditor editor = index.editor();
+            for (final Entry entry : entries) {
+                editor.add(entry);
+            }
+            editor.commit();
+        } finally {
+            index.unlock();
+        }
+
+        final Map<String, ObjectId> blobs = new TreeMap<String, ObjectId>();
+        for (final Entry entry : entries) {
+            blobs.put(entry.path, entry.blob);
+        }
+        return new BulkAddResult(blobs, bytes, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    }
+
+    /**
+     * Applies the rules of {@link DirCacheEntry} and, as JGit 3.3.1 does not check them there, rejects the
+     * components {@code .}, {@code ..} and {@code .git} that would leave the working tree or enter the
+     * repository.
+     */
+    private static void checkPath(final String path) {
+        try {
+            new DirCacheEntry(path);
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid path " + path, e);
+        }
+        for (final String component : path.split("/")) {
+            if (component.equals(".") || component.equals("..") || component.equalsIgnoreCase(Constants.DOT_GIT)) {
+                throw new IllegalArgumentException("invalid path " + path);
+            }
+        }
+    }
+
+    /**
+     * A file or symbolic link to add; the size and modification time are taken before it is read, so a
+     * change made while it is read shows up as a modification afterwards.
+     */
+    private class Entry extends PathEdit {
+
+        final String path;
+        final File file;
+        final long length;
+        final long lastModified;
+        final FileMode mode;
+        /** Target of a symbolic link, or {@code null} for a regular file. */
+        final byte[] target;
+        ObjectId blob;
+
+        Entry(final String path, final File file, final String target) throws IOException {
+            super(path);
+            this.path = path;
+            this.file = file;
+            this.lastModified = Files.getLastModifiedTime(file.toPath(), LinkOption.NOFOLLOW_LINKS).toMillis();
+            if (target != null) {
+                this.target = Constants.encode(target);
+                this.length = this.target.length;
+                this.mode = FileMode.SYMLINK;
+            } else {
+                this.target = null;
+                this.length = file.length();
+                this.mode = repository.getFS().supportsExecute() && repository.getFS().canExecute(file)
+                        ? FileMode.EXECUTABLE_FILE : FileMode.REGULAR_FILE;
+            }
+        }
+
+        void insert() throws IOException {
+            final ObjectInserter inserter = repository.newObjectInserter();
+            try {
+                if (target != null) {
+                    blob = inserter.insert(Constants.OBJ_BLOB, target);
+                    inserter.flush();
+                    return;
+                }
+                final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+                try {
+                    final InputStream in = Channels.newInputStream(channel);
+                    blob = inserter.insert(Constants.OBJ_BLOB, length, in);
+                } finally {
+                    channel.close();
+                }
+                inserter.flush();
+            } finally {
+                inserter.release();
+            }
+        }
+
+        @Override
+        public void apply(final DirCacheEntry ent) {
+            ent.setFileMode(mode);
+            ent.setLength(length);
+            ent.setLastModified(lastModified);
+            ent.setObjectId(blob);
+        }
+    }
+
+    /**
+     * Inserts a range of entries, splitting it in halves down to single files.
+     */
+    private static class InsertTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Entry[] entries;
+        private final int from;
+        private final int to;
+
+        InsertTask(final Entry[] entries, final int from, final int to) {
+            this.entries = entries;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 1) {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new InsertTask(entries, from, middle), new InsertTask(entries, middle, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                try {
+                    entries[i].insert();
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+    }
+}
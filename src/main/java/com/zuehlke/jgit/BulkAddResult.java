@@ -0,0 +1,59 @@
+package com.zuehlke.jgit;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Outcome of {@link BulkAdd#add(java.util.Collection)}.
+ */
+public class BulkAddResult {
+
+    private final Map<String, ObjectId> blobs;
+    private final long bytes;
+    private final long millis;
+
+    BulkAddResult(final Map<String, ObjectId> blobs, final long bytes, final long millis) {
+        this.blobs = Collections.unmodifiableMap(blobs);
+        this.bytes = bytes;
+        this.millis = millis;
+    }
+
+    /**
+     * @return blob of every added path, in index order
+     */
+    public Map<String, ObjectId> getBlobs() {
+        return blobs;
+    }
+
+    public int getFiles() {
+        return blobs.size();
+    }
+
+    /**
+     * @return total size of the added files
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return time from the first read to the written index
+     */
+    public long getMillis() {
+        return millis;
+    }
+
+    /**
+     * @return megabytes (10<sup>6</sup> bytes) added per second
+     */
+    public double getMegabytesPerSecond() {
+        return millis > 0 ? bytes / 1000.0 / millis : 0;
+    }
+
+    @Override
+    public String toString() {
+        return blobs.size() + " files, " + bytes + " bytes in " + millis + " ms";
+    }
+}
@@ -0,0 +1,359 @@
+package com.zuehlke.jgit;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Lists the changed paths of every commit in a range, oldest commit first.
+ * <p>
+ * {@link #changes(Cursor, AnyObjectId)} walks the commit headers of the range up front and returns a lazy
+ * iterator. Each commit is compared with its first parent, or with the empty tree if it is a root commit,
+ * by a tree walk that only reads trees, never blobs. Up to {@link #setWindow(int) window} commits ahead of
+ * the consumer are diffed in parallel on the feed's threads, and records come out in commit order.
+ * Renames are only detected if {@link #setDetectRenames(boolean) requested}, since that reads the
+ * contents of added and deleted files.
+ * <p>
+ * A {@link Changes#getCursor() cursor} names the commits whose records were fully consumed. Saved as a
+ * string and passed to a later call, it resumes the feed exactly after them, on linear history and across
+ * merges alike.
+ */
+public class ChangeFeed implements AutoCloseable {
+
+    /**
+     * Position in a change feed: the consumed commits that no other consumed commit descends from.
+     */
+    public static final class Cursor {
+
+        private final List<ObjectId> commits;
+
+        private Cursor(final List<ObjectId> commits) {
+            this.commits = Collections.unmodifiableList(commits);
+        }
+
+        /**
+         * @return a cursor before {@code commit}'s descendants, or before all history if {@code null}
+         */
+        public static Cursor at(final AnyObjectId commit) {
+            return new Cursor(commit != null ? Collections.singletonList(commit.copy())
+                    : Collections.<ObjectId> emptyList());
+        }
+
+        /**
+         * @param cursor as returned by {@link #toString()}
+         * @throws IllegalArgumentException if it is not a cursor
+         */
+        public static Cursor parse(final String cursor) {
+            final List<ObjectId> commits = new ArrayList<ObjectId>();
+            for (final String name : cursor.trim().split("\\s+")) {
+                if (name.isEmpty()) {
+                    continue;
+                }
+                if (!ObjectId.isId(name)) {
+                    throw new IllegalArgumentException("invalid cursor " + cursor);
+                }
+                commits.add(ObjectId.fromString(name));
+            }
+            return new Cursor(commits);
+        }
+
+        public List<ObjectId> getCommits() {
+            return commits;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            return other instanceof Cursor && new LinkedHashSet<ObjectId>(commits).equals(
+                    new LinkedHashSet<ObjectId>(((Cursor) other).commits));
+        }
+
+        @Override
+        public int hashCode() {
+            return new LinkedHashSet<ObjectId>(commits).hashCode();
+        }
+
+        /**
+         * @return the commit ids separated by spaces
+         */
+        @Override
+        public String toString() {
+            final StringBuilder cursor = new StringBuilder();
+            for (final ObjectId commit : commits) {
+                if (cursor.length() > 0) {
+                    cursor.append(' ');
+                }
+                cursor.append(commit.name());
+            }
+            return cursor.toString();
+        }
+    }
+
+    /** A commit to diff, resolved on the calling thread. */
+    private static class Item {
+
+        final ObjectId commit;
+        final ObjectId oldTree;
+        final ObjectId newTree;
+        final List<ObjectId> parents = new ArrayList<ObjectId>();
+
+        Item(final RevWalk walk, final RevCommit commit) throws IOException {
+            this.commit = commit.copy();
+            this.newTree = commit.getTree().copy();
+            for (final RevCommit parent : commit.getParents()) {
+                parents.add(parent.copy());
+            }
+            this.oldTree = commit.getParentCount() > 0 ? walk.parseCommit(commit.getParent(0)).getTree().copy()
+                    : null;
+        }
+    }
+
+    /**
+     * The records of a range, diffed ahead of the consumer; close it to cancel diffs still pending.
+     */
+    public class Changes implements Iterator<ChangeRecord>, AutoCloseable {
+
+        private final Iterator<Item> items;
+        private final Deque<Future<List<ChangeRecord>>> pending = new ArrayDeque<Future<List<ChangeRecord>>>();
+        private final Deque<Item> pendingItems = new ArrayDeque<Item>();
+        private final Set<ObjectId> heads;
+        private Item current;
+        private Iterator<ChangeRecord> records = Collections.<ChangeRecord> emptyList().iterator();
+
+        Changes(final List<Item> items, final Set<ObjectId> heads) {
+            this.items = items.iterator();
+            this.heads = heads;
+            fill();
+        }
+
+        /**
+         * @throws UncheckedIOException if a commit could not be diffed
+         */
+        @Override
+        public boolean hasNext() {
+            while (!records.hasNext()) {
+                if (current != null) {
+                    heads.removeAll(current.parents);
+                    heads.add(current.commit);
+                    current = null;
+                }
+                if (pending.isEmpty()) {
+                    return false;
+                }
+                current = pendingItems.removeFirst();
+                records = await(pending.removeFirst()).iterator();
+                fill();
+            }
+            return true;
+        }
+
+        @Override
+        public ChangeRecord next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return records.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        /**
+         * @return position after the last commit whose records were all returned
+         */
+        public Cursor getCursor() {
+            return new Cursor(new ArrayList<ObjectId>(heads));
+        }
+
+        @Override
+        public void close() {
+            for (final Future<List<ChangeRecord>> future : pending) {
+                future.cancel(true);
+            }
+            pending.clear();
+            pendingItems.clear();
+            records = Collections.<ChangeRecord> emptyList().iterator();
+        }
+
+        private void fill() {
+            while (pending.size() < window && items.hasNext()) {
+                final Item item = items.next();
+                pendingItems.addLast(item);
+                pending.addLast(executor().submit(new Callable<List<ChangeRecord>>() {
+                    @Override
+                    public List<ChangeRecord> call() throws IOException {
+                        return diff(item);
+                    }
+                }));
+            }
+        }
+
+        private List<ChangeRecord> await(final Future<List<ChangeRecord>> future) {
+            try {
+                return future.get();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while waiting for a diff", e);
+            } catch (final ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw new UncheckedIOException((IOException) e.getCause());
+                }
+                throw new IllegalStateException("diff failed", e.getCause());
+            }
+        }
+    }
+
+    private final Repository repository;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int window = 64;
+    private boolean detectRenames;
+    private ExecutorService executor;
+
+    public ChangeFeed(final Repository repository) {
+        this.repository = repository;
+    }
+
+    public synchronized ChangeFeed setThreads(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        if (executor != null) {
+            throw new IllegalStateException("threads must be set before the first diff");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param window number of commits diffed ahead of the consumer; defaults to 64
+     */
+    public ChangeFeed setWindow(final int window) {
+        if (window < 1) {
+            throw new IllegalArgumentException("window must be positive");
+        }
+        this.window = window;
+        return this;
+    }
+
+    /**
+     * @param detectRenames whether added and deleted files are paired into renames and copies; defaults to
+     *        {@code false}
+     */
+    public ChangeFeed setDetectRenames(final boolean detectRenames) {
+        this.detectRenames = detectRenames;
+        return this;
+    }
+
+    /**
+     * @return the records of the commits reachable from {@code until} but not from {@code since}, all
+     *         history if {@code since} is {@code null}
+     */
+    public Changes changes(final AnyObjectId since, final AnyObjectId until) throws IOException {
+        return changes(Cursor.at(since), until);
+    }
+
+    /**
+     * @return the records of the commits reachable from {@code until} that are not before {@code cursor}
+     */
+    public Changes changes(final Cursor cursor, final AnyObjectId until) throws IOException {
+        final List<Item> items = new ArrayList<Item>();
+        final RevWalk walk = new RevWalk(repository);
+        try {
+            walk.setRetainBody(false);
+            walk.sort(RevSort.TOPO);
+            walk.sort(RevSort.REVERSE, true);
+            walk.markStart(walk.parseCommit(until));
+            for (final ObjectId commit : cursor.getCommits()) {
+                walk.markUninteresting(walk.parseCommit(commit));
+            }
+            for (final RevCommit commit : walk) {
+                items.add(new Item(walk, commit));
+            }
+        } finally {
+            walk.release();
+        }
+        return new Changes(items, new LinkedHashSet<ObjectId>(cursor.getCommits()));
+    }
+
+    /**
+     * Stops the diff threads; iterators that are still open fail on their next pending commit.
+     */
+    @Override
+    public synchronized void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "change-feed");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return executor;
+    }
+
+    private List<ChangeRecord> diff(final Item item) throws IOException {
+        final ObjectReader reader = repository.newObjectReader();
+        try {
+            final TreeWalk treeWalk = new TreeWalk(reader);
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+            if (item.oldTree != null) {
+                treeWalk.addTree(item.oldTree);
+            } else {
+                treeWalk.addTree(new EmptyTreeIterator());
+            }
+            treeWalk.addTree(item.newTree);
+            List<DiffEntry> entries = DiffEntry.scan(treeWalk);
+            if (detectRenames) {
+                final RenameDetector renames = new RenameDetector(repository);
+                renames.addAll(entries);
+                entries = renames.compute(reader, NullProgressMonitor.INSTANCE);
+            }
+            final List<ChangeRecord> records = new ArrayList<ChangeRecord>(entries.size());
+            for (final DiffEntry entry : entries) {
+                records.add(new ChangeRecord(item.commit, entry));
+            }
+            return records;
+        } finally {
+            reader.release();
+        }
+    }
+}
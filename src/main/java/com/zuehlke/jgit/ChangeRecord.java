@@ -0,0 +1,81 @@
+package com.zuehlke.jgit;
+
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * One changed path of a commit, as emitted by {@link ChangeFeed}.
+ */
+public class ChangeRecord {
+
+    private final ObjectId commit;
+    private final ChangeType changeType;
+    private final String oldPath;
+    private final String newPath;
+    private final ObjectId oldId;
+    private final ObjectId newId;
+
+    ChangeRecord(final ObjectId commit, final DiffEntry entry) {
+        this.commit = commit;
+        this.changeType = entry.getChangeType();
+        this.oldPath = changeType == ChangeType.ADD ? null : entry.getOldPath();
+        this.newPath = changeType == ChangeType.DELETE ? null : entry.getNewPath();
+        this.oldId = entry.getOldId().toObjectId();
+        this.newId = entry.getNewId().toObjectId();
+    }
+
+    public ObjectId getCommit() {
+        return commit;
+    }
+
+    /**
+     * @return the kind of change; {@link ChangeType#RENAME} and {@link ChangeType#COPY} only if the feed
+     *         detects renames
+     */
+    public ChangeType getChangeType() {
+        return changeType;
+    }
+
+    /**
+     * @return the path after the change, or the deleted path
+     */
+    public String getPath() {
+        return newPath != null ? newPath : oldPath;
+    }
+
+    /**
+     * @return the path before the change, {@code null} for an added file
+     */
+    public String getOldPath() {
+        return oldPath;
+    }
+
+    /**
+     * @return the path after the change, {@code null} for a deleted file
+     */
+    public String getNewPath() {
+        return newPath;
+    }
+
+    /**
+     * @return the blob before the change, {@link ObjectId#zeroId()} for an added file
+     */
+    public ObjectId getOldId() {
+        return oldId;
+    }
+
+    /**
+     * @return the blob after the change, {@link ObjectId#zeroId()} for a deleted file
+     */
+    public ObjectId getNewId() {
+        return newId;
+    }
+
+    @Override
+    public String toString() {
+        return commit.name() + " " + changeType + " "
+                + (oldPath != null && newPath != null && !oldPath.equals(newPath) ? oldPath + " -> " : "")
+                + getPath();
+    }
+}
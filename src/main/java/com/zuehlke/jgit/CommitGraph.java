@@ -0,0 +1,539 @@
+package com.zuehlke.jgit;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.file.LockFile;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Memory-mapped index of the commit graph in {@code objects/info/commit-index}.
+ * <p>
+ * For every commit reachable from a ref the index holds its parents, its generation number (1 for root
+ * commits, otherwise one more than the highest generation of its parents) and its commit time, so
+ * {@link #isAncestor(AnyObjectId, AnyObjectId)} and {@link #range(AnyObjectId, AnyObjectId)} answer
+ * without parsing a single commit object. Generation numbers let both queries stop early: a commit can
+ * only be an ancestor of commits with a higher generation.
+ * <p>
+ * {@link #update(Repository)} adds the commits that became reachable since the last update, typically
+ * after a fetch or commit; only those commits are parsed. Commits that are not in the index fall back to
+ * a {@link RevWalk}, so a stale index gives slower but still correct answers.
+ * <p>
+ * File layout, all numbers big endian: magic {@code CIDX}, version, commit count {@code n}; {@code n}
+ * sorted object ids; {@code n} records of generation, commit time, first parent and second parent
+ * (positions, -1 for none, {@code -2 - offset} for an octopus merge whose further parents are in the
+ * edge list at {@code offset}); the edge list length and the edge list, where the last parent of every
+ * octopus merge has the high bit set.
+ */
+public class CommitGraph {
+
+    public static final String FILE_NAME = "commit-index";
+
+    private static final int MAGIC = 0x43494458;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_SIZE = 16;
+    private static final int NO_PARENT = -1;
+    private static final int LAST_EDGE = 0x80000000;
+
+    private final Repository repository;
+    private final ByteBuffer buffer;
+    private final int count;
+    private final int recordOffset;
+    private final int edgeOffset;
+
+    private CommitGraph(final Repository repository, final ByteBuffer buffer) throws IOException {
+        this.repository = repository;
+        this.buffer = buffer;
+        if (buffer == null) {
+            count = 0;
+        } else {
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException("unsupported commit index in " + fileOf(repository));
+            }
+            count = buffer.getInt(8);
+        }
+        recordOffset = HEADER_SIZE + count * Constants.OBJECT_ID_LENGTH;
+        edgeOffset = recordOffset + count * RECORD_SIZE + 4;
+    }
+
+    /**
+     * Opens the index of {@code repository}; a repository without index gets an empty one.
+     */
+    public static CommitGraph open(final Repository repository) throws IOException {
+        final File file = fileOf(repository);
+        if (!file.isFile()) {
+            return new CommitGraph(repository, null);
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            return new CommitGraph(repository, raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+        } finally {
+            // the mapping stays valid after the channel is closed
+            raf.close();
+        }
+    }
+
+    /**
+     * Adds all commits reachable from the refs of {@code repository} that are not indexed yet and
+     * rewrites the index file.
+     *
+     * @return the updated index, or the current one if nothing was missing
+     */
+    public static CommitGraph update(final Repository repository) throws IOException {
+        final CommitGraph current = open(repository);
+        final Map<ObjectId, RevCommit> added = new HashMap<ObjectId, RevCommit>();
+        final RevWalk walk = new RevWalk(repository);
+        walk.setRetainBody(false);
+        try {
+            final Deque<RevCommit> pending = new ArrayDeque<RevCommit>();
+            for (final Ref ref : repository.getRefDatabase().getRefs(RefDatabase.ALL).values()) {
+                final RevCommit tip = peelToCommit(walk, ref.getObjectId());
+                if (tip != null) {
+                    pending.push(tip);
+                }
+            }
+            while (!pending.isEmpty()) {
+                final RevCommit commit = pending.pop();
+                if (added.containsKey(commit) || current.find(commit) >= 0) {
+                    continue;
+                }
+                walk.parseHeaders(commit);
+                added.put(commit.copy(), commit);
+                for (final RevCommit parent : commit.getParents()) {
+                    pending.push(parent);
+                }
+            }
+        } finally {
+            walk.release();
+        }
+        if (added.isEmpty()) {
+            return current;
+        }
+        current.write(added);
+        return open(repository);
+    }
+
+    /**
+     * @return number of indexed commits
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return whether {@code commit} is in the index
+     */
+    public boolean contains(final AnyObjectId commit) {
+        return find(commit) >= 0;
+    }
+
+    /**
+     * @return generation number of {@code commit}, or 0 if it is not indexed
+     */
+    public int getGeneration(final AnyObjectId commit) {
+        final int position = find(commit);
+        return position < 0 ? 0 : generation(position);
+    }
+
+    /**
+     * @return commit time of {@code commit} in seconds since the epoch, read from the index if possible
+     */
+    public int getCommitTime(final AnyObjectId commit) throws IOException {
+        final int position = find(commit);
+        if (position >= 0) {
+            return commitTime(position);
+        }
+        final RevWalk walk = new RevWalk(repository);
+        try {
+            return walk.parseCommit(commit).getCommitTime();
+        } finally {
+            walk.release();
+        }
+    }
+
+    /**
+     * @return parents of {@code commit}, read from the index if possible
+     */
+    public List<ObjectId> getParents(final AnyObjectId commit) throws IOException {
+        final List<ObjectId> parents = new ArrayList<ObjectId>(2);
+        final int position = find(commit);
+        if (position >= 0) {
+            for (final int parent : parents(position)) {
+                parents.add(idAt(parent));
+            }
+            return parents;
+        }
+        final RevWalk walk = new RevWalk(repository);
+        try {
+            for (final RevCommit parent : walk.parseCommit(commit).getParents()) {
+                parents.add(parent.copy());
+            }
+        } finally {
+            walk.release();
+        }
+        return parents;
+    }
+
+    /**
+     * @return whether {@code ancestor} is reachable from {@code descendant}; a commit is its own
+     *         ancestor
+     */
+    public boolean isAncestor(final AnyObjectId ancestor, final AnyObjectId descendant) throws IOException {
+        final int target = find(ancestor);
+        final int start = find(descendant);
+        if (target < 0 || start < 0) {
+            final RevWalk walk = new RevWalk(repository);
+            try {
+                return walk.isMergedInto(walk.parseCommit(ancestor), walk.parseCommit(descendant));
+            } finally {
+                walk.release();
+            }
+        }
+
+        final int minGeneration = generation(target);
+        final BitSet seen = new BitSet(count);
+        final Deque<Integer> pending = new ArrayDeque<Integer>();
+        pending.push(start);
+        seen.set(start);
+        while (!pending.isEmpty()) {
+            final int position = pending.pop();
+            if (position == target) {
+                return true;
+            }
+            if (generation(position) <= minGeneration) {
+                // everything further down has an even lower generation
+                continue;
+            }
+            for (final int parent : parents(position)) {
+                if (!seen.get(parent)) {
+                    seen.set(parent);
+                    pending.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Lists the commits reachable from {@code until} but not from {@code since}, like
+     * {@code git rev-list since..until}, children before their parents.
+     *
+     * @param since excluded commit, or {@code null} for the whole history of {@code until}
+     */
+    public List<ObjectId> range(final AnyObjectId since, final AnyObjectId until) throws IOException {
+        final int start = find(until);
+        final int stop = since == null ? NO_PARENT : find(since);
+        if (start < 0 || (since != null && stop < 0)) {
+            return walkRange(since, until);
+        }
+
+        // paint the graph from both ends in generation order, a commit is final once it is taken from
+        // the queue because all of its children have a higher generation and came first
+        final byte interesting = 1;
+        final byte excluded = 2;
+        final byte[] flags = new byte[count];
+        final PriorityQueue<Integer> queue = new PriorityQueue<Integer>(64, (a, b) -> {
+            final int byGeneration = Integer.compare(generation(b), generation(a));
+            return byGeneration != 0 ? byGeneration : Integer.compare(commitTime(b), commitTime(a));
+        });
+        flags[start] = interesting;
+        queue.add(start);
+        int interestingQueued = 1;
+        if (stop >= 0) {
+            if (flags[stop] == 0) {
+                queue.add(stop);
+            } else {
+                interestingQueued--;
+            }
+            flags[stop] |= excluded;
+        }
+
+        final List<ObjectId> result = new ArrayList<ObjectId>();
+        while (interestingQueued > 0) {
+            final int position = queue.poll();
+            final byte flag = flags[position];
+            if (flag == interesting) {
+                interestingQueued--;
+                result.add(idAt(position));
+            }
+            for (final int parent : parents(position)) {
+                final byte old = flags[parent];
+                final byte merged = (byte) (old | flag);
+                if (old == merged) {
+                    continue;
+                }
+                flags[parent] = merged;
+                if (old == 0) {
+                    queue.add(parent);
+                    if (merged == interesting) {
+                        interestingQueued++;
+                    }
+                } else if (old == interesting) {
+                    // queued as interesting, now excluded
+                    interestingQueued--;
+                }
+            }
+        }
+        return result;
+    }
+
+    private List<ObjectId> walkRange(final AnyObjectId since, final AnyObjectId until) throws IOException {
+        final List<ObjectId> result = new ArrayList<ObjectId>();
+        final RevWalk walk = new RevWalk(repository);
+        walk.setRetainBody(false);
+        try {
+            walk.markStart(walk.parseCommit(until));
+            if (since != null) {
+                walk.markUninteresting(walk.parseCommit(since));
+            }
+            for (final RevCommit commit : walk) {
+                result.add(commit.copy());
+            }
+        } finally {
+            walk.release();
+        }
+        return result;
+    }
+
+    private static RevCommit peelToCommit(final RevWalk walk, final ObjectId id) throws IOException {
+        if (id == null) {
+            return null;
+        }
+        try {
+            RevObject object = walk.parseAny(id);
+            while (object instanceof RevTag) {
+                object = walk.parseAny(((RevTag) object).getObject());
+            }
+            return object instanceof RevCommit ? (RevCommit) object : null;
+        } catch (final MissingObjectException | IncorrectObjectTypeException e) {
+            // refs to missing or non commit objects are not part of the graph
+            return null;
+        }
+    }
+
+    private static File fileOf(final Repository repository) {
+        return new File(repository.getDirectory(), "objects/info/" + FILE_NAME);
+    }
+
+    /**
+     * @return position of {@code id} in the sorted id table, or a negative value
+     */
+    int find(final AnyObjectId id) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int cmp = compare(id, middle);
+            if (cmp == 0) {
+                return middle;
+            } else if (cmp < 0) {
+                high = middle - 1;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(final AnyObjectId id, final int position) {
+        final int offset = HEADER_SIZE + position * Constants.OBJECT_ID_LENGTH;
+        for (int i = 0; i < Constants.OBJECT_ID_LENGTH; i++) {
+            final int cmp = id.getByte(i) - (buffer.get(offset + i) & 0xff);
+            if (cmp != 0) {
+                return cmp;
+            }
+        }
+        return 0;
+    }
+
+    private ObjectId idAt(final int position) {
+        final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+        final int offset = HEADER_SIZE + position * Constants.OBJECT_ID_LENGTH;
+        for (int i = 0; i < raw.length; i++) {
+            raw[i] = buffer.get(offset + i);
+        }
+        return ObjectId.fromRaw(raw);
+    }
+
+    private int generation(final int position) {
+        return buffer.getInt(recordOffset + position * RECORD_SIZE);
+    }
+
+    private int commitTime(final int position) {
+        return buffer.getInt(recordOffset + position * RECORD_SIZE + 4);
+    }
+
+    private int[] parents(final int position) {
+        final int first = buffer.getInt(recordOffset + position * RECORD_SIZE + 8);
+        final int second = buffer.getInt(recordOffset + position * RECORD_SIZE + 12);
+        if (first == NO_PARENT) {
+            return new int[0];
+        } else if (second == NO_PARENT) {
+            return new int[] { first };
+        } else if (second >= 0) {
+            return new int[] { first, second };
+        }
+        final List<Integer> edges = new ArrayList<Integer>();
+        int offset = edgeOffset + (-2 - second) * 4;
+        int edge;
+        do {
+            edge = buffer.getInt(offset);
+            edges.add(edge & ~LAST_EDGE);
+            offset += 4;
+        } while ((edge & LAST_EDGE) == 0);
+        final int[] parents = new int[edges.size() + 1];
+        parents[0] = first;
+        for (int i = 0; i < edges.size(); i++) {
+            parents[i + 1] = edges.get(i);
+        }
+        return parents;
+    }
+
+    /**
+     * Writes this index plus {@code added} to the index file.
+     */
+    private void write(final Map<ObjectId, RevCommit> added) throws IOException {
+        final ObjectId[] addedIds = added.keySet().toArray(new ObjectId[added.size()]);
+        Arrays.sort(addedIds);
+
+        // merge the sorted tables, remembering where the old positions end up
+        final int total = count + addedIds.length;
+        final ObjectId[] ids = new ObjectId[total];
+        final int[] moved = new int[count];
+        int o = 0;
+        int a = 0;
+        for (int i = 0; i < total; i++) {
+            if (a >= addedIds.length || (o < count && compare(addedIds[a], o) > 0)) {
+                ids[i] = idAt(o);
+                moved[o++] = i;
+            } else {
+                ids[i] = addedIds[a++];
+            }
+        }
+
+        final int[] generations = new int[total];
+        final int[] times = new int[total];
+        final int[][] parents = new int[total][];
+        for (int i = 0; i < count; i++) {
+            final int[] oldParents = parents(i);
+            for (int p = 0; p < oldParents.length; p++) {
+                oldParents[p] = moved[oldParents[p]];
+            }
+            parents[moved[i]] = oldParents;
+            generations[moved[i]] = generation(i);
+            times[moved[i]] = commitTime(i);
+        }
+        for (final ObjectId id : addedIds) {
+            final int position = Arrays.binarySearch(ids, id);
+            final RevCommit commit = added.get(id);
+            final int[] commitParents = new int[commit.getParentCount()];
+            for (int p = 0; p < commitParents.length; p++) {
+                commitParents[p] = Arrays.binarySearch(ids, commit.getParent(p));
+            }
+            parents[position] = commitParents;
+            times[position] = commit.getCommitTime();
+        }
+        computeGenerations(ids, addedIds, parents, generations);
+
+        final File file = fileOf(repository);
+        file.getParentFile().mkdirs();
+        final LockFile lock = new LockFile(file, repository.getFS());
+        if (!lock.lock()) {
+            throw new IOException("commit index " + file + " is locked");
+        }
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(lock.getOutputStream()));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(total);
+            final byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+            for (final ObjectId id : ids) {
+                id.copyRawTo(raw, 0);
+                out.write(raw);
+            }
+            final List<Integer> edges = new ArrayList<Integer>();
+            for (int i = 0; i < total; i++) {
+                out.writeInt(generations[i]);
+                out.writeInt(times[i]);
+                final int[] p = parents[i];
+                out.writeInt(p.length > 0 ? p[0] : NO_PARENT);
+                if (p.length <= 2) {
+                    out.writeInt(p.length == 2 ? p[1] : NO_PARENT);
+                } else {
+                    out.writeInt(-2 - edges.size());
+                    for (int e = 1; e < p.length; e++) {
+                        edges.add(e == p.length - 1 ? p[e] | LAST_EDGE : p[e]);
+                    }
+                }
+            }
+            out.writeInt(edges.size());
+            for (final int edge : edges) {
+                out.writeInt(edge);
+            }
+            out.close();
+            if (!lock.commit()) {
+                throw new IOException("could not write commit index " + file);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Assigns generations to the added commits, parents first; indexed commits already have theirs.
+     */
+    private static void computeGenerations(final ObjectId[] ids, final ObjectId[] addedIds, final int[][] parents,
+            final int[] generations) {
+        final Deque<Integer> pending = new ArrayDeque<Integer>();
+        for (final ObjectId id : addedIds) {
+            final int start = Arrays.binarySearch(ids, id);
+            if (generations[start] != 0) {
+                continue;
+            }
+            pending.push(start);
+            while (!pending.isEmpty()) {
+                final int position = pending.peek();
+                int generation = 1;
+                boolean ready = true;
+                for (final int parent : parents[position]) {
+                    if (generations[parent] == 0) {
+                        ready = false;
+                        pending.push(parent);
+                    } else {
+                        generation = Math.max(generation, generations[parent] + 1);
+                    }
+                }
+                if (ready) {
+                    pending.pop();
+                    generations[position] = generation;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,416 @@
+package com.zuehlke.jgit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEditor.DeletePath;
+import org.eclipse.jgit.dircache.DirCacheEditor.PathEdit;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Collects file writes and deletes in memory and commits them to a branch in batches.
+ * <p>
+ * Trees are built with an in-core {@link DirCache} and an {@link ObjectInserter}; neither the working
+ * tree nor the index of the repository is touched, so the pipeline works on bare repositories too. A
+ * batch is committed when it holds {@link #setMaxChanges(int) maxChanges} paths or when its oldest
+ * change is {@link #setMaxDelayMillis(long) maxDelay} old, whichever comes first. A later change to a
+ * path replaces an earlier one of the same batch. Written files are regular files, unless they replace an
+ * executable one; a batch that writes below a file or over a directory fails as a whole.
+ * <p>
+ * The branch is updated with a compare-and-swap against the parent the batch was built on. If another
+ * writer moved the branch in the meantime, the batch is rebuilt on top of the new head and retried, so
+ * concurrent producers never lose a commit.
+ */
+public class CommitPipeline implements AutoCloseable {
+
+    private static final int MAX_RETRIES = 100;
+
+    private static class Change {
+
+        final byte[] content;
+        final List<CompletableFuture<ObjectId>> futures = new ArrayList<CompletableFuture<ObjectId>>(1);
+
+        Change(final byte[] content) {
+            this.content = content;
+        }
+    }
+
+    private final Repository repository;
+    private final String branch;
+    private final ScheduledExecutorService flusher;
+
+    private int maxChanges = 100;
+    private long maxDelayMillis = 1000;
+    private PersonIdent ident;
+    private String message = "Automated commit";
+
+    private final Object lock = new Object();
+    private LinkedHashMap<String, Change> pending = new LinkedHashMap<String, Change>();
+    private ScheduledFuture<?> scheduledFlush;
+    private boolean closed;
+
+    private final Runnable flushTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                commitPending();
+            } catch (final IOException | RuntimeException e) {
+                // already reported through the futures of the batch
+            }
+        }
+    };
+
+    /** Tree of {@link #lastCommit}, reused while nobody else commits to the branch. */
+    private DirCache lastTree;
+    private ObjectId lastCommit;
+
+    /**
+     * @param branch full name of the branch to commit to, for example {@code refs/heads/master}
+     */
+    public CommitPipeline(final Repository repository, final String branch) {
+        this.repository = repository;
+        this.branch = branch;
+        this.flusher = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    public CommitPipeline setMaxChanges(final int maxChanges) {
+        if (maxChanges < 1) {
+            throw new IllegalArgumentException("maxChanges must be positive");
+        }
+        this.maxChanges = maxChanges;
+        return this;
+    }
+
+    public CommitPipeline setMaxDelayMillis(final long maxDelayMillis) {
+        this.maxDelayMillis = maxDelayMillis;
+        return this;
+    }
+
+    /**
+     * @param ident author and committer of all commits; defaults to the user of the repository config
+     */
+    public CommitPipeline setIdent(final PersonIdent ident) {
+        this.ident = ident;
+        return this;
+    }
+
+    /**
+     * @param message first line of every commit message, followed by the number of changed paths
+     */
+    public CommitPipeline setMessage(final String message) {
+        this.message = message;
+        return this;
+    }
+
+    /**
+     * Queues a write of {@code content} to {@code path}.
+     *
+     * @return future of the commit that contains the write
+     * @throws IllegalArgumentException if {@code path} is not a valid path in a tree
+     */
+    public CompletableFuture<ObjectId> write(final String path, final byte[] content) {
+        checkPath(path);
+        return enqueue(path, new Change(content.clone()));
+    }
+
+    /**
+     * Queues the deletion of {@code path}; deleting a path that does not exist is not an error.
+     *
+     * @return future of the commit that contains the deletion
+     * @throws IllegalArgumentException if {@code path} is not a valid path in a tree
+     */
+    public CompletableFuture<ObjectId> delete(final String path) {
+        checkPath(path);
+        return enqueue(path, new Change(null));
+    }
+
+    /**
+     * Rejects paths up front, so one bad path cannot fail the whole batch it would be committed with.
+     */
+    private static void checkPath(final String path) {
+        try {
+            new DirCacheEntry(path);
+        } catch (final IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid path " + path, e);
+        }
+    }
+
+    /**
+     * Commits everything queued so far and waits for the commit.
+     *
+     * @return the head of the branch afterwards
+     */
+    public ObjectId flush() throws IOException {
+        try {
+            return flusher.submit(new Callable<ObjectId>() {
+                @Override
+                public ObjectId call() throws IOException {
+                    return commitPending();
+                }
+            }).get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("flush interrupted", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("flush failed", e.getCause());
+        }
+    }
+
+    /**
+     * Commits all queued changes and stops the pipeline.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+        }
+        try {
+            flush();
+        } finally {
+            flusher.shutdown();
+        }
+    }
+
+    private CompletableFuture<ObjectId> enqueue(final String path, final Change change) {
+        final CompletableFuture<ObjectId> future = new CompletableFuture<ObjectId>();
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("commit pipeline is closed");
+            }
+            final Change replaced = pending.put(path, change);
+            if (replaced != null) {
+                change.futures.addAll(replaced.futures);
+            }
+            change.futures.add(future);
+
+            if (pending.size() >= maxChanges) {
+                final Map<String, Change> batch = takePending();
+                flusher.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            commitBatch(batch);
+                        } catch (final IOException | RuntimeException e) {
+                            // already reported through the futures of the batch
+                        }
+                    }
+                });
+            } else if (scheduledFlush == null) {
+                scheduledFlush = flusher.schedule(flushTask, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        return future;
+    }
+
+    private Map<String, Change> takePending() {
+        synchronized (lock) {
+            final Map<String, Change> batch = pending;
+            pending = new LinkedHashMap<String, Change>();
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            return batch;
+        }
+    }
+
+    private ObjectId commitPending() throws IOException {
+        return commitBatch(takePending());
+    }
+
+    /**
+     * Runs on the flusher thread only, so batches are committed in the order they were taken.
+     */
+    private ObjectId commitBatch(final Map<String, Change> batch) throws IOException {
+        try {
+            final ObjectId commit = commit(batch);
+            for (final Change change : batch.values()) {
+                for (final CompletableFuture<ObjectId> future : change.futures) {
+                    future.complete(commit);
+                }
+            }
+            return commit;
+        } catch (final Throwable e) {
+            for (final Change change : batch.values()) {
+                for (final CompletableFuture<ObjectId> future : change.futures) {
+                    future.completeExceptionally(e);
+                }
+            }
+            throw e;
+        }
+    }
+
+    private ObjectId commit(final Map<String, Change> batch) throws IOException {
+        final ObjectInserter inserter = repository.newObjectInserter();
+        final ObjectReader reader = repository.newObjectReader();
+        try {
+            final Map<String, ObjectId> blobs = new LinkedHashMap<String, ObjectId>();
+            for (final Map.Entry<String, Change> entry : batch.entrySet()) {
+                final byte[] content = entry.getValue().content;
+                blobs.put(entry.getKey(), content == null ? null : inserter.insert(Constants.OBJ_BLOB, content));
+            }
+
+            for (int attempt = 0; attempt < MAX_RETRIES; attempt++) {
+                final Ref ref = repository.getRef(branch);
+                final ObjectId parent = ref == null ? null : ref.getObjectId();
+                if (blobs.isEmpty()) {
+                    return parent;
+                }
+
+                final RevCommit parentCommit = parent == null ? null : new RevWalk(reader).parseCommit(parent);
+                final DirCache tree = treeOf(parentCommit, reader);
+                final ObjectId parentTree = parentCommit == null ? null : parentCommit.getTree().getId();
+                applyChanges(tree, blobs);
+                final ObjectId treeId = tree.writeTree(inserter);
+                if (treeId.equals(parentTree)) {
+                    lastCommit = parent;
+                    lastTree = tree;
+                    return parent;
+                }
+
+                final CommitBuilder commit = new CommitBuilder();
+                final PersonIdent now = ident == null ? new PersonIdent(repository) : new PersonIdent(ident, new Date());
+                commit.setAuthor(now);
+                commit.setCommitter(now);
+                commit.setTreeId(treeId);
+                if (parent != null) {
+                    commit.setParentId(parent);
+                }
+                commit.setMessage(message + "\n\n" + blobs.size() + " changed paths\n");
+                final ObjectId commitId = inserter.insert(commit);
+                inserter.flush();
+
+                final RefUpdate update = repository.updateRef(branch);
+                update.setNewObjectId(commitId);
+                update.setExpectedOldObjectId(parent == null ? ObjectId.zeroId() : parent);
+                update.setRefLogMessage("commit: " + message, false);
+                switch (update.update()) {
+                case NEW:
+                case FAST_FORWARD:
+                case FORCED:
+                    lastCommit = commitId;
+                    lastTree = tree;
+                    return commitId;
+                case LOCK_FAILURE:
+                case REJECTED:
+                    // someone else moved the branch, rebuild on top of the new head
+                    backoff(attempt);
+                    break;
+                default:
+                    throw new IOException("could not update " + branch + ": " + update.getResult());
+                }
+            }
+            throw new IOException("could not update " + branch + " after " + MAX_RETRIES + " attempts");
+        } finally {
+            reader.release();
+            inserter.release();
+        }
+    }
+
+    /**
+     * Takes the cached tree out of the cache, as the batch changes it in place; only a successful commit
+     * puts a tree back.
+     */
+    private DirCache treeOf(final RevCommit commit, final ObjectReader reader) throws IOException {
+        final DirCache cached = lastTree;
+        final boolean hit = commit != null && commit.equals(lastCommit);
+        lastCommit = null;
+        lastTree = null;
+        if (hit) {
+            return cached;
+        }
+        final DirCache tree = DirCache.newInCore();
+        final DirCacheBuilder builder = tree.builder();
+        if (commit != null) {
+            builder.addTree(new byte[0], DirCacheEntry.STAGE_0, reader, commit.getTree());
+        }
+        builder.finish();
+        return tree;
+    }
+
+    /**
+     * @throws IllegalArgumentException if a written path lies below a file or is a directory of the tree
+     *         afterwards; the in-core editor does not resolve such conflicts and would write an invalid
+     *         tree
+     */
+    private static void applyChanges(final DirCache tree, final Map<String, ObjectId> blobs) {
+        final DirCacheEditor editor = tree.editor();
+        for (final Map.Entry<String, ObjectId> entry : blobs.entrySet()) {
+            final ObjectId blob = entry.getValue();
+            if (blob == null) {
+                editor.add(new DeletePath(entry.getKey()));
+            } else {
+                editor.add(new PathEdit(entry.getKey()) {
+                    @Override
+                    public void apply(final DirCacheEntry ent) {
+                        // a new entry has no mode yet; an executable file stays executable
+                        if (ent.getFileMode() != FileMode.EXECUTABLE_FILE) {
+                            ent.setFileMode(FileMode.REGULAR_FILE);
+                        }
+                        ent.setObjectId(blob);
+                    }
+                });
+            }
+        }
+        editor.finish();
+
+        for (final Map.Entry<String, ObjectId> entry : blobs.entrySet()) {
+            if (entry.getValue() != null) {
+                checkNoConflict(tree, entry.getKey());
+            }
+        }
+    }
+
+    private static void checkNoConflict(final DirCache tree, final String path) {
+        for (int slash = path.indexOf('/'); slash >= 0; slash = path.indexOf('/', slash + 1)) {
+            final String parent = path.substring(0, slash);
+            if (tree.findEntry(parent) >= 0) {
+                throw new IllegalArgumentException("cannot write " + path + ", " + parent + " is a file");
+            }
+        }
+        if (tree.getEntriesWithin(path).length > 0) {
+            throw new IllegalArgumentException("cannot write " + path + ", it is a directory");
+        }
+    }
+
+    private static void backoff(final int attempt) throws IOException {
+        try {
+            Thread.sleep(Math.min(50, 1 + attempt * 2));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while retrying ref update", e);
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.zuehlke.jgit;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+
+/**
+ * Blame and history of one file, as computed by {@link BlameEngine}.
+ */
+public class FileBlame {
+
+    private final String path;
+    private final ObjectId blobId;
+    private final ObjectId[] commits;
+    private final PersonIdent[] authors;
+    private final List<ObjectId> history;
+
+    FileBlame(final String path, final ObjectId blobId, final ObjectId[] commits, final PersonIdent[] authors,
+            final List<ObjectId> history) {
+        this.path = path;
+        this.blobId = blobId;
+        this.commits = commits;
+        this.authors = authors;
+        this.history = Collections.unmodifiableList(history);
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public ObjectId getBlobId() {
+        return blobId;
+    }
+
+    public int getLineCount() {
+        return commits.length;
+    }
+
+    /**
+     * @param line 0-based line number
+     * @return the commit that last changed {@code line}
+     */
+    public ObjectId getCommit(final int line) {
+        return commits[line];
+    }
+
+    /**
+     * @param line 0-based line number
+     * @return author of the commit that last changed {@code line}
+     */
+    public PersonIdent getAuthor(final int line) {
+        return authors[line];
+    }
+
+    /**
+     * @return the first-parent commits that changed the file, newest first
+     */
+    public List<ObjectId> getHistory() {
+        return history;
+    }
+
+    @Override
+    public String toString() {
+        return path + " " + blobId.name() + ": " + commits.length + " lines, " + history.size() + " commits";
+    }
+}
@@ -0,0 +1,268 @@
+package com.zuehlke.jgit;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Collects {@link OperationStats} per operation and repository for {@link MeteredGit} and publishes them
+ * through JMX and {@link MetricsReporter reporters}.
+ * <p>
+ * While disabled nothing is recorded and metered calls cost a volatile read more than plain ones. JGit
+ * 3.3.1 keeps no statistics of its pack window cache, so the cache metrics available are those of a
+ * {@link #register(RepositoryPool, String) registered} {@link RepositoryPool} or {@link BlobCache}.
+ */
+public class GitMetrics implements AutoCloseable {
+
+    private static final String DOMAIN = "com.zuehlke.jgit";
+
+    private volatile boolean enabled = true;
+    private volatile boolean serializeWrites;
+    private volatile boolean measureBytesWritten;
+    private final ConcurrentMap<String, OperationStats> stats = new ConcurrentHashMap<String, OperationStats>();
+    private final ConcurrentMap<String, ReentrantLock> locks = new ConcurrentHashMap<String, ReentrantLock>();
+
+    private MBeanServer mbeanServer;
+    private final List<ObjectName> registered = new ArrayList<ObjectName>();
+    private ScheduledExecutorService scheduler;
+    private final AtomicLong reportFailures = new AtomicLong();
+    private volatile RuntimeException lastReportFailure;
+
+    public GitMetrics setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @param serializeWrites whether {@link MeteredGit} runs the {@link GitOperation#writes() writing}
+     *        operations of a repository one at a time, so concurrent callers wait for each other instead of
+     *        failing on JGit's index and ref locks; only then is lock wait recorded. Defaults to
+     *        {@code false}, and applies whether or not recording is enabled.
+     */
+    public GitMetrics setSerializeWrites(final boolean serializeWrites) {
+        this.serializeWrites = serializeWrites;
+        return this;
+    }
+
+    public boolean isSerializeWrites() {
+        return serializeWrites;
+    }
+
+    /**
+     * @param measureBytesWritten whether {@link MeteredGit} records the growth of the object database as
+     *        bytes written by clone, pull, add and commit. Measuring lists the packs and all loose object
+     *        directories before and after every such call, which takes time proportional to the number of
+     *        objects, and attributes the writes of concurrent callers to whichever call sees them unless
+     *        writes are {@link #setSerializeWrites(boolean) serialized}. Defaults to {@code false}.
+     */
+    public GitMetrics setMeasureBytesWritten(final boolean measureBytesWritten) {
+        this.measureBytesWritten = measureBytesWritten;
+        return this;
+    }
+
+    public boolean isMeasureBytesWritten() {
+        return measureBytesWritten;
+    }
+
+    /**
+     * Registers the statistics recorded so far and all later ones with the platform MBean server, as
+     * {@code com.zuehlke.jgit:type=GitOperation,operation=<operation>,repository=<git dir>}.
+     */
+    public GitMetrics enableJmx() {
+        return enableJmx(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    public synchronized GitMetrics enableJmx(final MBeanServer server) {
+        if (mbeanServer == null) {
+            mbeanServer = server;
+            for (final OperationStats operation : stats.values()) {
+                registerMBean(operation, nameOf(operation));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Publishes hits, misses and evictions of {@code pool} as
+     * {@code com.zuehlke.jgit:type=RepositoryPool,name=<name>}; requires {@link #enableJmx()}.
+     */
+    public synchronized void register(final RepositoryPool pool, final String name) {
+        if (mbeanServer == null) {
+            throw new IllegalStateException("JMX is not enabled");
+        }
+        try {
+            registerMBean(pool, new ObjectName(DOMAIN + ":type=RepositoryPool,name=" + ObjectName.quote(name)));
+        } catch (final JMException e) {
+            throw new IllegalArgumentException("invalid pool name " + name, e);
+        }
+    }
+
+    /**
+     * Publishes hits, misses, admissions and evictions of {@code cache} as
+     * {@code com.zuehlke.jgit:type=BlobCache,name=<name>}; requires {@link #enableJmx()}.
+     */
+    public synchronized void register(final BlobCache cache, final String name) {
+        if (mbeanServer == null) {
+            throw new IllegalStateException("JMX is not enabled");
+        }
+        try {
+            registerMBean(cache, new ObjectName(DOMAIN + ":type=BlobCache,name=" + ObjectName.quote(name)));
+        } catch (final JMException e) {
+            throw new IllegalArgumentException("invalid cache name " + name, e);
+        }
+    }
+
+    /**
+     * Calls {@code reporter} every {@code periodMillis} on a daemon thread, replacing any earlier reporter.
+     * A report that fails is counted in {@link #getReportFailures()} and does not stop later ones.
+     */
+    public synchronized void startReporting(final MetricsReporter reporter, final long periodMillis) {
+        stopReporting();
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "git-metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        scheduler.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    reporter.report(getStats());
+                } catch (final RuntimeException e) {
+                    // escaping, it would cancel all later reports
+                    lastReportFailure = e;
+                    reportFailures.incrementAndGet();
+                }
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopReporting() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * @return number of reports that failed since these metrics were created
+     */
+    public long getReportFailures() {
+        return reportFailures.get();
+    }
+
+    /**
+     * @return the exception of the latest failed report, or {@code null} if none failed
+     */
+    public RuntimeException getLastReportFailure() {
+        return lastReportFailure;
+    }
+
+    public Collection<OperationStats> getStats() {
+        return new ArrayList<OperationStats>(stats.values());
+    }
+
+    /**
+     * @return statistics of {@code operation} on the repository with git directory {@code repository}, or
+     *         {@code null} if it was never recorded
+     */
+    public OperationStats getStats(final GitOperation operation, final String repository) {
+        return stats.get(keyOf(operation, repository));
+    }
+
+    /**
+     * Stops reporting and unregisters all MBeans; recorded statistics are kept.
+     */
+    @Override
+    public synchronized void close() {
+        stopReporting();
+        if (mbeanServer != null) {
+            for (final ObjectName name : registered) {
+                try {
+                    mbeanServer.unregisterMBean(name);
+                } catch (final JMException e) {
+                    // unregistered by someone else
+                }
+            }
+            registered.clear();
+            mbeanServer = null;
+        }
+    }
+
+    OperationStats statsFor(final GitOperation operation, final String repository) {
+        final String key = keyOf(operation, repository);
+        final OperationStats existing = stats.get(key);
+        if (existing != null) {
+            return existing;
+        }
+        final OperationStats created = new OperationStats(operation, repository);
+        final OperationStats raced = stats.putIfAbsent(key, created);
+        if (raced != null) {
+            return raced;
+        }
+        synchronized (this) {
+            if (mbeanServer != null) {
+                registerMBean(created, nameOf(created));
+            }
+        }
+        return created;
+    }
+
+    /**
+     * @return the lock serializing write operations on the repository with git directory {@code repository}
+     */
+    ReentrantLock lockFor(final String repository) {
+        final ReentrantLock existing = locks.get(repository);
+        if (existing != null) {
+            return existing;
+        }
+        final ReentrantLock created = new ReentrantLock();
+        final ReentrantLock raced = locks.putIfAbsent(repository, created);
+        return raced != null ? raced : created;
+    }
+
+    private void registerMBean(final Object mbean, final ObjectName name) {
+        try {
+            if (mbeanServer.isRegistered(name)) {
+                mbeanServer.unregisterMBean(name);
+            }
+            mbeanServer.registerMBean(mbean, name);
+            registered.add(name);
+        } catch (final JMException e) {
+            throw new IllegalStateException("cannot register " + name, e);
+        }
+    }
+
+    private static ObjectName nameOf(final OperationStats operation) {
+        try {
+            return new ObjectName(DOMAIN + ":type=GitOperation,operation=" + operation.getOperation()
+                    + ",repository=" + ObjectName.quote(operation.getRepository()));
+        } catch (final JMException e) {
+            throw new IllegalStateException("invalid repository " + operation.getRepository(), e);
+        }
+    }
+
+    private static String keyOf(final GitOperation operation, final String repository) {
+        return operation.name() + ':' + repository;
+    }
+}
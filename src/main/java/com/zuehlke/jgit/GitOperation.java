@@ -0,0 +1,24 @@
+package com.zuehlke.jgit;
+
+/**
+ * The Git commands {@link MeteredGit} records metrics for.
+ */
+public enum GitOperation {
+
+    CLONE(true), ADD(true), COMMIT(true), PUSH(false), PULL(true), BRANCH_CREATE(true), STATUS(false),
+    SUBMODULE_STATUS(false), SUBMODULE_ADD(true);
+
+    private final boolean writes;
+
+    private GitOperation(final boolean writes) {
+        this.writes = writes;
+    }
+
+    /**
+     * @return whether the operation changes the index, refs or working tree and therefore takes the write
+     *         lock of the repository
+     */
+    public boolean writes() {
+        return writes;
+    }
+}
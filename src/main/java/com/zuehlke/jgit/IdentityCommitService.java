@@ -0,0 +1,200 @@
+package com.zuehlke.jgit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+
+/**
+ * Commits on behalf of many users without touching {@code user.name} and {@code user.email} of the repository
+ * config, and rewrites the identities of existing history.
+ * <p>
+ * Author and committer are passed with every {@link #commit(String, PersonIdent, PersonIdent) commit}, so
+ * concurrent callers never see each other's identity. {@link #identity(String, String, String)} hands out
+ * identities from a cache of names, emails and time zones. Commits of one service are serialized, because
+ * they share the index of the repository.
+ * <p>
+ * {@link #rewrite(String, ObjectId, IdentityMapper)} streams a commit range oldest first. Commit bodies are
+ * parsed one at a time and not retained, so memory grows only with the number of commit ids, not with the
+ * size of the history.
+ */
+public class IdentityCommitService {
+
+    /**
+     * Maps the identity of a commit author or committer during a {@link IdentityCommitService#rewrite rewrite}.
+     */
+    public interface IdentityMapper {
+
+        /**
+         * @return the identity to use instead of {@code ident}, or {@code ident} itself to keep it; only name and
+         *         email are used, the time of the original identity is kept
+         */
+        PersonIdent map(PersonIdent ident);
+    }
+
+    private final Repository repository;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final ConcurrentMap<String, PersonIdent> identities = new ConcurrentHashMap<String, PersonIdent>();
+    private final ConcurrentMap<String, TimeZone> timeZones = new ConcurrentHashMap<String, TimeZone>();
+
+    public IdentityCommitService(final Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * @param timeZoneId time zone the identity is recorded in, for example {@code Europe/Zurich}; {@code null}
+     *        for the default time zone of the JVM
+     * @return identity of {@code name} and {@code email} at the current time
+     */
+    public PersonIdent identity(final String name, final String email, final String timeZoneId) {
+        final String key = name + '\0' + email;
+        PersonIdent template = identities.get(key);
+        if (template == null) {
+            template = new PersonIdent(name, email, 0L, 0);
+            final PersonIdent raced = identities.putIfAbsent(key, template);
+            if (raced != null) {
+                template = raced;
+            }
+        }
+        final TimeZone timeZone = timeZoneOf(timeZoneId);
+        final long now = System.currentTimeMillis();
+        return new PersonIdent(template, now, timeZone.getOffset(now) / 60000);
+    }
+
+    /**
+     * Commits the index of the repository.
+     *
+     * @param author author of the commit, see {@link #identity(String, String, String)}
+     * @param committer committer of the commit, usually the bot committing on behalf of the author
+     */
+    public RevCommit commit(final String message, final PersonIdent author, final PersonIdent committer)
+            throws GitAPIException {
+        if (author == null || committer == null) {
+            throw new IllegalArgumentException("author and committer are required");
+        }
+        lock.lock();
+        try {
+            return new Git(repository).commit()
+                                      .setMessage(message)
+                                      .setAuthor(author)
+                                      .setCommitter(committer)
+                                      .call();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rewrites the commits reachable from {@code ref} but not from {@code since} with the identities
+     * {@code mapper} returns, and moves {@code ref} to the rewritten head. Commits whose identities and
+     * parents do not change keep their id.
+     *
+     * @param ref full name of the ref to rewrite
+     * @param since last commit to keep unchanged, {@code null} to rewrite the whole history
+     * @throws IOException if {@code ref} does not exist or was moved by someone else during the rewrite
+     */
+    public RewriteResult rewrite(final String ref, final ObjectId since, final IdentityMapper mapper)
+            throws IOException {
+        final ObjectId oldHead = repository.resolve(ref);
+        if (oldHead == null) {
+            throw new IOException(ref + " does not exist in " + repository.getDirectory());
+        }
+        final Map<ObjectId, ObjectId> rewritten = new HashMap<ObjectId, ObjectId>();
+        int visited = 0;
+        final ObjectReader reader = repository.newObjectReader();
+        final ObjectInserter inserter = repository.newObjectInserter();
+        final RevWalk walk = new RevWalk(reader);
+        try {
+            walk.setRetainBody(false);
+            walk.sort(RevSort.TOPO);
+            walk.sort(RevSort.REVERSE, true);
+            walk.markStart(walk.parseCommit(oldHead));
+            if (since != null) {
+                walk.markUninteresting(walk.parseCommit(since));
+            }
+            for (RevCommit commit = walk.next(); commit != null; commit = walk.next()) {
+                visited++;
+                final RevCommit parsed = RevCommit.parse(reader.open(commit).getCachedBytes());
+                final List<ObjectId> parents = new ArrayList<ObjectId>(commit.getParentCount());
+                boolean changed = false;
+                for (final RevCommit parent : commit.getParents()) {
+                    final ObjectId mapped = rewritten.get(parent);
+                    parents.add(mapped != null ? mapped : parent);
+                    changed |= mapped != null;
+                }
+                final PersonIdent author = remap(mapper, parsed.getAuthorIdent());
+                final PersonIdent committer = remap(mapper, parsed.getCommitterIdent());
+                changed |= !author.equals(parsed.getAuthorIdent()) || !committer.equals(parsed.getCommitterIdent());
+                if (!changed) {
+                    continue;
+                }
+                final CommitBuilder builder = new CommitBuilder();
+                builder.setTreeId(parsed.getTree());
+                builder.setParentIds(parents);
+                builder.setAuthor(author);
+                builder.setCommitter(committer);
+                builder.setEncoding(parsed.getEncoding());
+                builder.setMessage(parsed.getFullMessage());
+                rewritten.put(commit.copy(), inserter.insert(builder));
+            }
+            inserter.flush();
+        } finally {
+            walk.release();
+            inserter.release();
+            reader.release();
+        }
+
+        final ObjectId newHead = rewritten.containsKey(oldHead) ? rewritten.get(oldHead) : oldHead;
+        if (!newHead.equals(oldHead)) {
+            final RefUpdate update = repository.updateRef(ref);
+            update.setExpectedOldObjectId(oldHead);
+            update.setNewObjectId(newHead);
+            update.setForceUpdate(true);
+            update.setRefLogMessage("rewrite identities", false);
+            final RefUpdate.Result result = update.update();
+            if (result != RefUpdate.Result.FORCED && result != RefUpdate.Result.FAST_FORWARD) {
+                throw new IOException("could not update " + ref + " in " + repository.getDirectory() + ": " + result);
+            }
+        }
+        return new RewriteResult(ref, oldHead, newHead, visited, rewritten.size());
+    }
+
+    private TimeZone timeZoneOf(final String timeZoneId) {
+        if (timeZoneId == null) {
+            return TimeZone.getDefault();
+        }
+        TimeZone timeZone = timeZones.get(timeZoneId);
+        if (timeZone == null) {
+            timeZone = TimeZone.getTimeZone(timeZoneId);
+            timeZones.putIfAbsent(timeZoneId, timeZone);
+        }
+        return timeZone;
+    }
+
+    private static PersonIdent remap(final IdentityMapper mapper, final PersonIdent ident) {
+        final PersonIdent mapped = mapper.map(ident);
+        if (mapped == null || mapped == ident) {
+            return ident;
+        }
+        return new PersonIdent(mapped.getName(), mapped.getEmailAddress(), ident.getWhen().getTime(),
+                ident.getTimeZoneOffset());
+    }
+}
@@ -0,0 +1,134 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.storage.pack.PackConfig;
+
+/**
+ * Sizes JGit's caches from an explicit heap budget, for cloning and walking repositories that are much
+ * larger than the heap.
+ * <p>
+ * Of the budget, a quarter goes to the pack window cache and a sixteenth each to the delta base cache and
+ * to the largest object loaded as a whole; bigger objects are streamed by clone, checkout and the readers.
+ * These caches are shared by the whole JVM, so {@link #install()} applies them to every repository.
+ * <p>
+ * {@link #newPackConfig(Repository)} additionally limits packing: objects above the streaming threshold are
+ * not delta compressed, and delta search runs on one thread with a bounded window. Pass it to
+ * {@link org.eclipse.jgit.transport.Transport#setPackConfig(PackConfig) transports} and pack writers.
+ * {@link #configure(Repository)} puts the same limits into the in-memory config of a repository for
+ * commands that read their pack config from there, like JGit's garbage collection. Walks from {@link #newRevWalk(Repository)} discard commit bodies once the
+ * headers are parsed. Fetched packs are already written to disk and indexed from there by JGit; the profile
+ * bounds the caches that indexing reads through.
+ */
+public class LowMemoryProfile {
+
+    private static final int MIN_BUDGET = 4 * WindowCacheConfig.MB;
+    private static final int WINDOW_SIZE = 64 * WindowCacheConfig.KB;
+
+    private final long heapBudget;
+
+    /**
+     * @param heapBudget bytes of heap JGit may use for caches and whole objects, at least 4 MB
+     */
+    public LowMemoryProfile(final long heapBudget) {
+        if (heapBudget < MIN_BUDGET) {
+            throw new IllegalArgumentException("heap budget must be at least " + MIN_BUDGET + " bytes");
+        }
+        this.heapBudget = heapBudget;
+    }
+
+    /**
+     * @return a profile with half of the maximum heap of this JVM as budget
+     */
+    public static LowMemoryProfile ofMaxHeap() {
+        return new LowMemoryProfile(Math.max(MIN_BUDGET, Runtime.getRuntime().maxMemory() / 2));
+    }
+
+    public long getHeapBudget() {
+        return heapBudget;
+    }
+
+    public WindowCacheConfig getWindowCacheConfig() {
+        final WindowCacheConfig config = new WindowCacheConfig();
+        config.setPackedGitMMAP(false);
+        config.setPackedGitWindowSize(WINDOW_SIZE);
+        config.setPackedGitLimit(Math.max(WINDOW_SIZE, heapBudget / 4));
+        config.setDeltaBaseCacheLimit(sixteenth());
+        config.setStreamFileThreshold(sixteenth());
+        return config;
+    }
+
+    /**
+     * Installs the window cache, delta base cache and streaming threshold for the whole JVM.
+     */
+    public void install() {
+        getWindowCacheConfig().install();
+    }
+
+    /**
+     * @return the pack config of {@code repository} limited to the budget
+     */
+    public PackConfig newPackConfig(final Repository repository) {
+        final PackConfig config = new PackConfig(repository);
+        config.setBigFileThreshold(sixteenth());
+        config.setDeltaSearchMemoryLimit(heapBudget / 8);
+        config.setDeltaCacheSize(heapBudget / 16);
+        config.setThreads(1);
+        return config;
+    }
+
+    /**
+     * Limits packing of {@code repository} to the budget, in its in-memory config. The config is not
+     * saved, so the limits are lost when the config file changes on disk and JGit reloads it; configure
+     * again before packing in that case, or use {@link #newPackConfig(Repository)}.
+     */
+    public void configure(final Repository repository) {
+        final StoredConfig config = repository.getConfig();
+        config.setInt(ConfigConstants.CONFIG_CORE_SECTION, null, "bigFileThreshold", sixteenth());
+        config.setLong(ConfigConstants.CONFIG_PACK_SECTION, null, "windowMemory", heapBudget / 8);
+        config.setLong(ConfigConstants.CONFIG_PACK_SECTION, null, "deltaCacheSize", heapBudget / 16);
+        config.setInt(ConfigConstants.CONFIG_PACK_SECTION, null, "threads", 1);
+    }
+
+    /**
+     * Installs the profile and opens the repository in {@code gitDir} configured with it.
+     */
+    public Repository open(final File gitDir) throws IOException {
+        install();
+        final Repository repository = new FileRepositoryBuilder().setGitDir(gitDir)
+                                                                 .setMustExist(true)
+                                                                 .build();
+        configure(repository);
+        return repository;
+    }
+
+    /**
+     * @return a walk that keeps only the parsed headers of commits, not their messages
+     */
+    public RevWalk newRevWalk(final Repository repository) {
+        final RevWalk walk = new RevWalk(repository);
+        walk.setRetainBody(false);
+        return walk;
+    }
+
+    /**
+     * @return a walk over {@code reader} that keeps only the parsed headers of commits
+     */
+    public RevWalk newRevWalk(final ObjectReader reader) {
+        final RevWalk walk = new RevWalk(reader);
+        walk.setRetainBody(false);
+        return walk;
+    }
+
+    private int sixteenth() {
+        return (int) Math.min(Integer.MAX_VALUE, heapBudget / 16);
+    }
+}
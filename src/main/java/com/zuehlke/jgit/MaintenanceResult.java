@@ -0,0 +1,93 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+
+/**
+ * Outcome of {@link MaintenanceScheduler#maintain(org.eclipse.jgit.lib.Repository)}.
+ */
+public class MaintenanceResult {
+
+    private final File directory;
+    private final long looseObjectsBefore;
+    private final long looseObjectsAfter;
+    private final long packFilesBefore;
+    private final long packFilesAfter;
+    private final boolean repacked;
+    private final boolean refsPacked;
+    private final boolean pruned;
+    private final boolean pruneDeferred;
+    private final long throttledMillis;
+
+    MaintenanceResult(final File directory, final long looseObjectsBefore, final long looseObjectsAfter,
+            final long packFilesBefore, final long packFilesAfter, final boolean repacked, final boolean refsPacked,
+            final boolean pruned, final boolean pruneDeferred, final long throttledMillis) {
+        this.directory = directory;
+        this.looseObjectsBefore = looseObjectsBefore;
+        this.looseObjectsAfter = looseObjectsAfter;
+        this.packFilesBefore = packFilesBefore;
+        this.packFilesAfter = packFilesAfter;
+        this.repacked = repacked;
+        this.refsPacked = refsPacked;
+        this.pruned = pruned;
+        this.pruneDeferred = pruneDeferred;
+        this.throttledMillis = throttledMillis;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getLooseObjectsBefore() {
+        return looseObjectsBefore;
+    }
+
+    public long getLooseObjectsAfter() {
+        return looseObjectsAfter;
+    }
+
+    public long getPackFilesBefore() {
+        return packFilesBefore;
+    }
+
+    public long getPackFilesAfter() {
+        return packFilesAfter;
+    }
+
+    public boolean isRepacked() {
+        return repacked;
+    }
+
+    public boolean isRefsPacked() {
+        return refsPacked;
+    }
+
+    /**
+     * @return whether unreachable loose objects older than the expiry were deleted
+     */
+    public boolean isPruned() {
+        return pruned;
+    }
+
+    /**
+     * @return whether a due repack or prune was put off because leases were held; it runs on a later
+     *         maintenance
+     */
+    public boolean isPruneDeferred() {
+        return pruneDeferred;
+    }
+
+    /**
+     * @return time the repack waited to stay within the I/O budget
+     */
+    public long getThrottledMillis() {
+        return throttledMillis;
+    }
+
+    @Override
+    public String toString() {
+        return directory + ": " + looseObjectsBefore + " -> " + looseObjectsAfter + " loose objects, "
+                + packFilesBefore + " -> " + packFilesAfter + " packs" + (repacked ? ", repacked" : "")
+                + (refsPacked ? ", refs packed" : "") + (pruned ? ", pruned" : "")
+                + (pruneDeferred ? ", prune deferred" : "");
+    }
+}
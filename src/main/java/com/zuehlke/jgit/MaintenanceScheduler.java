@@ -0,0 +1,401 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Compacts registered repositories in the background: repacks them, packs their refs and prunes
+ * unreachable loose objects once they grow past configurable limits.
+ * <p>
+ * Every {@link #start(long) interval} a single daemon thread counts the loose objects, packs and loose refs
+ * of each repository and maintains those over a limit, one after the other. A repack writes one pack of
+ * all reachable objects with a reachability bitmap, then deletes the loose objects it packed. It is paced
+ * by an {@link #setIoBudget(long) I/O budget}, estimated from the size of the objects and the progress
+ * of each pass over them.
+ * <p>
+ * Packing refs never removes an object, so it runs while the repository is in use. Repacking and pruning
+ * do: a repack writes the objects reachable from the refs of that moment and deletes all older packs,
+ * whatever their age, and a prune deletes unreachable loose objects. Fetches, pushes and clones borrowing
+ * objects from the repository must therefore hold a {@link Lease} while they write objects they have not
+ * referenced yet. A repack or prune is deferred to a later run while any lease is held, and new leases
+ * wait while one runs.
+ */
+public class MaintenanceScheduler implements AutoCloseable {
+
+    /**
+     * Keeps repacking and pruning away from a repository until closed.
+     */
+    public class Lease implements AutoCloseable {
+
+        private final State state;
+        private boolean closed;
+
+        Lease(final State state) {
+            this.state = state;
+        }
+
+        @Override
+        public void close() {
+            synchronized (state) {
+                if (!closed) {
+                    closed = true;
+                    state.leases--;
+                    state.notifyAll();
+                }
+            }
+        }
+    }
+
+    private static class State {
+
+        final FileRepository repository;
+        /** Serializes maintenance runs of the repository. */
+        final Object maintenance = new Object();
+        /** Guarded by this. */
+        int leases;
+        /** Whether a repack or prune runs; guarded by this. */
+        boolean removing;
+        volatile boolean prunePending;
+        volatile MaintenanceResult lastResult;
+
+        State(final FileRepository repository) {
+            this.repository = repository;
+        }
+
+        synchronized boolean tryBeginRemoval() {
+            if (leases > 0) {
+                return false;
+            }
+            removing = true;
+            return true;
+        }
+
+        synchronized void endRemoval() {
+            removing = false;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Paces the repack of one repository: every pass over the objects reports its progress, and each pass
+     * counts as reading all of the repository's object data once. After every update it waits until the
+     * budget allows the bytes reported so far.
+     */
+    private class ThrottlingMonitor implements ProgressMonitor {
+
+        private final long size;
+        private long start = System.nanoTime();
+        private double bytes;
+        private int totalWork;
+        long throttledNanos;
+
+        ThrottlingMonitor(final long size) {
+            this.size = size;
+        }
+
+        @Override
+        public void start(final int totalTasks) {
+            start = System.nanoTime();
+            bytes = 0;
+        }
+
+        @Override
+        public void beginTask(final String title, final int totalWork) {
+            this.totalWork = totalWork;
+        }
+
+        @Override
+        public void update(final int completed) {
+            final long budget = ioBudget;
+            if (budget <= 0 || totalWork <= 0) {
+                return;
+            }
+            bytes += (double) size * completed / totalWork;
+            final long wait = start + (long) (bytes * 1e9 / budget) - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                throttledNanos += wait;
+            }
+        }
+
+        @Override
+        public void endTask() {
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return closed || Thread.currentThread().isInterrupted();
+        }
+    }
+
+    private final Map<File, State> states = new ConcurrentHashMap<File, State>();
+
+    private int looseObjectLimit = 6700;
+    private int packLimit = 50;
+    private int looseRefLimit = 1000;
+    private volatile long ioBudget;
+    private long pruneExpireMillis = TimeUnit.HOURS.toMillis(1);
+
+    private ScheduledExecutorService scheduler;
+    private volatile boolean closed;
+    private volatile Exception lastError;
+
+    private final AtomicLong repacks = new AtomicLong();
+    private final AtomicLong refPacks = new AtomicLong();
+    private final AtomicLong prunes = new AtomicLong();
+    private final AtomicLong deferredPrunes = new AtomicLong();
+
+    /**
+     * @param looseObjectLimit number of loose objects from which a repository is repacked; defaults to
+     *        6700 like {@code gc.auto}
+     */
+    public MaintenanceScheduler setLooseObjectLimit(final int looseObjectLimit) {
+        this.looseObjectLimit = looseObjectLimit;
+        return this;
+    }
+
+    /**
+     * @param packLimit number of packs from which a repository is repacked into one; defaults to 50 like
+     *        {@code gc.autoPackLimit}
+     */
+    public MaintenanceScheduler setPackLimit(final int packLimit) {
+        this.packLimit = packLimit;
+        return this;
+    }
+
+    /**
+     * @param looseRefLimit number of loose refs from which the refs of a repository are packed; defaults to
+     *        1000
+     */
+    public MaintenanceScheduler setLooseRefLimit(final int looseRefLimit) {
+        this.looseRefLimit = looseRefLimit;
+        return this;
+    }
+
+    /**
+     * @param ioBudget bytes per second a repack may read and write, 0 for no limit; defaults to 0
+     */
+    public MaintenanceScheduler setIoBudget(final long ioBudget) {
+        this.ioBudget = ioBudget;
+        return this;
+    }
+
+    /**
+     * @param pruneExpireMillis minimum age of an unreachable loose object before it is pruned; defaults to
+     *        one hour
+     */
+    public MaintenanceScheduler setPruneExpireMillis(final long pruneExpireMillis) {
+        this.pruneExpireMillis = pruneExpireMillis;
+        return this;
+    }
+
+    /**
+     * Adds {@code repository} to the repositories checked by the background thread.
+     *
+     * @throws IllegalArgumentException if it is not stored in the file system
+     */
+    public void register(final Repository repository) {
+        state(repository);
+    }
+
+    public void unregister(final Repository repository) {
+        states.remove(repository.getDirectory());
+    }
+
+    /**
+     * Keeps repacking and pruning away from {@code repository} until the lease is closed, waiting for a
+     * running repack or prune to finish first. The repository is registered if necessary.
+     */
+    public Lease acquire(final Repository repository) throws InterruptedException {
+        final State state = state(repository);
+        synchronized (state) {
+            while (state.removing) {
+                state.wait();
+            }
+            state.leases++;
+        }
+        return new Lease(state);
+    }
+
+    /**
+     * Checks all registered repositories every {@code intervalMillis} on a daemon thread and maintains those
+     * over a limit.
+     */
+    public synchronized void start(final long intervalMillis) {
+        if (closed) {
+            throw new IllegalStateException("maintenance scheduler is closed");
+        }
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "repository-maintenance");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                for (final State state : new ArrayList<State>(states.values())) {
+                    if (closed) {
+                        return;
+                    }
+                    try {
+                        maintain(state);
+                    } catch (final IOException | RuntimeException e) {
+                        lastError = e;
+                    }
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Maintains {@code repository} now, on the calling thread, doing only what its limits call for. A prune
+     * follows every repack and is also due whenever one was deferred before; both are deferred while a
+     * lease is held.
+     */
+    public MaintenanceResult maintain(final Repository repository) throws IOException {
+        return maintain(state(repository));
+    }
+
+    /**
+     * @return result of the last maintenance of {@code repository}, {@code null} if there was none
+     */
+    public MaintenanceResult getLastResult(final Repository repository) {
+        final State state = states.get(repository.getDirectory());
+        return state != null ? state.lastResult : null;
+    }
+
+    /**
+     * @return failure of the last background maintenance, {@code null} if none failed
+     */
+    public Exception getLastError() {
+        return lastError;
+    }
+
+    public long getRepacks() {
+        return repacks.get();
+    }
+
+    public long getRefPacks() {
+        return refPacks.get();
+    }
+
+    public long getPrunes() {
+        return prunes.get();
+    }
+
+    public long getDeferredPrunes() {
+        return deferredPrunes.get();
+    }
+
+    /**
+     * Stops the background thread, cancelling a running repack; leases stay valid.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    private State state(final Repository repository) {
+        if (!(repository instanceof FileRepository)) {
+            throw new IllegalArgumentException(repository + " is not stored in the file system");
+        }
+        final File directory = repository.getDirectory();
+        State state = states.get(directory);
+        if (state == null) {
+            final State created = new State((FileRepository) repository);
+            state = states.putIfAbsent(directory, created);
+            if (state == null) {
+                state = created;
+            }
+        }
+        return state;
+    }
+
+    private MaintenanceResult maintain(final State state) throws IOException {
+        synchronized (state.maintenance) {
+            final GC gc = new GC(state.repository);
+            gc.setExpireAgeMillis(pruneExpireMillis);
+            final GC.RepoStatistics before = gc.getStatistics();
+
+            final boolean packRefs = before.numberOfLooseRefs >= looseRefLimit;
+            if (packRefs) {
+                gc.packRefs();
+                refPacks.incrementAndGet();
+            }
+
+            final boolean repackDue = before.numberOfLooseObjects >= looseObjectLimit
+                    || before.numberOfPackFiles >= packLimit;
+            boolean repack = false;
+            boolean pruned = false;
+            boolean deferred = false;
+            long throttledNanos = 0;
+            if (repackDue || state.prunePending) {
+                if (state.tryBeginRemoval()) {
+                    try {
+                        if (repackDue) {
+                            final ThrottlingMonitor monitor = new ThrottlingMonitor(before.sizeOfLooseObjects
+                                    + before.sizeOfPackedObjects);
+                            gc.setProgressMonitor(monitor);
+                            // also deletes the old packs and the loose objects now packed
+                            gc.repack();
+                            throttledNanos = monitor.throttledNanos;
+                            repack = true;
+                            repacks.incrementAndGet();
+                        }
+                        gc.prune(Collections.<ObjectId> emptySet());
+                    } catch (final ParseException e) {
+                        throw new IOException("invalid prune expiry of " + state.repository.getDirectory(), e);
+                    } finally {
+                        state.endRemoval();
+                    }
+                    state.prunePending = false;
+                    pruned = true;
+                    prunes.incrementAndGet();
+                } else {
+                    state.prunePending = true;
+                    deferred = true;
+                    deferredPrunes.incrementAndGet();
+                }
+            }
+
+            final GC.RepoStatistics after = repack || packRefs || pruned ? gc.getStatistics() : before;
+            final MaintenanceResult result = new MaintenanceResult(state.repository.getDirectory(),
+                    before.numberOfLooseObjects, after.numberOfLooseObjects, before.numberOfPackFiles,
+                    after.numberOfPackFiles, repack, packRefs, pruned, deferred,
+                    TimeUnit.NANOSECONDS.toMillis(throttledNanos));
+            state.lastResult = result;
+            return result;
+        }
+    }
+}
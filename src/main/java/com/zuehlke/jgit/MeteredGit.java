@@ -0,0 +1,313 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.jgit.api.AddCommand;
+import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.CommitCommand;
+import org.eclipse.jgit.api.CreateBranchCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.GitCommand;
+import org.eclipse.jgit.api.PullCommand;
+import org.eclipse.jgit.api.PullResult;
+import org.eclipse.jgit.api.PushCommand;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.StatusCommand;
+import org.eclipse.jgit.api.SubmoduleAddCommand;
+import org.eclipse.jgit.api.SubmoduleStatusCommand;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.submodule.SubmoduleStatus;
+import org.eclipse.jgit.transport.PushResult;
+
+/**
+ * Runs the Git commands of a repository while recording their latency, transferred objects, bytes written
+ * to the object database and lock wait in a {@link GitMetrics}.
+ * <p>
+ * If the metrics {@link GitMetrics#setSerializeWrites(boolean) serialize writes}, operations that
+ * {@link GitOperation#writes() write} run one at a time per repository and the time spent waiting is the
+ * lock wait of the operation; otherwise commands run exactly as unmetered ones. Clone, pull and push count
+ * objects with a progress monitor that passes progress on to the caller's. Bytes written are only measured
+ * if {@link GitMetrics#setMeasureBytesWritten(boolean) enabled}, as the growth of the object database.
+ */
+public class MeteredGit {
+
+    private final Git git;
+    private final GitMetrics metrics;
+    private final String repository;
+
+    public MeteredGit(final Git git, final GitMetrics metrics) {
+        this.git = git;
+        this.metrics = metrics;
+        this.repository = git.getRepository().getDirectory().getAbsolutePath();
+    }
+
+    /**
+     * Clones into {@code directory}, recorded as {@link GitOperation#CLONE} of the new repository; the
+     * progress monitor of {@code command} is replaced.
+     */
+    public static MeteredGit cloneRepository(final CloneCommand command, final File directory,
+            final GitMetrics metrics) throws GitAPIException {
+        return cloneRepository(command, directory, metrics, NullProgressMonitor.INSTANCE);
+    }
+
+    /**
+     * Clones into {@code directory}, recorded as {@link GitOperation#CLONE} of the new repository, bare or
+     * not. Clones are never serialized, there is no repository to serialize on before the clone.
+     *
+     * @param monitor receives the progress of the clone; JGit 3.3.1 cannot tell which monitor is set on
+     *        {@code command}, so it is replaced by one that counts objects and passes progress on to
+     *        {@code monitor}
+     */
+    public static MeteredGit cloneRepository(final CloneCommand command, final File directory,
+            final GitMetrics metrics, final ProgressMonitor monitor) throws GitAPIException {
+        command.setDirectory(directory);
+        if (!metrics.isEnabled()) {
+            command.setProgressMonitor(monitor);
+            return new MeteredGit(command.call(), metrics);
+        }
+
+        final CountingMonitor counting = new CountingMonitor(monitor);
+        command.setProgressMonitor(counting);
+        final long start = System.nanoTime();
+        Git git = null;
+        try {
+            git = command.call();
+            return new MeteredGit(git, metrics);
+        } finally {
+            final long nanos = System.nanoTime() - start;
+            final File gitDir = git != null ? git.getRepository().getDirectory() : gitDirOf(directory);
+            // the repository did not exist before, everything in it was written by the clone
+            final long bytes = metrics.isMeasureBytesWritten() ? sizeOf(new File(gitDir, "objects")) : 0;
+            metrics.statsFor(GitOperation.CLONE, gitDir.getAbsolutePath())
+                   .record(nanos, 0, counting.objects.get(), bytes, git == null);
+        }
+    }
+
+    public Git getGit() {
+        return git;
+    }
+
+    public GitMetrics getMetrics() {
+        return metrics;
+    }
+
+    public DirCache add(final AddCommand command) throws GitAPIException {
+        checkRepository(command);
+        return call(metrics, GitOperation.ADD, repository, git.getRepository().getDirectory(), command, null);
+    }
+
+    public RevCommit commit(final CommitCommand command) throws GitAPIException {
+        checkRepository(command);
+        return call(metrics, GitOperation.COMMIT, repository, git.getRepository().getDirectory(), command,
+                null);
+    }
+
+    public Iterable<PushResult> push(final PushCommand command) throws GitAPIException {
+        checkRepository(command);
+        return call(metrics, GitOperation.PUSH, repository, null, command, command.getProgressMonitor());
+    }
+
+    /**
+     * Pulls with {@code command}, whose progress monitor is replaced.
+     */
+    public PullResult pull(final PullCommand command) throws GitAPIException {
+        return pull(command, NullProgressMonitor.INSTANCE);
+    }
+
+    /**
+     * @param monitor receives the progress of the pull; JGit 3.3.1 cannot tell which monitor is set on
+     *        {@code command}, so it is replaced by one that counts objects and passes progress on to
+     *        {@code monitor}
+     */
+    public PullResult pull(final PullCommand command, final ProgressMonitor monitor) throws GitAPIException {
+        checkRepository(command);
+        return call(metrics, GitOperation.PULL, repository, git.getRepository().getDirectory(), command,
+                monitor);
+    }
+
+    public Ref branchCreate(final CreateBranchCommand command) throws GitAPIException {
+        return call(GitOperation.BRANCH_CREATE, command);
+    }
+
+    public Status status(final StatusCommand command) throws GitAPIException {
+        return call(GitOperation.STATUS, command);
+    }
+
+    public Map<String, SubmoduleStatus> submoduleStatus(final SubmoduleStatusCommand command)
+            throws GitAPIException {
+        return call(GitOperation.SUBMODULE_STATUS, command);
+    }
+
+    public Repository submoduleAdd(final SubmoduleAddCommand command) throws GitAPIException {
+        return call(GitOperation.SUBMODULE_ADD, command);
+    }
+
+    private <T> T call(final GitOperation operation, final GitCommand<T> command) throws GitAPIException {
+        checkRepository(command);
+        return call(metrics, operation, repository, null, command, null);
+    }
+
+    private void checkRepository(final GitCommand<?> command) {
+        if (command.getRepository() != git.getRepository()) {
+            throw new IllegalArgumentException("command belongs to " + command.getRepository());
+        }
+    }
+
+    /**
+     * @param gitDir directory whose object database growth is recorded as bytes written, if
+     *        {@link GitMetrics#isMeasureBytesWritten() measured}, or {@code null}
+     * @param monitor progress monitor of the clone, pull or push {@code command}, which gets one counting
+     *        the transferred objects in its place, or {@code null} for other commands
+     */
+    private static <T> T call(final GitMetrics metrics, final GitOperation operation, final String repository,
+            final File gitDir, final GitCommand<T> command, final ProgressMonitor monitor) throws GitAPIException {
+        final ReentrantLock lock = operation.writes() && metrics.isSerializeWrites() ? metrics.lockFor(repository)
+                : null;
+        if (!metrics.isEnabled()) {
+            setProgressMonitor(command, monitor);
+            if (lock == null) {
+                return command.call();
+            }
+            lock.lock();
+            try {
+                return command.call();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        final CountingMonitor counting = monitor != null ? new CountingMonitor(monitor) : null;
+        setProgressMonitor(command, counting);
+        final File objectsDir = gitDir != null && metrics.isMeasureBytesWritten() ? new File(gitDir, "objects")
+                : null;
+
+        final long start = System.nanoTime();
+        long lockWait = 0;
+        if (lock != null) {
+            lock.lock();
+            lockWait = System.nanoTime() - start;
+        }
+        boolean failed = true;
+        try {
+            // measured while locked, so the growth is that of this command if writes are serialized
+            final long objectBytes = objectsDir != null ? sizeOf(objectsDir) : 0;
+            try {
+                final T result = command.call();
+                failed = false;
+                return result;
+            } finally {
+                final long nanos = System.nanoTime() - start;
+                final long bytes = objectsDir != null ? Math.max(0, sizeOf(objectsDir) - objectBytes) : 0;
+                metrics.statsFor(operation, repository)
+                       .record(nanos, lockWait, counting != null ? counting.objects.get() : 0, bytes, failed);
+            }
+        } finally {
+            if (lock != null) {
+                lock.unlock();
+            }
+        }
+    }
+
+    private static void setProgressMonitor(final GitCommand<?> command, final ProgressMonitor monitor) {
+        if (monitor == null) {
+            return;
+        }
+        if (command instanceof PullCommand) {
+            ((PullCommand) command).setProgressMonitor(monitor);
+        } else if (command instanceof PushCommand) {
+            ((PushCommand) command).setProgressMonitor(monitor);
+        }
+    }
+
+    /**
+     * @return the git directory a non-bare clone into {@code directory} creates, or {@code directory} itself
+     *         if there is none
+     */
+    private static File gitDirOf(final File directory) {
+        final File gitDir = new File(directory, Constants.DOT_GIT);
+        return gitDir.isDirectory() ? gitDir : directory;
+    }
+
+    /**
+     * @return size of the packs and loose objects in {@code objectsDir}
+     */
+    private static long sizeOf(final File objectsDir) {
+        long size = 0;
+        final File[] dirs = objectsDir.listFiles();
+        if (dirs != null) {
+            for (final File dir : dirs) {
+                // "pack" and the two digit fan-out directories of loose objects, not "info"
+                if (dir.getName().equals("pack") || dir.getName().length() == 2) {
+                    size += sizeOfFiles(dir);
+                }
+            }
+        }
+        return size;
+    }
+
+    private static long sizeOfFiles(final File dir) {
+        long size = 0;
+        final File[] files = dir.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                size += file.length();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Counts the objects of the "Receiving objects" and "Writing objects" tasks of fetch and push and passes
+     * all progress on to the caller's monitor.
+     */
+    private static class CountingMonitor implements ProgressMonitor {
+
+        final AtomicLong objects = new AtomicLong();
+        private final ProgressMonitor delegate;
+        private volatile boolean counting;
+
+        CountingMonitor(final ProgressMonitor delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void start(final int totalTasks) {
+            delegate.start(totalTasks);
+        }
+
+        @Override
+        public void beginTask(final String title, final int totalWork) {
+            counting = title.startsWith("Receiving objects") || title.startsWith("Writing objects");
+            delegate.beginTask(title, totalWork);
+        }
+
+        @Override
+        public void update(final int completed) {
+            if (counting) {
+                objects.addAndGet(completed);
+            }
+            delegate.update(completed);
+        }
+
+        @Override
+        public void endTask() {
+            counting = false;
+            delegate.endTask();
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return delegate.isCancelled();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.zuehlke.jgit;
+
+import java.util.Collection;
+
+/**
+ * Receives the metrics of a {@link GitMetrics} periodically, see
+ * {@link GitMetrics#startReporting(MetricsReporter, long)}.
+ */
+public interface MetricsReporter {
+
+    /**
+     * @param stats cumulative statistics of every operation and repository recorded so far
+     */
+    void report(Collection<OperationStats> stats);
+}
@@ -0,0 +1,314 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.api.CloneCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.lib.RepositoryCache;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Clones or fetches all repositories of a {@link MirrorManifest} on a bounded worker pool.
+ * <p>
+ * A repository whose target directory already contains a git repository is fetched, otherwise it is
+ * cloned. At most {@link #setMaxPerHost(int)} transfers run against the same host at any time; entries
+ * for a saturated host stay queued while workers pick up entries for other hosts. Transport failures are
+ * retried with exponential backoff, all other failures are reported immediately.
+ */
+public class MirrorEngine {
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int maxPerHost = 4;
+    private int maxAttempts = 3;
+    private long retryDelayMillis = 500;
+    private boolean bare;
+    private boolean updateCommitGraph;
+    private CredentialsProvider credentialsProvider;
+
+    private final Object lock = new Object();
+    private final Map<String, Integer> inFlight = new HashMap<String, Integer>();
+
+    public MirrorEngine setThreads(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    public MirrorEngine setMaxPerHost(final int maxPerHost) {
+        if (maxPerHost < 1) {
+            throw new IllegalArgumentException("maxPerHost must be positive");
+        }
+        this.maxPerHost = maxPerHost;
+        return this;
+    }
+
+    public MirrorEngine setMaxAttempts(final int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive");
+        }
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    public MirrorEngine setRetryDelayMillis(final long retryDelayMillis) {
+        this.retryDelayMillis = retryDelayMillis;
+        return this;
+    }
+
+    public MirrorEngine setBare(final boolean bare) {
+        this.bare = bare;
+        return this;
+    }
+
+    /**
+     * @param updateCommitGraph whether the {@link CommitGraph} of every repository is updated after a
+     *        successful clone or fetch
+     */
+    public MirrorEngine setUpdateCommitGraph(final boolean updateCommitGraph) {
+        this.updateCommitGraph = updateCommitGraph;
+        return this;
+    }
+
+    public MirrorEngine setCredentialsProvider(final CredentialsProvider credentialsProvider) {
+        this.credentialsProvider = credentialsProvider;
+        return this;
+    }
+
+    /**
+     * Mirrors all entries of the manifest and blocks until every entry is done.
+     *
+     * @return one result per manifest entry, in manifest order; entries left over after a worker was
+     *         interrupted fail with an {@link InterruptedException}
+     */
+    public List<MirrorResult> call(final MirrorManifest manifest) throws InterruptedException {
+        final List<MirrorManifest.Entry> entries = manifest.getEntries();
+        final LinkedList<MirrorManifest.Entry> pending = new LinkedList<MirrorManifest.Entry>(entries);
+        final Map<MirrorManifest.Entry, MirrorResult> results = new HashMap<MirrorManifest.Entry, MirrorResult>();
+        final long startedAt = System.nanoTime();
+
+        final int workers = Math.min(threads, Math.max(1, entries.size()));
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            final List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 0; i < workers; i++) {
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        MirrorManifest.Entry entry;
+                        while ((entry = next(pending)) != null) {
+                            final MirrorResult result;
+                            try {
+                                result = mirror(entry, System.nanoTime() - startedAt);
+                            } finally {
+                                release(entry);
+                            }
+                            synchronized (results) {
+                                results.put(entry, result);
+                            }
+                        }
+                    }
+                }));
+            }
+            for (final Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (final ExecutionException e) {
+                    throw new IllegalStateException("mirror worker failed", e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        final List<MirrorResult> ordered = new ArrayList<MirrorResult>(entries.size());
+        for (final MirrorManifest.Entry entry : entries) {
+            final MirrorResult result = results.get(entry);
+            ordered.add(result != null ? result : new MirrorResult(entry,
+                    isRepository(entry.getDirectory()) ? MirrorResult.Action.FETCH : MirrorResult.Action.CLONE, 0,
+                    System.nanoTime() - startedAt, 0, new InterruptedException("interrupted before mirroring")));
+        }
+        return ordered;
+    }
+
+    /**
+     * Takes the first pending entry whose host has a free slot, waiting while all remaining entries
+     * target saturated hosts.
+     */
+    private MirrorManifest.Entry next(final LinkedList<MirrorManifest.Entry> pending) {
+        synchronized (lock) {
+            while (!pending.isEmpty()) {
+                final Iterator<MirrorManifest.Entry> it = pending.iterator();
+                while (it.hasNext()) {
+                    final MirrorManifest.Entry entry = it.next();
+                    final String host = hostOf(entry);
+                    final Integer running = inFlight.get(host);
+                    if (running == null || running.intValue() < maxPerHost) {
+                        inFlight.put(host, running == null ? 1 : running.intValue() + 1);
+                        it.remove();
+                        return entry;
+                    }
+                }
+                try {
+                    lock.wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return null;
+                }
+            }
+            return null;
+        }
+    }
+
+    private void release(final MirrorManifest.Entry entry) {
+        synchronized (lock) {
+            final String host = hostOf(entry);
+            final int running = inFlight.get(host).intValue() - 1;
+            if (running == 0) {
+                inFlight.remove(host);
+            } else {
+                inFlight.put(host, running);
+            }
+            lock.notifyAll();
+        }
+    }
+
+    private MirrorResult mirror(final MirrorManifest.Entry entry, final long queuedNanos) {
+        final boolean exists = isRepository(entry.getDirectory());
+        final MirrorResult.Action action = exists ? MirrorResult.Action.FETCH : MirrorResult.Action.CLONE;
+        // a failed clone only deletes what it created, not the target directory or files that were there
+        final String[] existing = exists ? null : entry.getDirectory().list();
+        final long start = System.nanoTime();
+        int attempt = 0;
+        Exception error = null;
+        while (attempt < maxAttempts) {
+            attempt++;
+            try {
+                if (exists) {
+                    fetch(entry);
+                } else {
+                    cloneRepository(entry);
+                }
+                error = null;
+                break;
+            } catch (final TransportException e) {
+                error = e;
+                if (!exists) {
+                    deletePartialClone(entry.getDirectory(), existing);
+                }
+                if (attempt < maxAttempts && !backoff(attempt)) {
+                    break;
+                }
+            } catch (final Exception e) {
+                error = e;
+                break;
+            }
+        }
+        if (error == null && updateCommitGraph) {
+            try {
+                updateCommitGraph(entry);
+            } catch (final IOException e) {
+                error = e;
+            }
+        }
+        return new MirrorResult(entry, action, attempt, queuedNanos, System.nanoTime() - start, error);
+    }
+
+    void cloneRepository(final MirrorManifest.Entry entry) throws GitAPIException {
+        final CloneCommand clone = Git.cloneRepository()
+                                      .setURI(entry.getUri())
+                                      .setDirectory(entry.getDirectory())
+                                      .setBare(bare)
+                                      .setCredentialsProvider(credentialsProvider);
+        clone.call().close();
+    }
+
+    void fetch(final MirrorManifest.Entry entry) throws GitAPIException, IOException {
+        final Git git = Git.open(entry.getDirectory());
+        try {
+            git.fetch()
+               .setRemoveDeletedRefs(true)
+               .setCredentialsProvider(credentialsProvider)
+               .call();
+        } finally {
+            git.close();
+        }
+    }
+
+    private static void updateCommitGraph(final MirrorManifest.Entry entry) throws IOException {
+        final Git git = Git.open(entry.getDirectory());
+        try {
+            CommitGraph.update(git.getRepository());
+        } finally {
+            git.close();
+        }
+    }
+
+    private boolean backoff(final int attempt) {
+        try {
+            Thread.sleep(retryDelayMillis << (attempt - 1));
+            return true;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @param existing names of the files in {@code directory} before the clone, or {@code null} if the
+     *        clone created it
+     */
+    private static void deletePartialClone(final File directory, final String[] existing) {
+        try {
+            if (existing == null) {
+                FileUtils.delete(directory, FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+                return;
+            }
+            final String[] names = directory.list();
+            if (names != null) {
+                final Set<String> keep = new HashSet<String>(Arrays.asList(existing));
+                for (final String name : names) {
+                    if (!keep.contains(name)) {
+                        FileUtils.delete(new File(directory, name), FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+                    }
+                }
+            }
+        } catch (final IOException e) {
+            // the next attempt fails on the leftovers and reports the problem
+        }
+    }
+
+    static boolean isRepository(final File directory) {
+        return RepositoryCache.FileKey.resolve(directory, FS.DETECTED) != null;
+    }
+
+    static String hostOf(final MirrorManifest.Entry entry) {
+        try {
+            final String host = new URIish(entry.getUri()).getHost();
+            return host == null ? "" : host.toLowerCase();
+        } catch (final URISyntaxException e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.zuehlke.jgit;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * List of repositories to mirror, one {@code <uri> <target directory>} pair per line.
+ * <p>
+ * Empty lines and lines starting with {@code #} are ignored. Relative target directories are
+ * resolved against the base directory given to {@link #parse(Reader, File)}.
+ */
+public class MirrorManifest {
+
+    /**
+     * A single repository to clone or fetch.
+     */
+    public static class Entry {
+
+        private final String uri;
+        private final File directory;
+
+        public Entry(final String uri, final File directory) {
+            this.uri = uri;
+            this.directory = directory;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public File getDirectory() {
+            return directory;
+        }
+
+        @Override
+        public String toString() {
+            return uri + " -> " + directory;
+        }
+    }
+
+    private final List<Entry> entries;
+
+    public MirrorManifest(final List<Entry> entries) {
+        this.entries = Collections.unmodifiableList(new ArrayList<Entry>(entries));
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public static MirrorManifest load(final File file) throws IOException {
+        final Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+        try {
+            return parse(reader, file.getAbsoluteFile().getParentFile());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public static MirrorManifest parse(final Reader reader, final File baseDir) throws IOException {
+        final List<Entry> entries = new ArrayList<Entry>();
+        final BufferedReader lines = new BufferedReader(reader);
+        int lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            final String[] parts = line.split("\\s+");
+            if (parts.length != 2) {
+                throw new IOException("invalid manifest line " + lineNumber + ": " + line);
+            }
+
+            File directory = new File(parts[1]);
+            if (!directory.isAbsolute() && baseDir != null) {
+                directory = new File(baseDir, parts[1]);
+            }
+            entries.add(new Entry(parts[0], directory));
+        }
+        return new MirrorManifest(entries);
+    }
+}
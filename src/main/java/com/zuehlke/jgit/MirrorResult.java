@@ -0,0 +1,70 @@
+package com.zuehlke.jgit;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Outcome of mirroring a single {@link MirrorManifest.Entry}.
+ */
+public class MirrorResult {
+
+    public enum Action {
+        CLONE, FETCH
+    }
+
+    private final MirrorManifest.Entry entry;
+    private final Action action;
+    private final int attempts;
+    private final long queuedNanos;
+    private final long durationNanos;
+    private final Exception error;
+
+    MirrorResult(final MirrorManifest.Entry entry, final Action action, final int attempts, final long queuedNanos,
+            final long durationNanos, final Exception error) {
+        this.entry = entry;
+        this.action = action;
+        this.attempts = attempts;
+        this.queuedNanos = queuedNanos;
+        this.durationNanos = durationNanos;
+        this.error = error;
+    }
+
+    public MirrorManifest.Entry getEntry() {
+        return entry;
+    }
+
+    public Action getAction() {
+        return action;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return time spent waiting for a worker and a free per-host slot
+     */
+    public long getQueuedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(queuedNanos);
+    }
+
+    /**
+     * @return time spent transferring, including all retries
+     */
+    public long getDurationMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(durationNanos);
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return action + " " + entry + " " + (isSuccessful() ? "ok" : "failed: " + error.getMessage())
+                + " in " + getDurationMillis() + "ms (queued " + getQueuedMillis() + "ms, attempts " + attempts + ")";
+    }
+}
@@ -0,0 +1,76 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+
+/**
+ * A repository below the root of a {@link RepositoryDiscovery}, found on disk, recorded as gitlink in the
+ * index of its enclosing repository or declared in its {@code .gitmodules}.
+ */
+public class NestedRepository {
+
+    private final String path;
+    private final File gitDir;
+    private final String parent;
+    private final boolean gitlink;
+    private final String name;
+    private final String url;
+
+    NestedRepository(final String path, final File gitDir, final String parent, final boolean gitlink,
+            final String name, final String url) {
+        this.path = path;
+        this.gitDir = gitDir;
+        this.parent = parent;
+        this.gitlink = gitlink;
+        this.name = name;
+        this.url = url;
+    }
+
+    /**
+     * @return path relative to the discovery root, separated by {@code /}
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the git directory, {@code null} if the repository is not checked out
+     */
+    public File getGitDir() {
+        return gitDir;
+    }
+
+    /**
+     * @return path of the enclosing repository, {@code ""} for the discovery root, {@code null} if the
+     *         repository is not inside another one
+     */
+    public String getParent() {
+        return parent;
+    }
+
+    /**
+     * @return whether the enclosing repository tracks this one as gitlink; {@code false} for a repository
+     *         that is merely embedded in the work tree of another one
+     */
+    public boolean isGitlink() {
+        return gitlink;
+    }
+
+    /**
+     * @return the submodule name in {@code .gitmodules}, {@code null} if not declared there
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the submodule URL in {@code .gitmodules}, {@code null} if not declared there
+     */
+    public String getUrl() {
+        return url;
+    }
+
+    @Override
+    public String toString() {
+        return path + (gitlink ? " (gitlink)" : "") + (gitDir == null ? " (not checked out)" : "");
+    }
+}
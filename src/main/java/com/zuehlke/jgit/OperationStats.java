@@ -0,0 +1,173 @@
+package com.zuehlke.jgit;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and latency histogram of one {@link GitOperation} on one repository.
+ * <p>
+ * Latencies are counted in buckets of powers of two microseconds, so percentiles are accurate to a factor
+ * of two and recording is a few atomic increments without allocation.
+ */
+public class OperationStats implements OperationStatsMXBean {
+
+    private static final int BUCKETS = 40;
+
+    private final GitOperation operation;
+    private final String repository;
+
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong errors = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLong lockWaitNanos = new AtomicLong();
+    private final AtomicLong objects = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    OperationStats(final GitOperation operation, final String repository) {
+        this.operation = operation;
+        this.repository = repository;
+    }
+
+    void record(final long nanos, final long lockWait, final long objectCount, final long bytes,
+            final boolean failed) {
+        count.incrementAndGet();
+        if (failed) {
+            errors.incrementAndGet();
+        }
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+        lockWaitNanos.addAndGet(lockWait);
+        objects.addAndGet(objectCount);
+        bytesWritten.addAndGet(bytes);
+        histogram.incrementAndGet(bucketOf(nanos));
+    }
+
+    public GitOperation getGitOperation() {
+        return operation;
+    }
+
+    @Override
+    public String getOperation() {
+        return operation.name();
+    }
+
+    /**
+     * @return git directory of the repository
+     */
+    @Override
+    public String getRepository() {
+        return repository;
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return number of calls that threw an exception, included in {@link #getCount()}
+     */
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        final long calls = count.get();
+        return calls == 0 ? 0 : totalNanos.get() / 1e6 / calls;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    @Override
+    public double getP50Millis() {
+        return getPercentileMillis(0.5);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return getPercentileMillis(0.99);
+    }
+
+    /**
+     * @param percentile between 0 and 1
+     * @return upper bound of the histogram bucket the percentile falls into, 0 without calls
+     */
+    public double getPercentileMillis(final double percentile) {
+        final long[] buckets = getHistogram();
+        long total = 0;
+        for (final long bucket : buckets) {
+            total += bucket;
+        }
+        final long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min((1L << (i + 1)) / 1e3, getMaxMillis());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return time spent waiting for the write lock of the repository, included in the latency; only
+     *         recorded if {@link GitMetrics#setSerializeWrites(boolean) writes are serialized}
+     */
+    @Override
+    public double getLockWaitMillis() {
+        return lockWaitNanos.get() / 1e6;
+    }
+
+    /**
+     * @return objects received or sent by clone, pull and push
+     */
+    @Override
+    public long getObjects() {
+        return objects.get();
+    }
+
+    /**
+     * @return bytes added to the local object database by clone, pull, add and commit, as packs or loose
+     *         objects, if {@link GitMetrics#setMeasureBytesWritten(boolean) measured}; JGit 3.3.1 does not
+     *         report the size of the pack a push sends
+     */
+    @Override
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return number of calls per bucket; bucket {@code i} counts latencies below {@code 2^(i+1)}
+     *         microseconds
+     */
+    public long[] getHistogram() {
+        final long[] buckets = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets[i] = histogram.get(i);
+        }
+        return buckets;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s: %d calls, %d errors, mean %.1f ms, p50 %.1f ms, p99 %.1f ms, max %.1f ms, "
+                + "lock wait %.1f ms, %d objects, %d bytes written", operation, repository, getCount(),
+                getErrors(), getMeanMillis(), getP50Millis(), getP99Millis(), getMaxMillis(), getLockWaitMillis(),
+                getObjects(), getBytesWritten());
+    }
+
+    private static int bucketOf(final long nanos) {
+        final long micros = nanos / 1000;
+        return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(Math.max(1, micros)));
+    }
+}
@@ -0,0 +1,29 @@
+package com.zuehlke.jgit;
+
+/**
+ * JMX view of the {@link OperationStats} of one operation on one repository.
+ */
+public interface OperationStatsMXBean {
+
+    String getOperation();
+
+    String getRepository();
+
+    long getCount();
+
+    long getErrors();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+
+    double getP50Millis();
+
+    double getP99Millis();
+
+    double getLockWaitMillis();
+
+    long getObjects();
+
+    long getBytesWritten();
+}
@@ -0,0 +1,221 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.PushResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.eclipse.jgit.transport.Transport;
+
+/**
+ * Collects pending ref updates of many repositories and pushes them with one connection per repository
+ * and remote.
+ * <p>
+ * All updates queued for the same repository and remote are sent in a single push, different remotes
+ * are pushed in parallel. The {@link Transport} of every repository and remote, with its parsed remote
+ * config and credentials provider, is kept between calls to {@link #pushAll()}; {@link #close()} closes
+ * them. The network connection itself is not: JGit opens a new one for every push, because the receive
+ * side handles a single set of updates per connection.
+ */
+public class PushScheduler implements AutoCloseable {
+
+    private static class RemoteKey {
+
+        final Repository repository;
+        final String remote;
+
+        RemoteKey(final Repository repository, final String remote) {
+            this.repository = repository;
+            this.remote = remote;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (!(obj instanceof RemoteKey)) {
+                return false;
+            }
+            final RemoteKey other = (RemoteKey) obj;
+            return repository.getDirectory().equals(other.repository.getDirectory()) && remote.equals(other.remote);
+        }
+
+        @Override
+        public int hashCode() {
+            return repository.getDirectory().hashCode() * 31 + remote.hashCode();
+        }
+    }
+
+    private final ExecutorService executor;
+    private CredentialsProvider credentialsProvider;
+
+    /** Pending pushes per remote, keyed by remote ref so a later update of the same ref wins. */
+    private final Map<RemoteKey, Map<String, RefSpec>> pending = new LinkedHashMap<RemoteKey, Map<String, RefSpec>>();
+    private final Map<RemoteKey, Transport> transports = new HashMap<RemoteKey, Transport>();
+    /** Held while a remote is pushed, as its cached transport is not thread-safe. */
+    private final Map<RemoteKey, Object> locks = new HashMap<RemoteKey, Object>();
+    private final AtomicLong transportsCreated = new AtomicLong();
+
+    public PushScheduler(final int threads) {
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * @param credentialsProvider used for every remote; it is kept with the cached transports
+     */
+    public PushScheduler setCredentialsProvider(final CredentialsProvider credentialsProvider) {
+        this.credentialsProvider = credentialsProvider;
+        return this;
+    }
+
+    /**
+     * Queues an update of {@code remoteRef} on {@code remote} to the current value of {@code localRef}.
+     *
+     * @param localRef local ref to push, or {@code null} to delete {@code remoteRef}
+     */
+    public synchronized PushScheduler add(final Repository repository, final String remote, final String localRef,
+            final String remoteRef, final boolean force) {
+        final RemoteKey key = new RemoteKey(repository, remote);
+        Map<String, RefSpec> specs = pending.get(key);
+        if (specs == null) {
+            specs = new LinkedHashMap<String, RefSpec>();
+            pending.put(key, specs);
+        }
+        specs.put(remoteRef, new RefSpec().setSource(localRef)
+                                          .setDestination(remoteRef)
+                                          .setForceUpdate(force));
+        return this;
+    }
+
+    /**
+     * Pushes everything queued so far and waits for all remotes.
+     *
+     * @return one result per queued ref
+     */
+    public List<RefPushResult> pushAll() throws InterruptedException {
+        final Map<RemoteKey, Map<String, RefSpec>> batch;
+        synchronized (this) {
+            batch = new LinkedHashMap<RemoteKey, Map<String, RefSpec>>(pending);
+            pending.clear();
+        }
+
+        final List<Future<List<RefPushResult>>> futures = new ArrayList<Future<List<RefPushResult>>>();
+        for (final Map.Entry<RemoteKey, Map<String, RefSpec>> entry : batch.entrySet()) {
+            futures.add(executor.submit(new Callable<List<RefPushResult>>() {
+                @Override
+                public List<RefPushResult> call() {
+                    return push(entry.getKey(), entry.getValue().values());
+                }
+            }));
+        }
+
+        final List<RefPushResult> results = new ArrayList<RefPushResult>();
+        for (final Future<List<RefPushResult>> future : futures) {
+            try {
+                results.addAll(future.get());
+            } catch (final ExecutionException e) {
+                throw new IllegalStateException("push task failed", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return number of transports created so far; a remote's transport is only created again after a
+     *         failure, while every push opens a connection of its own
+     */
+    public long getTransportsCreated() {
+        return transportsCreated.get();
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+        synchronized (transports) {
+            for (final Transport transport : transports.values()) {
+                transport.close();
+            }
+            transports.clear();
+        }
+    }
+
+    /**
+     * Runs on a worker; pushes of the same remote never run concurrently, also not from concurrent calls
+     * of {@link #pushAll()}, because they hold the lock of the remote.
+     */
+    private List<RefPushResult> push(final RemoteKey key, final Collection<RefSpec> specs) {
+        synchronized (lockFor(key)) {
+            return pushLocked(key, specs);
+        }
+    }
+
+    private Object lockFor(final RemoteKey key) {
+        synchronized (locks) {
+            Object lock = locks.get(key);
+            if (lock == null) {
+                lock = new Object();
+                locks.put(key, lock);
+            }
+            return lock;
+        }
+    }
+
+    private List<RefPushResult> pushLocked(final RemoteKey key, final Collection<RefSpec> specs) {
+        final File gitDir = key.repository.getDirectory();
+        final List<RefPushResult> results = new ArrayList<RefPushResult>(specs.size());
+        try {
+            final Transport transport = transportFor(key);
+            final Collection<RemoteRefUpdate> updates = transport.findRemoteRefUpdatesFor(specs);
+            final PushResult pushResult = transport.push(NullProgressMonitor.INSTANCE, updates);
+            for (final RemoteRefUpdate update : pushResult.getRemoteUpdates()) {
+                results.add(new RefPushResult(gitDir, key.remote, update.getSrcRef(), update.getRemoteName(),
+                        update.getNewObjectId(), update.getStatus(), update.getMessage(), null));
+            }
+        } catch (final IOException | URISyntaxException | RuntimeException e) {
+            // the transport is probably broken, create a new one next time; other remotes are not affected
+            closeTransport(key);
+            for (final RefSpec spec : specs) {
+                results.add(new RefPushResult(gitDir, key.remote, spec.getSource(), spec.getDestination(), null,
+                        null, null, e));
+            }
+        }
+        return results;
+    }
+
+    private Transport transportFor(final RemoteKey key) throws IOException, URISyntaxException {
+        synchronized (transports) {
+            Transport transport = transports.get(key);
+            if (transport == null) {
+                transport = Transport.open(key.repository, key.remote, Transport.Operation.PUSH);
+                transport.setCredentialsProvider(credentialsProvider);
+                transports.put(key, transport);
+                transportsCreated.incrementAndGet();
+            }
+            return transport;
+        }
+    }
+
+    private void closeTransport(final RemoteKey key) {
+        synchronized (transports) {
+            final Transport transport = transports.remove(key);
+            if (transport != null) {
+                transport.close();
+            }
+        }
+    }
+}
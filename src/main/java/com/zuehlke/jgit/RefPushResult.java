@@ -0,0 +1,85 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+
+/**
+ * Outcome of pushing a single ref with the {@link PushScheduler}.
+ */
+public class RefPushResult {
+
+    private final File repository;
+    private final String remote;
+    private final String localRef;
+    private final String remoteRef;
+    private final ObjectId newObjectId;
+    private final RemoteRefUpdate.Status status;
+    private final String message;
+    private final Exception error;
+
+    RefPushResult(final File repository, final String remote, final String localRef, final String remoteRef,
+            final ObjectId newObjectId, final RemoteRefUpdate.Status status, final String message,
+            final Exception error) {
+        this.repository = repository;
+        this.remote = remote;
+        this.localRef = localRef;
+        this.remoteRef = remoteRef;
+        this.newObjectId = newObjectId;
+        this.status = status;
+        this.message = message;
+        this.error = error;
+    }
+
+    /**
+     * @return git directory of the pushing repository
+     */
+    public File getRepository() {
+        return repository;
+    }
+
+    public String getRemote() {
+        return remote;
+    }
+
+    /**
+     * @return the pushed local ref, or {@code null} for a deletion
+     */
+    public String getLocalRef() {
+        return localRef;
+    }
+
+    public String getRemoteRef() {
+        return remoteRef;
+    }
+
+    public ObjectId getNewObjectId() {
+        return newObjectId;
+    }
+
+    /**
+     * @return status reported by the remote, or {@code null} if the push failed before reaching it
+     */
+    public RemoteRefUpdate.Status getStatus() {
+        return status;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccessful() {
+        return status == RemoteRefUpdate.Status.OK || status == RemoteRefUpdate.Status.UP_TO_DATE;
+    }
+
+    @Override
+    public String toString() {
+        return remote + " " + localRef + " -> " + remoteRef + " "
+                + (error == null ? status + (message == null ? "" : " (" + message + ")") : "failed: " + error.getMessage());
+    }
+}
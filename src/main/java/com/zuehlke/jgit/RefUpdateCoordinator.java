@@ -0,0 +1,344 @@
+package com.zuehlke.jgit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Updates refs of repositories shared by many threads without {@code .lock} file collisions or lost updates.
+ * <p>
+ * Every ref maps to one of a fixed number of in-process locks, so threads of this JVM updating the same ref
+ * take turns instead of failing on JGit's lock file. Updates are compare-and-swap: the new value is computed
+ * from the current one while the lock is held and written only if the ref still has that value. When the
+ * write fails anyway, because another process holds the lock file or changed the ref, the update is retried
+ * with randomized exponential backoff.
+ * <p>
+ * A {@link Transaction} updates several refs of one repository together: all its refs are locked in a fixed
+ * order, and if one of them cannot be written the refs already written are set back. JGit 3.3.1 has no atomic
+ * multi-ref update of its own, so a transaction is atomic for writers using the same coordinator, while
+ * readers and other processes may observe it half applied.
+ */
+public class RefUpdateCoordinator {
+
+    /**
+     * Computes the new value of a ref from its current one.
+     */
+    public interface RefFunction {
+
+        /**
+         * @param current value of the ref, or {@code null} if it does not exist
+         * @return new value, {@code null} to delete the ref
+         */
+        ObjectId apply(ObjectId current) throws IOException;
+    }
+
+    /**
+     * Updates of several refs of one repository that are applied together by {@link #commit()}.
+     */
+    public class Transaction {
+
+        private final Repository repository;
+        private final List<Entry> entries = new ArrayList<Entry>();
+        private String message = "coordinated update";
+
+        Transaction(final Repository repository) {
+            this.repository = repository;
+        }
+
+        /**
+         * Sets {@code ref} to {@code newId} if its value is still {@code expected}.
+         *
+         * @param expected value the ref must have, {@link ObjectId#zeroId()} if it must not exist
+         * @param newId new value, {@code null} to delete the ref
+         */
+        public Transaction set(final String ref, final ObjectId expected, final ObjectId newId) {
+            entries.add(new Entry(checkName(ref), expected, constant(newId)));
+            return this;
+        }
+
+        /**
+         * Sets {@code ref} to what {@code function} computes from its value at commit time.
+         */
+        public Transaction update(final String ref, final RefFunction function) {
+            entries.add(new Entry(checkName(ref), null, function));
+            return this;
+        }
+
+        public Transaction setMessage(final String message) {
+            this.message = message;
+            return this;
+        }
+
+        /**
+         * Applies all updates or none.
+         *
+         * @return {@code false} if a ref did not have its expected value, in which case nothing was changed
+         * @throws IOException if the refs could not be written within the configured attempts
+         * @throws IllegalArgumentException if two updates resolve to the same ref, like {@code HEAD} and
+         *         the branch it points to
+         */
+        public boolean commit() throws IOException {
+            return RefUpdateCoordinator.this.commit(this);
+        }
+    }
+
+    private static class Entry {
+
+        final String name;
+        final ObjectId expected;
+        final RefFunction function;
+        /** The ref {@link #name} finally points to, so {@code HEAD} and its branch share a lock. */
+        String ref;
+        ObjectId oldId;
+        ObjectId newId;
+
+        Entry(final String name, final ObjectId expected, final RefFunction function) {
+            this.name = name;
+            this.expected = expected;
+            this.function = function;
+        }
+    }
+
+    private final ReentrantLock[] stripes;
+    private int maxAttempts = 10;
+    private long initialBackoffMillis = 1;
+    private long maxBackoffMillis = 200;
+    private final Random random = new Random();
+
+    private final AtomicLong commits = new AtomicLong();
+    private final AtomicLong retries = new AtomicLong();
+
+    public RefUpdateCoordinator() {
+        this(64);
+    }
+
+    /**
+     * @param stripes number of in-process locks refs are spread over
+     */
+    public RefUpdateCoordinator(final int stripes) {
+        this.stripes = new ReentrantLock[stripes];
+        for (int i = 0; i < stripes; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * @param maxAttempts attempts before an update that keeps failing is given up, defaults to 10
+     */
+    public RefUpdateCoordinator setMaxAttempts(final int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+        return this;
+    }
+
+    /**
+     * @param initialBackoffMillis upper bound of the random wait before the first retry, doubled for every
+     *        further retry up to {@code maxBackoffMillis}
+     */
+    public RefUpdateCoordinator setBackoffMillis(final long initialBackoffMillis, final long maxBackoffMillis) {
+        this.initialBackoffMillis = initialBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+        return this;
+    }
+
+    public Transaction begin(final Repository repository) {
+        return new Transaction(repository);
+    }
+
+    /**
+     * Sets {@code ref} to what {@code function} computes from its current value, retrying until the ref did not
+     * change in between.
+     *
+     * @return the new value of the ref, {@code null} if it was deleted
+     */
+    public ObjectId update(final Repository repository, final String ref, final RefFunction function)
+            throws IOException {
+        final Transaction transaction = begin(repository).update(ref, function);
+        transaction.commit();
+        return transaction.entries.get(0).newId;
+    }
+
+    /**
+     * @return number of committed transactions, single updates included
+     */
+    public long getCommits() {
+        return commits.get();
+    }
+
+    /**
+     * @return number of attempts that failed on a lock file or concurrent change and were retried
+     */
+    public long getRetries() {
+        return retries.get();
+    }
+
+    private boolean commit(final Transaction transaction) throws IOException {
+        final Map<String, String> names = new HashMap<String, String>();
+        for (final Entry entry : transaction.entries) {
+            final Ref ref = transaction.repository.getRef(entry.name);
+            entry.ref = ref != null ? ref.getLeaf().getName() : entry.name;
+            // a second write of the same ref would always expect the value the first one replaced
+            final String other = names.put(entry.ref, entry.name);
+            if (other != null) {
+                throw new IllegalArgumentException(other + " and " + entry.name + " both update " + entry.ref);
+            }
+        }
+        final List<ReentrantLock> locks = locksOf(transaction);
+        for (final ReentrantLock lock : locks) {
+            lock.lock();
+        }
+        try {
+            for (int attempt = 1;; attempt++) {
+                final Boolean applied = tryCommit(transaction);
+                if (applied != null) {
+                    if (applied) {
+                        commits.incrementAndGet();
+                    }
+                    return applied;
+                }
+                if (attempt >= maxAttempts) {
+                    throw new IOException("could not update " + refsOf(transaction) + " in "
+                            + transaction.repository.getDirectory() + " after " + attempt + " attempts");
+                }
+                retries.incrementAndGet();
+                backoff(attempt);
+            }
+        } finally {
+            for (int i = locks.size() - 1; i >= 0; i--) {
+                locks.get(i).unlock();
+            }
+        }
+    }
+
+    /**
+     * @return whether the transaction was applied, {@code null} if it has to be retried
+     */
+    private Boolean tryCommit(final Transaction transaction) throws IOException {
+        final Repository repository = transaction.repository;
+        for (final Entry entry : transaction.entries) {
+            final Ref ref = repository.getRef(entry.ref);
+            entry.oldId = ref != null ? ref.getObjectId() : null;
+            final ObjectId current = entry.oldId != null ? entry.oldId : ObjectId.zeroId();
+            if (entry.expected != null && !entry.expected.equals(current)) {
+                return false;
+            }
+            entry.newId = entry.function.apply(entry.oldId);
+        }
+
+        final List<Entry> applied = new ArrayList<Entry>();
+        for (final Entry entry : transaction.entries) {
+            if (!write(repository, entry.ref, entry.oldId, entry.newId, transaction.message)) {
+                for (int i = applied.size() - 1; i >= 0; i--) {
+                    final Entry undo = applied.get(i);
+                    if (!write(repository, undo.ref, undo.newId, undo.oldId, "rollback: " + transaction.message)) {
+                        throw new IOException("could not roll back " + undo.ref + " in " + repository.getDirectory()
+                                + " to " + (undo.oldId != null ? undo.oldId.name() : "deleted"));
+                    }
+                }
+                return null;
+            }
+            applied.add(entry);
+        }
+        return true;
+    }
+
+    /**
+     * @return whether {@code ref} was changed from {@code oldId} to {@code newId}
+     */
+    private static boolean write(final Repository repository, final String ref, final ObjectId oldId,
+            final ObjectId newId, final String message) throws IOException {
+        if (oldId == null ? newId == null : oldId.equals(newId)) {
+            return true;
+        }
+        final RefUpdate update = repository.updateRef(ref, true);
+        update.setExpectedOldObjectId(oldId != null ? oldId : ObjectId.zeroId());
+        update.setRefLogMessage(message, false);
+        update.setForceUpdate(true);
+        final RefUpdate.Result result;
+        if (newId == null) {
+            result = update.delete();
+        } else {
+            update.setNewObjectId(newId);
+            result = update.update();
+        }
+        switch (result) {
+        case NEW:
+        case FORCED:
+        case FAST_FORWARD:
+        case NO_CHANGE:
+            return true;
+        case LOCK_FAILURE:
+            return false;
+        default:
+            throw new IOException("could not update " + ref + " in " + repository.getDirectory() + ": " + result);
+        }
+    }
+
+    /**
+     * @return the distinct stripes of the refs of {@code transaction} in ascending order, so transactions
+     *         sharing refs never wait for each other in a cycle
+     */
+    private List<ReentrantLock> locksOf(final Transaction transaction) {
+        final SortedSet<Integer> indexes = new TreeSet<Integer>();
+        final String repository = transaction.repository.getDirectory().getAbsolutePath();
+        for (final Entry entry : transaction.entries) {
+            indexes.add(Math.abs((repository + '\0' + entry.ref).hashCode() % stripes.length));
+        }
+        final List<ReentrantLock> locks = new ArrayList<ReentrantLock>();
+        for (final int index : indexes) {
+            locks.add(stripes[index]);
+        }
+        return locks;
+    }
+
+    private void backoff(final int attempt) throws IOException {
+        final long bound = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 20));
+        final long millis;
+        synchronized (random) {
+            millis = (long) (random.nextDouble() * bound);
+        }
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting to retry a ref update", e);
+        }
+    }
+
+    private static String checkName(final String ref) {
+        if (!ref.equals(Constants.HEAD) && !ref.startsWith(Constants.R_REFS)) {
+            throw new IllegalArgumentException("not a full ref name: " + ref);
+        }
+        return ref;
+    }
+
+    private static String refsOf(final Transaction transaction) {
+        final List<String> refs = new ArrayList<String>();
+        for (final Entry entry : transaction.entries) {
+            refs.add(entry.ref);
+        }
+        return refs.toString();
+    }
+
+    private static RefFunction constant(final ObjectId newId) {
+        return new RefFunction() {
+            @Override
+            public ObjectId apply(final ObjectId current) {
+                return newId;
+            }
+        };
+    }
+}
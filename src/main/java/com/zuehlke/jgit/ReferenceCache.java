@@ -0,0 +1,340 @@
+package com.zuehlke.jgit;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
+
+/**
+ * Bare mirrors of upstream repositories that clones borrow their objects from.
+ * <p>
+ * A clone made with a reference cache lists the objects directory of the mirror in its
+ * {@code objects/info/alternates}, so the fetch of the clone only transfers and stores what the mirror
+ * does not have yet. Mirrors are created on first use and kept current by
+ * {@link #startBackgroundFetch(long)}; objects are never removed from them, since clones may depend
+ * on any of them. {@link #dissociate(File)} copies the borrowed objects into a clone so it no longer
+ * needs the cache.
+ */
+public class ReferenceCache implements AutoCloseable {
+
+    private static final String ALTERNATES = "objects/info/alternates";
+
+    private final File root;
+    private final Map<String, Object> locks = new HashMap<String, Object>();
+    private final Map<String, Exception> lastErrors = new ConcurrentHashMap<String, Exception>();
+    private final Set<String> upstreams = Collections.synchronizedSet(new HashSet<String>());
+    private CredentialsProvider credentialsProvider;
+
+    private ScheduledExecutorService fetcher;
+    private ScheduledFuture<?> scheduledFetch;
+
+    /**
+     * @param root directory holding one bare mirror per upstream
+     */
+    public ReferenceCache(final File root) {
+        this.root = root;
+    }
+
+    public ReferenceCache setCredentialsProvider(final CredentialsProvider credentialsProvider) {
+        this.credentialsProvider = credentialsProvider;
+        return this;
+    }
+
+    /**
+     * Returns the git directory of the mirror of {@code uri}, creating and fetching it on first use. An
+     * existing mirror is not fetched; clones fetch whatever it lacks from the upstream themselves.
+     */
+    public File repositoryFor(final String uri) throws IOException, URISyntaxException {
+        synchronized (lockFor(uri)) {
+            final File gitDir = new File(root, directoryName(uri));
+            if (!new File(gitDir, "objects").isDirectory()) {
+                createMirror(uri, gitDir);
+                fetch(uri, gitDir);
+            }
+            upstreams.add(uri);
+            return gitDir;
+        }
+    }
+
+    /**
+     * Fetches all branches and tags of {@code uri} into its mirror.
+     */
+    public void update(final String uri) throws IOException, URISyntaxException {
+        synchronized (lockFor(uri)) {
+            final File gitDir = new File(root, directoryName(uri));
+            if (!new File(gitDir, "objects").isDirectory()) {
+                createMirror(uri, gitDir);
+            }
+            upstreams.add(uri);
+            fetch(uri, gitDir);
+        }
+    }
+
+    /**
+     * Updates every mirror used so far every {@code intervalMillis} on a daemon thread; failures are
+     * kept for {@link #getLastError(String)} and retried on the next round.
+     */
+    public synchronized void startBackgroundFetch(final long intervalMillis) {
+        if (fetcher == null) {
+            fetcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "reference-cache-fetcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        if (scheduledFetch != null) {
+            scheduledFetch.cancel(false);
+        }
+        scheduledFetch = fetcher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                final List<String> uris;
+                synchronized (upstreams) {
+                    uris = new ArrayList<String>(upstreams);
+                }
+                for (final String uri : uris) {
+                    try {
+                        update(uri);
+                        lastErrors.remove(uri);
+                    } catch (final IOException | URISyntaxException | RuntimeException e) {
+                        lastErrors.put(uri, e);
+                    }
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the failure of the last background fetch of {@code uri}, or {@code null}
+     */
+    public Exception getLastError(final String uri) {
+        return lastErrors.get(uri);
+    }
+
+    /**
+     * Clones {@code uri} into {@code directory} borrowing objects from the cache.
+     */
+    public SparseCloneResult cloneRepository(final String uri, final File directory)
+            throws IOException, URISyntaxException {
+        return new SparseClone().setURI(uri)
+                                .setDirectory(directory)
+                                .setReferenceCache(this)
+                                .setCredentialsProvider(credentialsProvider)
+                                .call();
+    }
+
+    /**
+     * Adds {@code uri} as submodule at {@code path} of {@code parent} like {@code git submodule add
+     * --reference}, borrowing objects from the cache.
+     */
+    public SparseCloneResult addSubmodule(final Git parent, final String path, final String uri)
+            throws IOException, URISyntaxException, GitAPIException {
+        final Repository repository = parent.getRepository();
+        final SparseCloneResult result = new SparseClone().setURI(uri)
+                                                          .setDirectory(new File(repository.getWorkTree(), path))
+                                                          .setReferenceCache(this)
+                                                          .setCredentialsProvider(credentialsProvider)
+                                                          .call();
+
+        final FileBasedConfig modules = new FileBasedConfig(
+                new File(repository.getWorkTree(), Constants.DOT_GIT_MODULES), repository.getFS());
+        try {
+            modules.load();
+        } catch (final ConfigInvalidException e) {
+            throw new IOException("invalid " + Constants.DOT_GIT_MODULES + " in " + repository.getWorkTree(), e);
+        }
+        modules.setString(ConfigConstants.CONFIG_SUBMODULE_SECTION, path, ConfigConstants.CONFIG_KEY_PATH, path);
+        modules.setString(ConfigConstants.CONFIG_SUBMODULE_SECTION, path, ConfigConstants.CONFIG_KEY_URL, uri);
+        modules.save();
+
+        final StoredConfig config = repository.getConfig();
+        config.setString(ConfigConstants.CONFIG_SUBMODULE_SECTION, path, ConfigConstants.CONFIG_KEY_URL, uri);
+        config.save();
+
+        parent.add()
+              .addFilepattern(Constants.DOT_GIT_MODULES)
+              .addFilepattern(path)
+              .call();
+        return result;
+    }
+
+    /**
+     * Copies every object the repository in {@code gitDir} borrows from its alternates into a pack of its
+     * own and removes {@code objects/info/alternates}. The repository must not be open elsewhere while it
+     * is dissociated.
+     *
+     * @return number of objects in the new pack, 0 if the repository had no alternates
+     */
+    public static long dissociate(final File gitDir) throws IOException {
+        final File alternates = new File(gitDir, ALTERNATES);
+        if (!alternates.exists()) {
+            return 0;
+        }
+        final Repository repository = new FileRepositoryBuilder().setGitDir(gitDir)
+                                                                 .setMustExist(true)
+                                                                 .build();
+        final long objects;
+        try {
+            final Set<ObjectId> want = new HashSet<ObjectId>();
+            for (final Ref ref : repository.getRefDatabase().getRefs(RefDatabase.ALL).values()) {
+                if (ref.getObjectId() != null) {
+                    want.add(ref.getObjectId());
+                }
+            }
+            final ObjectId head = repository.resolve(Constants.HEAD);
+            if (head != null) {
+                want.add(head);
+            }
+            objects = writePack(repository, want);
+        } finally {
+            repository.close();
+        }
+        Files.delete(alternates.toPath());
+        return objects;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (fetcher != null) {
+            fetcher.shutdownNow();
+            fetcher = null;
+        }
+    }
+
+    /**
+     * Writes {@code objects/info/alternates} of {@code gitDir} so it borrows from the mirror of {@code uri}.
+     */
+    void borrow(final File gitDir, final String uri) throws IOException, URISyntaxException {
+        final File mirror = repositoryFor(uri);
+        final File alternates = new File(gitDir, ALTERNATES);
+        alternates.getParentFile().mkdirs();
+        Files.write(alternates.toPath(), (new File(mirror, "objects").getAbsolutePath() + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+    }
+
+    private synchronized Object lockFor(final String uri) {
+        Object lock = locks.get(uri);
+        if (lock == null) {
+            lock = new Object();
+            locks.put(uri, lock);
+        }
+        return lock;
+    }
+
+    private static String directoryName(final String uri) {
+        return uri.replaceFirst("^[a-z+]+://", "").replaceAll("[^A-Za-z0-9._-]+", "_") + ".git";
+    }
+
+    private static void createMirror(final String uri, final File gitDir) throws IOException, URISyntaxException {
+        final Repository repository = new FileRepositoryBuilder().setGitDir(gitDir)
+                                                                 .setBare()
+                                                                 .build();
+        try {
+            repository.create(true);
+            final StoredConfig config = repository.getConfig();
+            final RemoteConfig remote = new RemoteConfig(config, Constants.DEFAULT_REMOTE_NAME);
+            remote.addURI(new URIish(uri));
+            remote.addFetchRefSpec(new RefSpec("+" + Constants.R_HEADS + "*:" + Constants.R_HEADS + "*"));
+            remote.setTagOpt(TagOpt.FETCH_TAGS);
+            remote.update(config);
+            config.save();
+        } finally {
+            repository.close();
+        }
+    }
+
+    private void fetch(final String uri, final File gitDir) throws IOException, URISyntaxException {
+        final Repository repository = new FileRepositoryBuilder().setGitDir(gitDir)
+                                                                 .setBare()
+                                                                 .build();
+        try {
+            final Transport transport = Transport.open(repository, Constants.DEFAULT_REMOTE_NAME);
+            try {
+                transport.setCredentialsProvider(credentialsProvider);
+                transport.setRemoveDeletedRefs(true);
+                transport.fetch(NullProgressMonitor.INSTANCE, null);
+            } finally {
+                transport.close();
+            }
+        } finally {
+            repository.close();
+        }
+    }
+
+    private static long writePack(final Repository repository, final Set<ObjectId> want) throws IOException {
+        final File packDir = new File(repository.getDirectory(), "objects/pack");
+        packDir.mkdirs();
+        final File tmpPack = File.createTempFile("dissociate_", ".pack_tmp", packDir);
+        final File tmpIndex = new File(packDir, tmpPack.getName().replace(".pack_tmp", ".idx_tmp"));
+        final PackWriter writer = new PackWriter(repository);
+        try {
+            writer.preparePack(NullProgressMonitor.INSTANCE, want, Collections.<ObjectId> emptySet());
+            final OutputStream pack = new BufferedOutputStream(new FileOutputStream(tmpPack));
+            try {
+                writer.writePack(NullProgressMonitor.INSTANCE, NullProgressMonitor.INSTANCE, pack);
+            } finally {
+                pack.close();
+            }
+            final OutputStream index = new BufferedOutputStream(new FileOutputStream(tmpIndex));
+            try {
+                writer.writeIndex(index);
+            } finally {
+                index.close();
+            }
+
+            final String name = "pack-" + writer.computeName().name();
+            // the index goes last, a pack without index is ignored
+            Files.move(tmpPack.toPath(), new File(packDir, name + ".pack").toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            Files.move(tmpIndex.toPath(), new File(packDir, name + ".idx").toPath(),
+                    StandardCopyOption.ATOMIC_MOVE);
+            return writer.getObjectCount();
+        } finally {
+            writer.release();
+            Files.deleteIfExists(tmpPack.toPath());
+            Files.deleteIfExists(tmpIndex.toPath());
+        }
+    }
+}
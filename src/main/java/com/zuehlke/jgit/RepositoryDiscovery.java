@@ -0,0 +1,455 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.internal.storage.file.FileSnapshot;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.util.FS;
+
+/**
+ * Keeps an index of all repositories and submodules below a root directory.
+ * <p>
+ * Repositories are found on disk by their {@code .git} directory or file, and submodules by the gitlink
+ * entries in the index and the declarations in {@code .gitmodules} of their enclosing repository, so a
+ * submodule that is not checked out is found as well. {@code .git} directories are never entered, and the
+ * work tree of a nested repository is attributed to that repository rather than to the enclosing one. The
+ * initial {@link #scan()} forks one task per directory on a fork-join pool.
+ * <p>
+ * {@link #refresh()} keeps the index up to date without walking the whole tree again: it compares the
+ * modification time of every known directory in parallel and only lists the directories whose entries
+ * changed, and it rereads the index and {@code .gitmodules} of a repository only if one of them changed.
+ */
+public class RepositoryDiscovery {
+
+    /** Directories a stat task compares before it splits. */
+    private static final int BATCH = 256;
+
+    private static class Module {
+
+        final String parent;
+        boolean gitlink;
+        String name;
+        String url;
+
+        Module(final String parent) {
+            this.parent = parent;
+        }
+    }
+
+    /**
+     * The submodules of one repository, together with snapshots of the files they were read from.
+     */
+    private static class Modules {
+
+        final File indexFile;
+        final File gitmodules;
+        final FileSnapshot indexSnapshot;
+        final FileSnapshot gitmodulesSnapshot;
+        final Map<String, Module> byPath = new TreeMap<String, Module>();
+
+        Modules(final File indexFile, final File gitmodules) {
+            this.indexFile = indexFile;
+            this.gitmodules = gitmodules;
+            this.indexSnapshot = FileSnapshot.save(indexFile);
+            this.gitmodulesSnapshot = FileSnapshot.save(gitmodules);
+        }
+
+        Module get(final String parent, final String path) {
+            Module module = byPath.get(path);
+            if (module == null) {
+                module = new Module(parent);
+                byPath.put(path, module);
+            }
+            return module;
+        }
+
+        boolean isModified() {
+            return indexSnapshot.isModified(indexFile) || gitmodulesSnapshot.isModified(gitmodules);
+        }
+    }
+
+    private final File root;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean scanned;
+
+    /** Modification times of all scanned directories, by path relative to the root. */
+    private final ConcurrentNavigableMap<String, Long> directories = new ConcurrentSkipListMap<String, Long>();
+    /** Git directories of the repositories found on disk, by path of their work tree. */
+    private final ConcurrentNavigableMap<String, File> workTrees = new ConcurrentSkipListMap<String, File>();
+    /** Submodules of each repository found on disk, by path of the repository. */
+    private final Map<String, Modules> modules = new ConcurrentSkipListMap<String, Modules>();
+    /** Submodules of all repositories, by their own path. */
+    private final ConcurrentNavigableMap<String, Module> declared = new ConcurrentSkipListMap<String, Module>();
+
+    public RepositoryDiscovery(final File root) {
+        this.root = root;
+    }
+
+    public RepositoryDiscovery setThreads(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Discards the index and scans the whole tree below the root.
+     */
+    public synchronized void scan() throws IOException {
+        directories.clear();
+        workTrees.clear();
+        modules.clear();
+        declared.clear();
+        invoke(new ScanTask(Collections.singletonList("")));
+        scanned = true;
+    }
+
+    /**
+     * Brings the index up to date, listing only the directories that changed since the last scan or
+     * refresh. Scans the whole tree if it was not scanned yet.
+     *
+     * @return number of known directories that had to be listed again
+     */
+    public synchronized int refresh() throws IOException {
+        if (!scanned) {
+            scan();
+            return directories.size();
+        }
+
+        final Queue<String> changed = new ConcurrentLinkedQueue<String>();
+        invoke(new StatTask(new ArrayList<String>(directories.keySet()), changed));
+        // parents first, so the subdirectories of a deleted directory are gone before they come up
+        final List<String> sorted = new ArrayList<String>(changed);
+        Collections.sort(sorted);
+        final List<String> added = new ArrayList<String>();
+        for (final String path : sorted) {
+            if (!directories.containsKey(path)) {
+                continue;
+            }
+            if (!file(path).isDirectory()) {
+                purge(path);
+                continue;
+            }
+            final Set<String> known = children(path);
+            for (final String subdirectory : scanDirectory(path)) {
+                if (!known.remove(subdirectory)) {
+                    added.add(subdirectory);
+                }
+            }
+            for (final String gone : known) {
+                purge(gone);
+            }
+        }
+        if (!added.isEmpty()) {
+            invoke(new ScanTask(added));
+        }
+
+        for (final Map.Entry<String, Modules> repository : modules.entrySet()) {
+            if (repository.getValue().isModified() && workTrees.containsKey(repository.getKey())) {
+                readModules(repository.getKey(), workTrees.get(repository.getKey()));
+            }
+        }
+        return sorted.size();
+    }
+
+    /**
+     * @param prefix path relative to the root; matches whole path segments, so {@code "lib"} finds
+     *        {@code lib} and {@code lib/a} but not {@code library}
+     * @return the repositories and submodules at or below {@code prefix}, sorted by path; the root itself is
+     *         not included
+     */
+    public synchronized List<NestedRepository> find(final String prefix) {
+        final String path = normalize(prefix);
+        final Set<String> paths = new TreeSet<String>();
+        if (workTrees.containsKey(path)) {
+            paths.add(path);
+        }
+        if (declared.containsKey(path)) {
+            paths.add(path);
+        }
+        paths.addAll(below(workTrees, path).keySet());
+        paths.addAll(below(declared, path).keySet());
+        paths.remove("");
+
+        final List<NestedRepository> repositories = new ArrayList<NestedRepository>(paths.size());
+        for (final String repository : paths) {
+            final Module module = declared.get(repository);
+            repositories.add(new NestedRepository(repository, workTrees.get(repository),
+                    module != null ? module.parent : enclosing(repository), module != null && module.gitlink,
+                    module != null ? module.name : null, module != null ? module.url : null));
+        }
+        return repositories;
+    }
+
+    /**
+     * @return all repositories and submodules below the root, sorted by path
+     */
+    public List<NestedRepository> getRepositories() {
+        return find("");
+    }
+
+    private File file(final String path) {
+        return path.isEmpty() ? root : new File(root, path);
+    }
+
+    private static String child(final String parent, final String name) {
+        return parent.isEmpty() ? name : parent + "/" + name;
+    }
+
+    private static String normalize(final String path) {
+        String normalized = path.replace(File.separatorChar, '/');
+        while (normalized.startsWith("/")) {
+            normalized = normalized.substring(1);
+        }
+        while (normalized.endsWith("/")) {
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+        return normalized;
+    }
+
+    /**
+     * @return the entries strictly below {@code path}; '0' is the character following '/'
+     */
+    private static <V> ConcurrentNavigableMap<String, V> below(final ConcurrentNavigableMap<String, V> map,
+            final String path) {
+        return path.isEmpty() ? map.tailMap("", false) : map.subMap(path + "/", true, path + "0", false);
+    }
+
+    private String enclosing(final String path) {
+        String parent = path;
+        while (!parent.isEmpty()) {
+            final int slash = parent.lastIndexOf('/');
+            parent = slash < 0 ? "" : parent.substring(0, slash);
+            if (workTrees.containsKey(parent)) {
+                return parent;
+            }
+        }
+        return null;
+    }
+
+    private Set<String> children(final String path) {
+        final Set<String> children = new TreeSet<String>();
+        final int start = path.isEmpty() ? 0 : path.length() + 1;
+        for (final String directory : below(directories, path).keySet()) {
+            if (directory.indexOf('/', start) < 0) {
+                children.add(directory);
+            }
+        }
+        return children;
+    }
+
+    /**
+     * Lists {@code path}, registers or unregisters it as repository and records its modification time.
+     *
+     * @return the subdirectories of {@code path}, without {@code .git} and symbolic links
+     */
+    private List<String> scanDirectory(final String path) throws IOException {
+        final Path directory = file(path).toPath();
+        // taken before listing, so entries added meanwhile change it again and are found by the next refresh
+        directories.put(path, directory.toFile().lastModified());
+        final List<String> subdirectories = new ArrayList<String>();
+        Path dotGit = null;
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+            for (final Path child : children) {
+                final String name = child.getFileName().toString();
+                if (name.equals(Constants.DOT_GIT)) {
+                    dotGit = child;
+                } else if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    subdirectories.add(child(path, name));
+                }
+            }
+        } catch (final NoSuchFileException e) {
+            purge(path);
+            return subdirectories;
+        }
+
+        final File gitDir = dotGit != null ? gitDir(dotGit) : null;
+        if (gitDir != null) {
+            workTrees.put(path, gitDir);
+            readModules(path, gitDir);
+        } else if (workTrees.remove(path) != null) {
+            replaceModules(path, null);
+        }
+        return subdirectories;
+    }
+
+    /**
+     * @return the directory {@code dotGit} is or points to with a {@code gitdir:} line, {@code null} if it
+     *         is neither
+     */
+    private static File gitDir(final Path dotGit) throws IOException {
+        if (Files.isDirectory(dotGit, LinkOption.NOFOLLOW_LINKS)) {
+            return dotGit.toFile();
+        }
+        final String content = new String(Files.readAllBytes(dotGit), StandardCharsets.UTF_8).trim();
+        if (!content.startsWith("gitdir:")) {
+            return null;
+        }
+        final File gitDir = new File(content.substring("gitdir:".length()).trim());
+        return gitDir.isAbsolute() ? gitDir : new File(dotGit.getParent().toFile(), gitDir.getPath());
+    }
+
+    private void readModules(final String path, final File gitDir) throws IOException {
+        final File indexFile = new File(gitDir, "index");
+        final File gitmodules = new File(file(path), Constants.DOT_GIT_MODULES);
+        final Modules repositoryModules = new Modules(indexFile, gitmodules);
+        if (indexFile.isFile()) {
+            final DirCache index = DirCache.read(indexFile, FS.DETECTED);
+            for (int i = 0; i < index.getEntryCount(); i++) {
+                final DirCacheEntry entry = index.getEntry(i);
+                if (entry.getFileMode() == FileMode.GITLINK) {
+                    repositoryModules.get(path, child(path, entry.getPathString())).gitlink = true;
+                }
+            }
+        }
+        if (gitmodules.isFile()) {
+            final FileBasedConfig config = new FileBasedConfig(gitmodules, FS.DETECTED);
+            try {
+                config.load();
+            } catch (final ConfigInvalidException e) {
+                throw new IOException("invalid " + gitmodules, e);
+            }
+            for (final String name : config.getSubsections(ConfigConstants.CONFIG_SUBMODULE_SECTION)) {
+                final String modulePath = config.getString(ConfigConstants.CONFIG_SUBMODULE_SECTION, name,
+                        ConfigConstants.CONFIG_KEY_PATH);
+                if (modulePath != null) {
+                    final Module module = repositoryModules.get(path, child(path, normalize(modulePath)));
+                    module.name = name;
+                    module.url = config.getString(ConfigConstants.CONFIG_SUBMODULE_SECTION, name,
+                            ConfigConstants.CONFIG_KEY_URL);
+                }
+            }
+        }
+        replaceModules(path, repositoryModules);
+    }
+
+    private void replaceModules(final String path, final Modules repositoryModules) {
+        final Modules old = repositoryModules != null ? modules.put(path, repositoryModules) : modules.remove(path);
+        if (old != null) {
+            for (final Map.Entry<String, Module> module : old.byPath.entrySet()) {
+                declared.remove(module.getKey(), module.getValue());
+            }
+        }
+        if (repositoryModules != null) {
+            declared.putAll(repositoryModules.byPath);
+        }
+    }
+
+    /**
+     * Forgets the directory {@code path}, everything below it and the repositories found there.
+     */
+    private void purge(final String path) {
+        directories.remove(path);
+        below(directories, path).clear();
+        final List<String> repositories = new ArrayList<String>(below(workTrees, path).keySet());
+        if (workTrees.containsKey(path)) {
+            repositories.add(path);
+        }
+        for (final String repository : repositories) {
+            workTrees.remove(repository);
+            replaceModules(repository, null);
+        }
+    }
+
+    private void invoke(final ForkJoinTask<?> task) throws IOException {
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(task);
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Scans directories, forking a task for every subdirectory.
+     */
+    private class ScanTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> paths;
+
+        ScanTask(final List<String> paths) {
+            this.paths = paths;
+        }
+
+        @Override
+        protected void compute() {
+            final List<ScanTask> forked = new ArrayList<ScanTask>();
+            try {
+                for (final String path : paths) {
+                    for (final String subdirectory : scanDirectory(path)) {
+                        forked.add(new ScanTask(Collections.singletonList(subdirectory)));
+                    }
+                }
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            invokeAll(forked);
+        }
+    }
+
+    /**
+     * Collects the directories whose modification time changed, splitting the list in halves until it is
+     * small enough.
+     */
+    private class StatTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<String> paths;
+        private final Queue<String> changed;
+
+        StatTask(final List<String> paths, final Queue<String> changed) {
+            this.paths = paths;
+            this.changed = changed;
+        }
+
+        @Override
+        protected void compute() {
+            if (paths.size() > BATCH) {
+                final int middle = paths.size() / 2;
+                invokeAll(new StatTask(paths.subList(0, middle), changed),
+                        new StatTask(paths.subList(middle, paths.size()), changed));
+                return;
+            }
+            for (final String path : paths) {
+                final Long recorded = directories.get(path);
+                if (recorded == null || file(path).lastModified() != recorded) {
+                    changed.add(path);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,369 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.PackFile;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+
+/**
+ * Shares open repositories between callers, keyed by git directory.
+ * <p>
+ * {@link #acquire(File)} hands out a {@link Handle} to a shared {@link Repository}; closing the handle
+ * releases it. Config, refs and pack indexes are loaded once when a repository is opened and stay loaded
+ * while it is in the pool, and so do the file handles of its packs. A repository is closed only after
+ * its last handle is released and it is either idle longer than the {@link #setIdleTimeoutMillis(long)
+ * idle timeout} or the least recently used of more than {@link #setMaxIdle(int) maxIdle} idle
+ * repositories.
+ */
+public class RepositoryPool implements RepositoryPoolMXBean, AutoCloseable {
+
+    /**
+     * A reference to a pooled repository. The repository must not be closed directly, close the handle
+     * instead; closing a handle twice is not an error.
+     */
+    public class Handle implements AutoCloseable {
+
+        private final Entry entry;
+        private boolean released;
+
+        Handle(final Entry entry) {
+            this.entry = entry;
+        }
+
+        public Repository getRepository() {
+            return entry.repository;
+        }
+
+        public Git getGit() {
+            return entry.git;
+        }
+
+        @Override
+        public void close() {
+            synchronized (RepositoryPool.this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            release(entry);
+        }
+    }
+
+    private static class Entry {
+
+        final File gitDir;
+        Repository repository;
+        Git git;
+        IOException error;
+        int references;
+        long idleSince;
+        boolean closed;
+
+        Entry(final File gitDir) {
+            this.gitDir = gitDir;
+        }
+    }
+
+    /** Access ordered, so iteration starts with the least recently used repository. */
+    private final Map<File, Entry> entries = new LinkedHashMap<File, Entry>(16, 0.75f, true);
+    private final ScheduledExecutorService evictor;
+    private boolean closed;
+
+    private int maxIdle = 64;
+    private long idleTimeoutMillis = TimeUnit.MINUTES.toMillis(5);
+    private boolean warmUp = true;
+    private LowMemoryProfile memoryProfile;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong openNanos = new AtomicLong();
+
+    public RepositoryPool() {
+        evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "repository-pool-evictor");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdle();
+            }
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @param maxIdle number of unreferenced repositories kept open
+     */
+    public RepositoryPool setMaxIdle(final int maxIdle) {
+        this.maxIdle = maxIdle;
+        return this;
+    }
+
+    /**
+     * @param idleTimeoutMillis time after which an unreferenced repository is closed; checked every second
+     *        and on every {@link #acquire(File)}
+     */
+    public RepositoryPool setIdleTimeoutMillis(final long idleTimeoutMillis) {
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        return this;
+    }
+
+    /**
+     * @param warmUp whether refs and pack indexes are loaded when a repository is opened, defaults to
+     *        {@code true}
+     */
+    public RepositoryPool setWarmUp(final boolean warmUp) {
+        this.warmUp = warmUp;
+        return this;
+    }
+
+    /**
+     * @param memoryProfile profile installed now and applied to every repository opened from now on, or
+     *        {@code null} for JGit's defaults, which are installed again if a profile was set before;
+     *        repositories already open keep their pack limits until they are closed
+     */
+    public RepositoryPool setMemoryProfile(final LowMemoryProfile memoryProfile) {
+        if (memoryProfile != null) {
+            memoryProfile.install();
+        } else if (this.memoryProfile != null) {
+            new WindowCacheConfig().install();
+        }
+        this.memoryProfile = memoryProfile;
+        return this;
+    }
+
+    /**
+     * Returns a handle to the repository in {@code gitDir}, opening it if it is not in the pool yet.
+     * Concurrent callers asking for the same repository wait for a single open.
+     */
+    public Handle acquire(final File gitDir) throws IOException {
+        final File key = gitDir.getCanonicalFile();
+        final Entry entry;
+        final boolean opener;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("repository pool is closed");
+            }
+            final Entry existing = entries.get(key);
+            opener = existing == null;
+            if (opener) {
+                entry = new Entry(key);
+                entries.put(key, entry);
+                misses.incrementAndGet();
+            } else {
+                entry = existing;
+                hits.incrementAndGet();
+            }
+            entry.references++;
+        }
+
+        if (opener) {
+            open(entry);
+        }
+        synchronized (entry) {
+            while (entry.repository == null && entry.error == null) {
+                try {
+                    entry.wait();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    release(entry);
+                    throw new IOException("interrupted while opening " + key, e);
+                }
+            }
+        }
+        if (entry.error != null) {
+            release(entry);
+            throw entry.error;
+        }
+        evictIdle();
+        return new Handle(entry);
+    }
+
+    /**
+     * Closes idle repositories that timed out or exceed {@link #setMaxIdle(int) maxIdle}.
+     */
+    public void evictIdle() {
+        final List<Entry> evicted = new ArrayList<Entry>();
+        synchronized (this) {
+            final long now = System.currentTimeMillis();
+            int idle = 0;
+            for (final Entry entry : entries.values()) {
+                if (entry.references == 0) {
+                    idle++;
+                }
+            }
+            for (final Iterator<Entry> it = entries.values().iterator(); it.hasNext();) {
+                final Entry entry = it.next();
+                if (entry.references == 0 && (idle > maxIdle || now - entry.idleSince >= idleTimeoutMillis)) {
+                    it.remove();
+                    evicted.add(entry);
+                    idle--;
+                }
+            }
+        }
+        for (final Entry entry : evicted) {
+            evictions.incrementAndGet();
+            closeEntry(entry);
+        }
+    }
+
+    /**
+     * @return number of repositories in the pool, referenced or idle
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.get();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return average time to open and warm up a repository, over all misses
+     */
+    @Override
+    public double getAverageOpenMillis() {
+        final long opened = misses.get();
+        return opened == 0 ? 0 : openNanos.get() / 1e6 / opened;
+    }
+
+    /**
+     * Stops eviction and closes all repositories, including those that still have handles.
+     */
+    @Override
+    public void close() {
+        final List<Entry> all;
+        synchronized (this) {
+            closed = true;
+            all = new ArrayList<Entry>(entries.values());
+            entries.clear();
+        }
+        evictor.shutdownNow();
+        for (final Entry entry : all) {
+            closeEntry(entry);
+        }
+    }
+
+    private void open(final Entry entry) {
+        final long start = System.nanoTime();
+        Repository repository = null;
+        IOException error = null;
+        try {
+            repository = new FileRepositoryBuilder().setGitDir(entry.gitDir)
+                                                    .setMustExist(true)
+                                                    .build();
+            if (memoryProfile != null) {
+                memoryProfile.configure(repository);
+            }
+            if (warmUp) {
+                warmUp(repository);
+            }
+        } catch (final IOException | RuntimeException e) {
+            // waiting callers must always see either a repository or an error
+            error = e instanceof IOException ? (IOException) e
+                    : new IOException("could not open " + entry.gitDir, e);
+            if (repository != null) {
+                repository.close();
+                repository = null;
+            }
+        }
+        openNanos.addAndGet(System.nanoTime() - start);
+
+        synchronized (this) {
+            if (error != null && entries.get(entry.gitDir) == entry) {
+                entries.remove(entry.gitDir);
+            }
+        }
+        synchronized (entry) {
+            entry.error = error;
+            entry.repository = repository;
+            entry.git = repository == null ? null : Git.wrap(repository);
+            entry.notifyAll();
+        }
+    }
+
+    /**
+     * Loads refs and pack indexes and reads the head commit, so the first caller does not pay for it and
+     * the pack files stay open in the window cache.
+     */
+    private static void warmUp(final Repository repository) throws IOException {
+        repository.getRefDatabase().getRefs(RefDatabase.ALL);
+        if (repository instanceof FileRepository) {
+            for (final PackFile pack : ((FileRepository) repository).getObjectDatabase().getPacks()) {
+                pack.getIndex();
+            }
+        }
+        final ObjectId head = repository.resolve(Constants.HEAD);
+        if (head != null) {
+            final ObjectReader reader = repository.newObjectReader();
+            try {
+                reader.open(head).getType();
+            } finally {
+                reader.release();
+            }
+        }
+    }
+
+    private void release(final Entry entry) {
+        final boolean pooled;
+        synchronized (this) {
+            entry.references--;
+            if (entry.references > 0) {
+                return;
+            }
+            entry.idleSince = System.currentTimeMillis();
+            pooled = !closed && entries.get(entry.gitDir) == entry;
+        }
+        if (pooled) {
+            evictIdle();
+        } else {
+            // the pool was closed or the entry failed to open, nobody else can get it
+            closeEntry(entry);
+        }
+    }
+
+    private static void closeEntry(final Entry entry) {
+        synchronized (entry) {
+            if (entry.repository != null && !entry.closed) {
+                entry.closed = true;
+                entry.repository.close();
+            }
+        }
+    }
+}
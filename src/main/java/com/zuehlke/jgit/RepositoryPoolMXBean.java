@@ -0,0 +1,15 @@
+package com.zuehlke.jgit;
+
+/**
+ * JMX view of a {@link RepositoryPool}, registered by {@link GitMetrics#register(RepositoryPool, String)}.
+ */
+public interface RepositoryPoolMXBean {
+
+    long getHits();
+
+    long getMisses();
+
+    long getEvictions();
+
+    double getAverageOpenMillis();
+}
@@ -0,0 +1,59 @@
+package com.zuehlke.jgit;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Outcome of {@link IdentityCommitService#rewrite(String, ObjectId, IdentityCommitService.IdentityMapper)}.
+ */
+public class RewriteResult {
+
+    private final String ref;
+    private final ObjectId oldHead;
+    private final ObjectId newHead;
+    private final int visited;
+    private final int rewritten;
+
+    RewriteResult(final String ref, final ObjectId oldHead, final ObjectId newHead, final int visited,
+            final int rewritten) {
+        this.ref = ref;
+        this.oldHead = oldHead;
+        this.newHead = newHead;
+        this.visited = visited;
+        this.rewritten = rewritten;
+    }
+
+    public String getRef() {
+        return ref;
+    }
+
+    public ObjectId getOldHead() {
+        return oldHead;
+    }
+
+    /**
+     * @return head of the rewritten history, equal to {@link #getOldHead()} if no commit changed
+     */
+    public ObjectId getNewHead() {
+        return newHead;
+    }
+
+    /**
+     * @return number of commits in the rewritten range
+     */
+    public int getVisited() {
+        return visited;
+    }
+
+    /**
+     * @return number of commits that got a new id
+     */
+    public int getRewritten() {
+        return rewritten;
+    }
+
+    @Override
+    public String toString() {
+        return ref + " " + oldHead.name() + " -> " + newHead.name() + ": " + rewritten + " of " + visited
+                + " commits rewritten";
+    }
+}
@@ -0,0 +1,350 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.BlobBasedConfig;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.submodule.SubmoduleWalk;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Clones a single branch and checks out only the paths a build needs.
+ * <p>
+ * Only the requested branch is fetched, without tags. The index lists every file of the branch so the
+ * clone looks complete to status and commit, but only files matching the {@link #addPath(String) paths}
+ * or {@link #setFilter(TreeFilter) filter} are written, plus {@code .gitmodules}; all others are marked
+ * assume-valid. Submodules are cloned the same way if their path matches, with the paths below them
+ * passed on.
+ * <p>
+ * JGit 3.3.1 cannot negotiate shallow fetches, so the history of the branch is always fetched in full;
+ * restricting the fetch to one branch and no tags is the part of a shallow clone it can do.
+ */
+public class SparseClone {
+
+    private String uri;
+    private File directory;
+    private String branch = Constants.MASTER;
+    private final List<String> paths = new ArrayList<String>();
+    private TreeFilter filter;
+    private boolean submodules = true;
+    private CredentialsProvider credentialsProvider;
+    private ReferenceCache referenceCache;
+
+    /** Commit to check out instead of a branch, used for submodules. */
+    private ObjectId commit;
+
+    public SparseClone setURI(final String uri) {
+        this.uri = uri;
+        return this;
+    }
+
+    public SparseClone setDirectory(final File directory) {
+        this.directory = directory;
+        return this;
+    }
+
+    /**
+     * @param branch short name of the branch to clone, defaults to {@code master}
+     */
+    public SparseClone setBranch(final String branch) {
+        this.branch = branch;
+        return this;
+    }
+
+    /**
+     * Adds a file or directory to check out; without paths or filter everything is checked out.
+     */
+    public SparseClone addPath(final String path) {
+        paths.add(path);
+        return this;
+    }
+
+    /**
+     * @param filter selects the files to check out, replacing the {@link #addPath(String) paths}; with a
+     *        custom filter matching submodules are checked out completely
+     */
+    public SparseClone setFilter(final TreeFilter filter) {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * @param submodules whether matching submodules are cloned, defaults to {@code true}
+     */
+    public SparseClone setSubmodules(final boolean submodules) {
+        this.submodules = submodules;
+        return this;
+    }
+
+    public SparseClone setCredentialsProvider(final CredentialsProvider credentialsProvider) {
+        this.credentialsProvider = credentialsProvider;
+        return this;
+    }
+
+    /**
+     * @param referenceCache cache to borrow objects from, also used for submodules; the clone depends on it
+     *        until it is {@link ReferenceCache#dissociate(File) dissociated}
+     */
+    public SparseClone setReferenceCache(final ReferenceCache referenceCache) {
+        this.referenceCache = referenceCache;
+        return this;
+    }
+
+    public SparseCloneResult call() throws IOException, URISyntaxException {
+        if (uri == null || directory == null) {
+            throw new IllegalStateException("uri and directory must be set");
+        }
+        final Repository repository = new FileRepositoryBuilder().setWorkTree(directory)
+                                                                 .setGitDir(new File(directory, Constants.DOT_GIT))
+                                                                 .build();
+        try {
+            repository.create(false);
+            if (referenceCache != null) {
+                referenceCache.borrow(repository.getDirectory(), uri);
+            }
+            configureRemote(repository);
+
+            final File objects = new File(repository.getDirectory(), "objects");
+            final long before = sizeOf(objects);
+            fetch(repository);
+            final long transferred = sizeOf(objects) - before;
+
+            final ObjectId head = updateHead(repository);
+            final RevWalk walk = new RevWalk(repository);
+            final RevCommit headCommit;
+            try {
+                headCommit = walk.parseCommit(head);
+            } finally {
+                walk.release();
+            }
+
+            final Map<String, ObjectId> gitlinks = new HashMap<String, ObjectId>();
+            final long[] written = checkout(repository, headCommit, gitlinks);
+            final List<SparseCloneResult> submoduleResults = new ArrayList<SparseCloneResult>();
+            if (submodules && !gitlinks.isEmpty()) {
+                cloneSubmodules(repository, headCommit, gitlinks, submoduleResults);
+            }
+            return new SparseCloneResult(directory, head, transferred, written[0], (int) written[1],
+                    submoduleResults);
+        } finally {
+            repository.close();
+        }
+    }
+
+    private String remoteBranch() {
+        return Constants.R_HEADS + branch;
+    }
+
+    private void configureRemote(final Repository repository) throws IOException, URISyntaxException {
+        final StoredConfig config = repository.getConfig();
+        final RemoteConfig remote = new RemoteConfig(config, Constants.DEFAULT_REMOTE_NAME);
+        remote.addURI(new URIish(uri));
+        if (commit == null) {
+            remote.addFetchRefSpec(new RefSpec().setForceUpdate(true)
+                                                .setSourceDestination(remoteBranch(), Constants.R_REMOTES
+                                                        + Constants.DEFAULT_REMOTE_NAME + "/" + branch));
+            config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, branch, ConfigConstants.CONFIG_KEY_REMOTE,
+                    Constants.DEFAULT_REMOTE_NAME);
+            config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, branch, ConfigConstants.CONFIG_KEY_MERGE,
+                    remoteBranch());
+        } else {
+            // the recorded commit of a submodule may be on any branch
+            remote.addFetchRefSpec(new RefSpec("+" + Constants.R_HEADS + "*:" + Constants.R_REMOTES
+                    + Constants.DEFAULT_REMOTE_NAME + "/*"));
+        }
+        remote.setTagOpt(TagOpt.NO_TAGS);
+        remote.update(config);
+        config.save();
+    }
+
+    private void fetch(final Repository repository) throws IOException, URISyntaxException {
+        final Transport transport = Transport.open(repository, Constants.DEFAULT_REMOTE_NAME);
+        try {
+            transport.setCredentialsProvider(credentialsProvider);
+            transport.fetch(NullProgressMonitor.INSTANCE, null);
+        } finally {
+            transport.close();
+        }
+    }
+
+    private ObjectId updateHead(final Repository repository) throws IOException {
+        final RefUpdate head = repository.updateRef(Constants.HEAD, commit != null);
+        if (commit != null) {
+            head.setNewObjectId(commit);
+            head.forceUpdate();
+            return commit;
+        }
+
+        final ObjectId tip = repository.resolve(Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/" + branch);
+        if (tip == null) {
+            throw new IOException("branch " + branch + " does not exist in " + uri);
+        }
+        final RefUpdate local = repository.updateRef(remoteBranch());
+        local.setNewObjectId(tip);
+        local.setRefLogMessage("clone: from " + uri, false);
+        local.update();
+        head.link(remoteBranch());
+        return tip;
+    }
+
+    /**
+     * Writes the index and checks out the selected files.
+     *
+     * @param gitlinks receives the selected submodules
+     * @return bytes and number of files written
+     */
+    private long[] checkout(final Repository repository, final RevCommit head, final Map<String, ObjectId> gitlinks)
+            throws IOException {
+        final TreeFilter selection = selection();
+        final long[] written = new long[2];
+        final ObjectReader reader = repository.newObjectReader();
+        final TreeWalk walk = new TreeWalk(reader);
+        final DirCache index = repository.lockDirCache();
+        try {
+            final DirCacheBuilder builder = index.builder();
+            walk.addTree(head.getTree());
+            walk.setRecursive(true);
+            final TreeWalk selected = new TreeWalk(reader);
+            selected.addTree(head.getTree());
+            selected.setRecursive(true);
+            selected.setFilter(selection);
+            boolean more = selected.next();
+
+            while (walk.next()) {
+                final DirCacheEntry entry = new DirCacheEntry(walk.getRawPath());
+                final FileMode mode = walk.getFileMode(0);
+                entry.setFileMode(mode);
+                entry.setObjectId(walk.getObjectId(0));
+
+                // both walks visit paths in the same order, the filtered one just skips some
+                final boolean match = more && selected.getPathString().equals(walk.getPathString());
+                if (match) {
+                    more = selected.next();
+                }
+                if (match && mode == FileMode.GITLINK) {
+                    gitlinks.put(walk.getPathString(), walk.getObjectId(0));
+                } else if (match || Constants.DOT_GIT_MODULES.equals(walk.getPathString())) {
+                    DirCacheCheckout.checkoutEntry(repository, new File(directory, walk.getPathString()), entry,
+                            reader);
+                    written[0] += entry.getLength();
+                    written[1]++;
+                } else {
+                    entry.setAssumeValid(true);
+                }
+                builder.add(entry);
+            }
+            selected.release();
+            builder.commit();
+        } finally {
+            index.unlock();
+            walk.release();
+            reader.release();
+        }
+        return written;
+    }
+
+    private TreeFilter selection() {
+        if (filter != null) {
+            return filter;
+        }
+        return paths.isEmpty() ? TreeFilter.ALL : PathFilterGroup.createFromStrings(paths);
+    }
+
+    private void cloneSubmodules(final Repository repository, final RevCommit head,
+            final Map<String, ObjectId> gitlinks, final List<SparseCloneResult> results)
+            throws IOException, URISyntaxException {
+        final BlobBasedConfig modules;
+        try {
+            modules = new BlobBasedConfig(null, repository, head, Constants.DOT_GIT_MODULES);
+        } catch (final ConfigInvalidException e) {
+            throw new IOException("invalid " + Constants.DOT_GIT_MODULES + " in " + head.name(), e);
+        }
+
+        final StoredConfig config = repository.getConfig();
+        for (final String name : modules.getSubsections(ConfigConstants.CONFIG_SUBMODULE_SECTION)) {
+            final String path = modules.getString(ConfigConstants.CONFIG_SUBMODULE_SECTION, name,
+                    ConfigConstants.CONFIG_KEY_PATH);
+            final ObjectId recorded = gitlinks.get(path);
+            String url = modules.getString(ConfigConstants.CONFIG_SUBMODULE_SECTION, name,
+                    ConfigConstants.CONFIG_KEY_URL);
+            if (recorded == null || url == null) {
+                continue;
+            }
+            if (url.startsWith("./") || url.startsWith("../")) {
+                url = SubmoduleWalk.getSubmoduleRemoteUrl(repository, url);
+            }
+            config.setString(ConfigConstants.CONFIG_SUBMODULE_SECTION, name, ConfigConstants.CONFIG_KEY_URL, url);
+
+            final SparseClone submodule = new SparseClone().setURI(url)
+                                                           .setDirectory(new File(directory, path))
+                                                           .setCredentialsProvider(credentialsProvider)
+                                                           .setReferenceCache(referenceCache);
+            submodule.commit = recorded;
+            if (filter == null) {
+                submodule.paths.addAll(pathsBelow(path));
+            }
+            results.add(submodule.call());
+        }
+        config.save();
+    }
+
+    /**
+     * @return the paths below {@code prefix}, relative to it, or no paths if all of it is wanted
+     */
+    private List<String> pathsBelow(final String prefix) {
+        final List<String> below = new ArrayList<String>();
+        for (final String path : paths) {
+            if (path.equals(prefix) || prefix.startsWith(path + "/")) {
+                return new ArrayList<String>();
+            }
+            if (path.startsWith(prefix + "/")) {
+                below.add(path.substring(prefix.length() + 1));
+            }
+        }
+        return below;
+    }
+
+    private static long sizeOf(final File file) {
+        if (file.isFile()) {
+            return file.length();
+        }
+        long size = 0;
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+}
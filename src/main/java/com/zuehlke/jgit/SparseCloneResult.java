@@ -0,0 +1,88 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Outcome of a {@link SparseClone}, including the submodules it cloned.
+ */
+public class SparseCloneResult {
+
+    private final File directory;
+    private final ObjectId head;
+    private final long bytesTransferred;
+    private final long bytesWritten;
+    private final int filesWritten;
+    private final List<SparseCloneResult> submodules;
+
+    SparseCloneResult(final File directory, final ObjectId head, final long bytesTransferred,
+            final long bytesWritten, final int filesWritten, final List<SparseCloneResult> submodules) {
+        this.directory = directory;
+        this.head = head;
+        this.bytesTransferred = bytesTransferred;
+        this.bytesWritten = bytesWritten;
+        this.filesWritten = filesWritten;
+        this.submodules = Collections.unmodifiableList(submodules);
+    }
+
+    /**
+     * @return working tree of the clone
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return the checked out commit
+     */
+    public ObjectId getHead() {
+        return head;
+    }
+
+    /**
+     * @return bytes the fetch added to the object database of this repository, without submodules
+     */
+    public long getBytesTransferred() {
+        return bytesTransferred;
+    }
+
+    /**
+     * @return bytes of the files checked out into the working tree of this repository, without submodules
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public int getFilesWritten() {
+        return filesWritten;
+    }
+
+    public List<SparseCloneResult> getSubmodules() {
+        return submodules;
+    }
+
+    public long getTotalBytesTransferred() {
+        long total = bytesTransferred;
+        for (final SparseCloneResult submodule : submodules) {
+            total += submodule.getTotalBytesTransferred();
+        }
+        return total;
+    }
+
+    public long getTotalBytesWritten() {
+        long total = bytesWritten;
+        for (final SparseCloneResult submodule : submodules) {
+            total += submodule.getTotalBytesWritten();
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return directory + " at " + head.name() + ": " + getTotalBytesTransferred() + " bytes transferred, "
+                + getTotalBytesWritten() + " bytes written, " + submodules.size() + " submodules";
+    }
+}
@@ -0,0 +1,369 @@
+package com.zuehlke.jgit;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.internal.storage.file.FileSnapshot;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Keeps the working tree status of a repository in memory and only rescans the paths that changed.
+ * <p>
+ * Changed paths are collected from three sources: the work tree, reported either by a
+ * {@link WatchService} ({@link Mode#WATCH}) or by comparing file sizes and modification times with the
+ * previous call ({@link Mode#POLL}); the index, by comparing the cached {@link DirCache} with the current
+ * one whenever the index file changed; and HEAD, by diffing the old and the new HEAD tree. Only these
+ * paths are diffed again, everything else is served from the previous result. A full rescan happens on
+ * the first call, after a watch overflow and when a {@code .gitignore} file changes.
+ * <p>
+ * Like JGit's {@link FileSnapshot}, polling does not trust a file that was modified shortly before the
+ * previous scan: a rewrite of the same size within the file system's timestamp granularity would keep its
+ * modification time. Such files are diffed again until a scan sees them unchanged long enough after their
+ * modification.
+ * <p>
+ * Directories containing a {@code .git} entry are nested repositories: they are neither watched nor
+ * scanned, the parent repository only sees them as a single entry.
+ * <p>
+ * In watch mode, changes are only visible once the operating system has delivered their events, which
+ * usually takes a few milliseconds.
+ */
+public class StatusService implements AutoCloseable {
+
+    public enum Mode {
+        WATCH, POLL
+    }
+
+    private static class FileStat {
+
+        /** Same as {@link FileSnapshot}'s, covering the coarsest common file time granularity. */
+        static final long RACY_MILLIS = 2500;
+
+        final long lastModified;
+        final long size;
+        /** Whether a later write may have left size and modification time unchanged. */
+        final boolean racy;
+
+        FileStat(final long lastModified, final long size, final long scanned) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.racy = scanned - lastModified <= RACY_MILLIS;
+        }
+
+        boolean sameAs(final FileStat other) {
+            return other != null && !other.racy && lastModified == other.lastModified && size == other.size;
+        }
+    }
+
+    private final Repository repository;
+    private final Mode mode;
+    private final Path root;
+    private final File indexFile;
+
+    private WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new HashMap<WatchKey, Path>();
+    private Map<String, FileStat> fileStats = new HashMap<String, FileStat>();
+
+    private StatusSnapshot.Builder state;
+    private StatusSnapshot snapshot;
+    private DirCache dirCache;
+    private FileSnapshot indexSnapshot;
+    private ObjectId headId;
+
+    public StatusService(final Repository repository, final Mode mode) throws IOException {
+        this.repository = repository;
+        this.mode = mode;
+        this.root = repository.getWorkTree().toPath().toAbsolutePath();
+        this.indexFile = repository.getIndexFile();
+        if (mode == Mode.WATCH) {
+            watchService = root.getFileSystem().newWatchService();
+            registerTree(root);
+        }
+    }
+
+    /**
+     * @return the current status, rescanning only the paths that changed since the previous call; the same
+     *         instance as before if nothing changed
+     */
+    public synchronized StatusSnapshot getStatus() throws IOException {
+        if (snapshot == null) {
+            return rescan();
+        }
+
+        final Set<String> changed = new TreeSet<String>();
+        if (mode == Mode.WATCH && watchService == null) {
+            throw new IllegalStateException("status service is closed");
+        }
+        boolean full = mode == Mode.WATCH ? collectWatchEvents(changed) : collectStatChanges(changed);
+
+        final ObjectId newHeadId = repository.resolve(Constants.HEAD);
+        if (newHeadId == null ? headId != null : !newHeadId.equals(headId)) {
+            changed.addAll(diffTrees(headId, newHeadId));
+            headId = newHeadId;
+        }
+
+        if (indexSnapshot.isModified(indexFile)) {
+            indexSnapshot = FileSnapshot.save(indexFile);
+            final DirCache newDirCache = repository.readDirCache();
+            changed.addAll(diffDirCaches(dirCache, newDirCache));
+            dirCache = newDirCache;
+        }
+
+        for (final String path : changed) {
+            if (path.equals(Constants.DOT_GIT_IGNORE) || path.endsWith("/" + Constants.DOT_GIT_IGNORE)) {
+                full = true;
+            }
+        }
+        if (full) {
+            return rescan();
+        }
+        if (changed.isEmpty()) {
+            return snapshot;
+        }
+
+        // an untracked folder is reported as a whole, so it has to be rescanned as a whole
+        final Set<String> paths = new TreeSet<String>();
+        for (final String path : changed) {
+            paths.add(enclosingUntrackedFolder(path));
+        }
+
+        final IndexDiff diff = new IndexDiff(repository, Constants.HEAD, new FileTreeIterator(repository));
+        diff.setFilter(PathFilterGroup.createFromStrings(paths));
+        diff.diff();
+        state.removeAll(paths);
+        state.addAll(diff);
+        final StatusSnapshot updated = state.build();
+        // racy files are diffed again without having changed
+        if (!updated.sameAs(snapshot)) {
+            snapshot = updated;
+        }
+        return snapshot;
+    }
+
+    /**
+     * Discards all cached state and scans the whole working tree.
+     */
+    public synchronized StatusSnapshot rescan() throws IOException {
+        // take all snapshots before diffing, so changes made during the scan show up next time
+        if (watchService != null) {
+            collectWatchEvents(new TreeSet<String>());
+        } else if (mode == Mode.POLL) {
+            collectStatChanges(new TreeSet<String>());
+        }
+        indexSnapshot = FileSnapshot.save(indexFile);
+        dirCache = repository.readDirCache();
+        headId = repository.resolve(Constants.HEAD);
+
+        final IndexDiff diff = new IndexDiff(repository, Constants.HEAD, new FileTreeIterator(repository));
+        diff.diff();
+        state = new StatusSnapshot.Builder();
+        state.addAll(diff);
+        snapshot = state.build();
+        return snapshot;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (watchService != null) {
+            watchService.close();
+            watchService = null;
+            watchedDirectories.clear();
+        }
+    }
+
+    private String enclosingUntrackedFolder(final String path) {
+        for (final String folder : state.untrackedFolders) {
+            if (path.startsWith(folder + "/")) {
+                return folder;
+            }
+        }
+        return path;
+    }
+
+    /**
+     * @return {@code true} if events were lost and a full rescan is required
+     */
+    private boolean collectWatchEvents(final Set<String> changed) throws IOException {
+        boolean overflow = false;
+        WatchKey key;
+        while ((key = watchService.poll()) != null) {
+            final Path directory = watchedDirectories.get(key);
+            for (final WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW || directory == null) {
+                    overflow = true;
+                    continue;
+                }
+                final Path child = directory.resolve((Path) event.context());
+                final String path = relativePath(child);
+                if (path.equals(Constants.DOT_GIT) || path.startsWith(Constants.DOT_GIT + "/")) {
+                    continue;
+                }
+                changed.add(path);
+                if (event.kind() == ENTRY_CREATE && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    registerTree(child);
+                }
+            }
+            if (!key.reset()) {
+                watchedDirectories.remove(key);
+            }
+        }
+        return overflow;
+    }
+
+    private void registerTree(final Path start) throws IOException {
+        walkWorkTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                if (isExcluded(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                watchedDirectories.put(dir.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY), dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * @return always {@code false}, polling never loses changes
+     */
+    private boolean collectStatChanges(final Set<String> changed) throws IOException {
+        final Map<String, FileStat> newStats = new HashMap<String, FileStat>(fileStats.size() * 4 / 3 + 16);
+        // taken before any file is read, so it errs towards racy
+        final long scanned = System.currentTimeMillis();
+        walkWorkTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                return isExcluded(dir) ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                final String path = relativePath(file);
+                final FileStat stat = new FileStat(attrs.lastModifiedTime().toMillis(), attrs.size(), scanned);
+                newStats.put(path, stat);
+                if (!stat.sameAs(fileStats.remove(path))) {
+                    changed.add(path);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        // whatever was not visited again has been deleted
+        changed.addAll(fileStats.keySet());
+        fileStats = newStats;
+        return false;
+    }
+
+    private void walkWorkTree(final Path start, final SimpleFileVisitor<Path> visitor) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) throws IOException {
+                return visitor.preVisitDirectory(dir, attrs);
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                return visitor.visitFile(file, attrs);
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(final Path file, final IOException exc) {
+                // deleted while walking, the next call will notice
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * @return {@code true} for the repository's own {@code .git} and for nested repositories
+     */
+    private boolean isExcluded(final Path dir) {
+        if (dir.equals(root)) {
+            return false;
+        }
+        return dir.getFileName().toString().equals(Constants.DOT_GIT) || Files.exists(dir.resolve(Constants.DOT_GIT));
+    }
+
+    private String relativePath(final Path path) {
+        final String relative = root.relativize(path).toString();
+        return File.separatorChar == '/' ? relative : relative.replace(File.separatorChar, '/');
+    }
+
+    private Set<String> diffTrees(final ObjectId oldCommit, final ObjectId newCommit) throws IOException {
+        final Set<String> paths = new TreeSet<String>();
+        final RevWalk revWalk = new RevWalk(repository);
+        final TreeWalk treeWalk = new TreeWalk(repository);
+        try {
+            treeWalk.addTree(oldCommit == null ? new EmptyTreeIterator() : parserFor(revWalk, oldCommit));
+            treeWalk.addTree(newCommit == null ? new EmptyTreeIterator() : parserFor(revWalk, newCommit));
+            treeWalk.setRecursive(true);
+            treeWalk.setFilter(TreeFilter.ANY_DIFF);
+            while (treeWalk.next()) {
+                paths.add(treeWalk.getPathString());
+            }
+        } finally {
+            treeWalk.release();
+            revWalk.release();
+        }
+        return paths;
+    }
+
+    private CanonicalTreeParser parserFor(final RevWalk revWalk, final ObjectId commit) throws IOException {
+        final CanonicalTreeParser parser = new CanonicalTreeParser();
+        parser.reset(revWalk.getObjectReader(), revWalk.parseTree(commit));
+        return parser;
+    }
+
+    private static Set<String> diffDirCaches(final DirCache oldCache, final DirCache newCache) {
+        final Set<String> paths = new TreeSet<String>();
+        final Map<String, DirCacheEntry> oldEntries = new HashMap<String, DirCacheEntry>();
+        for (int i = 0; i < oldCache.getEntryCount(); i++) {
+            final DirCacheEntry entry = oldCache.getEntry(i);
+            oldEntries.put(entry.getStage() + entry.getPathString(), entry);
+        }
+        for (int i = 0; i < newCache.getEntryCount(); i++) {
+            final DirCacheEntry entry = newCache.getEntry(i);
+            final DirCacheEntry old = oldEntries.remove(entry.getStage() + entry.getPathString());
+            if (old == null || !sameEntry(old, entry)) {
+                paths.add(entry.getPathString());
+            }
+        }
+        for (final DirCacheEntry removed : oldEntries.values()) {
+            paths.add(removed.getPathString());
+        }
+        return paths;
+    }
+
+    private static boolean sameEntry(final DirCacheEntry a, final DirCacheEntry b) {
+        return a.getRawMode() == b.getRawMode() && a.getLength() == b.getLength()
+                && a.getLastModified() == b.getLastModified() && a.getObjectId().equals(b.getObjectId());
+    }
+}
@@ -0,0 +1,159 @@
+package com.zuehlke.jgit;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.IndexDiff.StageState;
+
+/**
+ * Immutable working tree status, with the same categories as {@link org.eclipse.jgit.api.Status}.
+ */
+public class StatusSnapshot {
+
+    private final Set<String> added;
+    private final Set<String> changed;
+    private final Set<String> removed;
+    private final Set<String> missing;
+    private final Set<String> modified;
+    private final Set<String> untracked;
+    private final Set<String> untrackedFolders;
+    private final Set<String> conflicting;
+    private final Map<String, StageState> conflictingStageState;
+    private final Set<String> ignoredNotInIndex;
+
+    StatusSnapshot(final Builder builder) {
+        added = Collections.unmodifiableSet(new TreeSet<String>(builder.added));
+        changed = Collections.unmodifiableSet(new TreeSet<String>(builder.changed));
+        removed = Collections.unmodifiableSet(new TreeSet<String>(builder.removed));
+        missing = Collections.unmodifiableSet(new TreeSet<String>(builder.missing));
+        modified = Collections.unmodifiableSet(new TreeSet<String>(builder.modified));
+        untracked = Collections.unmodifiableSet(new TreeSet<String>(builder.untracked));
+        untrackedFolders = Collections.unmodifiableSet(new TreeSet<String>(builder.untrackedFolders));
+        conflicting = Collections.unmodifiableSet(new TreeSet<String>(builder.conflicting));
+        conflictingStageState = Collections.unmodifiableMap(new TreeMap<String, StageState>(
+                builder.conflictingStageState));
+        ignoredNotInIndex = Collections.unmodifiableSet(new TreeSet<String>(builder.ignoredNotInIndex));
+    }
+
+    public boolean isClean() {
+        return added.isEmpty() && changed.isEmpty() && removed.isEmpty() && missing.isEmpty() && modified.isEmpty()
+                && untracked.isEmpty() && conflicting.isEmpty();
+    }
+
+    public Set<String> getAdded() {
+        return added;
+    }
+
+    public Set<String> getChanged() {
+        return changed;
+    }
+
+    public Set<String> getRemoved() {
+        return removed;
+    }
+
+    public Set<String> getMissing() {
+        return missing;
+    }
+
+    public Set<String> getModified() {
+        return modified;
+    }
+
+    public Set<String> getUntracked() {
+        return untracked;
+    }
+
+    public Set<String> getUntrackedFolders() {
+        return untrackedFolders;
+    }
+
+    public Set<String> getConflicting() {
+        return conflicting;
+    }
+
+    public Map<String, StageState> getConflictingStageState() {
+        return conflictingStageState;
+    }
+
+    public Set<String> getIgnoredNotInIndex() {
+        return ignoredNotInIndex;
+    }
+
+    /**
+     * @return whether {@code other} has exactly the same entries
+     */
+    boolean sameAs(final StatusSnapshot other) {
+        return added.equals(other.added) && changed.equals(other.changed) && removed.equals(other.removed)
+                && missing.equals(other.missing) && modified.equals(other.modified)
+                && untracked.equals(other.untracked) && untrackedFolders.equals(other.untrackedFolders)
+                && conflicting.equals(other.conflicting) && conflictingStageState.equals(other.conflictingStageState)
+                && ignoredNotInIndex.equals(other.ignoredNotInIndex);
+    }
+
+    /**
+     * Mutable counterpart of {@link StatusSnapshot} that can replace the entries below a set of paths.
+     */
+    static class Builder {
+
+        final TreeSet<String> added = new TreeSet<String>();
+        final TreeSet<String> changed = new TreeSet<String>();
+        final TreeSet<String> removed = new TreeSet<String>();
+        final TreeSet<String> missing = new TreeSet<String>();
+        final TreeSet<String> modified = new TreeSet<String>();
+        final TreeSet<String> untracked = new TreeSet<String>();
+        final TreeSet<String> untrackedFolders = new TreeSet<String>();
+        final TreeSet<String> conflicting = new TreeSet<String>();
+        final TreeMap<String, StageState> conflictingStageState = new TreeMap<String, StageState>();
+        final TreeSet<String> ignoredNotInIndex = new TreeSet<String>();
+
+        void addAll(final IndexDiff diff) {
+            added.addAll(diff.getAdded());
+            changed.addAll(diff.getChanged());
+            removed.addAll(diff.getRemoved());
+            missing.addAll(diff.getMissing());
+            modified.addAll(diff.getModified());
+            untracked.addAll(diff.getUntracked());
+            untrackedFolders.addAll(diff.getUntrackedFolders());
+            conflicting.addAll(diff.getConflicting());
+            conflictingStageState.putAll(diff.getConflictingStageStates());
+            ignoredNotInIndex.addAll(diff.getIgnoredNotInIndex());
+        }
+
+        /**
+         * Removes every entry that is equal to or below one of {@code paths}.
+         */
+        void removeAll(final Set<String> paths) {
+            removeBelow(added, paths);
+            removeBelow(changed, paths);
+            removeBelow(removed, paths);
+            removeBelow(missing, paths);
+            removeBelow(modified, paths);
+            removeBelow(untracked, paths);
+            removeBelow(untrackedFolders, paths);
+            removeBelow(conflicting, paths);
+            removeBelow(conflictingStageState.navigableKeySet(), paths);
+            removeBelow(ignoredNotInIndex, paths);
+        }
+
+        private static void removeBelow(final NavigableSet<String> entries, final Set<String> paths) {
+            if (entries.isEmpty()) {
+                return;
+            }
+            for (final String path : paths) {
+                entries.remove(path);
+                // '0' directly follows '/', so this range holds exactly the entries below path
+                entries.subSet(path + "/", true, path + "0", false).clear();
+            }
+        }
+
+        StatusSnapshot build() {
+            return new StatusSnapshot(this);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.submodule.SubmoduleStatus;
+import org.eclipse.jgit.submodule.SubmoduleStatusType;
+import org.eclipse.jgit.submodule.SubmoduleWalk;
+import org.eclipse.jgit.transport.CredentialsProvider;
+
+/**
+ * Computes the status of, and optionally updates, all submodules of a superproject concurrently.
+ * <p>
+ * Sibling submodules are processed in parallel on a fork-join pool. A nested submodule is only visited
+ * after its parent submodule has been updated, because the parent's checkout decides which nested
+ * submodules exist and which commits they must be at. Each submodule repository is opened exactly once,
+ * shared between the update, the status computation and the enumeration of its own submodules, and
+ * closed as soon as its subtree is done.
+ * <p>
+ * Updating a submodule initializes its URL from {@code .gitmodules} if necessary, clones it if it does
+ * not exist yet, fetches if the recorded commit is missing and finally checks out the recorded commit
+ * on a detached HEAD, just like {@code git submodule update --init}.
+ */
+public class SubmoduleEngine {
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean recursive = true;
+    private CredentialsProvider credentialsProvider;
+
+    public SubmoduleEngine setThreads(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    public SubmoduleEngine setRecursive(final boolean recursive) {
+        this.recursive = recursive;
+        return this;
+    }
+
+    public SubmoduleEngine setCredentialsProvider(final CredentialsProvider credentialsProvider) {
+        this.credentialsProvider = credentialsProvider;
+        return this;
+    }
+
+    /**
+     * @return status of every (nested) submodule, keyed by path relative to the superproject work tree
+     */
+    public Map<String, SubmoduleResult> status(final Repository superproject) throws IOException {
+        return run(superproject, false);
+    }
+
+    /**
+     * Brings every (nested) submodule to the commit recorded in its parent's index.
+     *
+     * @return result of every (nested) submodule, keyed by path relative to the superproject work tree
+     */
+    public Map<String, SubmoduleResult> update(final Repository superproject) throws IOException {
+        return run(superproject, true);
+    }
+
+    private Map<String, SubmoduleResult> run(final Repository superproject, final boolean update) throws IOException {
+        final Map<String, SubmoduleResult> results = new ConcurrentSkipListMap<String, SubmoduleResult>();
+        final List<Module> modules = listModules(superproject, "", update);
+        if (modules.isEmpty()) {
+            return results;
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(new RecursiveAction() {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected void compute() {
+                    invokeAll(tasksFor(superproject.getWorkTree(), modules, update, results));
+                }
+            });
+        } finally {
+            pool.shutdown();
+        }
+        return Collections.unmodifiableMap(results);
+    }
+
+    private List<ModuleTask> tasksFor(final File parentWorkTree, final List<Module> modules, final boolean update,
+            final Map<String, SubmoduleResult> results) {
+        final List<ModuleTask> tasks = new ArrayList<ModuleTask>(modules.size());
+        for (final Module module : modules) {
+            tasks.add(new ModuleTask(parentWorkTree, module, update, results));
+        }
+        return tasks;
+    }
+
+    /**
+     * Reads the submodules of {@code parent} from its index and, when updating, initializes the URLs of
+     * uninitialized submodules in the parent's config. This runs before the children are forked, so the
+     * parent config is never written concurrently.
+     */
+    private static List<Module> listModules(final Repository parent, final String prefix, final boolean update)
+            throws IOException {
+        final List<Module> modules = new ArrayList<Module>();
+        final SubmoduleWalk walk = SubmoduleWalk.forIndex(parent);
+        try {
+            StoredConfig config = null;
+            while (walk.next()) {
+                final Module module = new Module(prefix + walk.getPath(), walk.getPath(), walk.getObjectId());
+                module.modulesPath = walk.getModulesPath();
+                module.url = walk.getConfigUrl();
+                if (update && module.url == null && module.modulesPath != null && walk.getModulesUrl() != null) {
+                    if (config == null) {
+                        config = parent.getConfig();
+                    }
+                    module.url = resolveUrl(parent, walk.getModulesUrl());
+                    config.setString(ConfigConstants.CONFIG_SUBMODULE_SECTION, walk.getPath(),
+                            ConfigConstants.CONFIG_KEY_URL, module.url);
+                }
+                modules.add(module);
+            }
+            if (config != null) {
+                config.save();
+            }
+        } catch (final ConfigInvalidException e) {
+            throw new IOException("invalid submodule configuration in " + parent.getDirectory(), e);
+        } finally {
+            walk.release();
+        }
+        return modules;
+    }
+
+    private static String resolveUrl(final Repository parent, final String url) throws IOException {
+        if (url.startsWith("./") || url.startsWith("../")) {
+            return SubmoduleWalk.getSubmoduleRemoteUrl(parent, url);
+        }
+        return url;
+    }
+
+    static SubmoduleStatus statusOf(final String path, final String modulesPath, final String url,
+            final ObjectId indexId, final Repository repository) throws IOException {
+        if (modulesPath == null) {
+            return new SubmoduleStatus(SubmoduleStatusType.MISSING, path, indexId);
+        }
+        if (url == null || repository == null) {
+            return new SubmoduleStatus(SubmoduleStatusType.UNINITIALIZED, path, indexId);
+        }
+        final ObjectId headId = repository.resolve(Constants.HEAD);
+        if (headId == null) {
+            return new SubmoduleStatus(SubmoduleStatusType.UNINITIALIZED, path, indexId);
+        }
+        if (!headId.equals(indexId)) {
+            return new SubmoduleStatus(SubmoduleStatusType.REV_CHECKED_OUT, path, indexId, headId);
+        }
+        return new SubmoduleStatus(SubmoduleStatusType.INITIALIZED, path, indexId, headId);
+    }
+
+    private static class Module {
+
+        final String fullPath;
+        final String path;
+        final ObjectId indexId;
+        String modulesPath;
+        String url;
+
+        Module(final String fullPath, final String path, final ObjectId indexId) {
+            this.fullPath = fullPath;
+            this.path = path;
+            this.indexId = indexId;
+        }
+    }
+
+    private class ModuleTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final File parentWorkTree;
+        private final Module module;
+        private final boolean update;
+        private final Map<String, SubmoduleResult> results;
+
+        ModuleTask(final File parentWorkTree, final Module module, final boolean update,
+                final Map<String, SubmoduleResult> results) {
+            this.parentWorkTree = parentWorkTree;
+            this.module = module;
+            this.update = update;
+            this.results = results;
+        }
+
+        @Override
+        protected void compute() {
+            Repository repository = null;
+            SubmoduleStatus status = null;
+            boolean updated = false;
+            Exception error = null;
+            try {
+                repository = SubmoduleWalk.getSubmoduleRepository(parentWorkTree, module.path);
+                if (update && module.modulesPath != null && module.url != null) {
+                    if (repository == null) {
+                        repository = cloneModule();
+                        updated = true;
+                    }
+                    updated |= checkout(repository);
+                }
+                status = statusOf(module.fullPath, module.modulesPath, module.url, module.indexId, repository);
+
+                if (recursive && repository != null && !repository.isBare()) {
+                    final List<Module> children = listModules(repository, module.fullPath + "/", update);
+                    invokeAll(tasksFor(repository.getWorkTree(), children, update, results));
+                }
+            } catch (final IOException | GitAPIException | RuntimeException e) {
+                // JGit also fails with JGitInternalException; either way only this submodule failed
+                error = e;
+            } finally {
+                if (repository != null) {
+                    repository.close();
+                }
+            }
+            results.put(module.fullPath, new SubmoduleResult(module.fullPath, status, updated, error));
+        }
+
+        private Repository cloneModule() throws GitAPIException {
+            return Git.cloneRepository()
+                      .setURI(module.url)
+                      .setDirectory(new File(parentWorkTree, module.path))
+                      .setNoCheckout(true)
+                      .setCredentialsProvider(credentialsProvider)
+                      .call()
+                      .getRepository();
+        }
+
+        /**
+         * Checks out the recorded commit on a detached HEAD, fetching first if it is not available locally.
+         *
+         * @return {@code false} if HEAD already was at the recorded commit
+         */
+        private boolean checkout(final Repository repository) throws IOException, GitAPIException {
+            final ObjectId headId = repository.resolve(Constants.HEAD);
+            if (module.indexId.equals(headId)) {
+                return false;
+            }
+
+            final RevWalk walk = new RevWalk(repository);
+            try {
+                RevCommit commit;
+                try {
+                    commit = walk.parseCommit(module.indexId);
+                } catch (final MissingObjectException e) {
+                    new Git(repository).fetch()
+                                       .setCredentialsProvider(credentialsProvider)
+                                       .call();
+                    commit = walk.parseCommit(module.indexId);
+                }
+
+                final DirCache dirCache = repository.lockDirCache();
+                final DirCacheCheckout checkout;
+                if (headId != null && repository.hasObject(headId)) {
+                    checkout = new DirCacheCheckout(repository, walk.parseCommit(headId).getTree(), dirCache,
+                            commit.getTree());
+                } else {
+                    checkout = new DirCacheCheckout(repository, dirCache, commit.getTree());
+                }
+                checkout.setFailOnConflict(true);
+                checkout.checkout();
+
+                final RefUpdate refUpdate = repository.updateRef(Constants.HEAD, true);
+                refUpdate.setNewObjectId(commit);
+                refUpdate.forceUpdate();
+                return true;
+            } finally {
+                walk.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package com.zuehlke.jgit;
+
+import org.eclipse.jgit.submodule.SubmoduleStatus;
+
+/**
+ * Outcome of processing a single submodule with the {@link SubmoduleEngine}.
+ */
+public class SubmoduleResult {
+
+    private final String path;
+    private final SubmoduleStatus status;
+    private final boolean updated;
+    private final Exception error;
+
+    SubmoduleResult(final String path, final SubmoduleStatus status, final boolean updated, final Exception error) {
+        this.path = path;
+        this.status = status;
+        this.updated = updated;
+        this.error = error;
+    }
+
+    /**
+     * @return path of the submodule relative to the work tree of the top level superproject
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return status after the update, or {@code null} if the submodule failed before its status was known
+     */
+    public SubmoduleStatus getStatus() {
+        return status;
+    }
+
+    /**
+     * @return {@code true} if the submodule was cloned, fetched or checked out
+     */
+    public boolean isUpdated() {
+        return updated;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    @Override
+    public String toString() {
+        return path + " " + (status == null ? "?" : status.getType()) + (updated ? " updated" : "")
+                + (error == null ? "" : " failed: " + error.getMessage());
+    }
+}
@@ -0,0 +1,75 @@
+package com.zuehlke.jgit;
+
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Outcome of a {@link SyncService#sync()}.
+ */
+public class SyncResult {
+
+    public enum Status {
+        /** Neither the remote branch nor the local one had to change. */
+        UP_TO_DATE,
+        /** The local branch was behind and was moved forward. */
+        FAST_FORWARD,
+        /** The branches diverged and were merged; see {@link SyncResult#getMergeResult()}. */
+        MERGED
+    }
+
+    private final Status status;
+    private final boolean fetched;
+    private final ObjectId oldHead;
+    private final ObjectId newHead;
+    private final int updatedPaths;
+    private final MergeResult mergeResult;
+
+    SyncResult(final Status status, final boolean fetched, final ObjectId oldHead, final ObjectId newHead,
+            final int updatedPaths, final MergeResult mergeResult) {
+        this.status = status;
+        this.fetched = fetched;
+        this.oldHead = oldHead;
+        this.newHead = newHead;
+        this.updatedPaths = updatedPaths;
+        this.mergeResult = mergeResult;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    /**
+     * @return whether objects were fetched; {@code false} if the advertised remote ref was unchanged
+     */
+    public boolean isFetched() {
+        return fetched;
+    }
+
+    public ObjectId getOldHead() {
+        return oldHead;
+    }
+
+    public ObjectId getNewHead() {
+        return newHead;
+    }
+
+    /**
+     * @return number of files a fast-forward wrote or deleted, 0 for other outcomes
+     */
+    public int getUpdatedPaths() {
+        return updatedPaths;
+    }
+
+    /**
+     * @return result of the merge of diverged branches, {@code null} for other outcomes
+     */
+    public MergeResult getMergeResult() {
+        return mergeResult;
+    }
+
+    @Override
+    public String toString() {
+        return status + (fetched ? " after fetch" : "") + ", " + (oldHead != null ? oldHead.name() : "none")
+                + " -> " + (newHead != null ? newHead.name() : "none");
+    }
+}
@@ -0,0 +1,250 @@
+package com.zuehlke.jgit;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.lib.BranchConfig;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.FetchConnection;
+import org.eclipse.jgit.transport.Transport;
+
+/**
+ * Pulls the upstream branch of the current branch, doing only the work the change requires.
+ * <p>
+ * A {@link #sync()} first asks the remote for its advertised refs. If the upstream branch is where the
+ * remote-tracking ref already points, nothing is fetched. If the local branch is behind, it is moved forward
+ * by checking out the difference between the two trees, so only the changed index entries and files are
+ * written. Only diverged branches are merged, with JGit's merge.
+ * <p>
+ * {@link #startPrefetch(long)} fetches in the background the same way, keeping the remote-tracking ref current
+ * so that a later sync finds the objects present and only has to update the working tree.
+ */
+public class SyncService implements AutoCloseable {
+
+    private final Repository repository;
+    private CredentialsProvider credentialsProvider;
+
+    /** Serializes fetches and working tree updates of this service. */
+    private final Object lock = new Object();
+    private ScheduledExecutorService prefetcher;
+    private volatile Exception lastPrefetchError;
+
+    private final AtomicLong remoteChecks = new AtomicLong();
+    private final AtomicLong fetches = new AtomicLong();
+
+    public SyncService(final Repository repository) {
+        this.repository = repository;
+    }
+
+    public SyncService setCredentialsProvider(final CredentialsProvider credentialsProvider) {
+        this.credentialsProvider = credentialsProvider;
+        return this;
+    }
+
+    /**
+     * Brings the current branch up to date with its upstream branch.
+     *
+     * @throws IllegalStateException if HEAD is detached or the branch has no upstream
+     * @throws org.eclipse.jgit.errors.CheckoutConflictException if a fast-forward would overwrite local changes
+     */
+    public SyncResult sync() throws IOException, URISyntaxException, GitAPIException {
+        synchronized (lock) {
+            final Upstream upstream = upstream();
+            final boolean fetched = fetchIfChanged(upstream);
+            final ObjectId target = repository.resolve(upstream.trackingRef);
+            final ObjectId head = repository.resolve(upstream.branch);
+            if (target == null || target.equals(head)) {
+                return new SyncResult(SyncResult.Status.UP_TO_DATE, fetched, head, head, 0, null);
+            }
+
+            final RevWalk walk = new RevWalk(repository);
+            try {
+                final RevCommit targetCommit = walk.parseCommit(target);
+                final RevCommit headCommit = head != null ? walk.parseCommit(head) : null;
+                if (headCommit != null && walk.isMergedInto(targetCommit, headCommit)) {
+                    return new SyncResult(SyncResult.Status.UP_TO_DATE, fetched, head, head, 0, null);
+                }
+                if (headCommit == null || walk.isMergedInto(headCommit, targetCommit)) {
+                    final int updated = fastForward(upstream.branch, headCommit, targetCommit);
+                    return new SyncResult(SyncResult.Status.FAST_FORWARD, fetched, head, target, updated, null);
+                }
+            } finally {
+                walk.release();
+            }
+
+            final MergeResult merge = new Git(repository).merge()
+                                                         .include(repository.getRef(upstream.trackingRef))
+                                                         .call();
+            return new SyncResult(SyncResult.Status.MERGED, fetched, head, merge.getNewHead(), 0, merge);
+        }
+    }
+
+    /**
+     * Updates the remote-tracking ref of the current branch every {@code intervalMillis} on a daemon thread,
+     * without touching the branch or the working tree.
+     */
+    public synchronized void startPrefetch(final long intervalMillis) {
+        if (prefetcher != null) {
+            prefetcher.shutdownNow();
+        }
+        prefetcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "sync-prefetch");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        prefetcher.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    prefetch();
+                    lastPrefetchError = null;
+                } catch (final IOException | URISyntaxException | RuntimeException e) {
+                    lastPrefetchError = e;
+                }
+            }
+        }, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Fetches the upstream branch if the remote advertises a new commit for it.
+     *
+     * @return whether anything was fetched
+     */
+    public boolean prefetch() throws IOException, URISyntaxException {
+        synchronized (lock) {
+            return fetchIfChanged(upstream());
+        }
+    }
+
+    /**
+     * @return failure of the last background prefetch, {@code null} if it succeeded
+     */
+    public Exception getLastPrefetchError() {
+        return lastPrefetchError;
+    }
+
+    /**
+     * @return number of times the advertised refs of the remote were listed
+     */
+    public long getRemoteChecks() {
+        return remoteChecks.get();
+    }
+
+    /**
+     * @return number of fetches, at most one per changed remote check
+     */
+    public long getFetches() {
+        return fetches.get();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (prefetcher != null) {
+            prefetcher.shutdownNow();
+            prefetcher = null;
+        }
+    }
+
+    private static class Upstream {
+
+        String branch;
+        String remote;
+        String mergeRef;
+        String trackingRef;
+    }
+
+    private Upstream upstream() throws IOException {
+        final String branch = repository.getFullBranch();
+        if (branch == null || !branch.startsWith(Constants.R_HEADS)) {
+            throw new IllegalStateException("HEAD of " + repository.getDirectory() + " is not on a branch");
+        }
+        final String name = Repository.shortenRefName(branch);
+        final StoredConfig config = repository.getConfig();
+        final Upstream upstream = new Upstream();
+        upstream.branch = branch;
+        upstream.remote = config.getString(ConfigConstants.CONFIG_BRANCH_SECTION, name,
+                ConfigConstants.CONFIG_KEY_REMOTE);
+        upstream.mergeRef = config.getString(ConfigConstants.CONFIG_BRANCH_SECTION, name,
+                ConfigConstants.CONFIG_KEY_MERGE);
+        upstream.trackingRef = new BranchConfig(config, name).getRemoteTrackingBranch();
+        if (upstream.remote == null || upstream.mergeRef == null || upstream.trackingRef == null) {
+            throw new IllegalStateException(branch + " of " + repository.getDirectory() + " has no upstream branch");
+        }
+        return upstream;
+    }
+
+    /**
+     * Lists the refs of the remote and fetches only if the upstream branch is not where the remote-tracking ref
+     * points.
+     */
+    private boolean fetchIfChanged(final Upstream upstream) throws IOException, URISyntaxException {
+        final Transport transport = Transport.open(repository, upstream.remote);
+        try {
+            transport.setCredentialsProvider(credentialsProvider);
+            final ObjectId remote;
+            final FetchConnection connection = transport.openFetch();
+            try {
+                final Ref ref = connection.getRef(upstream.mergeRef);
+                remote = ref != null ? ref.getObjectId() : null;
+            } finally {
+                connection.close();
+            }
+            remoteChecks.incrementAndGet();
+            final ObjectId tracking = repository.resolve(upstream.trackingRef);
+            if (remote == null || remote.equals(tracking)) {
+                return false;
+            }
+            transport.fetch(NullProgressMonitor.INSTANCE, null);
+            fetches.incrementAndGet();
+            return true;
+        } finally {
+            transport.close();
+        }
+    }
+
+    /**
+     * Moves {@code branch} from {@code head} to {@code target}, writing only the paths that differ between
+     * their trees.
+     *
+     * @return number of files written or deleted
+     */
+    private int fastForward(final String branch, final RevCommit head, final RevCommit target) throws IOException {
+        final DirCacheCheckout checkout = head != null
+                ? new DirCacheCheckout(repository, head.getTree(), repository.lockDirCache(), target.getTree())
+                : new DirCacheCheckout(repository, repository.lockDirCache(), target.getTree());
+        checkout.setFailOnConflict(true);
+        checkout.checkout();
+
+        final RefUpdate update = repository.updateRef(branch);
+        update.setExpectedOldObjectId(head != null ? head : ObjectId.zeroId());
+        update.setNewObjectId(target);
+        update.setRefLogMessage("sync: fast-forward", false);
+        final RefUpdate.Result result = update.update();
+        if (result != RefUpdate.Result.FAST_FORWARD && result != RefUpdate.Result.NEW) {
+            throw new IOException("could not move " + branch + " in " + repository.getDirectory() + ": " + result);
+        }
+        return checkout.getUpdated().size() + checkout.getRemoved().size();
+    }
+}
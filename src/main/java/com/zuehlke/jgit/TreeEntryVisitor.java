@@ -0,0 +1,22 @@
+package com.zuehlke.jgit;
+
+import java.io.IOException;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+
+/**
+ * Receives the non-tree entries streamed by a {@link TreeLister}.
+ * <p>
+ * The path buffer and the object id are reused for the next entry; copy them if they must outlive the
+ * call. The buffer may be longer than the path, only the first {@code pathLength} bytes are valid.
+ */
+public interface TreeEntryVisitor {
+
+    /**
+     * @param path UTF-8 encoded path relative to the root of the listed tree, separated by {@code '/'}
+     * @param pathLength number of valid bytes in {@code path}
+     * @param mode raw git file mode, see {@link org.eclipse.jgit.lib.FileMode#fromBits(int)}
+     * @param id id of the blob, or of the commit for a gitlink
+     */
+    void visit(byte[] path, int pathLength, int mode, AnyObjectId id) throws IOException;
+}
@@ -0,0 +1,191 @@
+package com.zuehlke.jgit;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.MutableObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+
+/**
+ * Streams all entries of a tree to a {@link TreeEntryVisitor} without creating a String per path.
+ * <p>
+ * Trees are parsed directly with {@link CanonicalTreeParser}s that share one path buffer per subtree
+ * and read through a single {@link ObjectReader}, which is released by {@link #close()}. A path prefix
+ * restricts the listing to one directory; subtrees outside of it are skipped without being read.
+ * <p>
+ * A lister is not thread-safe. {@link #list(AnyObjectId, String, TreeEntryVisitor, ExecutorService)}
+ * walks the top-level subtrees in parallel, each with a reader of its own.
+ */
+public class TreeLister implements AutoCloseable {
+
+    /** Entry and all entries below it are listed. */
+    private static final int INCLUDE = 0;
+    /** Entry is a parent directory of the prefix, only its matching children are listed. */
+    private static final int DESCEND = 1;
+    /** Entry is outside of the prefix. */
+    private static final int SKIP = 2;
+
+    private final Repository repository;
+    private final ObjectReader reader;
+    private final MutableObjectId idBuffer = new MutableObjectId();
+
+    public TreeLister(final Repository repository) {
+        this.repository = repository;
+        this.reader = repository.newObjectReader();
+    }
+
+    /**
+     * Lists all entries of a commit or tree.
+     *
+     * @param treeish id of a commit or a tree
+     * @param prefix only list entries below this directory; {@code null} or empty lists everything
+     */
+    public void list(final AnyObjectId treeish, final String prefix, final TreeEntryVisitor visitor)
+            throws IOException {
+        final CanonicalTreeParser root = new CanonicalTreeParser();
+        root.reset(reader, toTree(treeish));
+        walk(root, reader, idBuffer, encodePrefix(prefix), visitor);
+    }
+
+    /**
+     * Lists all entries of a commit or tree, walking each top-level subtree as a separate task of
+     * {@code executor}. Entries are reported in no particular order and {@code visitor} must be
+     * thread-safe.
+     */
+    public void list(final AnyObjectId treeish, final String prefix, final TreeEntryVisitor visitor,
+            final ExecutorService executor) throws IOException {
+        final byte[] rawPrefix = encodePrefix(prefix);
+        final CanonicalTreeParser root = new CanonicalTreeParser();
+        root.reset(reader, toTree(treeish));
+
+        final List<Future<Void>> subtrees = new ArrayList<Future<Void>>();
+        try {
+            for (; !root.eof(); root.next(1)) {
+                final int match = match(root.getEntryPathBuffer(), root.getEntryPathLength(), rawPrefix);
+                if (match == SKIP) {
+                    continue;
+                }
+                if (FileMode.TREE.equals(root.getEntryRawMode())) {
+                    final byte[] name = new byte[root.getEntryPathLength()];
+                    System.arraycopy(root.getEntryPathBuffer(), 0, name, 0, name.length);
+                    subtrees.add(executor.submit(new SubtreeTask(name, root.getEntryObjectId(), rawPrefix, visitor)));
+                } else if (match == INCLUDE) {
+                    root.getEntryObjectId(idBuffer);
+                    visitor.visit(root.getEntryPathBuffer(), root.getEntryPathLength(), root.getEntryRawMode(),
+                            idBuffer);
+                }
+            }
+            for (final Future<Void> subtree : subtrees) {
+                subtree.get();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("tree listing interrupted", e);
+        } catch (final ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("tree listing failed", e.getCause());
+        } finally {
+            for (final Future<Void> subtree : subtrees) {
+                subtree.cancel(true);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        reader.release();
+    }
+
+    private ObjectId toTree(final AnyObjectId treeish) throws IOException {
+        // the walk shares our reader, it must not be released
+        return new RevWalk(reader).parseTree(treeish).getId();
+    }
+
+    private static int match(final byte[] path, final int pathLength, final byte[] prefix) {
+        if (prefix == null) {
+            return INCLUDE;
+        }
+        final int common = Math.min(pathLength, prefix.length);
+        for (int i = 0; i < common; i++) {
+            if (path[i] != prefix[i]) {
+                return SKIP;
+            }
+        }
+        if (pathLength >= prefix.length) {
+            return pathLength == prefix.length || path[prefix.length] == '/' ? INCLUDE : SKIP;
+        }
+        return prefix[pathLength] == '/' ? DESCEND : SKIP;
+    }
+
+    private static byte[] encodePrefix(final String prefix) {
+        if (prefix == null) {
+            return null;
+        }
+        String trimmed = prefix;
+        while (trimmed.endsWith("/")) {
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        }
+        return trimmed.isEmpty() ? null : Constants.encode(trimmed);
+    }
+
+    private static void walk(final CanonicalTreeParser tree, final ObjectReader reader, final MutableObjectId id,
+            final byte[] prefix, final TreeEntryVisitor visitor) throws IOException {
+        for (; !tree.eof(); tree.next(1)) {
+            final byte[] path = tree.getEntryPathBuffer();
+            final int pathLength = tree.getEntryPathLength();
+            final int match = match(path, pathLength, prefix);
+            if (match == SKIP) {
+                continue;
+            }
+            if (FileMode.TREE.equals(tree.getEntryRawMode())) {
+                // a subtree parser appends to its parent's path buffer
+                walk(tree.createSubtreeIterator(reader, id), reader, id, match == INCLUDE ? null : prefix, visitor);
+            } else if (match == INCLUDE) {
+                tree.getEntryObjectId(id);
+                visitor.visit(path, pathLength, tree.getEntryRawMode(), id);
+            }
+        }
+    }
+
+    private class SubtreeTask implements Callable<Void> {
+
+        private final byte[] name;
+        private final ObjectId treeId;
+        private final byte[] prefix;
+        private final TreeEntryVisitor visitor;
+
+        SubtreeTask(final byte[] name, final ObjectId treeId, final byte[] prefix, final TreeEntryVisitor visitor) {
+            this.name = name;
+            this.treeId = treeId;
+            this.prefix = prefix;
+            this.visitor = visitor;
+        }
+
+        @Override
+        public Void call() throws IOException {
+            final ObjectReader subtreeReader = repository.newObjectReader();
+            try {
+                final CanonicalTreeParser parent = new CanonicalTreeParser(name, subtreeReader, treeId);
+                final byte[] remaining = match(name, name.length, prefix) == INCLUDE ? null : prefix;
+                walk(parent, subtreeReader, new MutableObjectId(), remaining, visitor);
+                return null;
+            } finally {
+                subtreeReader.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,499 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.InvalidRemoteException;
+import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.CredentialsProvider;
+import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+
+/**
+ * Checks out, cleans up and resets working trees using all cores.
+ * <p>
+ * Files are written by a fork-join pool, each task with an {@link ObjectReader} of its own, and directory
+ * trees are deleted by forking one task per subdirectory. {@link #resetToClean(Repository)} brings a used
+ * workspace back to the state of its index without a fresh clone: a single walk over index and work tree
+ * finds untracked, modified and missing files by their stat data, and only those are deleted or written in
+ * parallel. Ignored files are kept unless {@link #setRemoveIgnored(boolean) removeIgnored} is set, and
+ * nested repositories are never deleted.
+ */
+public class WorkspaceManager {
+
+    /** Index entries or paths a task handles before it splits. */
+    private static final int BATCH = 64;
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean removeIgnored;
+    private CredentialsProvider credentialsProvider;
+
+    public WorkspaceManager setThreads(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * @param credentialsProvider credentials for the fetch of {@link #cloneRepository(String, File, String)}
+     */
+    public WorkspaceManager setCredentialsProvider(final CredentialsProvider credentialsProvider) {
+        this.credentialsProvider = credentialsProvider;
+        return this;
+    }
+
+    /**
+     * @param removeIgnored whether {@link #resetToClean(Repository)} also deletes ignored files, like
+     *        {@code git clean -x}; defaults to {@code false}
+     */
+    public WorkspaceManager setRemoveIgnored(final boolean removeIgnored) {
+        this.removeIgnored = removeIgnored;
+        return this;
+    }
+
+    /**
+     * Clones {@code uri} into {@code directory} as remote {@code origin} and checks out in parallel. JGit
+     * 3.3.1 only links HEAD to the cloned branch in the single threaded checkout of its clone command, so
+     * the clone is an init and a fetch that picks the branch itself, the same way.
+     *
+     * @param branch branch or tag to check out, {@code null} for the branch the remote's HEAD points to
+     * @throws RefNotFoundException if the remote has no branch or tag {@code branch}
+     */
+    public Git cloneRepository(final String uri, final File directory, final String branch)
+            throws GitAPIException, IOException {
+        final Git git = Git.init()
+                           .setDirectory(directory)
+                           .call();
+        boolean cloned = false;
+        try {
+            final Repository repository = git.getRepository();
+            final StoredConfig config = repository.getConfig();
+            final RemoteConfig remote;
+            try {
+                remote = new RemoteConfig(config, Constants.DEFAULT_REMOTE_NAME);
+                remote.addURI(new URIish(uri));
+            } catch (final URISyntaxException e) {
+                throw new InvalidRemoteException("invalid remote " + uri);
+            }
+            remote.addFetchRefSpec(new RefSpec().setForceUpdate(true)
+                                                .setSourceDestination(Constants.R_HEADS + "*",
+                                                        Constants.R_REMOTES + Constants.DEFAULT_REMOTE_NAME + "/*"));
+            remote.update(config);
+            config.save();
+
+            final FetchResult fetched = git.fetch()
+                                           .setRemote(Constants.DEFAULT_REMOTE_NAME)
+                                           .setCredentialsProvider(credentialsProvider)
+                                           .call();
+            final Ref ref = branchToCheckout(fetched, branch);
+            if (ref != null) {
+                checkoutHead(repository, createBranch(repository, ref, uri));
+            }
+            cloned = true;
+            return git;
+        } finally {
+            if (!cloned) {
+                git.close();
+            }
+        }
+    }
+
+    /**
+     * @return the advertised ref of {@code branch}, or the branch the remote's HEAD points to, preferring
+     *         {@code master} if several match, or HEAD itself if it is detached; {@code null} if the remote
+     *         repository is empty
+     */
+    private static Ref branchToCheckout(final FetchResult fetched, final String branch)
+            throws RefNotFoundException {
+        if (branch != null) {
+            for (final String name : new String[] { branch, Constants.R_HEADS + branch, Constants.R_TAGS + branch }) {
+                final Ref ref = fetched.getAdvertisedRef(name);
+                if (ref != null && ref.getObjectId() != null) {
+                    return ref;
+                }
+            }
+            throw new RefNotFoundException("remote has no branch or tag " + branch);
+        }
+        final Ref head = fetched.getAdvertisedRef(Constants.HEAD);
+        if (head == null || head.getObjectId() == null) {
+            return null;
+        }
+        final Ref master = fetched.getAdvertisedRef(Constants.R_HEADS + Constants.MASTER);
+        if (master != null && head.getObjectId().equals(master.getObjectId())) {
+            return master;
+        }
+        for (final Ref ref : fetched.getAdvertisedRefs()) {
+            if (ref.getName().startsWith(Constants.R_HEADS) && head.getObjectId().equals(ref.getObjectId())) {
+                return ref;
+            }
+        }
+        return head;
+    }
+
+    /**
+     * Creates and tracks a local branch for a remote branch and links HEAD to it, or detaches HEAD at a
+     * tag or at the remote's detached HEAD.
+     *
+     * @return the commit HEAD is at
+     */
+    private static ObjectId createBranch(final Repository repository, final Ref ref, final String uri)
+            throws IOException {
+        final RevWalk walk = new RevWalk(repository);
+        final ObjectId commit;
+        try {
+            commit = walk.parseCommit(ref.getObjectId()).copy();
+        } finally {
+            walk.release();
+        }
+        if (!ref.getName().startsWith(Constants.R_HEADS)) {
+            final RefUpdate head = repository.updateRef(Constants.HEAD, true);
+            head.setNewObjectId(commit);
+            head.setRefLogMessage("clone: from " + uri, false);
+            checkUpdate(head.forceUpdate(), Constants.HEAD);
+            return commit;
+        }
+
+        final RefUpdate update = repository.updateRef(ref.getName());
+        update.setNewObjectId(commit);
+        update.setRefLogMessage("clone: from " + uri, false);
+        checkUpdate(update.update(), ref.getName());
+        final RefUpdate head = repository.updateRef(Constants.HEAD);
+        head.disableRefLog();
+        final RefUpdate.Result linked = head.link(ref.getName());
+        // a fresh repository's HEAD already points to master
+        if (linked != RefUpdate.Result.NO_CHANGE) {
+            checkUpdate(linked, Constants.HEAD);
+        }
+
+        final String name = Repository.shortenRefName(ref.getName());
+        final StoredConfig config = repository.getConfig();
+        config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, name, ConfigConstants.CONFIG_KEY_REMOTE,
+                Constants.DEFAULT_REMOTE_NAME);
+        config.setString(ConfigConstants.CONFIG_BRANCH_SECTION, name, ConfigConstants.CONFIG_KEY_MERGE,
+                ref.getName());
+        config.save();
+        return commit;
+    }
+
+    private static void checkUpdate(final RefUpdate.Result result, final String ref) throws IOException {
+        if (result != RefUpdate.Result.NEW && result != RefUpdate.Result.FORCED) {
+            throw new IOException("could not update " + ref + ": " + result);
+        }
+    }
+
+    /**
+     * Fills the index from the tree of {@code head} and writes all its files.
+     */
+    private void checkoutHead(final Repository repository, final ObjectId head) throws IOException {
+        final DirCache index = repository.lockDirCache();
+        try {
+            final ObjectReader reader = repository.newObjectReader();
+            final RevWalk walk = new RevWalk(reader);
+            try {
+                final DirCacheBuilder builder = index.builder();
+                builder.addTree(new byte[0], DirCacheEntry.STAGE_0, reader, walk.parseCommit(head).getTree());
+                builder.finish();
+            } finally {
+                walk.release();
+                reader.release();
+            }
+            final List<DirCacheEntry> entries = new ArrayList<DirCacheEntry>();
+            for (int i = 0; i < index.getEntryCount(); i++) {
+                entries.add(index.getEntry(i));
+            }
+            checkout(repository, entries);
+            index.write();
+            index.commit();
+        } finally {
+            index.unlock();
+        }
+    }
+
+    /**
+     * Writes every file of the index to the work tree, overwriting what is there.
+     *
+     * @return number of files written
+     */
+    public int checkout(final Repository repository) throws IOException {
+        final DirCache index = repository.lockDirCache();
+        try {
+            final List<DirCacheEntry> entries = new ArrayList<DirCacheEntry>();
+            for (int i = 0; i < index.getEntryCount(); i++) {
+                if (index.getEntry(i).getStage() == DirCacheEntry.STAGE_0) {
+                    entries.add(index.getEntry(i));
+                }
+            }
+            checkout(repository, entries);
+            index.write();
+            index.commit();
+            return entries.size();
+        } finally {
+            index.unlock();
+        }
+    }
+
+    /**
+     * Deletes {@code directory} and everything below it; symbolic links are deleted, not followed.
+     */
+    public void delete(final File directory) throws IOException {
+        if (!Files.exists(directory.toPath(), LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        invoke(new DeleteTask(Collections.singletonList(directory.toPath())));
+    }
+
+    /**
+     * Deletes untracked files and writes modified and missing files from the index, like
+     * {@code git checkout -- . && git clean -fd}. Conflicting entries are left alone.
+     */
+    public WorkspaceResult resetToClean(final Repository repository) throws IOException {
+        final Set<String> deleted = new TreeSet<String>();
+        final Set<String> restored = new TreeSet<String>();
+        final Path root = repository.getWorkTree().toPath();
+        final List<Path> deletions = new ArrayList<Path>();
+        final List<Path> emptied = new ArrayList<Path>();
+        final List<DirCacheEntry> restore = new ArrayList<DirCacheEntry>();
+
+        final DirCache index = repository.lockDirCache();
+        try {
+            final TreeWalk walk = new TreeWalk(repository);
+            try {
+                walk.addTree(new DirCacheIterator(index));
+                walk.addTree(new FileTreeIterator(repository));
+                // a file and a directory of the same name sort apart, so a file replaced by a directory
+                // or vice versa shows up as one untracked and one missing entry
+                while (walk.next()) {
+                    final DirCacheIterator indexed = walk.getTree(0, DirCacheIterator.class);
+                    final WorkingTreeIterator file = walk.getTree(1, WorkingTreeIterator.class);
+                    final String path = walk.getPathString();
+                    if (indexed == null) {
+                        if (file.getEntryFileMode() == FileMode.GITLINK) {
+                            continue;
+                        }
+                        final boolean ignored = file.isEntryIgnored();
+                        if (ignored && !removeIgnored) {
+                            continue;
+                        }
+                        if (walk.isSubtree() && !ignored) {
+                            // may contain ignored files or nested repositories to keep
+                            emptied.add(root.resolve(path));
+                            walk.enterSubtree();
+                            continue;
+                        }
+                        deletions.add(root.resolve(path));
+                        deleted.add(path);
+                    } else if (walk.isSubtree()) {
+                        if (file == null || file.getEntryFileMode() != FileMode.GITLINK) {
+                            walk.enterSubtree();
+                        }
+                    } else {
+                        final DirCacheEntry entry = indexed.getDirCacheEntry();
+                        if (entry == null || entry.getStage() != DirCacheEntry.STAGE_0
+                                || entry.getFileMode() == FileMode.GITLINK) {
+                            continue;
+                        }
+                        if (file == null || file.isModified(entry, true, walk.getObjectReader())) {
+                            restore.add(entry);
+                            restored.add(path);
+                        }
+                    }
+                }
+            } finally {
+                walk.release();
+            }
+
+            invoke(new DeleteTask(deletions));
+            Collections.reverse(emptied);
+            for (final Path directory : emptied) {
+                if (isEmptyDirectory(directory)) {
+                    Files.delete(directory);
+                    deleted.add(root.relativize(directory).toString().replace(File.separatorChar, '/'));
+                }
+            }
+            if (!restore.isEmpty()) {
+                checkout(repository, restore);
+                index.write();
+                index.commit();
+            }
+        } finally {
+            index.unlock();
+        }
+        return new WorkspaceResult(deleted, restored);
+    }
+
+    private void checkout(final Repository repository, final List<DirCacheEntry> entries) throws IOException {
+        invoke(new CheckoutTask(repository, entries));
+    }
+
+    private void invoke(final ForkJoinTask<?> task) throws IOException {
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            pool.invoke(task);
+        } catch (final UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static boolean isEmptyDirectory(final Path directory) throws IOException {
+        if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+        try (DirectoryStream<Path> children = Files.newDirectoryStream(directory)) {
+            return !children.iterator().hasNext();
+        }
+    }
+
+    /**
+     * Writes a range of index entries, splitting it in halves until it is small enough.
+     */
+    private static class CheckoutTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Repository repository;
+        private final List<DirCacheEntry> entries;
+
+        CheckoutTask(final Repository repository, final List<DirCacheEntry> entries) {
+            this.repository = repository;
+            this.entries = entries;
+        }
+
+        @Override
+        protected void compute() {
+            if (entries.size() > BATCH) {
+                final int middle = entries.size() / 2;
+                invokeAll(new CheckoutTask(repository, entries.subList(0, middle)),
+                        new CheckoutTask(repository, entries.subList(middle, entries.size())));
+                return;
+            }
+            final ObjectReader reader = repository.newObjectReader();
+            try {
+                for (final DirCacheEntry entry : entries) {
+                    final File file = new File(repository.getWorkTree(), entry.getPathString());
+                    if (entry.getFileMode() == FileMode.GITLINK) {
+                        file.mkdirs();
+                    } else {
+                        DirCacheCheckout.checkoutEntry(repository, file, entry, reader);
+                    }
+                }
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            } finally {
+                reader.release();
+            }
+        }
+    }
+
+    /**
+     * Deletes files and directory trees, forking a task for every subdirectory.
+     */
+    private static class DeleteTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> paths;
+
+        DeleteTask(final List<Path> paths) {
+            this.paths = paths;
+        }
+
+        @Override
+        protected void compute() {
+            if (paths.size() > BATCH) {
+                final int middle = paths.size() / 2;
+                invokeAll(new DeleteTask(paths.subList(0, middle)),
+                        new DeleteTask(paths.subList(middle, paths.size())));
+                return;
+            }
+            try {
+                for (final Path path : paths) {
+                    if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                        deleteTree(path);
+                    } else {
+                        Files.deleteIfExists(path);
+                    }
+                }
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Deletes the files of {@code directory} right away and its subdirectories in forked tasks.
+         */
+        private void deleteTree(final Path directory) throws IOException {
+            final List<DeleteTask> forked = new ArrayList<DeleteTask>();
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+                    if (dir.equals(directory)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    forked.add(new DeleteTask(Collections.singletonList(dir)));
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs)
+                        throws IOException {
+                    Files.deleteIfExists(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file, final IOException e) throws IOException {
+                    if (e instanceof NoSuchFileException) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    throw e;
+                }
+            });
+            invokeAll(forked);
+            Files.deleteIfExists(directory);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.zuehlke.jgit;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Outcome of {@link WorkspaceManager#resetToClean(org.eclipse.jgit.lib.Repository)}.
+ */
+public class WorkspaceResult {
+
+    private final Set<String> deleted;
+    private final Set<String> restored;
+
+    WorkspaceResult(final Set<String> deleted, final Set<String> restored) {
+        this.deleted = Collections.unmodifiableSet(deleted);
+        this.restored = Collections.unmodifiableSet(restored);
+    }
+
+    /**
+     * @return untracked files and directories that were deleted; an ignored directory stands for everything
+     *         below it
+     */
+    public Set<String> getDeleted() {
+        return deleted;
+    }
+
+    /**
+     * @return modified or missing files that were written from the index again
+     */
+    public Set<String> getRestored() {
+        return restored;
+    }
+
+    public boolean isChanged() {
+        return !deleted.isEmpty() || !restored.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return deleted.size() + " deleted, " + restored.size() + " restored";
+    }
+}
@@ -1,46 +1,39 @@
 package com.zuehlke.jgit;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.util.Properties;
 
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.lib.Repository;
 import org.junit.After;
-import org.junit.AfterClass;
 import org.junit.Before;
-import org.junit.BeforeClass;
+import org.junit.Rule;
 
 public abstract class AbstractJgitTest {
-    
-    protected static String localPath = System.getProperty("java.io.tmpdir") + "jgittest/testrepo";
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    protected String localPath;
     protected String remotePath;
     protected Repository localRepo;
     protected Git git;
-    
-    public static void deleteFolder(final File folder) {
-        final File[] files = folder.listFiles();
-        if (files != null) { // some JVMs return null for empty dirs
-            for (final File f : files) {
-                if (f.isDirectory()) {
-                    deleteFolder(f);
-                } else {
-                    System.out.println("delete " + f.getAbsolutePath() + " : " + f.delete());
-                }
-            }
-        }
-        folder.delete();
-    }
-    
+
+    /**
+     * Every test starts with a fresh clone of the fixture's test repository in {@link #localPath}.
+     */
     @Before
-    public void setUp() throws IOException {
+    public void setUp() throws IOException, GitAPIException {
         remotePath = getRemoteRepoUri();
-        localRepo = new FileRepository(localPath + "/.git");
-        git = new Git(localRepo);
+        localPath = new File(fixture.getRoot(), "testrepo").getPath();
+        git = Git.cloneRepository()
+                 .setURI(remotePath)
+                 .setDirectory(new File(localPath))
+                 .call();
+        localRepo = git.getRepository();
     }
-    
+
     @After
     public void tearDownAfter() {
         localRepo.close();
@@ -48,34 +41,9 @@ public abstract class AbstractJgitTest {
         git.close();
         git = null;
     }
-    
-    @AfterClass
-    @BeforeClass
-    public static void tearDown() {
-        
-        final File existingLocalRepo = new File(localPath + "/.git");
-        if (existingLocalRepo.exists()) {
-            deleteFolder(existingLocalRepo);
-        }
-        
-        final File testDir = new File(localPath);
-        if (testDir.exists()) {
-            deleteFolder(testDir);
-        }
-        
-    }
-    
-    protected String getRemoteRepoUri() {
-        String repoUri = "https://github.com/bej/jgit-testrepo.git";
-        final Properties prop = new Properties();
-        try {
-            // load a properties file
-            prop.load(new FileInputStream("config.properties"));
-            repoUri = prop.getProperty("gitrepository");
-        } catch (final IOException ex) {
-            ex.printStackTrace();
-        }
-        return repoUri;
+
+    protected String getRemoteRepoUri() throws IOException {
+        return fixture.testRepository().create();
     }
-    
+
 }
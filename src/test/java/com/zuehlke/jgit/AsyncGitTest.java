@@ -0,0 +1,189 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.GitCommand;
+import org.eclipse.jgit.api.PullResult;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class AsyncGitTest {
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    private final AsyncGit async = new AsyncGit(4);
+    private String uri;
+    private Git git;
+    private Git other;
+
+    @Before
+    public void setUp() throws Exception {
+        uri = fixture.testRepository().create();
+        git = fixture.cloneOf(uri, "clone");
+        other = fixture.cloneOf(uri, "other");
+    }
+
+    @After
+    public void tearDown() {
+        async.close();
+        git.getRepository().close();
+        other.getRepository().close();
+    }
+
+    /** Waits for {@code release} while counting how many commands of each repository run at once. */
+    private static class BlockingCommand extends GitCommand<Integer> {
+
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release;
+        final AtomicInteger running;
+        final AtomicInteger maxRunning;
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        volatile boolean finished;
+
+        BlockingCommand(final Repository repository, final CountDownLatch release, final AtomicInteger running,
+                final AtomicInteger maxRunning) {
+            super(repository);
+            this.release = release;
+            this.running = running;
+            this.maxRunning = maxRunning;
+        }
+
+        @Override
+        public Integer call() {
+            final int now = running.incrementAndGet();
+            maxRunning.set(Math.max(maxRunning.get(), now));
+            started.countDown();
+            try {
+                release.await();
+            } catch (final InterruptedException e) {
+                interrupted.set(true);
+            } finally {
+                running.decrementAndGet();
+                finished = true;
+            }
+            return now;
+        }
+    }
+
+    @Test
+    public void testRunsCommandsInBackground() throws Exception {
+        final CompletableFuture<Status> status = async.status(git.status());
+        final CompletableFuture<PullResult> pull = async.pull(git.pull());
+        final CompletableFuture<Git> clone = async.cloneRepository(Git.cloneRepository().setURI(uri),
+                new File(fixture.getRoot(), "async"));
+
+        assertTrue("status not clean", status.get(10, TimeUnit.SECONDS).isClean());
+        assertTrue("pull failed", pull.get(10, TimeUnit.SECONDS).isSuccessful());
+        final Git cloned = clone.get(10, TimeUnit.SECONDS);
+        try {
+            assertEquals("wrong clone", git.getRepository().resolve("HEAD"), cloned.getRepository().resolve("HEAD"));
+            assertTrue("status of clone not clean", async.status(cloned.status()).get(10, TimeUnit.SECONDS)
+                                                         .isClean());
+        } finally {
+            cloned.getRepository().close();
+        }
+    }
+
+    @Test
+    public void testCommandsQueueBehindBareClone() throws Exception {
+        final File directory = new File(fixture.getRoot(), "bare.git");
+        final CompletableFuture<Git> clone = async.cloneRepository(Git.cloneRepository().setURI(uri), directory,
+                true);
+        final Repository bare = new FileRepositoryBuilder().setGitDir(directory)
+                                                           .setBare()
+                                                           .build();
+        try {
+            final CompletableFuture<Boolean> queued = async.call(new GitCommand<Boolean>(bare) {
+                @Override
+                public Boolean call() {
+                    return Boolean.valueOf(clone.isDone());
+                }
+            });
+            assertTrue("command ran before the bare clone", queued.get(10, TimeUnit.SECONDS).booleanValue());
+            assertTrue("clone is not bare", clone.get(10, TimeUnit.SECONDS).getRepository().isBare());
+        } finally {
+            clone.get(10, TimeUnit.SECONDS).close();
+            bare.close();
+        }
+    }
+
+    @Test
+    public void testSerializesCommandsPerRepository() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        final AtomicInteger otherRunning = new AtomicInteger();
+        final List<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>>();
+        for (int i = 0; i < 5; i++) {
+            futures.add(async.call(new BlockingCommand(git.getRepository(), release, running, maxRunning)));
+        }
+        final BlockingCommand parallel = new BlockingCommand(other.getRepository(), new CountDownLatch(0),
+                otherRunning, new AtomicInteger());
+        assertEquals("other repository waited", Integer.valueOf(1), async.call(parallel).get(10, TimeUnit.SECONDS));
+
+        release.countDown();
+        for (final CompletableFuture<Integer> future : futures) {
+            future.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals("commands of one repository interleaved", 1, maxRunning.get());
+    }
+
+    @Test
+    public void testTimeoutInterruptsAndReleasesRepository() throws Exception {
+        async.setTimeoutMillis(200);
+        final BlockingCommand stuck = new BlockingCommand(git.getRepository(), new CountDownLatch(1),
+                new AtomicInteger(), new AtomicInteger());
+        final CompletableFuture<Integer> timedOut = async.call(stuck);
+        async.setTimeoutMillis(0);
+        final CompletableFuture<Status> next = async.status(git.status());
+        try {
+            timedOut.get(10, TimeUnit.SECONDS);
+            fail("command did not time out");
+        } catch (final ExecutionException e) {
+            assertTrue("wrong failure " + e.getCause(), e.getCause() instanceof TimeoutException);
+        }
+        assertTrue("next command failed", next.get(10, TimeUnit.SECONDS).isClean());
+        assertTrue("stuck command not interrupted", stuck.interrupted.get());
+        assertTrue("next command ran before the stuck one returned", stuck.finished);
+    }
+
+    @Test
+    public void testSkipsCancelledCommands() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final BlockingCommand first = new BlockingCommand(git.getRepository(), release, new AtomicInteger(),
+                new AtomicInteger());
+        final BlockingCommand queued = new BlockingCommand(git.getRepository(), release, new AtomicInteger(),
+                new AtomicInteger());
+        final CompletableFuture<Integer> running = async.call(first);
+        final CompletableFuture<Integer> cancelled = async.call(queued);
+        assertTrue("first command did not start", first.started.await(10, TimeUnit.SECONDS));
+
+        assertTrue("not cancelled", cancelled.cancel(true));
+        release.countDown();
+        running.get(10, TimeUnit.SECONDS);
+        async.status(git.status()).get(10, TimeUnit.SECONDS);
+        assertFalse("cancelled command ran", queued.finished);
+        assertFalse("running command interrupted", first.interrupted.get());
+    }
+}
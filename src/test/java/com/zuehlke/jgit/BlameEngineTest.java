@@ -0,0 +1,111 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class BlameEngineTest {
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    private Git git;
+    private BlameEngine engine;
+
+    @Before
+    public void setUp() throws Exception {
+        git = fixture.cloneOf(fixture.testRepository().create(), "clone");
+        engine = new BlameEngine(git.getRepository());
+    }
+
+    @After
+    public void tearDown() {
+        git.getRepository().close();
+    }
+
+    private RevCommit commit(final String author, final String... files) throws Exception {
+        for (int i = 0; i < files.length; i += 2) {
+            final File file = new File(git.getRepository().getWorkTree(), files[i]);
+            Files.write(file.toPath(), files[i + 1].getBytes("UTF-8"));
+            git.add().addFilepattern(files[i]).call();
+        }
+        final PersonIdent ident = new PersonIdent(author, author.toLowerCase() + "@example.com");
+        return git.commit().setAuthor(ident).setCommitter(ident).setMessage("commit by " + author).call();
+    }
+
+    private void assertSameAsBlameCommand(final RevCommit head, final FileBlame blame) throws Exception {
+        final BlameResult expected = git.blame().setStartCommit(head).setFilePath(blame.getPath()).call();
+        assertEquals("wrong line count", expected.getResultContents().size(), blame.getLineCount());
+        for (int line = 0; line < blame.getLineCount(); line++) {
+            assertEquals("wrong commit for line " + line, expected.getSourceCommit(line), blame.getCommit(line));
+            assertEquals("wrong author for line " + line, expected.getSourceAuthor(line).getName(),
+                    blame.getAuthor(line).getName());
+        }
+    }
+
+    @Test
+    public void testBlamesManyFilesInOneWalk() throws Exception {
+        commit("Alice", "a.txt", "one\ntwo\nthree\n", "b.txt", "one\ntwo\nthree\n", "c.txt", "x\n");
+        commit("Bob", "a.txt", "one\n2\nthree\n", "b.txt", "one\n2\nthree\n");
+        commit("Carol", "c.txt", "x\ny\n", "a.txt", "zero\none\n2\nthree\n");
+        final RevCommit head = commit("Dave", "b.txt", "one\n2\n");
+        final long walkedBefore = engine.getCommitsWalked();
+
+        final Map<String, FileBlame> blames = engine.blame(head, Arrays.asList("a.txt", "b.txt", "c.txt",
+                "README.md", "missing.txt"));
+        assertEquals("wrong files blamed", Arrays.asList("README.md", "a.txt", "b.txt", "c.txt"),
+                Arrays.asList(blames.keySet().toArray()));
+        for (final FileBlame blame : blames.values()) {
+            assertSameAsBlameCommand(head, blame);
+        }
+        assertEquals("history was walked more than once", 5, engine.getCommitsWalked() - walkedBefore);
+        assertEquals("wrong history", 3, blames.get("b.txt").getHistory().size());
+        assertEquals("history is not newest first", head, blames.get("b.txt").getHistory().get(0));
+        assertTrue("identical changes did not share diffs", engine.getDiffsShared() >= 2);
+    }
+
+    @Test
+    public void testReusesCachedBlameForUnchangedFiles() throws Exception {
+        final RevCommit first = commit("Alice", "a.txt", "one\ntwo\n", "b.txt", "b\n");
+        final Map<String, FileBlame> blames = engine.blame(first, Arrays.asList("a.txt", "b.txt"));
+        final long walked = engine.getCommitsWalked();
+
+        assertSame("blame was not cached", blames.get("a.txt"),
+                engine.blame(first, Arrays.asList("a.txt")).get("a.txt"));
+        assertEquals("cached blame walked history", walked, engine.getCommitsWalked());
+        assertEquals("wrong cache hits", 1, engine.getCacheHits());
+
+        final RevCommit second = commit("Bob", "a.txt", "one\ntwo\nthree\n");
+        final Map<String, FileBlame> next = engine.blame(second, Arrays.asList("a.txt", "b.txt"));
+        assertEquals("new commit was not walked incrementally", walked + 1, engine.getCommitsWalked());
+        assertSame("unchanged file was blamed again", blames.get("b.txt"), next.get("b.txt"));
+        assertSameAsBlameCommand(second, next.get("a.txt"));
+        assertEquals("wrong history", Arrays.asList(second, first), next.get("a.txt").getHistory());
+    }
+
+    @Test
+    public void testBlamesNewPathsAfterIncrementalWalk() throws Exception {
+        commit("Alice", "a.txt", "a\n", "b.txt", "b\n");
+        final RevCommit head = commit("Bob", "a.txt", "a\nb\n", "b.txt", "b\nc\n");
+        engine.blame(head, Arrays.asList("a.txt"));
+
+        final FileBlame blame = engine.blame(head, Arrays.asList("b.txt")).get("b.txt");
+        assertSameAsBlameCommand(head, blame);
+        assertFalse("file blamed from scratch has no history", blame.getHistory().isEmpty());
+    }
+}
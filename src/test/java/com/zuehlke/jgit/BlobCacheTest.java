@@ -0,0 +1,215 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class BlobCacheTest {
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    private Repository repository;
+    private ObjectReader reader;
+    private final List<ObjectId> blobs = new ArrayList<ObjectId>();
+    private final List<byte[]> contents = new ArrayList<byte[]>();
+
+    @Before
+    public void setUp() throws Exception {
+        repository = fixture.cloneOf(fixture.testRepository().create(), "clone").getRepository();
+        final ObjectInserter inserter = repository.newObjectInserter();
+        try {
+            final Random random = new Random(42);
+            for (int i = 0; i < 200; i++) {
+                final byte[] content = new byte[1000 + random.nextInt(1000)];
+                random.nextBytes(content);
+                contents.add(content);
+                blobs.add(inserter.insert(Constants.OBJ_BLOB, content));
+            }
+            inserter.flush();
+        } finally {
+            inserter.release();
+        }
+        reader = repository.newObjectReader();
+    }
+
+    @After
+    public void tearDown() {
+        reader.release();
+        repository.close();
+    }
+
+    private static byte[] transfer(final BlobCache cache, final ObjectReader reader, final ObjectId id)
+            throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals("wrong length transferred", cache.transferTo(reader, id, Channels.newChannel(out)),
+                out.size());
+        return out.toByteArray();
+    }
+
+    @Test
+    public void testAdmitsOnSecondAccess() throws Exception {
+        final BlobCache cache = new BlobCache(64 << 10, 16 << 10);
+        final ObjectId id = blobs.get(0);
+        assertArrayEquals("wrong content", contents.get(0), cache.open(reader, id).getCachedBytes());
+        assertFalse("admitted on first access", cache.contains(id));
+        assertArrayEquals("wrong content", contents.get(0), transfer(cache, reader, id));
+        assertTrue("not admitted on second access", cache.contains(id));
+
+        assertArrayEquals("wrong content", contents.get(0), transfer(cache, reader, id));
+        final ObjectLoader loader = cache.open(reader, id);
+        assertEquals("wrong type", Constants.OBJ_BLOB, loader.getType());
+        assertArrayEquals("wrong content", contents.get(0), loader.getCachedBytes());
+        assertEquals("wrong hits", 2, cache.getHits());
+        assertEquals("wrong misses", 2, cache.getMisses());
+        assertEquals("wrong hit rate", 0.5, cache.getHitRate(), 0.001);
+        assertEquals("wrong used bytes", contents.get(0).length, cache.getUsedBytes());
+    }
+
+    @Test
+    public void testCachesTrees() throws Exception {
+        final BlobCache cache = new BlobCache(64 << 10, 16 << 10).setAdmissionThreshold(1);
+        final RevWalk walk = new RevWalk(reader);
+        final ObjectId tree = walk.parseCommit(repository.resolve(Constants.HEAD)).getTree();
+        cache.open(reader, tree);
+        assertTrue("tree not admitted", cache.contains(tree));
+        final ObjectLoader loader = cache.open(reader, tree);
+        assertEquals("wrong type", Constants.OBJ_TREE, loader.getType());
+        assertArrayEquals("wrong content", reader.open(tree).getCachedBytes(), loader.getCachedBytes());
+    }
+
+    @Test
+    public void testScanDoesNotEvictHotObjects() throws Exception {
+        final BlobCache cache = new BlobCache(32 << 10, 8 << 10);
+        final List<ObjectId> hot = blobs.subList(0, 10);
+        for (int round = 0; round < 3; round++) {
+            for (final ObjectId id : hot) {
+                cache.open(reader, id);
+            }
+        }
+        for (final ObjectId id : blobs.subList(10, blobs.size())) {
+            cache.open(reader, id);
+        }
+        for (final ObjectId id : hot) {
+            assertTrue("hot object was evicted by a scan", cache.contains(id));
+        }
+        assertEquals("scanned objects were admitted", 10 + 190, cache.getRejections());
+        assertEquals("objects were evicted", 0, cache.getEvictions());
+    }
+
+    @Test
+    public void testEvictsOldestSlab() throws Exception {
+        final BlobCache cache = new BlobCache(32 << 10, 8 << 10).setAdmissionThreshold(1);
+        for (final ObjectId id : blobs) {
+            cache.open(reader, id);
+        }
+        assertTrue("nothing was evicted", cache.getEvictions() > 0);
+        assertTrue("capacity exceeded", cache.getUsedBytes() <= cache.getCapacity());
+        assertFalse("oldest object was kept", cache.contains(blobs.get(0)));
+        assertTrue("newest object was evicted", cache.contains(blobs.get(blobs.size() - 1)));
+        assertArrayEquals("wrong content after eviction", contents.get(0), transfer(cache, reader, blobs.get(0)));
+    }
+
+    @Test
+    public void testConcurrentReadsWhileEvicting() throws Exception {
+        final BlobCache cache = new BlobCache(32 << 10, 8 << 10).setAdmissionThreshold(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Void>> readers = new ArrayList<Future<Void>>();
+            for (int thread = 0; thread < 8; thread++) {
+                final int seed = thread;
+                readers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        final ObjectReader threadReader = repository.newObjectReader();
+                        try {
+                            final Random random = new Random(seed);
+                            for (int i = 0; i < 500; i++) {
+                                final int blob = random.nextInt(blobs.size());
+                                final byte[] content = i % 2 == 0
+                                        ? cache.open(threadReader, blobs.get(blob)).getCachedBytes()
+                                        : transfer(cache, threadReader, blobs.get(blob));
+                                assertArrayEquals("wrong content", contents.get(blob), content);
+                            }
+                        } finally {
+                            threadReader.release();
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : readers) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertTrue("nothing was evicted", cache.getEvictions() > 0);
+        assertTrue("nothing was hit", cache.getHits() > 0);
+    }
+
+    @Test
+    public void testClearDropsSlabBeingReadOnceReadersAreDone() throws Exception {
+        final BlobCache cache = new BlobCache(64 << 10, 16 << 10).setAdmissionThreshold(1);
+        cache.open(reader, blobs.get(0));
+        cache.open(reader, blobs.get(1));
+        final long[] usedWhileRead = new long[1];
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final WritableByteChannel channel = Channels.newChannel(out);
+        cache.transferTo(reader, blobs.get(0), new WritableByteChannel() {
+            @Override
+            public int write(final ByteBuffer source) throws IOException {
+                if (usedWhileRead[0] == 0) {
+                    cache.clear();
+                    usedWhileRead[0] = cache.getUsedBytes();
+                }
+                return channel.write(source);
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        assertArrayEquals("wrong content read during clear", contents.get(0), out.toByteArray());
+        assertEquals("slab being read was recycled", contents.get(0).length + contents.get(1).length,
+                usedWhileRead[0]);
+        assertFalse("cleared object is still cached", cache.contains(blobs.get(1)));
+        assertEquals("slab was not dropped after the read", 0, cache.getUsedBytes());
+
+        cache.open(reader, blobs.get(2));
+        assertTrue("not admitted after clear", cache.contains(blobs.get(2)));
+        assertEquals("wrong used bytes after clear", contents.get(2).length, cache.getUsedBytes());
+    }
+}
@@ -0,0 +1,132 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class BulkAddTest {
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    private Git git;
+    private Repository repository;
+
+    @Before
+    public void setUp() throws Exception {
+        git = fixture.cloneOf(fixture.testRepository().create(), "clone");
+        repository = git.getRepository();
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+    }
+
+    private byte[] write(final String path, final int size, final long seed) throws IOException {
+        final byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        final File file = new File(repository.getWorkTree(), path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content);
+        return content;
+    }
+
+    @Test
+    public void testAddsFilesLikeAddCommand() throws Exception {
+        final List<String> paths = new ArrayList<String>();
+        final List<byte[]> contents = new ArrayList<byte[]>();
+        for (int i = 0; i < 40; i++) {
+            paths.add("data/dir" + i % 4 + "/file" + i);
+            contents.add(write(paths.get(i), i * 1000, i));
+        }
+        paths.add("data/large.bin");
+        contents.add(write("data/large.bin", 5 * 1024 * 1024, 99));
+
+        final BulkAddResult result = new BulkAdd(repository).setThreads(4).add(paths);
+        assertEquals("wrong number of files", 41, result.getFiles());
+        assertEquals("wrong size", 5 * 1024 * 1024 + 780000, result.getBytes());
+
+        final ObjectInserter.Formatter formatter = new ObjectInserter.Formatter();
+        final DirCache index = repository.readDirCache();
+        for (int i = 0; i < paths.size(); i++) {
+            final String path = paths.get(i);
+            final byte[] content = contents.get(i);
+            assertEquals("wrong blob of " + path, formatter.idFor(Constants.OBJ_BLOB, content),
+                    result.getBlobs().get(path));
+            assertEquals("wrong index entry of " + path, result.getBlobs().get(path),
+                    index.getEntry(path).getObjectId());
+            assertTrue("blob not written for " + path, repository.hasObject(result.getBlobs().get(path)));
+        }
+        assertEquals("large blob damaged", contents.get(40).length,
+                repository.open(result.getBlobs().get("data/large.bin")).getSize());
+
+        final Status status = git.status().call();
+        assertEquals("wrong added files", 41, status.getAdded().size());
+        assertTrue("files are modified after add", status.getModified().isEmpty());
+        assertTrue("files are untracked after add", status.getUntracked().isEmpty());
+    }
+
+    @Test
+    public void testLeavesIndexUnchangedOnFailure() throws Exception {
+        write("present.txt", 100, 1);
+        try {
+            new BulkAdd(repository).add(Arrays.asList("present.txt", "missing.txt"));
+            fail("missing file added");
+        } catch (final IOException e) {
+            // expected
+        }
+        assertNull("index changed", repository.readDirCache().getEntry("present.txt"));
+        assertFalse("index still locked", new File(repository.getDirectory(), "index.lock").exists());
+    }
+
+    @Test
+    public void testStagesSymbolicLinksAsLinks() throws Exception {
+        final File link = new File(repository.getWorkTree(), "link");
+        Files.createSymbolicLink(link.toPath(), new File("README.md").toPath());
+
+        final BulkAddResult result = new BulkAdd(repository).add(Arrays.asList("link"));
+        final DirCacheEntry entry = repository.readDirCache().getEntry("link");
+        assertEquals("link was not staged as link", FileMode.SYMLINK, entry.getFileMode());
+        assertEquals("link target is not the content",
+                new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB, Constants.encode("README.md")),
+                result.getBlobs().get("link"));
+        assertEquals("link was not added", Collections.singleton("link"), git.status().call().getAdded());
+    }
+
+    @Test
+    public void testRejectsPathsOutsideWorkTree() throws Exception {
+        write("present.txt", 100, 1);
+        try {
+            new BulkAdd(repository).add(Arrays.asList("present.txt", "../outside.txt"));
+            fail("path outside the working tree added");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        assertNull("index changed", repository.readDirCache().getEntry("present.txt"));
+    }
+}
@@ -0,0 +1,153 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.diff.DiffEntry.ChangeType;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ChangeFeedTest {
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    private Git git;
+    private ChangeFeed feed;
+
+    @Before
+    public void setUp() throws Exception {
+        git = fixture.cloneOf(fixture.testRepository().create(), "clone");
+        feed = new ChangeFeed(git.getRepository());
+    }
+
+    @After
+    public void tearDown() {
+        feed.close();
+        git.getRepository().close();
+    }
+
+    private RevCommit commit(final String... files) throws Exception {
+        for (int i = 0; i < files.length; i += 2) {
+            final File file = new File(git.getRepository().getWorkTree(), files[i]);
+            if (files[i + 1] == null) {
+                git.rm().addFilepattern(files[i]).call();
+            } else {
+                Files.write(file.toPath(), files[i + 1].getBytes("UTF-8"));
+                git.add().addFilepattern(files[i]).call();
+            }
+        }
+        return git.commit().setMessage("change " + files[0]).call();
+    }
+
+    private static List<ChangeRecord> drain(final ChangeFeed.Changes changes) {
+        final List<ChangeRecord> records = new ArrayList<ChangeRecord>();
+        while (changes.hasNext()) {
+            records.add(changes.next());
+        }
+        return records;
+    }
+
+    private static String describe(final List<ChangeRecord> records) {
+        final StringBuilder description = new StringBuilder();
+        for (final ChangeRecord record : records) {
+            description.append(record.getChangeType()).append(' ').append(record.getPath()).append(';');
+        }
+        return description.toString();
+    }
+
+    @Test
+    public void testListsChangesOldestFirst() throws Exception {
+        final RevCommit base = git.log().call().iterator().next();
+        final RevCommit first = commit("a.txt", "one\n", "b.txt", "two\n");
+        final RevCommit second = commit("a.txt", "one more\n", "b.txt", null);
+
+        final ChangeFeed.Changes changes = feed.changes(base, second);
+        final List<ChangeRecord> records = drain(changes);
+        assertEquals("wrong changes", "ADD a.txt;ADD b.txt;MODIFY a.txt;DELETE b.txt;", describe(records));
+        assertEquals("wrong commit", first, records.get(0).getCommit());
+        assertEquals("wrong commit", second, records.get(3).getCommit());
+        assertNull("added file has old path", records.get(0).getOldPath());
+        assertEquals("added file has old blob", ObjectId.zeroId(), records.get(0).getOldId());
+        assertEquals("wrong old blob", records.get(0).getNewId(), records.get(2).getOldId());
+        assertNull("deleted file has new path", records.get(3).getNewPath());
+        assertEquals("wrong cursor", ChangeFeed.Cursor.at(second), changes.getCursor());
+    }
+
+    @Test
+    public void testDetectsRenamesOnRequest() throws Exception {
+        final RevCommit base = commit("old.txt", "a\nb\nc\nd\ne\nf\ng\nh\n");
+        final RevCommit head = commit("old.txt", null, "new.txt", "a\nb\nc\nd\ne\nf\ng\nh\n");
+
+        assertEquals("renames detected without request", "ADD new.txt;DELETE old.txt;",
+                describe(drain(feed.changes(base, head))));
+
+        final List<ChangeRecord> renamed = drain(feed.setDetectRenames(true).changes(base, head));
+        assertEquals("rename not detected", "RENAME new.txt;", describe(renamed));
+        assertEquals("wrong old path", "old.txt", renamed.get(0).getOldPath());
+        assertEquals("wrong change type", ChangeType.RENAME, renamed.get(0).getChangeType());
+    }
+
+    @Test
+    public void testResumesFromCursor() throws Exception {
+        final RevCommit base = git.log().call().iterator().next();
+        commit("a.txt", "1\n");
+        commit("b.txt", "2\n", "c.txt", "3\n");
+        final RevCommit head = commit("d.txt", "4\n");
+
+        final ChangeFeed.Changes changes = feed.changes(base, head);
+        assertEquals("wrong first change", "a.txt", changes.next().getPath());
+        assertEquals("wrong second change", "b.txt", changes.next().getPath());
+        final String saved = changes.getCursor().toString();
+        changes.close();
+
+        final List<ChangeRecord> resumed = drain(feed.changes(ChangeFeed.Cursor.parse(saved), head));
+        assertEquals("did not resume after the consumed commit", "ADD b.txt;ADD c.txt;ADD d.txt;",
+                describe(resumed));
+    }
+
+    @Test
+    public void testResumesAcrossMerges() throws Exception {
+        final RevCommit base = commit("a.txt", "1\n");
+        git.branchCreate().setName("side").call();
+        commit("b.txt", "2\n");
+        git.checkout().setName("side").call();
+        final RevCommit side = commit("c.txt", "3\n");
+        git.checkout().setName("master").call();
+        final ObjectId merge = git.merge().include(side).call().getNewHead();
+
+        final ChangeFeed.Changes changes = feed.changes(base, merge);
+        final List<ChangeRecord> all = drain(changes);
+        assertEquals("wrong changes", 3, all.size());
+        assertEquals("wrong cursor", ChangeFeed.Cursor.at(merge), changes.getCursor());
+
+        final RevCommit after = commit("d.txt", "4\n");
+        assertEquals("merged history replayed", "ADD d.txt;",
+                describe(drain(feed.changes(ChangeFeed.Cursor.parse(changes.getCursor().toString()), after))));
+    }
+
+    @Test
+    public void testDiffsInParallelInOrder() throws Exception {
+        final RevCommit base = git.log().call().iterator().next();
+        final List<RevCommit> commits = new ArrayList<RevCommit>();
+        for (int i = 0; i < 50; i++) {
+            commits.add(commit("file" + i, "content " + i + "\n"));
+        }
+        final List<ChangeRecord> records = drain(feed.setThreads(4).setWindow(8).changes(base, commits.get(49)));
+        assertEquals("wrong number of changes", 50, records.size());
+        for (int i = 0; i < 50; i++) {
+            assertEquals("out of order", commits.get(i), records.get(i).getCommit());
+            assertEquals("wrong path", "file" + i, records.get(i).getPath());
+        }
+    }
+}
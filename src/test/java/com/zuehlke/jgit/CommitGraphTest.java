@@ -0,0 +1,159 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CommitGraphTest {
+
+    private static final int COMMITS = 300;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Repository repository;
+    private final List<ObjectId> commits = new ArrayList<ObjectId>();
+
+    /**
+     * Writes a random history with merges and octopus merges; every commit has up to three of the
+     * previous commits as parents.
+     */
+    @Before
+    public void setUp() throws Exception {
+        repository = Git.init()
+                        .setBare(true)
+                        .setDirectory(tmp.newFolder("repo.git"))
+                        .call()
+                        .getRepository();
+        final Random random = new Random(42);
+        final ObjectInserter inserter = repository.newObjectInserter();
+        try {
+            final ObjectId tree = DirCache.newInCore().writeTree(inserter);
+            for (int i = 0; i < COMMITS; i++) {
+                final CommitBuilder commit = new CommitBuilder();
+                final PersonIdent ident = new PersonIdent("Test", "test@example.com", 1400000000000L + i * 1000L, 0);
+                commit.setAuthor(ident);
+                commit.setCommitter(ident);
+                commit.setTreeId(tree);
+                commit.setMessage("commit " + i);
+                if (i > 0) {
+                    final Set<ObjectId> parents = new HashSet<ObjectId>();
+                    parents.add(commits.get(i - 1 - random.nextInt(Math.min(i, 5))));
+                    final int extra = random.nextInt(10) == 0 ? 2 : random.nextInt(4) == 0 ? 1 : 0;
+                    for (int p = 0; p < extra; p++) {
+                        parents.add(commits.get(random.nextInt(i)));
+                    }
+                    commit.setParentIds(new ArrayList<ObjectId>(parents));
+                }
+                commits.add(inserter.insert(commit));
+            }
+            inserter.flush();
+        } finally {
+            inserter.release();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+    }
+
+    private void createBranch(final String name, final ObjectId commit) throws IOException {
+        final RefUpdate update = repository.updateRef("refs/heads/" + name);
+        update.setNewObjectId(commit);
+        update.forceUpdate();
+    }
+
+    private void assertSameAnswers(final CommitGraph graph) throws IOException {
+        final Random random = new Random(7);
+        final RevWalk walk = new RevWalk(repository);
+        try {
+            for (int i = 0; i < 200; i++) {
+                final ObjectId a = commits.get(random.nextInt(COMMITS));
+                final ObjectId b = commits.get(random.nextInt(COMMITS));
+                walk.reset();
+                final boolean expected = walk.isMergedInto(walk.parseCommit(a), walk.parseCommit(b));
+                assertEquals("wrong ancestry of " + a.name() + " and " + b.name(), expected, graph.isAncestor(a, b));
+
+                walk.reset();
+                walk.markStart(walk.parseCommit(b));
+                walk.markUninteresting(walk.parseCommit(a));
+                final Set<ObjectId> range = new HashSet<ObjectId>();
+                for (final RevCommit commit : walk) {
+                    range.add(commit.copy());
+                }
+                final List<ObjectId> actual = graph.range(a, b);
+                assertEquals("range contains duplicates", actual.size(), new HashSet<ObjectId>(actual).size());
+                assertEquals("wrong range " + a.name() + ".." + b.name(), range, new HashSet<ObjectId>(actual));
+            }
+        } finally {
+            walk.release();
+        }
+    }
+
+    @Test
+    public void testAnswersLikeRevWalk() throws IOException {
+        createBranch("master", commits.get(COMMITS - 1));
+        createBranch("side", commits.get(COMMITS - 2));
+        final CommitGraph graph = CommitGraph.update(repository);
+
+        assertTrue("commits are missing", graph.size() > COMMITS / 2);
+        for (final ObjectId commit : commits) {
+            if (!graph.contains(commit)) {
+                continue;
+            }
+            for (final ObjectId parent : graph.getParents(commit)) {
+                assertTrue("generation does not grow", graph.getGeneration(commit) > graph.getGeneration(parent));
+            }
+        }
+        assertSameAnswers(graph);
+        assertEquals("whole history differs", graph.size(), graph.range(null, commits.get(COMMITS - 1)).size()
+                + graph.range(commits.get(COMMITS - 1), commits.get(COMMITS - 2)).size());
+    }
+
+    @Test
+    public void testUpdatesIncrementally() throws IOException {
+        createBranch("master", commits.get(COMMITS / 2));
+        final CommitGraph first = CommitGraph.update(repository);
+        assertFalse("later commit is indexed", first.contains(commits.get(COMMITS - 1)));
+
+        // queries about commits that are not indexed yet fall back to a RevWalk
+        createBranch("master", commits.get(COMMITS - 1));
+        assertSameAnswers(first);
+
+        final CommitGraph second = CommitGraph.update(repository);
+        assertTrue("new commit is not indexed", second.contains(commits.get(COMMITS - 1)));
+        assertTrue("index did not grow", second.size() > first.size());
+        for (final ObjectId commit : commits) {
+            if (first.contains(commit)) {
+                assertEquals("generation changed", first.getGeneration(commit), second.getGeneration(commit));
+                assertEquals("parents changed", first.getParents(commit), second.getParents(commit));
+            }
+        }
+        assertSameAnswers(second);
+        assertEquals("unchanged index was rewritten", second.size(), CommitGraph.update(repository).size());
+    }
+}
@@ -0,0 +1,234 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CommitPipelineTest {
+
+    private static final String MASTER = "refs/heads/master";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Repository repository;
+
+    @Before
+    public void setUp() throws Exception {
+        repository = Git.init()
+                        .setDirectory(tmp.newFolder("repo"))
+                        .call()
+                        .getRepository();
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+    }
+
+    private Set<String> headPaths() throws IOException {
+        final Set<String> paths = new HashSet<String>();
+        final RevWalk walk = new RevWalk(repository);
+        final TreeWalk treeWalk = new TreeWalk(repository);
+        try {
+            treeWalk.addTree(walk.parseCommit(repository.resolve(MASTER)).getTree());
+            treeWalk.setRecursive(true);
+            while (treeWalk.next()) {
+                paths.add(treeWalk.getPathString());
+            }
+        } finally {
+            treeWalk.release();
+            walk.release();
+        }
+        return paths;
+    }
+
+    private Set<ObjectId> headHistory() throws IOException {
+        final Set<ObjectId> commits = new HashSet<ObjectId>();
+        final RevWalk walk = new RevWalk(repository);
+        try {
+            walk.markStart(walk.parseCommit(repository.resolve(MASTER)));
+            for (final RevCommit commit : walk) {
+                commits.add(commit.copy());
+            }
+        } finally {
+            walk.release();
+        }
+        return commits;
+    }
+
+    @Test
+    public void testBatchesBySize() throws Exception {
+        final CommitPipeline pipeline = new CommitPipeline(repository, MASTER).setMaxChanges(10)
+                                                                              .setMaxDelayMillis(60000);
+        final List<CompletableFuture<ObjectId>> futures = new ArrayList<CompletableFuture<ObjectId>>();
+        for (int i = 0; i < 25; i++) {
+            futures.add(pipeline.write("dir" + (i % 3) + "/file" + i, ("content " + i).getBytes("UTF-8")));
+        }
+        final ObjectId firstBatch = futures.get(0).get();
+        assertEquals("first ten writes are not in one commit", firstBatch, futures.get(9).get());
+        assertFalse("eleventh write is in the first commit", firstBatch.equals(futures.get(10).get()));
+
+        pipeline.close();
+        assertEquals("last write is not in head", repository.resolve(MASTER), futures.get(24).get());
+        assertEquals("wrong number of commits", 3, headHistory().size());
+        assertEquals("wrong number of files", 25, headPaths().size());
+    }
+
+    @Test
+    public void testDeleteDoesNotTouchWorkTree() throws Exception {
+        final CommitPipeline pipeline = new CommitPipeline(repository, MASTER);
+        pipeline.write("keep.txt", "keep".getBytes("UTF-8"));
+        pipeline.write("drop.txt", "drop".getBytes("UTF-8"));
+        assertNotNull("first batch was not committed", pipeline.flush());
+
+        final ObjectId deletion = pipeline.delete("drop.txt").getNow(null);
+        assertNull("deletion was committed before the time window closed", deletion);
+        pipeline.close();
+
+        final Set<String> paths = headPaths();
+        assertTrue("keep.txt is missing", paths.contains("keep.txt"));
+        assertFalse("drop.txt was not deleted", paths.contains("drop.txt"));
+        assertFalse("working tree was touched", new File(repository.getWorkTree(), "keep.txt").exists());
+        assertTrue("index was touched", repository.readDirCache().getEntryCount() == 0);
+    }
+
+    @Test
+    public void testRejectsInvalidPathsWithoutFailingTheBatch() throws Exception {
+        final CommitPipeline pipeline = new CommitPipeline(repository, MASTER).setMaxDelayMillis(60000);
+        final CompletableFuture<ObjectId> valid = pipeline.write("ok.txt", "ok".getBytes("UTF-8"));
+        try {
+            pipeline.write("a//b", "bad".getBytes("UTF-8"));
+            fail("invalid path accepted");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals("valid write was not committed", pipeline.flush(), valid.get(10, TimeUnit.SECONDS));
+        pipeline.close();
+        assertEquals("wrong files", Collections.singleton("ok.txt"), headPaths());
+    }
+
+    @Test
+    public void testKeepsExecutableBit() throws Exception {
+        final File script = new File(repository.getWorkTree(), "run.sh");
+        Files.write(script.toPath(), "echo 1\n".getBytes("UTF-8"));
+        assertTrue("cannot make script executable", script.setExecutable(true));
+        final Git git = new Git(repository);
+        git.add().addFilepattern("run.sh").call();
+        git.commit().setMessage("add script").call();
+
+        final CommitPipeline pipeline = new CommitPipeline(repository, MASTER);
+        pipeline.write("run.sh", "echo 2\n".getBytes("UTF-8"));
+        pipeline.write("new.sh", "echo 3\n".getBytes("UTF-8"));
+        pipeline.close();
+
+        final RevWalk walk = new RevWalk(repository);
+        try {
+            final RevCommit head = walk.parseCommit(repository.resolve(MASTER));
+            assertEquals("executable bit was lost", FileMode.EXECUTABLE_FILE,
+                    TreeWalk.forPath(repository, "run.sh", head.getTree()).getFileMode(0));
+            assertEquals("new file is not a regular file", FileMode.REGULAR_FILE,
+                    TreeWalk.forPath(repository, "new.sh", head.getTree()).getFileMode(0));
+        } finally {
+            walk.release();
+        }
+    }
+
+    @Test
+    public void testRejectsBatchWithFileDirectoryConflict() throws Exception {
+        final CommitPipeline pipeline = new CommitPipeline(repository, MASTER).setMaxDelayMillis(60000);
+        pipeline.write("a", "file".getBytes("UTF-8"));
+        pipeline.write("d/e", "file below d".getBytes("UTF-8"));
+        final ObjectId head = pipeline.flush();
+
+        final CompletableFuture<ObjectId> below = pipeline.write("a/b", "below a file".getBytes("UTF-8"));
+        assertFlushFails(pipeline, "a is a file");
+        assertTrue("write below a file succeeded", below.isCompletedExceptionally());
+
+        final CompletableFuture<ObjectId> over = pipeline.write("d", "over a directory".getBytes("UTF-8"));
+        assertFlushFails(pipeline, "it is a directory");
+        assertTrue("write over a directory succeeded", over.isCompletedExceptionally());
+
+        pipeline.delete("a");
+        pipeline.write("a/b", "replaces file a".getBytes("UTF-8"));
+        pipeline.close();
+        assertFalse("head did not move", head.equals(repository.resolve(MASTER)));
+        assertEquals("wrong files", new HashSet<String>(Arrays.asList("a/b", "d/e")), headPaths());
+    }
+
+    private static void assertFlushFails(final CommitPipeline pipeline, final String message) {
+        try {
+            pipeline.flush();
+            fail("conflicting batch was committed");
+        } catch (final IOException e) {
+            assertTrue("unclear error: " + e.getCause().getMessage(), e.getCause().getMessage().contains(message));
+        }
+    }
+
+    @Test
+    public void testConcurrentPipelinesNeverLoseCommits() throws Exception {
+        final CommitPipeline first = new CommitPipeline(repository, MASTER).setMaxChanges(7)
+                                                                           .setMaxDelayMillis(5);
+        final CommitPipeline second = new CommitPipeline(repository, MASTER).setMaxChanges(5)
+                                                                            .setMaxDelayMillis(3);
+        final ExecutorService producers = Executors.newFixedThreadPool(8);
+        final List<Future<List<CompletableFuture<ObjectId>>>> produced =
+                new ArrayList<Future<List<CompletableFuture<ObjectId>>>>();
+        for (int p = 0; p < 8; p++) {
+            final int producer = p;
+            final CommitPipeline pipeline = p % 2 == 0 ? first : second;
+            produced.add(producers.submit(() -> {
+                final List<CompletableFuture<ObjectId>> futures = new ArrayList<CompletableFuture<ObjectId>>();
+                for (int i = 0; i < 50; i++) {
+                    futures.add(pipeline.write("producer" + producer + "/file" + i, new byte[] { (byte) i }));
+                }
+                return futures;
+            }));
+        }
+
+        final List<CompletableFuture<ObjectId>> futures = new ArrayList<CompletableFuture<ObjectId>>();
+        for (final Future<List<CompletableFuture<ObjectId>>> future : produced) {
+            futures.addAll(future.get());
+        }
+        producers.shutdown();
+        first.close();
+        second.close();
+
+        assertEquals("a write was lost", 400, headPaths().size());
+        final Set<ObjectId> history = headHistory();
+        for (final CompletableFuture<ObjectId> future : futures) {
+            assertTrue("a commit is not reachable from head", history.contains(future.get()));
+        }
+    }
+}
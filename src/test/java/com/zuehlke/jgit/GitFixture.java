@@ -0,0 +1,230 @@
+package com.zuehlke.jgit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEditor.PathEdit;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Temporary folder with bare repositories built from a declarative spec.
+ * <p>
+ * Use it as a {@code @Rule}: every test gets a folder of its own that is deleted afterwards, so tests
+ * neither need the network nor depend on each other and can run in parallel forks. Repositories are
+ * written with an {@link ObjectInserter} without a working tree and are cloned through {@code file:}
+ * URIs.
+ *
+ * <pre>
+ * final String uri = fixture.repository("cookbook")
+ *                           .file("README.md", "# cookbook")
+ *                           .submodule("recipes-common", fixture.recipesCommon())
+ *                           .commit("initial commit")
+ *                           .create();
+ * </pre>
+ */
+public class GitFixture extends TemporaryFolder {
+
+    private static final PersonIdent AUTHOR = new PersonIdent("Fixture", "fixture@example.com");
+
+    /**
+     * Contents of a bare repository, one {@link #commit(String)} after the other on {@code master}.
+     */
+    public class RepositorySpec {
+
+        private final String name;
+        private final List<String> messages = new ArrayList<String>();
+        private final List<Map<String, Object>> changes = new ArrayList<Map<String, Object>>();
+        private Map<String, Object> pending = new LinkedHashMap<String, Object>();
+        private String uri;
+
+        RepositorySpec(final String name) {
+            this.name = name;
+        }
+
+        public RepositorySpec file(final String path, final String content) {
+            pending.put(path, content);
+            return this;
+        }
+
+        /**
+         * Adds {@code module} as submodule at {@code path}; it is created first if necessary and its
+         * {@code master} is recorded as the submodule commit.
+         */
+        public RepositorySpec submodule(final String path, final RepositorySpec module) {
+            pending.put(path, module);
+            return this;
+        }
+
+        public RepositorySpec commit(final String message) {
+            messages.add(message);
+            changes.add(pending);
+            pending = new LinkedHashMap<String, Object>();
+            return this;
+        }
+
+        /**
+         * Writes the repository to {@code <root>/<name>.git}; pending changes are committed as
+         * {@code initial commit}. Creating a spec twice returns the first repository.
+         *
+         * @return {@code file:} URI of the bare repository
+         */
+        public String create() throws IOException {
+            if (uri != null) {
+                return uri;
+            }
+            if (!pending.isEmpty() || changes.isEmpty()) {
+                commit("initial commit");
+            }
+            final File directory = new File(getRoot(), name + ".git");
+            final Repository repository = new FileRepositoryBuilder().setGitDir(directory)
+                                                                     .setBare()
+                                                                     .build();
+            try {
+                repository.create(true);
+                writeHistory(repository);
+            } finally {
+                repository.close();
+            }
+            uri = directory.toURI().toString();
+            return uri;
+        }
+
+        private void writeHistory(final Repository repository) throws IOException {
+            final DirCache tree = DirCache.newInCore();
+            final Map<String, String> submoduleUris = new LinkedHashMap<String, String>();
+            final ObjectInserter inserter = repository.newObjectInserter();
+            ObjectId head = null;
+            try {
+                for (int i = 0; i < changes.size(); i++) {
+                    final DirCacheEditor editor = tree.editor();
+                    for (final Map.Entry<String, Object> change : changes.get(i).entrySet()) {
+                        if (change.getValue() instanceof RepositorySpec) {
+                            final RepositorySpec module = (RepositorySpec) change.getValue();
+                            submoduleUris.put(change.getKey(), module.create());
+                            editor.add(entry(change.getKey(), FileMode.GITLINK, module.head()));
+                        } else {
+                            final byte[] content = ((String) change.getValue()).getBytes(StandardCharsets.UTF_8);
+                            editor.add(entry(change.getKey(), FileMode.REGULAR_FILE,
+                                    inserter.insert(Constants.OBJ_BLOB, content)));
+                        }
+                    }
+                    if (!submoduleUris.isEmpty()) {
+                        editor.add(entry(Constants.DOT_GIT_MODULES, FileMode.REGULAR_FILE,
+                                inserter.insert(Constants.OBJ_BLOB, gitmodules(submoduleUris))));
+                    }
+                    editor.finish();
+
+                    final CommitBuilder commit = new CommitBuilder();
+                    commit.setAuthor(AUTHOR);
+                    commit.setCommitter(AUTHOR);
+                    commit.setTreeId(tree.writeTree(inserter));
+                    if (head != null) {
+                        commit.setParentId(head);
+                    }
+                    commit.setMessage(messages.get(i));
+                    head = inserter.insert(commit);
+                }
+                inserter.flush();
+            } finally {
+                inserter.release();
+            }
+
+            final RefUpdate update = repository.updateRef(Constants.R_HEADS + Constants.MASTER);
+            update.setNewObjectId(head);
+            if (update.update() != RefUpdate.Result.NEW) {
+                throw new IOException("could not create master of " + name + ": " + update.getResult());
+            }
+        }
+
+        private ObjectId head() throws IOException {
+            final Repository repository = new FileRepositoryBuilder().setGitDir(new File(getRoot(), name + ".git"))
+                                                                     .setBare()
+                                                                     .build();
+            try {
+                return repository.resolve(Constants.R_HEADS + Constants.MASTER);
+            } finally {
+                repository.close();
+            }
+        }
+    }
+
+    public RepositorySpec repository(final String name) {
+        return new RepositorySpec(name);
+    }
+
+    /**
+     * @return the repository the {@link JgitTest} clones, pushes to and pulls from
+     */
+    public RepositorySpec testRepository() {
+        return repository("jgit-testrepo").file("README.md", "jgit-testrepo\n=============\n")
+                                          .file("dummy.txt", "dummy\n")
+                                          .commit("initial commit");
+    }
+
+    /**
+     * @return a repository shaped like the recipes-common repository used as submodule
+     */
+    public RepositorySpec recipesCommon() {
+        return repository("recipes-common").file("README.md", "recipes-common\n")
+                                           .file("applepie", "apples\nflour\nbutter\nsugar\n")
+                                           .commit("initial commit");
+    }
+
+    /**
+     * @return a repository shaped like the cookbook repository, without submodules
+     */
+    public RepositorySpec cookbook() {
+        return repository("cookbook").file("README.md", "cookbook\n")
+                                     .file("pancakes", "eggs\nmilk\nflour\n")
+                                     .commit("initial commit");
+    }
+
+    /**
+     * Clones {@code uri} into {@code <root>/<directory>}.
+     */
+    public Git cloneOf(final String uri, final String directory) throws GitAPIException {
+        return Git.cloneRepository()
+                  .setURI(uri)
+                  .setDirectory(new File(getRoot(), directory))
+                  .call();
+    }
+
+    private static PathEdit entry(final String path, final FileMode mode, final ObjectId id) {
+        return new PathEdit(path) {
+            @Override
+            public void apply(final DirCacheEntry ent) {
+                ent.setFileMode(mode);
+                ent.setObjectId(id);
+            }
+        };
+    }
+
+    private static byte[] gitmodules(final Map<String, String> submoduleUris) {
+        final StringBuilder gitmodules = new StringBuilder();
+        for (final Map.Entry<String, String> submodule : submoduleUris.entrySet()) {
+            gitmodules.append("[submodule \"").append(submodule.getKey()).append("\"]\n")
+                      .append("\tpath = ").append(submodule.getKey()).append('\n')
+                      .append("\turl = ").append(submodule.getValue()).append('\n');
+        }
+        return gitmodules.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
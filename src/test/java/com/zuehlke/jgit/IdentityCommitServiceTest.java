@@ -0,0 +1,129 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class IdentityCommitServiceTest {
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    private Git git;
+    private IdentityCommitService service;
+
+    @Before
+    public void setUp() throws Exception {
+        git = fixture.cloneOf(fixture.testRepository().create(), new File(fixture.getRoot(), "clone").getPath());
+        service = new IdentityCommitService(git.getRepository());
+    }
+
+    @After
+    public void tearDown() {
+        git.getRepository().close();
+    }
+
+    @Test
+    public void testCommitsWithPerCallIdentity() throws Exception {
+        final String config = git.getRepository().getConfig().toText();
+        final PersonIdent bot = service.identity("Bot", "bot@example.com", "UTC");
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<RevCommit>> commits = new ArrayList<Future<RevCommit>>();
+            for (int i = 0; i < 40; i++) {
+                final int user = i;
+                commits.add(executor.submit(new Callable<RevCommit>() {
+                    @Override
+                    public RevCommit call() throws Exception {
+                        final PersonIdent author = service.identity("User " + user, "user" + user + "@example.com",
+                                "Asia/Tokyo");
+                        return service.commit("commit of user " + user, author, bot);
+                    }
+                }));
+            }
+            for (int i = 0; i < commits.size(); i++) {
+                final RevCommit commit = commits.get(i).get(30, TimeUnit.SECONDS);
+                assertEquals("wrong author", "user" + i + "@example.com", commit.getAuthorIdent().getEmailAddress());
+                assertEquals("wrong time zone", 9 * 60, commit.getAuthorIdent().getTimeZoneOffset());
+                assertEquals("wrong committer", "bot@example.com", commit.getCommitterIdent().getEmailAddress());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals("config was changed", config, git.getRepository().getConfig().toText());
+    }
+
+    @Test
+    public void testRewritesIdentities() throws Exception {
+        final PersonIdent old = new PersonIdent("Old Name", "old@example.com");
+        final PersonIdent other = new PersonIdent("Other", "other@example.com");
+        final RevCommit base = service.commit("base", other, other);
+        final List<RevCommit> commits = new ArrayList<RevCommit>();
+        for (int i = 0; i < 30; i++) {
+            final PersonIdent author = i % 3 == 0 ? other : old;
+            commits.add(service.commit("commit " + i, author, old));
+        }
+
+        final RewriteResult result = service.rewrite(Constants.R_HEADS + Constants.MASTER, base,
+                new IdentityCommitService.IdentityMapper() {
+                    @Override
+                    public PersonIdent map(final PersonIdent ident) {
+                        return ident.getEmailAddress().equals("old@example.com")
+                                ? new PersonIdent("New Name", "new@example.com") : ident;
+                    }
+                });
+        assertEquals("wrong number of commits visited", 30, result.getVisited());
+        assertEquals("wrong number of commits rewritten", 30, result.getRewritten());
+        assertNotEquals("head was not moved", result.getOldHead(), result.getNewHead());
+        assertEquals("ref was not updated", result.getNewHead(), git.getRepository().resolve(Constants.HEAD));
+
+        final RevWalk walk = new RevWalk(git.getRepository());
+        try {
+            RevCommit commit = walk.parseCommit(result.getNewHead());
+            for (int i = commits.size() - 1; i >= 0; i--) {
+                final RevCommit original = commits.get(i);
+                assertEquals("message changed", original.getFullMessage(), commit.getFullMessage());
+                assertEquals("tree changed", original.getTree(), commit.getTree());
+                assertEquals("author time changed", original.getAuthorIdent().getWhen(),
+                        commit.getAuthorIdent().getWhen());
+                assertFalse("old identity remains", commit.getAuthorIdent().getEmailAddress().startsWith("old")
+                        || commit.getCommitterIdent().getEmailAddress().startsWith("old"));
+                commit = walk.parseCommit(commit.getParent(0));
+            }
+            assertEquals("commit before the range was rewritten", base, commit);
+        } finally {
+            walk.release();
+        }
+
+        final RewriteResult again = service.rewrite(Constants.R_HEADS + Constants.MASTER, null,
+                new IdentityCommitService.IdentityMapper() {
+                    @Override
+                    public PersonIdent map(final PersonIdent ident) {
+                        return ident;
+                    }
+                });
+        assertEquals("unchanged history was rewritten", 0, again.getRewritten());
+        assertTrue("history was not visited", again.getVisited() > 30);
+        assertEquals("head moved", result.getNewHead(), again.getNewHead());
+    }
+}
@@ -3,12 +3,11 @@ package com.zuehlke.jgit;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.Date;
-import java.util.Properties;
 
 import org.eclipse.jgit.api.CreateBranchCommand.SetupUpstreamMode;
 import org.eclipse.jgit.api.Git;
@@ -20,17 +19,14 @@ import org.eclipse.jgit.api.errors.TransportException;
 import org.eclipse.jgit.api.errors.UnmergedPathsException;
 import org.eclipse.jgit.dircache.DirCache;
 import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
-import org.eclipse.jgit.transport.CredentialsProvider;
 import org.eclipse.jgit.transport.PushResult;
-import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
-import org.junit.FixMethodOrder;
 import org.junit.Test;
-import org.junit.runners.MethodSorters;
 
-@FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class JgitTest extends AbstractJgitTest {
     
     protected void logCommit(final RevCommit commit) {
@@ -44,45 +40,47 @@ public class JgitTest extends AbstractJgitTest {
                 + ")");
     }
     
-    protected CredentialsProvider getCredentialsProvider() {
-        final Properties prop = new Properties();
-        
+    private RevCommit commitNewFile(final String message) throws IOException, GitAPIException {
+        new File(localPath, "myfile").createNewFile();
+        git.add()
+           .addFilepattern("myfile")
+           .call();
+        return git.commit()
+                  .setMessage(message)
+                  .call();
+    }
+    
+    private ObjectId remoteHead() throws IOException {
+        final Repository remote = new FileRepository(new File(fixture.getRoot(), "jgit-testrepo.git"));
         try {
-            // load a properties file
-            prop.load(new FileInputStream("config.properties"));
-            
-        } catch (final IOException ex) {
-            ex.printStackTrace();
+            return remote.resolve(Constants.R_HEADS + Constants.MASTER);
+        } finally {
+            remote.close();
         }
-        
-        final String gitUser = prop.getProperty("gituser");
-        final String gitPassword = prop.getProperty("gitpassword");
-        
-        final CredentialsProvider cp = new UsernamePasswordCredentialsProvider(gitUser, gitPassword);
-        return cp;
     }
     
     @Test
     public void testACreate() throws IOException {
         
-        final Repository newRepo = new FileRepository(localPath + ".git");
+        final Repository newRepo = new FileRepository(new File(fixture.getRoot(), "created/.git"));
         newRepo.create();
         newRepo.close();
         
-        assertNotNull("newRepo is null", newRepo);
+        assertTrue("newRepo was not created", newRepo.getDirectory().isDirectory());
     }
     
     @Test
     public void testBClone() throws IOException, InvalidRemoteException, TransportException, GitAPIException {
         final Git gitObject = Git.cloneRepository()
                                  .setURI(remotePath)
-                                 .setDirectory(new File(localPath))
+                                 .setDirectory(new File(fixture.getRoot(), "clone"))
                                  .call();
         
         gitObject.getRepository()
                  .close();
         
         assertNotNull("gitObject is null", gitObject);
+        assertTrue("there is no README.md", new File(gitObject.getRepository().getWorkTree(), "README.md").isFile());
     }
     
     @Test
@@ -94,15 +92,14 @@ public class JgitTest extends AbstractJgitTest {
                                      .call();
         
         assertNotNull("dirCache is null", dirCache);
+        assertNotNull("myfile is not in the index", dirCache.getEntry("myfile"));
     }
     
     @Test
     public void testDCommitNewFile() throws IOException, JGitInternalException,
             UnmergedPathsException, GitAPIException {
         final Date now = new Date();
-        final RevCommit commit = git.commit()
-                                    .setMessage("Testrun at " + now.toString() + ": added myfile")
-                                    .call();
+        final RevCommit commit = commitNewFile("Testrun at " + now.toString() + ": added myfile");
         assertNotNull("commit is null", commit);
         
         logCommit(commit);
@@ -110,17 +107,21 @@ public class JgitTest extends AbstractJgitTest {
     
     @Test
     public void testEPush() throws IOException, JGitInternalException, TransportException, GitAPIException {
-        final CredentialsProvider cp = getCredentialsProvider();
+        final RevCommit commit = commitNewFile("Testrun at " + new Date() + ": added myfile");
         
         final Iterable<PushResult> result = git.push()
-                                               .setCredentialsProvider(cp)
                                                .call();
         
         assertNotNull("push result is null", result);
+        assertEquals("remote master was not updated", commit, remoteHead());
     }
     
     @Test
-    public void testEPushRemoveNewFile() throws InvalidRemoteException, TransportException, GitAPIException {
+    public void testEPushRemoveNewFile() throws InvalidRemoteException, TransportException, GitAPIException,
+            IOException {
+        commitNewFile("Testrun at " + new Date() + ": added myfile");
+        git.push().call();
+        
         final DirCache dirCache = git.rm()
                                      .addFilepattern("myfile")
                                      .call();
@@ -137,13 +138,11 @@ public class JgitTest extends AbstractJgitTest {
         logCommit(commit);
         
         // Push
-        final CredentialsProvider cp = getCredentialsProvider();
-        
         final Iterable<PushResult> result = git.push()
-                                               .setCredentialsProvider(cp)
                                                .call();
         
         assertNotNull("push result is null", result);
+        assertEquals("remote master was not updated", commit, remoteHead());
     }
     
     @Test
@@ -156,14 +155,25 @@ public class JgitTest extends AbstractJgitTest {
                               .call();
         
         assertNotNull("branch is null", branch);
+        assertEquals("testBranch does not track master", "refs/heads/master",
+                localRepo.getConfig().getString("branch", "testBranch", "merge"));
     }
     
     @Test
     public void testGPull() throws IOException, TransportException, GitAPIException {
+        final Git other = fixture.cloneOf(remotePath, "other");
+        final RevCommit pushed = other.commit()
+                                      .setMessage("commit from another clone")
+                                      .call();
+        other.push().call();
+        other.getRepository().close();
+        
         final PullResult pull = git.pull()
                                    .call();
         
         assertNotNull("pull is null", pull);
+        assertTrue("pull failed", pull.isSuccessful());
+        assertEquals("pulled commit is not head", pushed, localRepo.resolve(Constants.HEAD));
     }
     
     @Test
@@ -194,8 +204,16 @@ public class JgitTest extends AbstractJgitTest {
         logCommit(commit);
         
         // reset initial user and name
-        repo.getConfig().setString("user", null, "email", wasEmail);
-        repo.getConfig().setString("user", null, "name", wasName);
+        if (wasEmail == null) {
+            repo.getConfig().unset("user", null, "email");
+        } else {
+            repo.getConfig().setString("user", null, "email", wasEmail);
+        }
+        if (wasName == null) {
+            repo.getConfig().unset("user", null, "name");
+        } else {
+            repo.getConfig().setString("user", null, "name", wasName);
+        }
     }
     
     @Test
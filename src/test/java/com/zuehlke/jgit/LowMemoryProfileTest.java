@@ -0,0 +1,231 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.lib.TreeFormatter;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.storage.file.WindowCacheConfig;
+import org.eclipse.jgit.storage.pack.PackConfig;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class LowMemoryProfileTest {
+
+    /** Total size of the generated blobs; raise with {@code -Dlowmemory.megabytes=4096} for a multi-GB run. */
+    private static final int MEGABYTES = Integer.getInteger("lowmemory.megabytes", 128);
+    private static final int BLOB_MEGABYTES = 16;
+    private static final int COMMITS = 2000;
+    private static final String HEAP = "-Xmx32m";
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    @After
+    public void tearDown() {
+        // the caches are shared by all tests of this JVM
+        new WindowCacheConfig().install();
+    }
+
+    /**
+     * Clones the repository given as first argument into the second with a 16 MB profile, walks all commits
+     * and lists the head tree, and prints the counts.
+     */
+    public static class CloneAndWalk {
+
+        public static void main(final String[] args) throws Exception {
+            final LowMemoryProfile profile = new LowMemoryProfile(16 * WindowCacheConfig.MB);
+            profile.install();
+            final File directory = new File(args[1]);
+            Git.cloneRepository()
+               .setURI(args[0])
+               .setDirectory(directory)
+               .call()
+               .getRepository()
+               .close();
+
+            final Repository repository = profile.open(new File(directory, Constants.DOT_GIT));
+            try {
+                final RevWalk walk = profile.newRevWalk(repository);
+                walk.markStart(walk.parseCommit(repository.resolve(Constants.HEAD)));
+                int commits = 0;
+                for (@SuppressWarnings("unused") final RevCommit commit : walk) {
+                    commits++;
+                }
+                final AtomicInteger files = new AtomicInteger();
+                final TreeLister lister = new TreeLister(repository);
+                try {
+                    lister.list(repository.resolve(Constants.HEAD), null, new TreeEntryVisitor() {
+                        @Override
+                        public void visit(final byte[] path, final int pathLength, final int mode,
+                                final AnyObjectId id) {
+                            files.incrementAndGet();
+                        }
+                    });
+                } finally {
+                    lister.close();
+                }
+                System.out.println("commits=" + commits + " files=" + files.get());
+            } finally {
+                repository.close();
+            }
+        }
+    }
+
+    /** Endless pseudo-random bytes, so large blobs neither compress nor sit on the heap. */
+    private static class RandomStream extends InputStream {
+
+        private final Random random;
+
+        RandomStream(final long seed) {
+            this.random = new Random(seed);
+        }
+
+        @Override
+        public int read() {
+            return random.nextInt(256);
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) {
+            final byte[] chunk = new byte[length];
+            random.nextBytes(chunk);
+            System.arraycopy(chunk, 0, buffer, offset, length);
+            return length;
+        }
+    }
+
+    /**
+     * Creates a bare repository with {@link #COMMITS} commits with long messages, the blobs spread over
+     * them.
+     */
+    private String createLargeRepository() throws IOException {
+        final File gitDir = new File(fixture.getRoot(), "large.git");
+        final Repository repository = new FileRepositoryBuilder().setGitDir(gitDir).setBare().build();
+        repository.create(true);
+        try {
+            final StoredConfig config = repository.getConfig();
+            config.setInt("core", null, "compression", 1);
+            config.setInt("core", null, "bigFileThreshold", WindowCacheConfig.MB);
+            config.save();
+
+            final int blobs = Math.max(1, MEGABYTES / BLOB_MEGABYTES);
+            final ObjectId[] blobIds = new ObjectId[blobs];
+            final char[] filler = new char[8192];
+            Arrays.fill(filler, 'x');
+            final String message = new String(filler);
+            final PersonIdent ident = new PersonIdent("Large", "large@example.com");
+            final ObjectInserter inserter = repository.newObjectInserter();
+            try {
+                ObjectId parent = null;
+                int added = 0;
+                for (int i = 0; i < COMMITS; i++) {
+                    if (added < blobs && i % (COMMITS / blobs) == 0) {
+                        blobIds[added] = inserter.insert(Constants.OBJ_BLOB, BLOB_MEGABYTES * WindowCacheConfig.MB,
+                                new RandomStream(added));
+                        added++;
+                    }
+                    final TreeFormatter tree = new TreeFormatter();
+                    for (int blob = 0; blob < added; blob++) {
+                        tree.append(String.format("blob%04d.bin", blob), FileMode.REGULAR_FILE, blobIds[blob]);
+                    }
+                    final CommitBuilder commit = new CommitBuilder();
+                    commit.setAuthor(ident);
+                    commit.setCommitter(ident);
+                    commit.setTreeId(inserter.insert(tree));
+                    if (parent != null) {
+                        commit.setParentId(parent);
+                    }
+                    commit.setMessage("commit " + i + "\n\n" + message + "\n");
+                    parent = inserter.insert(commit);
+                }
+                inserter.flush();
+                final RefUpdate update = repository.updateRef(Constants.R_HEADS + Constants.MASTER);
+                update.setNewObjectId(parent);
+                assertEquals("could not create master", RefUpdate.Result.NEW, update.update());
+            } finally {
+                inserter.release();
+            }
+            return gitDir.toURI().toString();
+        } finally {
+            repository.close();
+        }
+    }
+
+    @Test
+    public void testSizesCachesFromBudget() throws Exception {
+        final LowMemoryProfile profile = new LowMemoryProfile(64 * WindowCacheConfig.MB);
+        final WindowCacheConfig cache = profile.getWindowCacheConfig();
+        assertEquals("wrong window cache", 16 * WindowCacheConfig.MB, cache.getPackedGitLimit());
+        assertEquals("wrong delta base cache", 4 * WindowCacheConfig.MB, cache.getDeltaBaseCacheLimit());
+        assertEquals("wrong streaming threshold", 4 * WindowCacheConfig.MB, cache.getStreamFileThreshold());
+        assertFalse("packs are memory mapped", cache.isPackedGitMMAP());
+
+        final Git git = fixture.cloneOf(fixture.testRepository().create(), "clone");
+        final Repository repository = profile.open(git.getRepository().getDirectory());
+        try {
+            final PackConfig pack = new PackConfig(repository);
+            assertEquals("wrong big file threshold", 4 * WindowCacheConfig.MB, pack.getBigFileThreshold());
+            assertEquals("wrong delta window memory", 8 * WindowCacheConfig.MB, pack.getDeltaSearchMemoryLimit());
+            assertEquals("wrong pack threads", 1, pack.getThreads());
+            assertFalse("commit bodies retained", profile.newRevWalk(repository).isRetainBody());
+
+            // the in-memory settings are gone once the config is reloaded, the explicit pack config is not
+            final StoredConfig config = git.getRepository().getConfig();
+            config.setString("user", null, "name", "Changed");
+            config.save();
+            final PackConfig explicit = profile.newPackConfig(repository);
+            assertEquals("wrong explicit big file threshold", 4 * WindowCacheConfig.MB, explicit.getBigFileThreshold());
+            assertEquals("wrong explicit delta window memory", 8 * WindowCacheConfig.MB,
+                    explicit.getDeltaSearchMemoryLimit());
+            assertEquals("wrong explicit pack threads", 1, explicit.getThreads());
+        } finally {
+            repository.close();
+            git.getRepository().close();
+        }
+    }
+
+    @Test
+    public void testClonesAndWalksUnderSmallHeap() throws Exception {
+        final String uri = createLargeRepository();
+        final File java = new File(new File(System.getProperty("java.home"), "bin"), "java");
+        final Process process = new ProcessBuilder(java.getPath(), HEAP, "-cp",
+                System.getProperty("java.class.path"), CloneAndWalk.class.getName(), uri,
+                new File(fixture.getRoot(), "clone").getPath()).redirectErrorStream(true).start();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final InputStream in = process.getInputStream();
+        final byte[] buffer = new byte[8192];
+        for (int read; (read = in.read(buffer)) > 0;) {
+            output.write(buffer, 0, read);
+        }
+        assertTrue("clone did not finish", process.waitFor(10, TimeUnit.MINUTES));
+        final String printed = output.toString("UTF-8");
+        assertEquals("clone failed under " + HEAP + ":\n" + printed, 0, process.exitValue());
+        assertTrue("wrong walk: " + printed, printed.contains("commits=" + COMMITS + " files="
+                + Math.max(1, MEGABYTES / BLOB_MEGABYTES)));
+    }
+}
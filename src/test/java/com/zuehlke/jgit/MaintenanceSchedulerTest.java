@@ -0,0 +1,174 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MaintenanceSchedulerTest {
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    private Git git;
+    private Repository repository;
+    private final MaintenanceScheduler scheduler = new MaintenanceScheduler().setLooseObjectLimit(50)
+                                                                             .setLooseRefLimit(5)
+                                                                             .setPruneExpireMillis(0);
+
+    @Before
+    public void setUp() throws Exception {
+        git = fixture.cloneOf(fixture.testRepository().create(), "clone");
+        repository = git.getRepository();
+        for (int i = 0; i < 30; i++) {
+            Files.write(new File(repository.getWorkTree(), "file" + i).toPath(), ("content " + i).getBytes("UTF-8"));
+            git.add().addFilepattern("file" + i).call();
+            git.commit().setMessage("commit " + i).call();
+        }
+        for (int i = 0; i < 10; i++) {
+            git.branchCreate().setName("branch" + i).call();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.close();
+        repository.close();
+    }
+
+    private String[] packFiles(final String extension) {
+        return new File(repository.getDirectory(), "objects/pack").list(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.endsWith(extension);
+            }
+        });
+    }
+
+    private int countCommits() throws Exception {
+        final RevWalk walk = new RevWalk(repository);
+        try {
+            walk.markStart(walk.parseCommit(repository.resolve(Constants.HEAD)));
+            int count = 0;
+            for (@SuppressWarnings("unused") final RevCommit commit : walk) {
+                count++;
+            }
+            return count;
+        } finally {
+            walk.release();
+        }
+    }
+
+    private ObjectId insertUnreachable() throws Exception {
+        final ObjectInserter inserter = repository.newObjectInserter();
+        try {
+            final ObjectId id = inserter.insert(Constants.OBJ_BLOB, "unreachable".getBytes("UTF-8"));
+            inserter.flush();
+            final String name = id.name();
+            final File file = new File(new File(repository.getDirectory(), "objects"),
+                    name.substring(0, 2) + "/" + name.substring(2));
+            assertTrue("could not age loose object", file.setLastModified(System.currentTimeMillis() - 60000));
+            return id;
+        } finally {
+            inserter.release();
+        }
+    }
+
+    @Test
+    public void testRepacksWithBitmapAndPacksRefs() throws Exception {
+        final int commits = countCommits();
+        final MaintenanceResult result = scheduler.maintain(repository);
+        assertTrue("not repacked", result.isRepacked());
+        assertTrue("refs not packed", result.isRefsPacked());
+        assertTrue("too few loose objects before", result.getLooseObjectsBefore() >= 90);
+        assertEquals("loose objects left", 0, result.getLooseObjectsAfter());
+        assertEquals("wrong number of packs", 1, packFiles(".pack").length);
+        assertEquals("no bitmap written", 1, packFiles(".bitmap").length);
+        assertEquals("history lost", commits, countCommits());
+        assertTrue("refs are not packed", new File(repository.getDirectory(), "packed-refs").isFile());
+
+        final MaintenanceResult again = scheduler.maintain(repository);
+        assertFalse("repacked without need", again.isRepacked() || again.isRefsPacked() || again.isPruned());
+    }
+
+    @Test
+    public void testDefersRepackAndPruneWhileLeased() throws Exception {
+        final ObjectId unreachable = insertUnreachable();
+        final String[] packs = packFiles(".pack");
+        final MaintenanceScheduler.Lease lease = scheduler.acquire(repository);
+        try {
+            final MaintenanceResult result = scheduler.maintain(repository);
+            assertFalse("repacked while leased", result.isRepacked());
+            assertTrue("repack and prune not deferred", result.isPruneDeferred());
+            assertEquals("packs changed while leased", Arrays.asList(packs), Arrays.asList(packFiles(".pack")));
+            assertTrue("object removed while leased", repository.hasObject(unreachable));
+        } finally {
+            lease.close();
+        }
+        final MaintenanceResult result = scheduler.maintain(repository);
+        assertTrue("deferred repack did not run", result.isRepacked());
+        assertTrue("deferred prune did not run", result.isPruned());
+        assertFalse("unreachable object not pruned", repository.hasObject(unreachable));
+        assertEquals("wrong deferred prunes", 1, scheduler.getDeferredPrunes());
+    }
+
+    @Test
+    public void testKeepsUnreferencedPackedObjectsWhileLeased() throws Exception {
+        final ObjectId unreferenced = insertUnreachable();
+        final RefUpdate create = repository.updateRef("refs/tmp/blob");
+        create.setNewObjectId(unreferenced);
+        create.update();
+        assertTrue("not repacked", scheduler.maintain(repository).isRepacked());
+        final RefUpdate delete = repository.updateRef("refs/tmp/blob");
+        delete.setForceUpdate(true);
+        delete.delete();
+
+        scheduler.setPackLimit(1).setPruneExpireMillis(TimeUnit.HOURS.toMillis(1));
+        final MaintenanceScheduler.Lease lease = scheduler.acquire(repository);
+        try {
+            assertTrue("not deferred", scheduler.maintain(repository).isPruneDeferred());
+            assertTrue("unreferenced packed object removed while leased", repository.hasObject(unreferenced));
+        } finally {
+            lease.close();
+        }
+    }
+
+    @Test
+    public void testThrottlesByIoBudget() throws Exception {
+        scheduler.setIoBudget(200000);
+        final MaintenanceResult result = scheduler.maintain(repository);
+        assertTrue("not repacked", result.isRepacked());
+        assertTrue("repack was not throttled", result.getThrottledMillis() > 0);
+    }
+
+    @Test
+    public void testMaintainsInBackground() throws Exception {
+        scheduler.register(repository);
+        scheduler.start(20);
+        for (int i = 0; i < 500 && scheduler.getRepacks() == 0; i++) {
+            Thread.sleep(20);
+        }
+        assertEquals("not repacked in background", 1, scheduler.getRepacks());
+        assertNull("background maintenance failed", scheduler.getLastError());
+        assertTrue("no result recorded", scheduler.getLastResult(repository).isRepacked());
+    }
+}
@@ -0,0 +1,277 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class MeteredGitTest {
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    private final GitMetrics metrics = new GitMetrics();
+    private MeteredGit git;
+    private String gitDir;
+    private String uri;
+
+    @Before
+    public void setUp() throws Exception {
+        uri = fixture.cookbook().create();
+        metrics.setMeasureBytesWritten(true);
+        git = MeteredGit.cloneRepository(Git.cloneRepository().setURI(uri), new File(fixture.getRoot(), "clone"),
+                metrics);
+        gitDir = git.getGit().getRepository().getDirectory().getAbsolutePath();
+    }
+
+    @After
+    public void tearDown() {
+        git.getGit().getRepository().close();
+        metrics.close();
+    }
+
+    private void write(final String path, final String content) throws Exception {
+        Files.write(new File(git.getGit().getRepository().getWorkTree(), path).toPath(), content.getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testRecordsEveryOperation() throws Exception {
+        final Git plain = git.getGit();
+        write("waffles", "flour, eggs, milk\n");
+        git.add(plain.add().addFilepattern("waffles"));
+        git.commit(plain.commit().setMessage("add waffles"));
+        git.branchCreate(plain.branchCreate().setName("feature"));
+        git.status(plain.status());
+        git.push(plain.push());
+        git.pull(plain.pull());
+        git.submoduleAdd(plain.submoduleAdd().setPath("common").setURI(fixture.recipesCommon().create()));
+        git.submoduleStatus(plain.submoduleStatus());
+
+        for (final GitOperation operation : GitOperation.values()) {
+            final OperationStats stats = metrics.getStats(operation, gitDir);
+            assertEquals(operation + " was not recorded once", 1, stats.getCount());
+            assertEquals(operation + " failed", 0, stats.getErrors());
+            assertTrue(operation + " took no time", stats.getMaxMillis() > 0);
+            assertTrue(operation + " has no median", stats.getP50Millis() > 0);
+            assertTrue("p99 exceeds max", stats.getP99Millis() <= stats.getMaxMillis());
+        }
+        final OperationStats clone = metrics.getStats(GitOperation.CLONE, gitDir);
+        assertTrue("no objects were counted", clone.getObjects() > 0);
+        assertTrue("no pack bytes were counted", clone.getBytesWritten() > 0);
+        assertTrue("added blob was not counted", metrics.getStats(GitOperation.ADD, gitDir).getBytesWritten() > 0);
+        assertTrue("committed tree was not counted",
+                metrics.getStats(GitOperation.COMMIT, gitDir).getBytesWritten() > 0);
+        assertTrue("pushed objects were not counted", metrics.getStats(GitOperation.PUSH, gitDir).getObjects() > 0);
+    }
+
+    @Test
+    public void testMeasuresBytesWrittenOnlyIfEnabled() throws Exception {
+        final GitMetrics unmeasured = new GitMetrics();
+        final MeteredGit other = new MeteredGit(git.getGit(), unmeasured);
+        write("waffles", "flour, eggs, milk\n");
+        other.add(git.getGit().add().addFilepattern("waffles"));
+        assertEquals("bytes were measured", 0, unmeasured.getStats(GitOperation.ADD, gitDir).getBytesWritten());
+    }
+
+    @Test
+    public void testRecordsBareCloneUnderItsGitDir() throws Exception {
+        final File directory = new File(fixture.getRoot(), "bare.git");
+        final MeteredGit bare = MeteredGit.cloneRepository(
+                Git.cloneRepository().setURI(uri).setBare(true), directory, metrics);
+        try {
+            assertTrue("clone is not bare", bare.getGit().getRepository().isBare());
+            final OperationStats clone = metrics.getStats(GitOperation.CLONE, directory.getAbsolutePath());
+            assertEquals("bare clone was not recorded under its git dir", 1, clone.getCount());
+            assertTrue("no pack bytes were counted", clone.getBytesWritten() > 0);
+        } finally {
+            bare.getGit().close();
+        }
+    }
+
+    @Test
+    public void testPassesProgressOnToCallersMonitor() throws Exception {
+        final List<String> cloneTasks = new ArrayList<String>();
+        final MeteredGit other = MeteredGit.cloneRepository(Git.cloneRepository().setURI(uri),
+                new File(fixture.getRoot(), "other"), metrics, new RecordingMonitor(cloneTasks));
+        other.getGit().close();
+        assertTrue("clone progress was not passed on", cloneTasks.contains("Receiving objects"));
+
+        final List<String> pushTasks = new ArrayList<String>();
+        write("waffles", "flour, eggs, milk\n");
+        git.add(git.getGit().add().addFilepattern("waffles"));
+        git.commit(git.getGit().commit().setMessage("add waffles"));
+        git.push(git.getGit().push().setProgressMonitor(new RecordingMonitor(pushTasks)));
+        assertTrue("push progress was not passed on", pushTasks.contains("Writing objects"));
+        assertTrue("pushed objects were not counted", metrics.getStats(GitOperation.PUSH, gitDir).getObjects() > 0);
+    }
+
+    /**
+     * Records the titles of the tasks it is told about.
+     */
+    private static class RecordingMonitor implements ProgressMonitor {
+
+        private final List<String> tasks;
+
+        RecordingMonitor(final List<String> tasks) {
+            this.tasks = tasks;
+        }
+
+        @Override
+        public void start(final int totalTasks) {
+            // only tasks are recorded
+        }
+
+        @Override
+        public void beginTask(final String title, final int totalWork) {
+            tasks.add(title);
+        }
+
+        @Override
+        public void update(final int completed) {
+            // only tasks are recorded
+        }
+
+        @Override
+        public void endTask() {
+            // only tasks are recorded
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+    }
+
+    @Test
+    public void testRecordsFailures() throws Exception {
+        try {
+            git.commit(git.getGit().commit().setMessage(null));
+            fail("commit without message succeeded");
+        } catch (final Exception e) {
+            // expected
+        }
+        assertEquals("failure was not recorded", 1, metrics.getStats(GitOperation.COMMIT, gitDir).getErrors());
+    }
+
+    @Test
+    public void testDisabledRecordsNothing() throws Exception {
+        metrics.setEnabled(false);
+        git.status(git.getGit().status());
+        assertNull("status was recorded", metrics.getStats(GitOperation.STATUS, gitDir));
+    }
+
+    @Test
+    public void testSerializesWritesAndRecordsLockWait() throws Exception {
+        metrics.setSerializeWrites(true);
+        final int threads = 4;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final List<Future<RevCommit>> commits = new ArrayList<Future<RevCommit>>();
+            for (int i = 0; i < threads; i++) {
+                final int n = i;
+                commits.add(executor.submit(new Callable<RevCommit>() {
+                    @Override
+                    public RevCommit call() throws Exception {
+                        start.await();
+                        return git.commit(git.getGit().commit().setMessage("commit " + n));
+                    }
+                }));
+            }
+            start.countDown();
+            for (final Future<RevCommit> commit : commits) {
+                commit.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        final OperationStats stats = metrics.getStats(GitOperation.COMMIT, gitDir);
+        assertEquals("concurrent commit failed", 0, stats.getErrors());
+        assertTrue("no lock wait was recorded", stats.getLockWaitMillis() > 0);
+    }
+
+    @Test
+    public void testPublishesThroughJmxAndReporter() throws Exception {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        final RepositoryPool pool = new RepositoryPool();
+        final List<Collection<OperationStats>> reports = new ArrayList<Collection<OperationStats>>();
+        try {
+            metrics.enableJmx(server);
+            metrics.register(pool, "test");
+            git.status(git.getGit().status());
+
+            final ObjectName status = new ObjectName(
+                    "com.zuehlke.jgit:type=GitOperation,operation=STATUS,repository=" + ObjectName.quote(gitDir));
+            assertEquals("status count not exported", 1L, server.getAttribute(status, "Count"));
+            final ObjectName clone = new ObjectName(
+                    "com.zuehlke.jgit:type=GitOperation,operation=CLONE,repository=" + ObjectName.quote(gitDir));
+            assertTrue("earlier clone not exported", server.isRegistered(clone));
+            assertEquals("pool not exported", 0L,
+                    server.getAttribute(new ObjectName("com.zuehlke.jgit:type=RepositoryPool,name=\"test\""), "Hits"));
+
+            metrics.startReporting(new MetricsReporter() {
+                @Override
+                public void report(final Collection<OperationStats> stats) {
+                    synchronized (reports) {
+                        reports.add(stats);
+                        reports.notifyAll();
+                    }
+                }
+            }, 10);
+            synchronized (reports) {
+                final long deadline = System.currentTimeMillis() + 5000;
+                while (reports.isEmpty() && System.currentTimeMillis() < deadline) {
+                    reports.wait(100);
+                }
+            }
+            assertFalse("reporter was not called", reports.isEmpty());
+            assertEquals("report is incomplete", 2, reports.get(0).size());
+
+            metrics.close();
+            assertFalse("mbean was not unregistered", server.isRegistered(status));
+        } finally {
+            pool.close();
+        }
+    }
+
+    @Test
+    public void testFailingReportDoesNotStopReporting() throws Exception {
+        final CountDownLatch reports = new CountDownLatch(3);
+        metrics.startReporting(new MetricsReporter() {
+            @Override
+            public void report(final Collection<OperationStats> stats) {
+                reports.countDown();
+                throw new IllegalStateException("report failed");
+            }
+        }, 10);
+        assertTrue("reporting stopped after a failed report", reports.await(5, TimeUnit.SECONDS));
+        metrics.stopReporting();
+        assertTrue("failed reports were not counted", metrics.getReportFailures() >= 2);
+        assertEquals("failure was not kept", "report failed", metrics.getLastReportFailure().getMessage());
+    }
+}
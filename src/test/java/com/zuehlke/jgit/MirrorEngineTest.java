@@ -0,0 +1,203 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.api.errors.TransportException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MirrorEngineTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Git createUpstream(final String name) throws GitAPIException, IOException {
+        final Git upstream = Git.init()
+                                .setDirectory(tmp.newFolder(name))
+                                .call();
+        upstream.commit()
+                .setMessage("initial commit of " + name)
+                .call();
+        return upstream;
+    }
+
+    @Test
+    public void testCloneThenFetch() throws Exception {
+        final List<Git> upstreams = new ArrayList<Git>();
+        final StringBuilder manifestText = new StringBuilder("# test manifest\n");
+        for (int i = 0; i < 5; i++) {
+            final Git upstream = createUpstream("upstream" + i);
+            upstreams.add(upstream);
+            manifestText.append(upstream.getRepository().getDirectory().toURI()).append(" mirror").append(i).append('\n');
+        }
+        final File mirrors = tmp.newFolder("mirrors");
+        final MirrorManifest manifest = MirrorManifest.parse(new StringReader(manifestText.toString()), mirrors);
+
+        final MirrorEngine engine = new MirrorEngine().setThreads(3)
+                                                      .setMaxPerHost(2)
+                                                      .setBare(true)
+                                                      .setUpdateCommitGraph(true);
+
+        List<MirrorResult> results = engine.call(manifest);
+        assertEquals("one result per manifest entry", 5, results.size());
+        for (final MirrorResult result : results) {
+            assertTrue("mirror failed: " + result, result.isSuccessful());
+            assertEquals("repository was not cloned", MirrorResult.Action.CLONE, result.getAction());
+        }
+
+        final RevCommit newCommit = upstreams.get(2).commit()
+                                             .setMessage("second commit")
+                                             .call();
+
+        results = engine.call(manifest);
+        for (final MirrorResult result : results) {
+            assertTrue("mirror failed: " + result, result.isSuccessful());
+            assertEquals("repository was not fetched", MirrorResult.Action.FETCH, result.getAction());
+        }
+
+        final Repository mirror = Git.open(new File(mirrors, "mirror2")).getRepository();
+        try {
+            final ObjectId master = mirror.resolve("refs/heads/master");
+            assertNotNull("master is missing in mirror", master);
+            assertEquals("mirror is not at upstream head", newCommit, master);
+            assertTrue("fetched commit is not in the commit graph", CommitGraph.open(mirror).contains(newCommit));
+        } finally {
+            mirror.close();
+        }
+    }
+
+    @Test
+    public void testTransientFailureIsRetried() throws Exception {
+        final Git upstream = createUpstream("flaky");
+        final File target = new File(tmp.getRoot(), "target");
+        final MirrorManifest manifest = MirrorManifest.parse(
+                new StringReader(upstream.getRepository().getDirectory().toURI() + " " + target), null);
+
+        final AtomicInteger calls = new AtomicInteger();
+        final MirrorEngine engine = new MirrorEngine() {
+            @Override
+            void cloneRepository(final MirrorManifest.Entry entry) throws GitAPIException {
+                if (calls.incrementAndGet() < 3) {
+                    entry.getDirectory().mkdirs();
+                    throw new TransportException("connection reset");
+                }
+                super.cloneRepository(entry);
+            }
+        };
+
+        final MirrorResult result = engine.setMaxAttempts(3)
+                                          .setRetryDelayMillis(1)
+                                          .call(manifest)
+                                          .get(0);
+        assertTrue("mirror failed: " + result, result.isSuccessful());
+        assertEquals("failure was not retried", 3, result.getAttempts());
+    }
+
+    @Test
+    public void testPermanentFailureIsNotRetried() throws Exception {
+        final File missing = new File(tmp.getRoot(), "does-not-exist.git");
+        final File target = new File(tmp.getRoot(), "target");
+        final MirrorManifest manifest = MirrorManifest.parse(new StringReader(missing.toURI() + " " + target), null);
+
+        final MirrorResult result = new MirrorEngine().setMaxAttempts(3)
+                                                      .setRetryDelayMillis(1)
+                                                      .call(manifest)
+                                                      .get(0);
+        assertFalse("clone of missing repository succeeded", result.isSuccessful());
+        assertEquals("permanent failure was retried", 1, result.getAttempts());
+    }
+
+    @Test
+    public void testFailedCloneKeepsExistingTargetDirectory() throws Exception {
+        final File target = tmp.newFolder("target");
+        final MirrorManifest manifest = MirrorManifest.parse(new StringReader("https://example.com/a.git " + target),
+                null);
+        final MirrorEngine engine = new MirrorEngine() {
+            @Override
+            void cloneRepository(final MirrorManifest.Entry entry) throws GitAPIException {
+                try {
+                    new File(entry.getDirectory(), "partial").createNewFile();
+                } catch (final IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                throw new TransportException("connection reset");
+            }
+        };
+
+        final MirrorResult result = engine.setMaxAttempts(1)
+                                          .call(manifest)
+                                          .get(0);
+        assertFalse("failing clone succeeded", result.isSuccessful());
+        assertTrue("existing target directory was deleted", target.isDirectory());
+        assertFalse("partial clone was not deleted", new File(target, "partial").exists());
+    }
+
+    @Test
+    public void testLimitsTransfersPerHost() throws Exception {
+        final StringBuilder manifestText = new StringBuilder();
+        for (int i = 0; i < 4; i++) {
+            manifestText.append("https://a.example.com/repo").append(i).append(".git a").append(i).append('\n');
+            manifestText.append("https://b.example.com/repo").append(i).append(".git b").append(i).append('\n');
+        }
+        final MirrorManifest manifest = MirrorManifest.parse(new StringReader(manifestText.toString()),
+                tmp.newFolder("mirrors"));
+
+        final Map<String, AtomicInteger> running = new ConcurrentHashMap<String, AtomicInteger>();
+        final AtomicInteger maxPerHost = new AtomicInteger();
+        final AtomicInteger maxTotal = new AtomicInteger();
+        final AtomicInteger total = new AtomicInteger();
+        final MirrorEngine engine = new MirrorEngine() {
+            @Override
+            void cloneRepository(final MirrorManifest.Entry entry) {
+                final String host = hostOf(entry);
+                running.putIfAbsent(host, new AtomicInteger());
+                final int perHost = running.get(host).incrementAndGet();
+                final int all = total.incrementAndGet();
+                updateMax(maxPerHost, perHost);
+                updateMax(maxTotal, all);
+                try {
+                    Thread.sleep(50);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    total.decrementAndGet();
+                    running.get(host).decrementAndGet();
+                }
+            }
+        };
+
+        final List<MirrorResult> results = engine.setThreads(6)
+                                                 .setMaxPerHost(2)
+                                                 .call(manifest);
+        for (final MirrorResult result : results) {
+            assertTrue("mirror failed: " + result, result.isSuccessful());
+        }
+        assertEquals("host limit was exceeded", 2, maxPerHost.get());
+        assertTrue("hosts were not mirrored in parallel", maxTotal.get() > 2);
+    }
+
+    private static void updateMax(final AtomicInteger max, final int value) {
+        int current;
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+}
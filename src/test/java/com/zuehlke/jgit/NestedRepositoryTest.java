@@ -15,19 +15,17 @@ import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.InvalidRemoteException;
 import org.eclipse.jgit.api.errors.TransportException;
 import org.eclipse.jgit.errors.NoWorkTreeException;
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
-import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.RawParseUtils;
 import org.junit.Test;
 
 public class NestedRepositoryTest extends AbstractJgitTest {
     
-    protected String nestedRepoPath = Paths.get(localPath, "nested").toString();
-    protected String nestedRemotePath = "https://github.com/bej/cookbook.git";
-    
     protected void printStatus(final Status status) throws NoWorkTreeException, GitAPIException {
         System.out.println("Added: " + status.getAdded());
         System.out.println("Changed: " + status.getChanged());
@@ -43,16 +41,14 @@ public class NestedRepositoryTest extends AbstractJgitTest {
     
     @Test
     public void testNestedRepository() throws InvalidRemoteException, TransportException, GitAPIException, IOException {
-        // clone the parent repository
-        System.out.println("clone repository to " + localPath);
-        final Git parentGit = Git.cloneRepository()
-                                 .setURI(remotePath)
-                                 .setDirectory(new File(localPath))
-                                 .call();
+        // the parent repository is cloned to localPath by setUp
+        final Git parentGit = git;
         
         assertNotNull("parentGit is null", parentGit);
         
         // clone the nested repository
+        final String nestedRepoPath = Paths.get(localPath, "nested").toString();
+        final String nestedRemotePath = fixture.cookbook().create();
         System.out.println("clone nested repository to " + nestedRepoPath);
         final File nestedRepoDirectory = new File(nestedRepoPath);
         final Git nestedGit = Git.cloneRepository()
@@ -91,6 +87,7 @@ public class NestedRepositoryTest extends AbstractJgitTest {
         
         listRepositoryContents(parentGit.getRepository());
         listRepositoryContents(nestedGit.getRepository());
+        nestedGit.getRepository().close();
     }
     
     private static void listRepositoryContents(final Repository repository) throws IOException {
@@ -100,18 +97,27 @@ public class NestedRepositoryTest extends AbstractJgitTest {
         // a RevWalk allows to walk over commits based on some filtering that is
         // defined
         final RevWalk walk = new RevWalk(repository);
-        
-        final RevCommit commit = walk.parseCommit(head.getObjectId());
+        final RevCommit commit;
+        try {
+            commit = walk.parseCommit(head.getObjectId());
+        } finally {
+            walk.release();
+        }
         final RevTree tree = commit.getTree();
         System.out.println("Having tree: " + tree + " " + commit.getFullMessage());
         
-        // now use a TreeWalk to iterate over all files in the Tree recursively
-        // you can set Filters to narrow down the results if needed
-        final TreeWalk treeWalk = new TreeWalk(repository);
-        treeWalk.addTree(tree);
-        treeWalk.setRecursive(true);
-        while (treeWalk.next()) {
-            System.out.println("found: " + treeWalk.getPathString());
+        // now stream all files in the tree recursively, a path prefix can be
+        // passed to narrow down the results if needed
+        final TreeLister lister = new TreeLister(repository);
+        try {
+            lister.list(tree, null, new TreeEntryVisitor() {
+                @Override
+                public void visit(final byte[] path, final int pathLength, final int mode, final AnyObjectId id) {
+                    System.out.println("found: " + RawParseUtils.decode(path, 0, pathLength));
+                }
+            });
+        } finally {
+            lister.close();
         }
         
     }
@@ -0,0 +1,205 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.RemoteRefUpdate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PushSchedulerTest {
+
+    private static final int BRANCHES = 5;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Git first;
+    private Git second;
+    private Repository firstRemote;
+    private Repository secondRemote;
+
+    private Repository initBare(final String name) throws GitAPIException, IOException {
+        return Git.init()
+                  .setBare(true)
+                  .setDirectory(tmp.newFolder(name))
+                  .call()
+                  .getRepository();
+    }
+
+    private Git initWithRemote(final String name, final Repository remote) throws Exception {
+        final Git git = Git.init()
+                           .setDirectory(tmp.newFolder(name))
+                           .call();
+        final StoredConfig config = git.getRepository().getConfig();
+        config.setString("remote", "origin", "url", remote.getDirectory().toURI().toString());
+        config.save();
+        for (int i = 0; i < BRANCHES; i++) {
+            final RevCommit commit = git.commit().setMessage(name + " commit " + i).call();
+            git.branchCreate().setName("release" + i).setStartPoint(commit).call();
+        }
+        return git;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        firstRemote = initBare("first.git");
+        secondRemote = initBare("second.git");
+        first = initWithRemote("first", firstRemote);
+        second = initWithRemote("second", secondRemote);
+    }
+
+    @After
+    public void tearDown() {
+        first.getRepository().close();
+        second.getRepository().close();
+        firstRemote.close();
+        secondRemote.close();
+    }
+
+    private void addAllBranches(final PushScheduler scheduler, final Git git) {
+        for (int i = 0; i < BRANCHES; i++) {
+            scheduler.add(git.getRepository(), "origin", "refs/heads/release" + i, "refs/heads/release" + i, false);
+        }
+    }
+
+    @Test
+    public void testPushesAllBranchesOfAllRepositories() throws Exception {
+        final PushScheduler scheduler = new PushScheduler(2);
+        try {
+            addAllBranches(scheduler, first);
+            addAllBranches(scheduler, second);
+            final List<RefPushResult> results = scheduler.pushAll();
+
+            assertEquals("wrong number of results", 2 * BRANCHES, results.size());
+            for (final RefPushResult result : results) {
+                assertEquals("push failed: " + result, RemoteRefUpdate.Status.OK, result.getStatus());
+                assertNull("unexpected error", result.getError());
+            }
+            for (int i = 0; i < BRANCHES; i++) {
+                final String branch = "refs/heads/release" + i;
+                assertEquals("first remote differs", first.getRepository().resolve(branch),
+                        firstRemote.resolve(branch));
+                assertEquals("second remote differs", second.getRepository().resolve(branch),
+                        secondRemote.resolve(branch));
+            }
+
+            // the cached transport is reused for the next release
+            final ObjectId next = first.commit().setMessage("next release").call();
+            scheduler.add(first.getRepository(), "origin", "refs/heads/master", "refs/heads/release0", true);
+            final List<RefPushResult> nextResults = scheduler.pushAll();
+            assertEquals("wrong number of results", 1, nextResults.size());
+            assertTrue("push failed: " + nextResults.get(0), nextResults.get(0).isSuccessful());
+            assertEquals("remote not updated", next, firstRemote.resolve("refs/heads/release0"));
+            assertEquals("transport not reused", 2, scheduler.getTransportsCreated());
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    @Test
+    public void testReportsRejectedRefsIndividually() throws Exception {
+        final PushScheduler scheduler = new PushScheduler(2);
+        try {
+            addAllBranches(scheduler, first);
+            scheduler.pushAll();
+
+            // release1 points to an older commit than the remote release4
+            scheduler.add(first.getRepository(), "origin", "refs/heads/release1", "refs/heads/release4", false);
+            scheduler.add(first.getRepository(), "origin", "refs/heads/release4", "refs/heads/moved", false);
+            final List<RefPushResult> results = scheduler.pushAll();
+
+            assertEquals("wrong number of results", 2, results.size());
+            for (final RefPushResult result : results) {
+                if (result.getRemoteRef().equals("refs/heads/release4")) {
+                    assertEquals("non fast forward was accepted", RemoteRefUpdate.Status.REJECTED_NONFASTFORWARD,
+                            result.getStatus());
+                    assertFalse("rejected push is successful", result.isSuccessful());
+                } else {
+                    assertEquals("push failed: " + result, RemoteRefUpdate.Status.OK, result.getStatus());
+                }
+            }
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    @Test
+    public void testUnreachableRemoteFailsEveryRef() throws Exception {
+        final StoredConfig config = first.getRepository().getConfig();
+        config.setString("remote", "broken", "url", new File(tmp.getRoot(), "missing.git").toURI().toString());
+        config.save();
+
+        final PushScheduler scheduler = new PushScheduler(2);
+        try {
+            for (int i = 0; i < BRANCHES; i++) {
+                scheduler.add(first.getRepository(), "broken", "refs/heads/release" + i, "refs/heads/release" + i,
+                        false);
+            }
+            addAllBranches(scheduler, second);
+            final List<RefPushResult> results = scheduler.pushAll();
+
+            assertEquals("wrong number of results", 2 * BRANCHES, results.size());
+            for (final RefPushResult result : results) {
+                if (result.getRemote().equals("broken")) {
+                    assertFalse("push to missing remote succeeded", result.isSuccessful());
+                    assertTrue("error not reported", result.getError() != null);
+                } else {
+                    assertTrue("push failed: " + result, result.isSuccessful());
+                }
+            }
+        } finally {
+            scheduler.close();
+        }
+    }
+
+    @Test
+    public void testConcurrentPushAllOfOneRemote() throws Exception {
+        final PushScheduler scheduler = new PushScheduler(4);
+        final ExecutorService callers = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<List<RefPushResult>>> futures = new ArrayList<Future<List<RefPushResult>>>();
+            for (int round = 0; round < 20; round++) {
+                final int branch = round % BRANCHES;
+                futures.add(callers.submit(new Callable<List<RefPushResult>>() {
+                    @Override
+                    public List<RefPushResult> call() throws Exception {
+                        scheduler.add(first.getRepository(), "origin", "refs/heads/release" + branch,
+                                "refs/heads/release" + branch, false);
+                        return scheduler.pushAll();
+                    }
+                }));
+            }
+            for (final Future<List<RefPushResult>> future : futures) {
+                for (final RefPushResult result : future.get(30, TimeUnit.SECONDS)) {
+                    assertTrue("concurrent push failed: " + result, result.isSuccessful());
+                }
+            }
+            assertEquals("transport not shared", 1, scheduler.getTransportsCreated());
+        } finally {
+            callers.shutdown();
+            scheduler.close();
+        }
+    }
+}
@@ -0,0 +1,242 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.lib.CommitBuilder;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RefUpdateCoordinatorTest {
+
+    private static final int THREADS = 8;
+    private static final int UPDATES = 40;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Repository repository;
+    private final RefUpdateCoordinator coordinator = new RefUpdateCoordinator();
+
+    @Before
+    public void setUp() throws Exception {
+        repository = Git.init()
+                        .setBare(true)
+                        .setDirectory(tmp.newFolder("repo.git"))
+                        .call()
+                        .getRepository();
+    }
+
+    @After
+    public void tearDown() {
+        repository.close();
+    }
+
+    private ObjectId commit(final ObjectId parent, final String message) throws IOException {
+        final ObjectInserter inserter = repository.newObjectInserter();
+        try {
+            final CommitBuilder commit = new CommitBuilder();
+            final PersonIdent ident = new PersonIdent("Test", "test@example.com");
+            commit.setAuthor(ident);
+            commit.setCommitter(ident);
+            commit.setTreeId(DirCache.newInCore().writeTree(inserter));
+            commit.setMessage(message);
+            if (parent != null) {
+                commit.setParentId(parent);
+            }
+            final ObjectId id = inserter.insert(commit);
+            inserter.flush();
+            return id;
+        } finally {
+            inserter.release();
+        }
+    }
+
+    private int historyLength(final String ref) throws IOException {
+        final RevWalk walk = new RevWalk(repository);
+        try {
+            walk.markStart(walk.parseCommit(repository.resolve(ref)));
+            int commits = 0;
+            for (@SuppressWarnings("unused") final RevCommit commit : walk) {
+                commits++;
+            }
+            return commits;
+        } finally {
+            walk.release();
+        }
+    }
+
+    /**
+     * Runs {@code task} on {@link #THREADS} threads started at once.
+     */
+    private void concurrently(final Callable<Void> task) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        start.await();
+                        return task.call();
+                    }
+                }));
+            }
+            start.countDown();
+            for (final Future<Void> future : futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentWritersLoseNoUpdate() throws Exception {
+        concurrently(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (int i = 0; i < UPDATES; i++) {
+                    coordinator.update(repository, "refs/heads/master", new RefUpdateCoordinator.RefFunction() {
+                        @Override
+                        public ObjectId apply(final ObjectId current) throws IOException {
+                            return commit(current, Thread.currentThread().getName());
+                        }
+                    });
+                }
+                return null;
+            }
+        });
+        assertEquals("updates were lost", THREADS * UPDATES, historyLength(Constants.HEAD));
+        assertEquals("wrong number of commits", THREADS * UPDATES, coordinator.getCommits());
+    }
+
+    @Test
+    public void testTransactionsMoveRefsTogether() throws Exception {
+        concurrently(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                for (int i = 0; i < UPDATES; i++) {
+                    // left and right advance to the same commit, computed from whatever left is now
+                    final ObjectId[] next = new ObjectId[1];
+                    coordinator.begin(repository)
+                               .update("refs/heads/left", new RefUpdateCoordinator.RefFunction() {
+                                   @Override
+                                   public ObjectId apply(final ObjectId current) throws IOException {
+                                       next[0] = commit(current, "next");
+                                       return next[0];
+                                   }
+                               })
+                               .update("refs/heads/right", new RefUpdateCoordinator.RefFunction() {
+                                   @Override
+                                   public ObjectId apply(final ObjectId current) {
+                                       return next[0];
+                                   }
+                               })
+                               .commit();
+                }
+                return null;
+            }
+        });
+        assertEquals("refs diverged", repository.resolve("refs/heads/left"), repository.resolve("refs/heads/right"));
+        assertEquals("updates were lost", THREADS * UPDATES, historyLength("refs/heads/left"));
+    }
+
+    @Test
+    public void testExpectedValueMismatchChangesNothing() throws Exception {
+        final ObjectId first = commit(null, "first");
+        final ObjectId second = commit(first, "second");
+        assertTrue("new ref was not created",
+                coordinator.begin(repository).set("refs/heads/a", ObjectId.zeroId(), first).commit());
+        assertFalse("stale expectation was applied", coordinator.begin(repository)
+                                                                .set("refs/heads/b", ObjectId.zeroId(), second)
+                                                                .set("refs/heads/a", second, first)
+                                                                .commit());
+        assertNull("ref of failed transaction was created", repository.resolve("refs/heads/b"));
+
+        assertTrue("delete failed", coordinator.begin(repository).set("refs/heads/a", first, null).commit());
+        assertNull("ref was not deleted", repository.resolve("refs/heads/a"));
+    }
+
+    @Test
+    public void testRollsBackWhenAnotherProcessHoldsTheLock() throws Exception {
+        final ObjectId first = commit(null, "first");
+        final ObjectId second = commit(first, "second");
+        coordinator.begin(repository)
+                   .set("refs/heads/a", null, first)
+                   .set("refs/heads/b", null, first)
+                   .commit();
+
+        // a lock file held by another process
+        final File lock = new File(repository.getDirectory(), "refs/heads/b.lock");
+        assertTrue("lock file exists", lock.createNewFile());
+        coordinator.setMaxAttempts(2).setBackoffMillis(1, 1);
+        try {
+            coordinator.begin(repository)
+                       .set("refs/heads/a", first, second)
+                       .set("refs/heads/b", first, second)
+                       .commit();
+            fail("update succeeded while the ref was locked");
+        } catch (final IOException e) {
+            // expected
+        }
+        assertEquals("first ref was not rolled back", first, repository.resolve("refs/heads/a"));
+        assertEquals("wrong number of retries", 1, coordinator.getRetries());
+
+        assertTrue("lock file was removed", lock.delete());
+        assertTrue("update failed after the lock was released", coordinator.begin(repository)
+                                                                          .set("refs/heads/a", first, second)
+                                                                          .set("refs/heads/b", first, second)
+                                                                          .commit());
+        assertEquals("refs were not updated", Collections.nCopies(2, second),
+                Arrays.asList(repository.resolve("refs/heads/a"), repository.resolve("refs/heads/b")));
+    }
+
+    @Test
+    public void testRejectsTwoUpdatesOfTheSameRef() throws Exception {
+        final ObjectId first = commit(null, "first");
+        final ObjectId second = commit(first, "second");
+        coordinator.begin(repository).set("refs/heads/master", null, first).commit();
+        try {
+            // HEAD is a symbolic ref to master
+            coordinator.begin(repository)
+                       .set(Constants.HEAD, first, second)
+                       .set("refs/heads/master", first, second)
+                       .commit();
+            fail("two updates of master were accepted");
+        } catch (final IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals("master was changed", first, repository.resolve("refs/heads/master"));
+        assertEquals("rejected transaction was retried", 0, coordinator.getRetries());
+    }
+}
@@ -0,0 +1,159 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.submodule.SubmoduleStatusType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class ReferenceCacheTest {
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    private String uri;
+    private ReferenceCache cache;
+
+    /**
+     * Creates an upstream of random, incompressible files so that borrowed objects dominate the size of a
+     * clone.
+     */
+    @Before
+    public void setUp() throws Exception {
+        final Random random = new Random(42);
+        final GitFixture.RepositorySpec spec = fixture.repository("large");
+        for (int i = 0; i < 50; i++) {
+            final StringBuilder content = new StringBuilder();
+            for (int j = 0; j < 2000; j++) {
+                content.append(Long.toHexString(random.nextLong()));
+            }
+            spec.file("data/file" + i + ".txt", content.toString());
+        }
+        uri = spec.create();
+        cache = new ReferenceCache(fixture.newFolder("cache"));
+    }
+
+    @After
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    public void testClonesBorrowObjects() throws Exception {
+        final File mirror = cache.repositoryFor(uri);
+        final long cached = sizeOf(new File(mirror, "objects"));
+
+        for (final String name : new String[] { "first", "second" }) {
+            final SparseCloneResult clone = cache.cloneRepository(uri, new File(fixture.getRoot(), name));
+            final File objects = new File(clone.getDirectory(), ".git/objects");
+            assertTrue("clone does not borrow from the cache", new File(objects, "info/alternates").isFile());
+            assertTrue("clone stores " + sizeOf(objects) + " of " + cached + " bytes",
+                    sizeOf(objects) * 10 < cached);
+
+            final Git git = Git.open(clone.getDirectory());
+            try {
+                assertTrue("clone is not clean", git.status().call().isClean());
+            } finally {
+                git.getRepository().close();
+            }
+        }
+    }
+
+    @Test
+    public void testBackgroundFetchAndDissociate() throws Exception {
+        final File mirror = cache.repositoryFor(uri);
+        final Git upstream = fixture.cloneOf(uri, new File(fixture.getRoot(), "upstream").getPath());
+        try {
+            Files.write(new File(upstream.getRepository().getWorkTree(), "new.txt").toPath(),
+                    "new\n".getBytes("UTF-8"));
+            upstream.add().addFilepattern("new.txt").call();
+            final RevCommit commit = upstream.commit().setMessage("new commit").call();
+            upstream.push().call();
+
+            cache.startBackgroundFetch(50);
+            final Repository cached = new FileRepositoryBuilder().setGitDir(mirror).build();
+            try {
+                for (int i = 0; i < 100 && !commit.equals(cached.resolve(Constants.MASTER)); i++) {
+                    Thread.sleep(50);
+                }
+                assertEquals("mirror was not updated", commit, cached.resolve(Constants.MASTER));
+                assertNull("background fetch failed", cache.getLastError(uri));
+            } finally {
+                cached.close();
+            }
+        } finally {
+            upstream.getRepository().close();
+        }
+
+        final SparseCloneResult clone = cache.cloneRepository(uri, new File(fixture.getRoot(), "clone"));
+        final File gitDir = new File(clone.getDirectory(), Constants.DOT_GIT);
+        assertTrue("no objects were copied", ReferenceCache.dissociate(gitDir) > 0);
+        assertFalse("alternates remain", new File(gitDir, "objects/info/alternates").exists());
+        assertEquals("dissociated twice", 0, ReferenceCache.dissociate(gitDir));
+
+        final Repository repository = new FileRepositoryBuilder().setGitDir(gitDir).build();
+        final ObjectWalk walk = new ObjectWalk(repository);
+        try {
+            walk.markStart(walk.parseAny(repository.resolve(Constants.HEAD)));
+            int objects = 0;
+            for (RevCommit c = walk.next(); c != null; c = walk.next()) {
+                objects++;
+            }
+            for (RevObject o = walk.nextObject(); o != null; o = walk.nextObject()) {
+                assertTrue("object is missing", repository.hasObject(o));
+                repository.open(o).getSize();
+                objects++;
+            }
+            assertTrue("history is incomplete", objects > 50);
+        } finally {
+            walk.release();
+            repository.close();
+        }
+    }
+
+    @Test
+    public void testAddSubmodule() throws Exception {
+        final Git parent = fixture.cloneOf(fixture.cookbook().create(), new File(fixture.getRoot(), "parent").getPath());
+        try {
+            final SparseCloneResult submodule = cache.addSubmodule(parent, "libs/large", uri);
+            assertTrue("submodule does not borrow from the cache",
+                    new File(submodule.getDirectory(), ".git/objects/info/alternates").isFile());
+            assertEquals("submodule is not initialized", SubmoduleStatusType.INITIALIZED,
+                    parent.submoduleStatus().call().get("libs/large").getType());
+            assertEquals("gitlink is not staged", submodule.getHead(),
+                    parent.submoduleStatus().call().get("libs/large").getIndexId());
+        } finally {
+            parent.getRepository().close();
+        }
+    }
+
+    private static long sizeOf(final File file) {
+        if (file.isFile()) {
+            return file.length();
+        }
+        long size = 0;
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,120 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class RepositoryDiscoveryTest {
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    private File workspace;
+    private RepositoryDiscovery discovery;
+
+    @Before
+    public void setUp() throws Exception {
+        final String parent = fixture.repository("parent")
+                                     .file("README.md", "parent\n")
+                                     .submodule("libs/common", fixture.recipesCommon())
+                                     .commit("initial commit")
+                                     .create();
+        close(fixture.cloneOf(parent, "workspace/parent"));
+        close(fixture.cloneOf(fixture.cookbook().create(), "workspace/parent/vendor/cookbook"));
+        close(fixture.cloneOf(fixture.testRepository().create(), "workspace/other"));
+        workspace = new File(fixture.getRoot(), "workspace");
+        assertTrue("could not create directories", new File(workspace, "plain/deep/dir").mkdirs());
+        discovery = new RepositoryDiscovery(workspace).setThreads(4);
+        discovery.scan();
+    }
+
+    private static void close(final Git git) {
+        git.getRepository().close();
+    }
+
+    private static List<String> paths(final List<NestedRepository> repositories) {
+        final List<String> paths = new ArrayList<String>();
+        for (final NestedRepository repository : repositories) {
+            paths.add(repository.getPath());
+        }
+        return paths;
+    }
+
+    @Test
+    public void testFindsRepositoriesAndSubmodules() throws Exception {
+        final List<NestedRepository> repositories = discovery.getRepositories();
+        assertEquals("wrong repositories", Arrays.asList("other", "parent", "parent/libs/common",
+                "parent/vendor/cookbook"), paths(repositories));
+
+        final NestedRepository common = repositories.get(2);
+        assertNull("submodule is checked out", common.getGitDir());
+        assertTrue("submodule is not a gitlink", common.isGitlink());
+        assertEquals("wrong submodule name", "libs/common", common.getName());
+        assertNotNull("submodule url missing", common.getUrl());
+        assertEquals("wrong parent", "parent", common.getParent());
+
+        final NestedRepository cookbook = repositories.get(3);
+        assertEquals("wrong git directory", new File(workspace, "parent/vendor/cookbook/.git"), cookbook.getGitDir());
+        assertFalse("embedded repository is a gitlink", cookbook.isGitlink());
+        assertEquals("wrong parent", "parent", cookbook.getParent());
+        assertNull("top level repository has a parent", repositories.get(0).getParent());
+    }
+
+    @Test
+    public void testFindsByPathPrefix() throws Exception {
+        assertEquals("wrong repositories", Arrays.asList("parent/vendor/cookbook"),
+                paths(discovery.find("parent/vendor/")));
+        assertEquals("wrong repositories", Arrays.asList("parent", "parent/libs/common", "parent/vendor/cookbook"),
+                paths(discovery.find("parent")));
+        assertTrue("prefix matched part of a name", discovery.find("par").isEmpty());
+        assertTrue("repositories found in plain directory", discovery.find("plain").isEmpty());
+    }
+
+    @Test
+    public void testRefreshesIncrementally() throws Exception {
+        assertEquals("unchanged directories were listed", 0, discovery.refresh());
+
+        close(fixture.cloneOf(fixture.repository("new").file("a", "a\n").commit("a").create(),
+                "workspace/plain/deep/dir/new"));
+        assertEquals("wrong number of directories listed", 1, discovery.refresh());
+        assertEquals("new repository not found", Arrays.asList("plain/deep/dir/new"), paths(discovery.find("plain")));
+
+        FileUtils.delete(new File(workspace, "other"), FileUtils.RECURSIVE);
+        discovery.refresh();
+        assertTrue("deleted repository still found", discovery.find("other").isEmpty());
+
+        final Git parent = Git.open(new File(workspace, "parent"));
+        try {
+            parent.submoduleInit().call();
+            parent.submoduleUpdate().call();
+        } finally {
+            close(parent);
+        }
+        discovery.refresh();
+        final NestedRepository common = discovery.find("parent/libs/common").get(0);
+        assertNotNull("checked out submodule not found", common.getGitDir());
+        assertTrue("submodule is not a gitlink", common.isGitlink());
+
+        final Git git = Git.open(new File(workspace, "parent"));
+        try {
+            git.rm().addFilepattern("libs/common").setCached(true).call();
+        } finally {
+            close(git);
+        }
+        discovery.refresh();
+        assertFalse("removed gitlink still found", discovery.find("parent/libs/common").get(0).isGitlink());
+    }
+}
@@ -0,0 +1,161 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class RepositoryPoolTest {
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    private File first;
+    private File second;
+    private RepositoryPool pool;
+
+    @Before
+    public void setUp() throws IOException {
+        fixture.cookbook().create();
+        fixture.recipesCommon().create();
+        first = new File(fixture.getRoot(), "cookbook.git");
+        second = new File(fixture.getRoot(), "recipes-common.git");
+        pool = new RepositoryPool();
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    public void testSharesOpenRepository() throws IOException {
+        final RepositoryPool.Handle a = pool.acquire(first);
+        final RepositoryPool.Handle b = pool.acquire(new File(first, "../cookbook.git"));
+        assertSame("repository was opened twice", a.getRepository(), b.getRepository());
+        assertNotNull("head was not resolved", b.getGit().getRepository().resolve(Constants.HEAD));
+        assertEquals("wrong number of misses", 1, pool.getMisses());
+        assertEquals("wrong number of hits", 1, pool.getHits());
+        a.close();
+        a.close();
+        b.close();
+        assertEquals("idle repository was closed", 1, pool.size());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsedIdleRepository() throws IOException {
+        pool.setMaxIdle(1);
+        final Repository evicted;
+        try (RepositoryPool.Handle handle = pool.acquire(first)) {
+            evicted = handle.getRepository();
+        }
+        try (RepositoryPool.Handle handle = pool.acquire(second)) {
+            assertNotNull("head was not resolved", handle.getRepository().resolve(Constants.HEAD));
+        }
+        assertEquals("least recently used repository was not evicted", 1, pool.size());
+        assertEquals("wrong number of evictions", 1, pool.getEvictions());
+
+        try (RepositoryPool.Handle handle = pool.acquire(first)) {
+            assertNotSame("evicted repository was reused", evicted, handle.getRepository());
+        }
+        assertEquals("wrong number of misses", 3, pool.getMisses());
+    }
+
+    @Test
+    public void testNeverEvictsReferencedRepository() throws IOException {
+        pool.setMaxIdle(0)
+            .setIdleTimeoutMillis(0);
+        final RepositoryPool.Handle held = pool.acquire(first);
+        pool.acquire(second).close();
+        pool.evictIdle();
+        assertEquals("wrong number of repositories", 1, pool.size());
+        assertNotNull("held repository was closed", held.getRepository().resolve(Constants.HEAD));
+        held.close();
+        assertEquals("released repository was not evicted", 0, pool.size());
+    }
+
+    @Test
+    public void testEvictsAfterIdleTimeout() throws Exception {
+        pool.setIdleTimeoutMillis(50);
+        pool.acquire(first).close();
+        pool.evictIdle();
+        assertEquals("repository was evicted before the timeout", 1, pool.size());
+        Thread.sleep(100);
+        pool.evictIdle();
+        assertEquals("repository was not evicted after the timeout", 0, pool.size());
+    }
+
+    @Test
+    public void testConcurrentAcquiresOpenOnce() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        final List<Future<RepositoryPool.Handle>> futures = new ArrayList<Future<RepositoryPool.Handle>>();
+        for (int i = 0; i < 32; i++) {
+            futures.add(executor.submit(new Callable<RepositoryPool.Handle>() {
+                @Override
+                public RepositoryPool.Handle call() throws IOException {
+                    return pool.acquire(first);
+                }
+            }));
+        }
+        final Repository repository = futures.get(0).get().getRepository();
+        for (final Future<RepositoryPool.Handle> future : futures) {
+            final RepositoryPool.Handle handle = future.get();
+            assertSame("repository was opened twice", repository, handle.getRepository());
+            handle.close();
+        }
+        executor.shutdown();
+        assertEquals("wrong number of misses", 1, pool.getMisses());
+        assertEquals("wrong number of hits", 31, pool.getHits());
+    }
+
+    @Test
+    public void testMissingRepositoryIsNotPooled() {
+        try {
+            pool.acquire(new File(fixture.getRoot(), "missing.git"));
+            fail("missing repository was opened");
+        } catch (final IOException e) {
+            assertEquals("failed open stays in the pool", 0, pool.size());
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void testRuntimeFailureOnOpenIsReported() throws Exception {
+        pool.setMemoryProfile(new LowMemoryProfile(64 * 1024 * 1024) {
+            @Override
+            public void install() {
+                // keep the caches of the other tests
+            }
+
+            @Override
+            public void configure(final Repository repository) {
+                throw new IllegalStateException("broken profile");
+            }
+        });
+        for (int i = 0; i < 2; i++) {
+            try {
+                pool.acquire(first);
+                fail("repository opened despite failure");
+            } catch (final IOException e) {
+                assertEquals("wrong cause", "broken profile", e.getCause().getMessage());
+                assertEquals("failed open stays in the pool", 0, pool.size());
+            }
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.submodule.SubmoduleStatus;
+import org.eclipse.jgit.submodule.SubmoduleStatusType;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class SparseCloneTest {
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    private String uri;
+
+    @Before
+    public void setUp() throws Exception {
+        uri = fixture.repository("product")
+                     .file("README.md", "product\n")
+                     .file("docs/manual.txt", "a long manual\n")
+                     .file("src/main/App.java", "class App {}\n")
+                     .file("src/test/AppTest.java", "class AppTest {}\n")
+                     .submodule("libs/common", fixture.recipesCommon())
+                     .submodule("libs/other", fixture.cookbook())
+                     .commit("initial commit")
+                     .file("src/main/App.java", "class App { }\n")
+                     .commit("second commit")
+                     .create();
+    }
+
+    @Test
+    public void testChecksOutSelectedPathsOnly() throws Exception {
+        final SparseCloneResult result = new SparseClone().setURI(uri)
+                                                          .setDirectory(new File(fixture.getRoot(), "sparse"))
+                                                          .addPath("src/main")
+                                                          .addPath("libs/common/applepie")
+                                                          .call();
+        final File workTree = result.getDirectory();
+        assertTrue("selected file is missing", new File(workTree, "src/main/App.java").isFile());
+        assertFalse("unselected file was written", new File(workTree, "src/test/AppTest.java").exists());
+        assertFalse("unselected file was written", new File(workTree, "README.md").exists());
+        assertTrue(".gitmodules is missing", new File(workTree, ".gitmodules").isFile());
+        assertEquals("wrong number of files written", 2, result.getFilesWritten());
+        assertEquals("wrong number of bytes written",
+                "class App { }\n".length() + new File(workTree, ".gitmodules").length(), result.getBytesWritten());
+        assertTrue("nothing was transferred", result.getBytesTransferred() > 0);
+
+        assertEquals("wrong number of submodules", 1, result.getSubmodules().size());
+        final SparseCloneResult submodule = result.getSubmodules().get(0);
+        assertTrue("submodule file is missing", new File(workTree, "libs/common/applepie").isFile());
+        assertFalse("unselected submodule file was written", new File(workTree, "libs/common/README.md").exists());
+        assertFalse("unselected submodule was cloned", new File(workTree, "libs/other/.git").exists());
+        assertEquals("wrong total bytes written", result.getBytesWritten() + submodule.getBytesWritten(),
+                result.getTotalBytesWritten());
+
+        final Git git = Git.open(workTree);
+        try {
+            final Status status = git.status().call();
+            assertTrue("files that were not checked out are reported: " + status.getMissing(),
+                    status.getMissing().isEmpty());
+            assertTrue("index differs from head", status.getChanged().isEmpty() && status.getRemoved().isEmpty());
+            assertEquals("head is not the cloned branch", "refs/heads/master",
+                    git.getRepository().getFullBranch());
+
+            final SubmoduleStatus common = git.submoduleStatus().call().get("libs/common");
+            assertEquals("submodule is not initialized", SubmoduleStatusType.INITIALIZED, common.getType());
+            assertEquals("submodule is not at recorded commit", common.getIndexId(), submodule.getHead());
+        } finally {
+            git.getRepository().close();
+        }
+    }
+
+    @Test
+    public void testFullCloneWithoutSubmodules() throws Exception {
+        final SparseCloneResult sparse = new SparseClone().setURI(uri)
+                                                          .setDirectory(new File(fixture.getRoot(), "sparse"))
+                                                          .addPath("docs")
+                                                          .setSubmodules(false)
+                                                          .call();
+        final SparseCloneResult full = new SparseClone().setURI(uri)
+                                                        .setDirectory(new File(fixture.getRoot(), "full"))
+                                                        .setSubmodules(false)
+                                                        .call();
+        assertEquals("wrong number of files written", 5, full.getFilesWritten());
+        assertTrue("sparse checkout wrote as much as a full one", sparse.getBytesWritten() < full.getBytesWritten());
+        assertTrue("no submodule may be cloned", full.getSubmodules().isEmpty());
+        assertFalse("submodule was cloned", new File(full.getDirectory(), "libs/common/.git").exists());
+
+        final Git git = Git.open(full.getDirectory());
+        try {
+            assertTrue("full clone is not clean", git.status().call().getModified().isEmpty());
+            assertEquals("history is incomplete", full.getHead(), git.getRepository().resolve(Constants.HEAD));
+            assertEquals("other branches were fetched", Collections.singleton("master"),
+                    git.getRepository().getRefDatabase().getRefs("refs/remotes/origin/").keySet());
+            assertTrue("tags were fetched", git.getRepository().getTags().isEmpty());
+        } finally {
+            git.getRepository().close();
+        }
+    }
+}
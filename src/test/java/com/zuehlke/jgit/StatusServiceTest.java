@@ -0,0 +1,165 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StatusServiceTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Git git;
+    private File workTree;
+
+    private void writeFile(final String path, final String content) throws IOException {
+        final File file = new File(workTree, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+    }
+
+    @Before
+    public void setUp() throws IOException, GitAPIException {
+        workTree = tmp.newFolder("repo");
+        git = Git.init()
+                 .setDirectory(workTree)
+                 .call();
+        writeFile("a.txt", "a");
+        writeFile("dir/b.txt", "b");
+        git.add().addFilepattern(".").call();
+        git.commit().setMessage("initial commit").call();
+
+        final Git nested = Git.init()
+                              .setDirectory(new File(workTree, "nested"))
+                              .call();
+        writeFile("nested/inner.txt", "inner");
+        nested.add().addFilepattern("inner.txt").call();
+        nested.commit().setMessage("nested commit").call();
+        nested.getRepository().close();
+    }
+
+    @After
+    public void tearDown() {
+        git.getRepository().close();
+    }
+
+    private void assertSameStatus(final StatusSnapshot snapshot) throws GitAPIException {
+        final Status expected = git.status().call();
+        assertEquals("added differs", expected.getAdded(), snapshot.getAdded());
+        assertEquals("changed differs", expected.getChanged(), snapshot.getChanged());
+        assertEquals("removed differs", expected.getRemoved(), snapshot.getRemoved());
+        assertEquals("missing differs", expected.getMissing(), snapshot.getMissing());
+        assertEquals("modified differs", expected.getModified(), snapshot.getModified());
+        assertEquals("untracked differs", expected.getUntracked(), snapshot.getUntracked());
+        assertEquals("untracked folders differ", expected.getUntrackedFolders(), snapshot.getUntrackedFolders());
+        assertEquals("conflicting differs", expected.getConflicting(), snapshot.getConflicting());
+    }
+
+    private void changeWorkTreeIndexAndHead(final StatusService service) throws Exception {
+        writeFile("a.txt", "changed content");
+        writeFile("new.txt", "new");
+        writeFile("untracked/deep/c.txt", "c");
+        assertTrue("could not delete dir/b.txt", new File(workTree, "dir/b.txt").delete());
+        assertSameStatus(awaitStatus(service));
+
+        git.add().addFilepattern("new.txt").call();
+        assertSameStatus(awaitStatus(service));
+
+        git.commit().setMessage("second commit").call();
+        assertSameStatus(awaitStatus(service));
+
+        // changes inside the nested repository never show up in the parent
+        writeFile("nested/inner.txt", "changed inside nested");
+        writeFile("nested/other.txt", "other");
+        assertSameStatus(awaitStatus(service));
+
+        writeFile("untracked/deep/d.txt", "d");
+        writeFile(".gitignore", "untracked/\n");
+        assertSameStatus(awaitStatus(service));
+    }
+
+    /**
+     * Watch events arrive asynchronously, so give the service a moment to see them.
+     */
+    private StatusSnapshot awaitStatus(final StatusService service) throws Exception {
+        final Status expected = git.status().call();
+        StatusSnapshot snapshot = service.getStatus();
+        for (int i = 0; i < 50; i++) {
+            if (snapshot.getUntracked().equals(expected.getUntracked())
+                    && snapshot.getModified().equals(expected.getModified())) {
+                break;
+            }
+            Thread.sleep(100);
+            snapshot = service.getStatus();
+        }
+        return snapshot;
+    }
+
+    @Test
+    public void testPollMode() throws Exception {
+        final StatusService service = new StatusService(git.getRepository(), StatusService.Mode.POLL);
+        try {
+            final StatusSnapshot initial = service.getStatus();
+            assertSameStatus(initial);
+            assertSame("unchanged status was recomputed", initial, service.getStatus());
+            changeWorkTreeIndexAndHead(service);
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testWatchMode() throws Exception {
+        final StatusService service = new StatusService(git.getRepository(), StatusService.Mode.WATCH);
+        try {
+            assertSameStatus(service.getStatus());
+            changeWorkTreeIndexAndHead(service);
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testNestedRepositoryIsNotScanned() throws Exception {
+        final StatusService service = new StatusService(git.getRepository(), StatusService.Mode.POLL);
+        try {
+            final StatusSnapshot status = service.getStatus();
+            assertFalse("file of nested repository is untracked in parent",
+                    status.getUntracked().contains("nested/inner.txt"));
+        } finally {
+            service.close();
+        }
+    }
+
+    @Test
+    public void testPollModeSeesRewriteWithinTimestampGranularity() throws Exception {
+        final StatusService service = new StatusService(git.getRepository(), StatusService.Mode.POLL);
+        try {
+            writeFile("a.txt", "b");
+            assertSameStatus(service.getStatus());
+            // reverted with the same size and, as on a file system with coarse timestamps, the same
+            // modification time
+            final File file = new File(workTree, "a.txt");
+            final long lastModified = file.lastModified();
+            writeFile("a.txt", "a");
+            assertTrue("could not reset modification time", file.setLastModified(lastModified));
+            assertSameStatus(service.getStatus());
+        } finally {
+            service.close();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.submodule.SubmoduleStatusType;
+import org.eclipse.jgit.submodule.SubmoduleWalk;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class SubmoduleEngineTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Git superproject;
+    private RevCommit libACommit;
+
+    private Git createRepository(final String name) throws GitAPIException, IOException {
+        final Git git = Git.init()
+                           .setDirectory(tmp.newFolder(name))
+                           .call();
+        git.commit()
+           .setMessage("initial commit of " + name)
+           .call();
+        return git;
+    }
+
+    private static void addSubmodule(final Git parent, final Git module, final String path) throws GitAPIException {
+        parent.submoduleAdd()
+              .setURI(module.getRepository().getDirectory().getAbsolutePath())
+              .setPath(path)
+              .call()
+              .close();
+        parent.commit()
+              .setMessage("added submodule " + path)
+              .call();
+    }
+
+    /**
+     * Builds {@code superproject} with submodules {@code libA} and {@code libB}, where {@code libB} itself
+     * has the nested submodule {@code libC}. {@code libA} is recorded at a commit newer than its initial one.
+     */
+    @Before
+    public void setUp() throws GitAPIException, IOException {
+        final Git libA = createRepository("libA");
+        final Git libB = createRepository("libB");
+        final Git libC = createRepository("libC");
+        addSubmodule(libB, libC, "libC");
+
+        final Git source = createRepository("source");
+        addSubmodule(source, libA, "libA");
+        addSubmodule(source, libB, "libB");
+
+        libACommit = libA.commit()
+                         .setMessage("second commit of libA")
+                         .call();
+        final Git sourceLibA = Git.open(new File(source.getRepository().getWorkTree(), "libA"));
+        sourceLibA.pull().call();
+        sourceLibA.getRepository().close();
+        source.add().addFilepattern("libA").call();
+        source.commit().setMessage("updated libA").call();
+
+        superproject = Git.cloneRepository()
+                          .setURI(source.getRepository().getDirectory().getAbsolutePath())
+                          .setDirectory(tmp.newFolder("superproject"))
+                          .call();
+    }
+
+    @Test
+    public void testStatusOfFreshClone() throws IOException {
+        final Map<String, SubmoduleResult> results = new SubmoduleEngine().status(superproject.getRepository());
+
+        assertEquals("nested submodule of uninitialized module was listed", 2, results.size());
+        for (final SubmoduleResult result : results.values()) {
+            assertTrue("status failed: " + result, result.isSuccessful());
+            assertEquals("type of submodule is not UNINITIALIZED", SubmoduleStatusType.UNINITIALIZED,
+                    result.getStatus().getType());
+        }
+    }
+
+    @Test
+    public void testRecursiveUpdate() throws IOException {
+        final SubmoduleEngine engine = new SubmoduleEngine().setThreads(4);
+        Map<String, SubmoduleResult> results = engine.update(superproject.getRepository());
+
+        assertEquals("not all submodules were updated", 3, results.size());
+        for (final String path : new String[] { "libA", "libB", "libB/libC" }) {
+            final SubmoduleResult result = results.get(path);
+            assertTrue("update failed: " + result, result.isSuccessful());
+            assertTrue("submodule was not updated: " + result, result.isUpdated());
+            assertEquals("type of submodule is not INITIALIZED", SubmoduleStatusType.INITIALIZED,
+                    result.getStatus().getType());
+        }
+
+        final Repository libA = SubmoduleWalk.getSubmoduleRepository(superproject.getRepository(), "libA");
+        try {
+            assertEquals("libA is not at recorded commit", libACommit, libA.resolve(Constants.HEAD));
+        } finally {
+            libA.close();
+        }
+
+        results = engine.update(superproject.getRepository());
+        for (final SubmoduleResult result : results.values()) {
+            assertTrue("up-to-date submodule was updated again: " + result, !result.isUpdated());
+        }
+        assertEquals("status differs from update result", SubmoduleStatusType.INITIALIZED,
+                engine.status(superproject.getRepository()).get("libB/libC").getStatus().getType());
+    }
+
+    @Test
+    public void testFailureOfOneSubmoduleIsReported() throws IOException {
+        // a file where the clone of libA has to go, JGit fails on it with a NullPointerException
+        final File libA = new File(superproject.getRepository().getWorkTree(), "libA");
+        libA.delete();
+        assertTrue("could not create file", libA.createNewFile());
+
+        final Map<String, SubmoduleResult> results = new SubmoduleEngine().setThreads(2)
+                                                                          .update(superproject.getRepository());
+        assertFalse("clone over a file succeeded", results.get("libA").isSuccessful());
+        assertTrue("sibling of failed submodule was not updated: " + results.get("libB"),
+                results.get("libB").isSuccessful());
+        assertTrue("nested submodule was not updated: " + results.get("libB/libC"),
+                results.get("libB/libC").isSuccessful());
+    }
+}
@@ -8,7 +8,6 @@ import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Paths;
 import java.util.Map;
 
 import org.eclipse.jgit.api.Git;
@@ -21,98 +20,65 @@ import org.eclipse.jgit.api.errors.NoMessageException;
 import org.eclipse.jgit.api.errors.TransportException;
 import org.eclipse.jgit.api.errors.UnmergedPathsException;
 import org.eclipse.jgit.api.errors.WrongRepositoryStateException;
-import org.eclipse.jgit.internal.storage.file.FileRepository;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.submodule.SubmoduleStatus;
 import org.eclipse.jgit.submodule.SubmoduleStatusType;
-import org.junit.AfterClass;
+import org.junit.After;
 import org.junit.Before;
-import org.junit.BeforeClass;
-import org.junit.FixMethodOrder;
+import org.junit.Rule;
 import org.junit.Test;
-import org.junit.runners.MethodSorters;
 
-@FixMethodOrder(MethodSorters.NAME_ASCENDING)
 public class SubmoduleTest {
     
-    protected static String localPath = Paths.get(System.getProperty("java.io.tmpdir"), "jgittest").toString();
-    protected static String localCookbookPath = Paths.get(localPath, "cookbook").toString();
-    protected static String localRecipesCommonPath = Paths.get(localPath, "recipes-common").toString();
-    private static final String COOKBOOK_URI = "https://github.com/bej/cookbook.git";
-    private static final String RECIPES_COMMON_URI = "https://github.com/bej/recipes-common.git";
+    @Rule
+    public GitFixture fixture = new GitFixture();
     
-    private Repository localCookbookRepo = null;
+    private String localCookbookPath;
+    private GitFixture.RepositorySpec recipesCommon;
     private Git cookbookGit = null;
     private Git recipesCommonGit = null;
-    private Repository localRecipesCommonRepo = null;
     
-    public static void deleteFolder(final File folder) {
-        final File[] files = folder.listFiles();
-        if (files != null) { // some JVMs return null for empty dirs
-            for (final File f : files) {
-                if (f.isDirectory()) {
-                    deleteFolder(f);
-                } else {
-                    f.delete();
-                }
-            }
-        }
-        folder.delete();
+    @Before
+    public void setUp() throws IOException, GitAPIException {
+        localCookbookPath = new File(fixture.getRoot(), "cookbook").getPath();
+        cookbookGit = fixture.cloneOf(fixture.cookbook().create(), "cookbook");
+        recipesCommon = fixture.recipesCommon();
+        recipesCommonGit = fixture.cloneOf(recipesCommon.create(), "recipes-common");
     }
     
-    @AfterClass
-    @BeforeClass
-    public static void tearDown() {
-        
-        final File testDir = new File(localPath);
-        if (testDir.exists()) {
-            deleteFolder(testDir);
-        }
-        
-        final File existingLocalRepo = new File(localCookbookPath + ".git");
-        if (existingLocalRepo.exists()) {
-            deleteFolder(existingLocalRepo);
-        }
+    @After
+    public void tearDown() {
+        cookbookGit.getRepository().close();
+        recipesCommonGit.getRepository().close();
     }
     
-    @Before
-    public void setUp() throws IOException {
-        localCookbookRepo = new FileRepository(localCookbookPath + "/.git");
-        cookbookGit = new Git(localCookbookRepo);
-        
-        localRecipesCommonRepo = new FileRepository(localRecipesCommonPath + "/.git");
-        recipesCommonGit = new Git(localRecipesCommonRepo);
+    private void addSubmodule() throws GitAPIException, IOException {
+        final String uri = recipesCommonGit.getRepository().getDirectory().getCanonicalPath();
+        cookbookGit.submoduleAdd()
+                   .setURI(uri)
+                   .setPath("recipes-common")
+                   .call()
+                   .close();
     }
     
     @Test
     public void test_A_cloneRepos() throws GitAPIException, InvalidRemoteException, TransportException, IOException {
-        // clone the parent repository
-        System.out.println("clone repository to " + localCookbookPath);
-        Git gitObj = Git.cloneRepository()
-                        .setURI(COOKBOOK_URI)
-                        .setDirectory(new File(localCookbookPath))
-                        .call();
-        assertNotNull("cookbook repo is null", gitObj);
-        
-        gitObj = Git.cloneRepository()
-                    .setURI(RECIPES_COMMON_URI)
-                    .setDirectory(new File(localRecipesCommonPath))
-                    .call();
-        assertNotNull("recipes-common repo is null", gitObj);
+        assertNotNull("cookbook repo is null", cookbookGit);
+        assertNotNull("recipes-common repo is null", recipesCommonGit);
         
         final File workDir = cookbookGit.getRepository().getWorkTree();
         final File readme = new File(workDir, "README.md");
         assertTrue("there is no README.md", readme.isFile());
+        assertEquals("cookbook is not cloned to " + localCookbookPath, localCookbookPath, workDir.getPath());
     }
     
     @Test
     public void test_B_addSubmodule() throws InvalidRemoteException, TransportException, GitAPIException, IOException {
         // add recipes-common as submodule
         final String uri = recipesCommonGit.getRepository().getDirectory().getCanonicalPath();
-        System.out.println("add recipes-common as submodule from " + uri);
         
         final SubmoduleAddCommand addCommand = cookbookGit.submoduleAdd();
         addCommand.setURI(uri);
@@ -130,7 +96,9 @@ public class SubmoduleTest {
     }
     
     @Test
-    public void test_C_listSubmodules() throws GitAPIException {
+    public void test_C_listSubmodules() throws GitAPIException, IOException {
+        addSubmodule();
+        
         final Map<String, SubmoduleStatus> submodules = cookbookGit.submoduleStatus().call();
         
         assertFalse("there are no submodules", submodules.isEmpty());
@@ -142,6 +110,7 @@ public class SubmoduleTest {
     @Test
     public void test_D_updateSubmodule() throws NoHeadException, NoMessageException, UnmergedPathsException, ConcurrentRefUpdateException,
             WrongRepositoryStateException, GitAPIException, IOException {
+        addSubmodule();
         final RevCommit commit = recipesCommonGit.commit().setMessage("test commit").call();
         
         final File workDir = cookbookGit.getRepository().getWorkTree();
@@ -162,4 +131,26 @@ public class SubmoduleTest {
         
         assertEquals("submodule is not at head revision", commit, submoduleHead);
     }
+    
+    @Test
+    public void test_E_cloneWithSubmodules() throws GitAPIException, IOException {
+        final String uri = fixture.repository("cookbook-with-submodules")
+                                  .file("README.md", "cookbook\n")
+                                  .submodule("recipes-common", recipesCommon)
+                                  .commit("added recipes-common")
+                                  .create();
+        final Git git = fixture.cloneOf(uri, "cookbook-with-submodules");
+        try {
+            git.submoduleInit().call();
+            git.submoduleUpdate().call();
+            
+            final SubmoduleStatus status = git.submoduleStatus().call().get("recipes-common");
+            assertEquals("type of submodule is not INITIALIZED", SubmoduleStatusType.INITIALIZED, status.getType());
+            assertEquals("submodule is not at recorded revision", status.getIndexId(), status.getHeadId());
+            assertTrue("there is no recipes-common/applepie",
+                    new File(git.getRepository().getWorkTree(), "recipes-common/applepie").isFile());
+        } finally {
+            git.getRepository().close();
+        }
+    }
 }
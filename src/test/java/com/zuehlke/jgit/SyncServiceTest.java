@@ -0,0 +1,114 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class SyncServiceTest {
+
+    private static final String TRACKING = "refs/remotes/origin/master";
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    private Git upstream;
+    private Git local;
+    private SyncService sync;
+
+    @Before
+    public void setUp() throws Exception {
+        final String uri = fixture.cookbook().create();
+        upstream = fixture.cloneOf(uri, new File(fixture.getRoot(), "upstream").getPath());
+        local = fixture.cloneOf(uri, new File(fixture.getRoot(), "local").getPath());
+        sync = new SyncService(local.getRepository());
+    }
+
+    @After
+    public void tearDown() {
+        sync.close();
+        upstream.getRepository().close();
+        local.getRepository().close();
+    }
+
+    private RevCommit commit(final Git git, final String path, final String content) throws Exception {
+        Files.write(new File(git.getRepository().getWorkTree(), path).toPath(), content.getBytes("UTF-8"));
+        git.add().addFilepattern(path).call();
+        return git.commit().setMessage("change " + path).call();
+    }
+
+    private RevCommit push(final String path, final String content) throws Exception {
+        final RevCommit commit = commit(upstream, path, content);
+        upstream.push().call();
+        return commit;
+    }
+
+    @Test
+    public void testSkipsFetchWhenRemoteIsUnchanged() throws Exception {
+        final SyncResult result = sync.sync();
+        assertEquals("wrong status", SyncResult.Status.UP_TO_DATE, result.getStatus());
+        assertFalse("unchanged remote was fetched", result.isFetched());
+        assertEquals("remote was not checked", 1, sync.getRemoteChecks());
+        assertEquals("unchanged remote was fetched", 0, sync.getFetches());
+    }
+
+    @Test
+    public void testFastForwardWritesOnlyChangedFiles() throws Exception {
+        final File readme = new File(local.getRepository().getWorkTree(), "README.md");
+        assertTrue("could not set time", readme.setLastModified(1000000000000L));
+        final RevCommit pushed = push("pancakes", "more eggs\n");
+
+        final SyncResult result = sync.sync();
+        assertEquals("wrong status", SyncResult.Status.FAST_FORWARD, result.getStatus());
+        assertTrue("new commit was not fetched", result.isFetched());
+        assertEquals("head was not moved", pushed, local.getRepository().resolve(Constants.HEAD));
+        assertEquals("wrong number of updated paths", 1, result.getUpdatedPaths());
+        assertEquals("file was not updated", "more eggs\n", new String(
+                Files.readAllBytes(new File(local.getRepository().getWorkTree(), "pancakes").toPath()), "UTF-8"));
+        assertEquals("unchanged file was written", 1000000000000L, readme.lastModified());
+        assertTrue("work tree is not clean", local.status().call().isClean());
+
+        assertEquals("second sync did something", SyncResult.Status.UP_TO_DATE, sync.sync().getStatus());
+        assertEquals("second sync fetched", 1, sync.getFetches());
+    }
+
+    @Test
+    public void testPrefetchKeepsTrackingRefWarm() throws Exception {
+        final RevCommit pushed = push("pancakes", "prefetched\n");
+        sync.startPrefetch(20);
+        for (int i = 0; i < 250 && !pushed.equals(local.getRepository().resolve(TRACKING)); i++) {
+            Thread.sleep(20);
+        }
+        assertEquals("tracking ref was not prefetched", pushed, local.getRepository().resolve(TRACKING));
+        assertNull("prefetch failed", sync.getLastPrefetchError());
+        sync.close();
+
+        final SyncResult result = sync.sync();
+        assertEquals("wrong status", SyncResult.Status.FAST_FORWARD, result.getStatus());
+        assertFalse("sync fetched although prefetched", result.isFetched());
+        assertEquals("head was not moved", pushed, local.getRepository().resolve(Constants.HEAD));
+    }
+
+    @Test
+    public void testMergesDivergedBranches() throws Exception {
+        push("pancakes", "upstream change\n");
+        commit(local, "README.md", "local change\n");
+
+        final SyncResult result = sync.sync();
+        assertEquals("wrong status", SyncResult.Status.MERGED, result.getStatus());
+        assertEquals("merge failed", MergeResult.MergeStatus.MERGED, result.getMergeResult().getMergeStatus());
+        assertEquals("merge commit is not head", result.getNewHead(), local.getRepository().resolve(Constants.HEAD));
+    }
+}
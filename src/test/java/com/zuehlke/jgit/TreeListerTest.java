@@ -0,0 +1,129 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TreeListerTest {
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private Git git;
+    private RevCommit commit;
+    private TreeLister lister;
+
+    /**
+     * Collects {@code <path> <mode> <id>} lines.
+     */
+    private static class Collector implements TreeEntryVisitor {
+
+        final Set<String> entries = Collections.synchronizedSet(new TreeSet<String>());
+
+        @Override
+        public void visit(final byte[] path, final int pathLength, final int mode, final AnyObjectId id) {
+            entries.add(RawParseUtils.decode(path, 0, pathLength) + " " + FileMode.fromBits(mode) + " " + id.name());
+        }
+    }
+
+    private void writeFile(final String path, final String content) throws IOException {
+        final File file = new File(git.getRepository().getWorkTree(), path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes("UTF-8"));
+    }
+
+    @Before
+    public void setUp() throws IOException, GitAPIException {
+        git = Git.init()
+                 .setDirectory(tmp.newFolder("repo"))
+                 .call();
+        writeFile("README.md", "readme");
+        writeFile("src/main/App.java", "app");
+        writeFile("src/main/deep/nested/Util.java", "util");
+        writeFile("src/mainframe/Legacy.java", "legacy");
+        writeFile("src/test/AppTest.java", "test");
+        writeFile("zz/last.txt", "last");
+        git.add().addFilepattern(".").call();
+        commit = git.commit().setMessage("initial commit").call();
+        lister = new TreeLister(git.getRepository());
+    }
+
+    @After
+    public void tearDown() {
+        lister.close();
+        git.getRepository().close();
+    }
+
+    private Set<String> treeWalkEntries(final String prefix) throws IOException {
+        final Set<String> entries = new TreeSet<String>();
+        final TreeWalk treeWalk = new TreeWalk(git.getRepository());
+        try {
+            treeWalk.addTree(commit.getTree());
+            treeWalk.setRecursive(true);
+            while (treeWalk.next()) {
+                final String path = treeWalk.getPathString();
+                if (prefix == null || path.startsWith(prefix + "/")) {
+                    entries.add(path + " " + treeWalk.getFileMode(0) + " " + treeWalk.getObjectId(0).name());
+                }
+            }
+        } finally {
+            treeWalk.release();
+        }
+        return entries;
+    }
+
+    @Test
+    public void testListMatchesTreeWalk() throws IOException {
+        final Collector collector = new Collector();
+        lister.list(commit, null, collector);
+
+        assertEquals("listing differs from TreeWalk", treeWalkEntries(null), collector.entries);
+        assertEquals("wrong number of entries", 6, collector.entries.size());
+    }
+
+    @Test
+    public void testPrefixDoesNotMatchSiblingWithSameStart() throws IOException {
+        final Collector collector = new Collector();
+        lister.list(commit.getTree(), "src/main/", collector);
+
+        assertEquals("listing differs from TreeWalk", treeWalkEntries("src/main"), collector.entries);
+        assertEquals("wrong number of entries below src/main", 2, collector.entries.size());
+    }
+
+    @Test
+    public void testParallelListing() throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            Collector collector = new Collector();
+            lister.list(commit, null, collector, executor);
+            assertEquals("parallel listing differs from TreeWalk", treeWalkEntries(null), collector.entries);
+
+            collector = new Collector();
+            lister.list(commit, "src/main/deep", collector, executor);
+            assertEquals("parallel prefix listing differs from TreeWalk", treeWalkEntries("src/main/deep"),
+                    collector.entries);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
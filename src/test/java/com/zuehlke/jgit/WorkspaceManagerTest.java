@@ -0,0 +1,184 @@
+package com.zuehlke.jgit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.Status;
+import org.eclipse.jgit.api.errors.RefNotFoundException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class WorkspaceManagerTest {
+
+    private static final int FILES = 300;
+
+    @Rule
+    public GitFixture fixture = new GitFixture();
+
+    private final WorkspaceManager manager = new WorkspaceManager().setThreads(4);
+    private Git git;
+    private File workTree;
+
+    @Before
+    public void setUp() throws Exception {
+        final GitFixture.RepositorySpec spec = fixture.repository("workspace")
+                                                      .file(".gitignore", "*.log\n")
+                                                      .file("README.md", "workspace\n");
+        for (int i = 0; i < FILES; i++) {
+            spec.file("src/module" + i % 7 + "/File" + i + ".java", "class File" + i + " {}\n");
+        }
+        git = manager.cloneRepository(spec.create(), new File(fixture.getRoot(), "workspace"), null);
+        workTree = git.getRepository().getWorkTree();
+    }
+
+    @After
+    public void tearDown() {
+        git.getRepository().close();
+    }
+
+    private void write(final String path, final String content) throws Exception {
+        final Path file = new File(workTree, path).toPath();
+        Files.createDirectories(file.getParent());
+        Files.write(file, content.getBytes("UTF-8"));
+    }
+
+    private String read(final String path) throws Exception {
+        return new String(Files.readAllBytes(new File(workTree, path).toPath()), "UTF-8");
+    }
+
+    @Test
+    public void testParallelCloneIsClean() throws Exception {
+        assertEquals("wrong content", "class File42 {}\n", read("src/module0/File42.java"));
+        final Status status = git.status().call();
+        assertTrue("clone is not clean: " + status.getModified() + status.getMissing() + status.getUntracked(),
+                status.isClean());
+        assertEquals("index is incomplete", FILES + 2, git.getRepository().readDirCache().getEntryCount());
+    }
+
+    @Test
+    public void testResetToClean() throws Exception {
+        write("README.md", "changed\n");
+        assertTrue("could not delete", new File(workTree, "src/module1/File1.java").delete());
+        write("notes.txt", "untracked\n");
+        write("scratch/deep/tmp.txt", "untracked\n");
+        write("scratch/build.log", "ignored\n");
+        write("build.log", "ignored\n");
+        assertTrue("could not delete", new File(workTree, "src/module2/File2.java").delete());
+        write("src/module2/File2.java/inner.txt", "directory replacing a file\n");
+        write("nested/.git/HEAD", "ref: refs/heads/master\n");
+
+        final WorkspaceResult result = manager.resetToClean(git.getRepository());
+        assertEquals("wrong files restored",
+                new HashSet<String>(Arrays.asList("README.md", "src/module1/File1.java", "src/module2/File2.java")),
+                result.getRestored());
+        assertEquals("wrong files deleted",
+                new HashSet<String>(Arrays.asList("notes.txt", "scratch/deep", "scratch/deep/tmp.txt",
+                        "src/module2/File2.java", "src/module2/File2.java/inner.txt")),
+                result.getDeleted());
+
+        assertEquals("modified file was not restored", "workspace\n", read("README.md"));
+        assertEquals("replaced file was not restored", "class File2 {}\n", read("src/module2/File2.java"));
+        assertTrue("ignored file was deleted", new File(workTree, "build.log").isFile());
+        assertTrue("ignored file in untracked directory was deleted",
+                new File(workTree, "scratch/build.log").isFile());
+        assertTrue("nested repository was deleted", new File(workTree, "nested/.git/HEAD").isFile());
+        final Status status = git.status().call();
+        assertTrue("workspace is not clean: " + status.getModified() + status.getMissing(),
+                status.getModified().isEmpty() && status.getMissing().isEmpty());
+        assertEquals("wrong untracked files", Collections.singleton("nested"), status.getUntracked());
+        assertFalse("clean workspace was changed", manager.resetToClean(git.getRepository()).isChanged());
+
+        manager.setRemoveIgnored(true);
+        assertEquals("ignored files were not deleted", new HashSet<String>(Arrays.asList("build.log",
+                "scratch/build.log", "scratch")), manager.resetToClean(git.getRepository()).getDeleted());
+        assertFalse("emptied directory remains", new File(workTree, "scratch").exists());
+    }
+
+    @Test
+    public void testCheckoutAndDelete() throws Exception {
+        final File outside = fixture.newFile("outside.txt");
+        Files.createSymbolicLink(new File(workTree, "src/link").toPath(), outside.toPath());
+        manager.delete(new File(workTree, "src"));
+        assertFalse("directory was not deleted", new File(workTree, "src").exists());
+        assertTrue("symbolic link was followed", outside.isFile());
+
+        assertEquals("wrong number of files written", FILES + 2, manager.checkout(git.getRepository()));
+        assertEquals("wrong content", "class File299 {}\n", read("src/module5/File299.java"));
+        assertTrue("checkout is not clean", git.status().call().isClean());
+    }
+
+    /**
+     * @return a remote with {@code master} at the second of two commits and {@code branch} at the first,
+     *         HEAD pointing to {@code head}
+     */
+    private String twoBranchRemote(final String branch, final String head) throws Exception {
+        final String uri = fixture.repository("branches")
+                                  .file("version", "1\n")
+                                  .commit("first")
+                                  .file("version", "2\n")
+                                  .commit("second")
+                                  .create();
+        final Repository remote = new FileRepositoryBuilder().setGitDir(new File(new URI(uri))).build();
+        try {
+            final RefUpdate update = remote.updateRef(Constants.R_HEADS + branch);
+            update.setNewObjectId(remote.resolve(Constants.MASTER + "~1"));
+            assertEquals("could not create " + branch, RefUpdate.Result.NEW, update.update());
+            remote.updateRef(Constants.HEAD).link(Constants.R_HEADS + head);
+        } finally {
+            remote.close();
+        }
+        return uri;
+    }
+
+    @Test
+    public void testClonesDefaultBranchOtherThanMaster() throws Exception {
+        final Git clone = manager.cloneRepository(twoBranchRemote("main", "main"),
+                new File(fixture.getRoot(), "main"), null);
+        try {
+            assertEquals("wrong branch", Constants.R_HEADS + "main", clone.getRepository().getFullBranch());
+            assertEquals("wrong content", "1\n", new String(Files.readAllBytes(
+                    new File(clone.getRepository().getWorkTree(), "version").toPath()), "UTF-8"));
+            assertTrue("clone is not clean", clone.status().call().isClean());
+            assertEquals("branch does not track origin", "origin",
+                    clone.getRepository().getConfig().getString("branch", "main", "remote"));
+        } finally {
+            clone.close();
+        }
+    }
+
+    @Test
+    public void testClonesRequestedBranch() throws Exception {
+        final Git clone = manager.cloneRepository(twoBranchRemote("develop", Constants.MASTER),
+                new File(fixture.getRoot(), "develop"), "develop");
+        try {
+            assertEquals("wrong branch", Constants.R_HEADS + "develop", clone.getRepository().getFullBranch());
+            assertEquals("wrong content", "1\n", new String(Files.readAllBytes(
+                    new File(clone.getRepository().getWorkTree(), "version").toPath()), "UTF-8"));
+            assertTrue("clone is not clean", clone.status().call().isClean());
+        } finally {
+            clone.close();
+        }
+    }
+
+    @Test(expected = RefNotFoundException.class)
+    public void testRejectsUnknownBranch() throws Exception {
+        manager.cloneRepository(twoBranchRemote("develop", Constants.MASTER), new File(fixture.getRoot(), "none"),
+                "missing");
+    }
+}